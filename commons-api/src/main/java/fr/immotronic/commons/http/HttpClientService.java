@@ -74,7 +74,7 @@ public interface HttpClientService
 	 * Get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param headers
 	 *            A set of HTTP headers to send within the request. No headers will be sent if this
 	 *            argument is null.
@@ -92,7 +92,7 @@ public interface HttpClientService
 	 * Asynchronously get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param headers
 	 *            A set of HTTP headers to send within the request. No headers will be sent if this
 	 *            argument is null.
@@ -110,7 +110,7 @@ public interface HttpClientService
 	 * Get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param accept
 	 *            A comma separated list of acceptable media-type in response. This value will
 	 *            override 'Accept' header provided in <i>otherHeaders</i> argument, if any.
@@ -131,7 +131,7 @@ public interface HttpClientService
 	 * Asynchronously get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param accept
 	 *            A comma separated list of acceptable media-type in response. This value will
 	 *            override 'Accept' header provided in <i>otherHeaders</i> argument, if any.
@@ -155,7 +155,7 @@ public interface HttpClientService
 	 * Get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param accept
 	 *            A list of acceptable media-type in response. One media-type by array item. This
 	 *            value will override 'Accept' header provided in <i>otherHeaders</i> argument, if
@@ -177,7 +177,7 @@ public interface HttpClientService
 	 * Asynchronously get the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param accept
 	 *            A list of acceptable media-type in response. One media-type by array item. This
 	 *            value will override 'Accept' header provided in <i>otherHeaders</i> argument, if
@@ -202,7 +202,7 @@ public interface HttpClientService
 	 * Get the resource available at the given URL and protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>headers</i> argument, if any.
@@ -224,7 +224,7 @@ public interface HttpClientService
 	 * authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>headers</i> argument, if any.
@@ -248,7 +248,7 @@ public interface HttpClientService
 	 * Get the resource available at the given URL and protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -276,7 +276,7 @@ public interface HttpClientService
 	 * authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -305,7 +305,7 @@ public interface HttpClientService
 	 * protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -334,7 +334,7 @@ public interface HttpClientService
 	 * resources protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to get. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -366,7 +366,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -395,7 +395,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -425,7 +425,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -458,7 +458,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -492,7 +492,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -526,7 +526,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param contentType
 	 *            The content-type that describe the request content. . This value will override
 	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
@@ -562,7 +562,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -596,7 +596,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -631,7 +631,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -669,7 +669,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -708,7 +708,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -747,7 +747,7 @@ public interface HttpClientService
 	 * 'Content-Length' header, it will be overridden.
 	 * 
 	 * @param url
-	 *            The URL of the resource to post to. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -779,11 +779,127 @@ public interface HttpClientService
 
 
 
+	/**
+	 * Post content read from a buffer, a file or a stream to the resource available at the given
+	 * URL, without loading it in memory beforehand.
+	 * 
+	 * The 'Content-Length' header will be automatically added if the content length is known;
+	 * otherwise, the content is sent with the chunked transfer coding. If <i>headers</i> argument
+	 * provide a 'Content-Length' or a 'Transfer-Encoding' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @return An instance of HttpResponse object that contains the server response, or null if at
+	 *         least one of given arguments is invalid.
+	 */
+	public HttpResponse post(	URL url,
+								String contentType,
+								HttpRequestBody content,
+								Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Post content read from a buffer, a file or a stream to the resource available at the given
+	 * URL, without loading it in memory beforehand. This method facilitate access to resources
+	 * protected by HTTP access authentication.
+	 * 
+	 * The 'Content-Length' header will be automatically added if the content length is known;
+	 * otherwise, the content is sent with the chunked transfer coding. If <i>headers</i> argument
+	 * provide a 'Content-Length' or a 'Transfer-Encoding' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @return An instance of HttpResponse object that contains the server response, or null if at
+	 *         least one of given arguments is invalid.
+	 */
+	public HttpResponse post(	URL url,
+								HttpCredential credential,
+								String contentType,
+								HttpRequestBody content,
+								String[] accept,
+								Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Asynchronously post content read from a buffer, a file or a stream to the resource
+	 * available at the given URL, without loading it in memory beforehand. This method facilitate
+	 * access to resources protected by HTTP access authentication.
+	 * 
+	 * The 'Content-Length' header will be automatically added if the content length is known;
+	 * otherwise, the content is sent with the chunked transfer coding. If <i>headers</i> argument
+	 * provide a 'Content-Length' or a 'Transfer-Encoding' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void post(	URL url,
+						HttpCredential credential,
+						String contentType,
+						HttpRequestBody content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler);
+
+
+
+
+
+
 	/**
 	 * Delete the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to delete. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
 	 * @param headers
 	 *            A set of HTTP headers to send within the request. No headers will be sent if this
 	 *            argument is null.
@@ -801,7 +917,7 @@ public interface HttpClientService
 	 * Asynchronously delete the resource available at the given URL.
 	 * 
 	 * @param url
-	 *            The URL of the resource to delete. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
 	 * @param headers
 	 *            A set of HTTP headers to send within the request. No headers will be sent if this
 	 *            argument is null.
@@ -820,7 +936,7 @@ public interface HttpClientService
 	 * protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to delete. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -843,7 +959,7 @@ public interface HttpClientService
 	 * to resources protected by HTTP access authentication.
 	 * 
 	 * @param url
-	 *            The URL of the resource to delete. The URL protocol MUST be HTTP.
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
 	 * @param credential
 	 *            the login and password required by HTTP access authentication. This value will
 	 *            override 'Authorization' header provided in <i>otherHeaders</i> argument, if any.
@@ -857,4 +973,880 @@ public interface HttpClientService
 						HttpCredential credential,
 						Map<String, String> otherHeaders,
 						HttpResponseHandler responseHandler);
+
+
+
+
+
+
+	/**
+	 * Get the headers of the resource available at the given URL, without its content: the
+	 * response has the headers the response to a GET request would have, but no content. This is a
+	 * cheap way to check whether a resource changed, using its 'ETag' and 'Last-Modified' headers,
+	 * or to get its size, using HttpResponse.getResourceLength().
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse head(URL url, HttpCredential credential, Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Asynchronously get the headers of the resource available at the given URL, without its
+	 * content.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void head(	URL url,
+						HttpCredential credential,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler);
+
+
+
+
+
+	/**
+	 * Store content as the resource available at the given URL, replacing the resource if it
+	 * exists. PUT requests are idempotent: they are retried as the request policy allows.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>otherHeaders</i> argument
+	 * provide a 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to put. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content, or null. This value will
+	 *            override 'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse put(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Asynchronously store content as the resource available at the given URL, replacing the
+	 * resource if it exists.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>otherHeaders</i> argument
+	 * provide a 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to put. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content, or null. This value will
+	 *            override 'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void put(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler);
+
+
+
+
+
+	/**
+	 * Store content as the resource available at the given URL, reading the content from its
+	 * source while the request is sent, rather than loading it in memory beforehand.
+	 * 
+	 * @param url
+	 *            The URL of the resource to put. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content, or null. This value will
+	 *            override 'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param content
+	 *            the request content, read from a buffer, a file or a stream.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse put(	URL url,
+								HttpCredential credential,
+								String contentType,
+								HttpRequestBody content,
+								String[] accept,
+								Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Partially modify the resource available at the given URL with the given content, which
+	 * format is given by its content type. PATCH requests are not idempotent: they are retried only
+	 * if the request policy allows retries of non-idempotent requests.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>otherHeaders</i> argument
+	 * provide a 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to modify. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content, or null. This value will
+	 *            override 'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse patch(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Asynchronously and partially modify the resource available at the given URL with the given
+	 * content, which format is given by its content type.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>otherHeaders</i> argument
+	 * provide a 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to modify. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content, or null. This value will
+	 *            override 'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void patch(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler);
+
+
+
+
+
+	/**
+	 * Get a part of the resource available at the given URL, for instance to resume an interrupted
+	 * download. If the server supports ranges, the response has the 206 (Partial Content) status
+	 * and HttpResponse.getContentOffset() gives the position of its content in the resource.
+	 * Otherwise, the server answers with the complete resource, with the 200 (Ok) status; if the
+	 * range is beyond the end of the resource, the response has the 416 (Range Not Satisfiable)
+	 * status.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @param offset
+	 *            the position in bytes, in the resource, of the first byte to get.
+	 * @param length
+	 *            the number of bytes to get, or -1 to get the resource up to its end.
+	 * @param ifRange
+	 *            the entity tag or the last modification date, as sent by the server in the 'ETag'
+	 *            or the 'Last-Modified' header, of the resource which part has already been
+	 *            received, or null. If the resource has changed since, the server answers with the
+	 *            complete resource, with a 200 (Ok) status, rather than with the requested part.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse getRange(	URL url,
+									HttpCredential credential,
+									String[] accept,
+									Map<String, String> otherHeaders,
+									long offset,
+									long length,
+									String ifRange);
+
+
+
+
+
+	/**
+	 * Get a part of the resource available at the given URL, without reading its content in
+	 * memory. See getRange(URL, HttpCredential, String[], Map, long, long, String). The response
+	 * MUST be closed once its content has been processed.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @param offset
+	 *            the position in bytes, in the resource, of the first byte to get.
+	 * @param length
+	 *            the number of bytes to get, or -1 to get the resource up to its end.
+	 * @param ifRange
+	 *            the entity tag or the last modification date, as sent by the server in the 'ETag'
+	 *            or the 'Last-Modified' header, of the resource which part has already been
+	 *            received, or null. If the resource has changed since, the server answers with the
+	 *            complete resource, with a 200 (Ok) status, rather than with the requested part.
+	 * @return An instance of HttpStreamedResponse object that contains the server response.
+	 */
+	public HttpStreamedResponse getStreamedRange(	URL url,
+													HttpCredential credential,
+													String[] accept,
+													Map<String, String> otherHeaders,
+													long offset,
+													long length,
+													String ifRange);
+
+
+
+
+
+	/**
+	 * Asynchronously get the resource available at the given URL.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param headers
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture getAsync(URL url, Map<String, String> headers);
+
+
+
+
+
+
+	/**
+	 * Asynchronously get the resource available at the given URL. This method facilitate access to
+	 * resources protected by HTTP access authentication.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture getAsync(	URL url,
+										HttpCredential credential,
+										String[] accept,
+										Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Asynchronously post content to the resource available at the given URL.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>headers</i> argument provide a
+	 * 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture postAsync(URL url,
+										String contentType,
+										byte[] content,
+										Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Asynchronously post content to the resource available at the given URL. This method
+	 * facilitate access to resources protected by HTTP access authentication.
+	 * 
+	 * The 'Content-Length' header will be automatically added. If <i>headers</i> argument provide a
+	 * 'Content-Length' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture postAsync(URL url,
+										HttpCredential credential,
+										String contentType,
+										byte[] content,
+										String[] accept,
+										Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Asynchronously post content read from a buffer, a file or a stream to the resource
+	 * available at the given URL, without loading it in memory beforehand.
+	 * 
+	 * The 'Content-Length' header will be automatically added if the content length is known;
+	 * otherwise, the content is sent with the chunked transfer coding. If <i>headers</i> argument
+	 * provide a 'Content-Length' or a 'Transfer-Encoding' header, it will be overridden.
+	 * 
+	 * @param url
+	 *            The URL of the resource to post to. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The content-type that describe the request content. This value will override
+	 *            'Content-Type' header provided in <i>headers</i> argument, if any.
+	 * @param content
+	 *            the request content.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No other headers than
+	 *            'Content-Length' and 'Content-Type' will be sent if this argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture postAsync(URL url,
+										HttpCredential credential,
+										String contentType,
+										HttpRequestBody content,
+										String[] accept,
+										Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Asynchronously delete the resource available at the given URL.
+	 * 
+	 * @param url
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
+	 * @param headers
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture deleteAsync(URL url, Map<String, String> headers);
+
+
+
+
+
+
+	/**
+	 * Asynchronously delete the resource available at the given URL. This method facilitate access
+	 * to resources protected by HTTP access authentication.
+	 * 
+	 * @param url
+	 *            The URL of the resource to delete. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture deleteAsync(	URL url,
+											HttpCredential credential,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Get the resource available at the given URL, without reading its content in memory. The
+	 * content is read from the returned response as it is received, and the response MUST be
+	 * closed once its content has been processed.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param headers
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpStreamedResponse object that contains the server response.
+	 */
+	public HttpStreamedResponse getStreamed(URL url, Map<String, String> headers);
+
+
+
+
+
+
+	/**
+	 * Get the resource available at the given URL, without reading its content in memory. The
+	 * content is read from the returned response as it is received, and the response MUST be
+	 * closed once its content has been processed.
+	 * 
+	 * @param url
+	 *            The URL of the resource to get. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null.
+	 * @return An instance of HttpStreamedResponse object that contains the server response.
+	 */
+	public HttpStreamedResponse getStreamed(URL url,
+											HttpCredential credential,
+											String[] accept,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Prepare a GET request which headers are computed once, to be sent any number of times.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest prepareGet(	HttpCredential credential,
+											String[] accept,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Prepare a POST request which headers are computed once, to be sent any number of times with
+	 * different contents.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The media-type of the contents to send, or null. This value will override
+	 *            'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest preparePost(	HttpCredential credential,
+											String contentType,
+											String[] accept,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Prepare a DELETE request which headers are computed once, to be sent any number of times.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest prepareDelete(	HttpCredential credential,
+												Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Prepare a HEAD request which headers are computed once, to be sent any number of times.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest prepareHead(	HttpCredential credential,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Prepare a PUT request which headers are computed once, to be sent any number of times.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The media-type of the contents to send, or null. This value will override
+	 *            'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest preparePut(	HttpCredential credential,
+											String contentType,
+											String[] accept,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Prepare a PATCH request which headers are computed once, to be sent any number of times.
+	 * 
+	 * @param credential
+	 *            the login and password required by HTTP access authentication, or null. This
+	 *            value will override 'Authorization' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param contentType
+	 *            The media-type of the contents to send, or null. This value will override
+	 *            'Content-Type' header provided in <i>otherHeaders</i> argument, if any.
+	 * @param accept
+	 *            A list of acceptable media-type in response, or null. One media-type by array
+	 *            item. This value will override 'Accept' header provided in <i>otherHeaders</i>
+	 *            argument, if any.
+	 * @param otherHeaders
+	 *            A set of HTTP headers to send within the request. No headers will be sent if this
+	 *            argument is null. The map is copied: later changes are not taken into account.
+	 * @return an immutable HttpPreparedRequest.
+	 */
+	public HttpPreparedRequest preparePatch(	HttpCredential credential,
+												String contentType,
+												String[] accept,
+												Map<String, String> otherHeaders);
+
+
+
+
+
+	/**
+	 * Get the statistics of this HTTP client, such as connection pool usage. The returned object
+	 * is a live view: its values change as requests are performed.
+	 * 
+	 * @return the statistics of this HTTP client.
+	 */
+	public HttpClientStatistics getStatistics();
+
+
+
+
+
+
+	/**
+	 * Get the policy applied to requests to hosts that have no specific policy, as configured
+	 * by the 'http.policy.*' properties of the service.
+	 * 
+	 * @return the default request policy.
+	 */
+	public HttpRequestPolicy getDefaultPolicy();
+
+
+
+
+
+
+	/**
+	 * Set the policy applied to requests to the given host, in place of the default policy.
+	 * 
+	 * @param host
+	 *            the host name, as it appears in request URLs.
+	 * @param policy
+	 *            the policy to apply to requests to the host, or null to apply the default
+	 *            policy again.
+	 */
+	public void setHostPolicy(String host, HttpRequestPolicy policy);
+
+
+
+
+
+
+	/**
+	 * Get the policy applied to requests to the given host: the policy set for the host, if any,
+	 * or the default policy.
+	 * 
+	 * @param host
+	 *            the host name, as it appears in request URLs.
+	 * @return the request policy of the host.
+	 */
+	public HttpRequestPolicy getHostPolicy(String host);
+
+
+
+
+
+
+	/**
+	 * Get a view of this service that applies the given policy to all its requests, whatever
+	 * their host. The view shares the connections and threads of this service.
+	 * 
+	 * @param policy
+	 *            the policy to apply to requests sent through the returned service.
+	 * @return an HttpClientService that applies the given policy.
+	 */
+	public HttpClientService withPolicy(HttpRequestPolicy policy);
+
+
+
+
+
+
+	/**
+	 * Limit the requests sent to a host, or under a URL prefix. When several limits match a
+	 * request, the one with the longest URL prefix applies, then the one of the host. The new
+	 * limit applies to requests sent from now on.
+	 * 
+	 * @param target
+	 *            a host name, such as 'api.example.com', or a URL prefix, such as
+	 *            'http://api.example.com/v2/'.
+	 * @param limit
+	 *            the limit to apply, or null to remove the limit of the target.
+	 */
+	public void setRequestLimit(String target, HttpRequestLimit limit);
+
+
+
+
+
+
+	/**
+	 * Get the state of the circuit breaker of the given host. Circuit breakers are enabled by the
+	 * 'http.circuit.failureRateThreshold' property of the service.
+	 * 
+	 * @param host
+	 *            the host name, as it appears in request URLs.
+	 * @return the state of the circuit of the host, CLOSED if circuit breakers are disabled.
+	 */
+	public HttpCircuitState getCircuitState(String host);
+
+
+
+
+
+
+	/**
+	 * Register a listener of the state changes of the circuit breakers.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 */
+	public void addCircuitListener(HttpCircuitListener listener);
+
+
+
+
+
+
+	/**
+	 * Unregister a listener registered by addCircuitListener().
+	 * 
+	 * @param listener
+	 *            the listener to unregister.
+	 */
+	public void removeCircuitListener(HttpCircuitListener listener);
+
+
+
+
+
+
+	/**
+	 * Register a listener of the measures of the requests. Listeners registered as OSGi services
+	 * are called too.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 */
+	public void addRequestListener(HttpRequestListener listener);
+
+
+
+
+
+
+	/**
+	 * Unregister a listener registered by addRequestListener().
+	 * 
+	 * @param listener
+	 *            the listener to unregister.
+	 */
+	public void removeRequestListener(HttpRequestListener listener);
 }
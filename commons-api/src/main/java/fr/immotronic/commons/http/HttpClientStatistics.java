@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Live statistics of an HttpClientService instance. Values are read at call time; counters are
+ * cumulative since the service has been started.
+ */
+public interface HttpClientStatistics
+{
+	/**
+	 * Return the number of requests that have been sent on a persistent connection taken from the
+	 * connection pool.
+	 * 
+	 * @return the number of connection pool hits.
+	 */
+	public long getConnectionPoolHits();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that required a new connection to be opened, because no valid
+	 * idle connection to the requested host was available in the connection pool.
+	 * 
+	 * @return the number of connection pool misses.
+	 */
+	public long getConnectionPoolMisses();
+
+
+
+
+
+
+	/**
+	 * Return the number of idle connections found closed or in an unexpected state by the server
+	 * when validated before reuse.
+	 * 
+	 * @return the number of stale connections discarded by the connection pool.
+	 */
+	public long getStaleConnections();
+
+
+
+
+
+
+	/**
+	 * Return the number of TLS handshakes performed to open HTTPS connections, resumed sessions
+	 * included.
+	 * 
+	 * @return the number of TLS handshakes.
+	 */
+	public long getTlsHandshakes();
+
+
+
+
+
+
+	/**
+	 * Return the number of TLS handshakes that resumed a cached session, rather than negotiating
+	 * a new one.
+	 * 
+	 * @return the number of resumed TLS sessions.
+	 */
+	public long getResumedTlsSessions();
+
+
+
+
+
+
+	/**
+	 * Return the number of open HTTP/2 connections. Each one multiplexes the concurrent requests
+	 * to a host.
+	 * 
+	 * @return the number of open HTTP/2 connections.
+	 */
+	public int getHttp2Connections();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests sent as HTTP/2 streams.
+	 * 
+	 * @return the number of HTTP/2 streams opened.
+	 */
+	public long getHttp2Streams();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that had to wait for a connection because the maximum number
+	 * of connections to the requested host was reached.
+	 * 
+	 * @return the number of connection lease waits.
+	 */
+	public long getConnectionLeaseWaits();
+
+
+
+
+
+
+	/**
+	 * Return the total time spent by requests waiting for a connection.
+	 * 
+	 * @return the cumulated connection lease wait time, in milliseconds.
+	 */
+	public long getConnectionLeaseWaitTime();
+
+
+
+
+
+
+	/**
+	 * Return the number of connections currently used by a request.
+	 * 
+	 * @return the number of leased connections.
+	 */
+	public int getLeasedConnections();
+
+
+
+
+
+
+	/**
+	 * Return the number of persistent connections currently idle in the connection pool.
+	 * 
+	 * @return the number of idle connections.
+	 */
+	public int getIdleConnections();
+
+
+
+
+
+
+	/**
+	 * Return the number of threads currently performing an asynchronous request.
+	 * 
+	 * @return the number of active asynchronous request threads.
+	 */
+	public int getAsyncActiveThreads();
+
+
+
+
+
+
+	/**
+	 * Return the number of threads, active or idle, of the asynchronous requests executor.
+	 * 
+	 * @return the current size of the asynchronous requests thread pool.
+	 */
+	public int getAsyncPoolSize();
+
+
+
+
+
+
+	/**
+	 * Return the largest number of threads the asynchronous requests executor ever had at the
+	 * same time.
+	 * 
+	 * @return the peak size of the asynchronous requests thread pool.
+	 */
+	public int getAsyncLargestPoolSize();
+
+
+
+
+
+
+	/**
+	 * Return the number of asynchronous requests waiting for a thread to be performed.
+	 * 
+	 * @return the asynchronous requests queue depth.
+	 */
+	public int getAsyncQueueDepth();
+
+
+
+
+
+
+	/**
+	 * Return the number of asynchronous requests performed.
+	 * 
+	 * @return the number of completed asynchronous requests.
+	 */
+	public long getAsyncCompletedRequests();
+
+
+
+
+
+
+	/**
+	 * Return the number of asynchronous requests submitted while the executor was saturated.
+	 * Depending on the configured rejection policy, those requests have been performed by the
+	 * calling thread, refused or dropped.
+	 * 
+	 * @return the number of rejected asynchronous requests.
+	 */
+	public long getAsyncRejectedRequests();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests served from the response cache, without contacting the
+	 * server.
+	 * 
+	 * @return the number of response cache hits.
+	 */
+	public long getCacheHits();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests served from the response cache after the server confirmed,
+	 * with a 304 (Not Modified) status, that the cached response was still valid.
+	 * 
+	 * @return the number of revalidated cached responses.
+	 */
+	public long getCacheRevalidations();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that could have been served from the response cache, but
+	 * which response had to be downloaded.
+	 * 
+	 * @return the number of response cache misses.
+	 */
+	public long getCacheMisses();
+
+
+
+
+
+
+	/**
+	 * Return the number of responses currently kept in the response cache.
+	 * 
+	 * @return the number of cached responses.
+	 */
+	public int getCacheEntries();
+
+
+
+
+
+
+	/**
+	 * Return the total size of the response contents currently kept in the response cache.
+	 * 
+	 * @return the response cache size, in bytes.
+	 */
+	public long getCacheSize();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that have not been sent, but received the response of an
+	 * identical request that was in flight.
+	 * 
+	 * @return the number of coalesced requests.
+	 */
+	public long getCoalescedRequests();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that have not been sent because the circuit breaker of their
+	 * host was open.
+	 * 
+	 * @return the number of requests rejected by circuit breakers.
+	 */
+	public long getCircuitRejectedRequests();
+
+
+
+
+
+
+	/**
+	 * Return the number of hosts which circuit breaker is currently open or half-open.
+	 * 
+	 * @return the number of open circuits.
+	 */
+	public int getOpenCircuits();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that have waited for a request limit to allow them.
+	 * 
+	 * @return the number of throttled requests.
+	 */
+	public long getThrottledRequests();
+
+
+
+
+
+
+	/**
+	 * Return the total time throttled requests have waited for a request limit to allow them.
+	 * 
+	 * @return the total waiting time, in milliseconds.
+	 */
+	public long getThrottleWaitTime();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests that have not been sent because a request limit did not allow
+	 * them in time.
+	 * 
+	 * @return the number of requests rejected by request limits.
+	 */
+	public long getThrottleRejectedRequests();
+
+
+
+
+
+
+	/**
+	 * Return the number of requests currently waiting for a request limit to allow them.
+	 * 
+	 * @return the number of waiting requests.
+	 */
+	public int getThrottleQueueDepth();
+
+
+
+
+
+
+	/**
+	 * Return the number of bytes sent by measured requests, headers included.
+	 * 
+	 * @return the number of bytes sent.
+	 */
+	public long getBytesSent();
+
+
+
+
+
+
+	/**
+	 * Return the number of bytes received by measured requests, headers included.
+	 * 
+	 * @return the number of bytes received.
+	 */
+	public long getBytesReceived();
+
+
+
+
+
+
+	/**
+	 * Return the number of measured requests per response status code. Requests that received no
+	 * response are counted under the code of HttpStatus.SERVER_TIMEOUT.
+	 * 
+	 * @return a copy of the counts, by status code.
+	 */
+	public Map<Integer, Long> getResponseCodeCounts();
+
+
+
+
+
+
+	/**
+	 * Return the hosts requests have been measured for.
+	 * 
+	 * @return a copy of the host names, in lower case.
+	 */
+	public Set<String> getMeasuredHosts();
+
+
+
+
+
+
+	/**
+	 * Return the distribution of the durations of a phase of the requests to a host.
+	 * 
+	 * @param host
+	 *            the host name, or null for the requests to all hosts.
+	 * @param phase
+	 *            the phase of the requests.
+	 * @return a snapshot of the distribution, or null if no duration of this phase has been
+	 *         measured for this host.
+	 */
+	public HttpLatencyHistogram getLatencyHistogram(String host, HttpRequestPhase phase);
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.net.URL;
+
+
+
+/**
+ * A request which method and headers are set once, and which can then be sent any number of
+ * times, to any URL. Its headers, including the 'Authorization' and 'Accept' headers, are computed
+ * and encoded once rather than for each request, which saves work for requests sent repeatedly
+ * with the same headers, such as requests to the same web service.
+ * 
+ * Prepared requests are immutable and can be shared between threads. They are obtained from an
+ * HttpClientService, and apply its policy: a prepared request obtained from a service view
+ * returned by {@link HttpClientService#withPolicy(HttpRequestPolicy)} applies the policy of that
+ * view.
+ */
+public interface HttpPreparedRequest
+{
+	/**
+	 * Send the request to the given URL.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse send(URL url);
+
+
+
+
+
+
+	/**
+	 * Send the request to the given URL, with the given content.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param content
+	 *            The content to send, or null. Only POST, PUT and PATCH requests can have a
+	 *            content.
+	 * @return An instance of HttpResponse object that contains the server response.
+	 */
+	public HttpResponse send(URL url, byte[] content);
+
+
+
+
+
+
+	/**
+	 * Asynchronously send the request to the given URL.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void send(URL url, HttpResponseHandler responseHandler);
+
+
+
+
+
+
+	/**
+	 * Asynchronously send the request to the given URL, with the given content.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param content
+	 *            The content to send, or null. Only POST, PUT and PATCH requests can have a
+	 *            content.
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 */
+	public void send(URL url, byte[] content, HttpResponseHandler responseHandler);
+
+
+
+
+
+
+	/**
+	 * Asynchronously send the request to the given URL, with the given content.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @param content
+	 *            The content to send, or null. Only POST, PUT and PATCH requests can have a
+	 *            content.
+	 * @return the pending response of the request.
+	 */
+	public HttpResponseFuture sendAsync(URL url, byte[] content);
+
+
+
+
+
+
+	/**
+	 * Send the request to the given URL, without reading the response content in memory. The
+	 * content is read from the returned response as it is received, and the response MUST be
+	 * closed once its content has been processed. Only GET requests can be streamed.
+	 * 
+	 * @param url
+	 *            The URL of the resource. The URL protocol MUST be HTTP or HTTPS.
+	 * @return An instance of HttpStreamedResponse object that contains the server response.
+	 * @throws IllegalStateException
+	 *             if the request is not a GET request.
+	 */
+	public HttpStreamedResponse sendStreamed(URL url);
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.commons.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+
+/**
+ * The content of a request, read from its source while the request is sent, rather than loaded
+ * in memory beforehand: a buffer, a file or a stream.
+ * 
+ * Contents of known length are sent with a 'Content-Length' header, others with the chunked
+ * transfer coding. Contents are sent as given: they are not compressed, whatever the compression
+ * settings of the client.
+ * 
+ * Repeatable contents can be sent several times, so that their requests can be retried and
+ * redirected. Stream contents are not repeatable: their requests are never sent again once they
+ * have started to be sent.
+ */
+public abstract class HttpRequestBody
+{
+	private static final int BUFFER_SIZE = 8192;
+
+
+
+
+
+
+	private HttpRequestBody()
+	{}
+
+
+
+
+
+
+	/**
+	 * @param content
+	 *            a buffer which remaining bytes are the content. The position of the buffer is not
+	 *            changed; its content must not change until the request has been sent.
+	 * @return a repeatable content of known length.
+	 */
+	public static HttpRequestBody fromBuffer(ByteBuffer content)
+	{
+		if (content == null)
+		{
+			throw new IllegalArgumentException("'content' cannot be null");
+		}
+
+		return new BufferBody(content.slice());
+	}
+
+
+
+
+
+
+	/**
+	 * @param file
+	 *            the file holding the content. The file is opened each time the content is sent,
+	 *            and must keep its current size until then.
+	 * @return a repeatable content of known length.
+	 * @throws IOException
+	 *             if the size of the file cannot be read.
+	 */
+	public static HttpRequestBody fromFile(Path file) throws IOException
+	{
+		if (file == null)
+		{
+			throw new IllegalArgumentException("'file' cannot be null");
+		}
+
+		return new FileBody(file, null, 0, Files.size(file));
+	}
+
+
+
+
+
+
+	/**
+	 * @param channel
+	 *            the channel to read the content from. The position of the channel is not changed,
+	 *            and the channel is not closed: it must stay open until the request has been
+	 *            sent.
+	 * @param position
+	 *            the position in the channel of the first byte of the content.
+	 * @param length
+	 *            the length of the content, in bytes.
+	 * @return a repeatable content of known length.
+	 */
+	public static HttpRequestBody fromChannel(FileChannel channel, long position, long length)
+	{
+		if (channel == null)
+		{
+			throw new IllegalArgumentException("'channel' cannot be null");
+		}
+
+		if (position < 0
+			|| length < 0)
+		{
+			throw new IllegalArgumentException("'position' and 'length' cannot be negative");
+		}
+
+		return new FileBody(null, channel, position, length);
+	}
+
+
+
+
+
+
+	/**
+	 * @param content
+	 *            the stream to read the content from. The stream is not closed: it must stay open
+	 *            until the request has been sent, that is until its response is received.
+	 * @param length
+	 *            the number of bytes to read from the stream, or -1 to read it up to its end and
+	 *            send the content with the chunked transfer coding.
+	 * @return a content which is not repeatable.
+	 */
+	public static HttpRequestBody fromStream(InputStream content, long length)
+	{
+		if (content == null)
+		{
+			throw new IllegalArgumentException("'content' cannot be null");
+		}
+
+		if (length < -1)
+		{
+			throw new IllegalArgumentException("'length' must be -1 or a positive number");
+		}
+
+		return new StreamBody(content, length);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the length of the content, in bytes, or -1 if it is unknown.
+	 */
+	public abstract long getLength();
+
+
+
+
+
+
+	/**
+	 * @return true if the content can be sent several times.
+	 */
+	public abstract boolean isRepeatable();
+
+
+
+
+
+
+	/**
+	 * Write the whole content.
+	 * 
+	 * @param out
+	 *            the stream to write the content to. It is neither flushed nor closed.
+	 * @throws IOException
+	 *             if the content cannot be read, if it is shorter than its length, or if it
+	 *             cannot be written.
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+
+
+
+
+
+
+	/**
+	 * @return a new buffer which remaining bytes are the content, if the content is held in
+	 *         memory, or null.
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return null;
+	}
+
+
+
+
+
+
+	private static final class BufferBody extends HttpRequestBody
+	{
+		private final ByteBuffer content;
+
+
+
+
+
+
+		BufferBody(ByteBuffer content)
+		{
+			this.content = content;
+		}
+
+
+
+
+
+
+		@Override
+		public long getLength()
+		{
+			return content.remaining();
+		}
+
+
+
+
+
+
+		@Override
+		public boolean isRepeatable()
+		{
+			return true;
+		}
+
+
+
+
+
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException
+		{
+			if (content.hasArray())
+			{
+				out.write(content.array(), content.arrayOffset(), content.remaining());
+				return;
+			}
+
+			ByteBuffer _content = content.duplicate();
+			byte[] buffer = new byte[Math.min(BUFFER_SIZE, _content.remaining())];
+			while (_content.hasRemaining())
+			{
+				int length = Math.min(buffer.length, _content.remaining());
+				_content.get(buffer, 0, length);
+				out.write(buffer, 0, length);
+			}
+		}
+
+
+
+
+
+
+		@Override
+		public ByteBuffer getBuffer()
+		{
+			return content.duplicate();
+		}
+	}
+
+
+
+
+
+
+	private static final class FileBody extends HttpRequestBody
+	{
+		private final Path file;
+		private final FileChannel channel;
+		private final long position;
+		private final long length;
+
+
+
+
+
+
+		/**
+		 * @param file
+		 *            the file to open, or null to read from the given channel.
+		 */
+		FileBody(Path file, FileChannel channel, long position, long length)
+		{
+			this.file = file;
+			this.channel = channel;
+			this.position = position;
+			this.length = length;
+		}
+
+
+
+
+
+
+		@Override
+		public long getLength()
+		{
+			return length;
+		}
+
+
+
+
+
+
+		@Override
+		public boolean isRepeatable()
+		{
+			return true;
+		}
+
+
+
+
+
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException
+		{
+			if (channel != null)
+			{
+				transfer(channel, out);
+				return;
+			}
+
+			FileChannel _channel = FileChannel.open(file, StandardOpenOption.READ);
+			try
+			{
+				transfer(_channel, out);
+			}
+			finally
+			{
+				_channel.close();
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Positional transfers leave the position of the channel unchanged.
+		 */
+		private void transfer(FileChannel source, OutputStream out) throws IOException
+		{
+			WritableByteChannel target = Channels.newChannel(out);
+			long transferred = 0;
+			while (transferred < length)
+			{
+				long count = source.transferTo(position
+					+ transferred, length - transferred, target);
+
+				if (count <= 0)
+				{
+					throw new EOFException("File content is shorter than its announced length ("
+						+ length + " bytes).");
+				}
+
+				transferred += count;
+			}
+		}
+	}
+
+
+
+
+
+
+	private static final class StreamBody extends HttpRequestBody
+	{
+		private final InputStream content;
+		private final long length;
+
+
+
+
+
+
+		StreamBody(InputStream content, long length)
+		{
+			this.content = content;
+			this.length = length;
+		}
+
+
+
+
+
+
+		@Override
+		public long getLength()
+		{
+			return length;
+		}
+
+
+
+
+
+
+		@Override
+		public boolean isRepeatable()
+		{
+			return false;
+		}
+
+
+
+
+
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long remaining = (length < 0) ? Long.MAX_VALUE : length;
+			while (remaining > 0)
+			{
+				int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0)
+				{
+					if (length < 0)
+					{
+						return;
+					}
+
+					throw new EOFException("Stream content is shorter than its announced length ("
+						+ length + " bytes).");
+				}
+
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		}
+	}
+}
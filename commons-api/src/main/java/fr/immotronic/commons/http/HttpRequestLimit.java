@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+
+
+/**
+ * Limits applied to the requests sent to a host or under a URL prefix, so that they stay within
+ * the quotas of the server. HttpRequestLimit objects are immutable: the with...() methods return
+ * a modified copy.
+ * 
+ * The request rate is limited by a token bucket: it holds up to burst tokens, refilled at the
+ * given rate, and each request sent takes one. The number of requests in progress, from the
+ * moment they are sent until their response content has been read, can also be capped.
+ * 
+ * Requests exceeding the limits wait, at most maxWait milliseconds, then fail with
+ * HttpStatus.REQUEST_THROTTLED. Synchronous requests wait in the calling thread; asynchronous
+ * requests wait in a queue, without holding a thread.
+ */
+public final class HttpRequestLimit
+{
+	/**
+	 * No limit. Requests never wait, unless limits are added with the with...() methods.
+	 */
+	public static final HttpRequestLimit UNLIMITED = new HttpRequestLimit(0, 0, 0, 30000);
+
+	private final double requestsPerSecond;
+	private final int burst;
+	private final int maxConcurrentRequests;
+	private final long maxWait;
+
+
+
+
+
+
+	private HttpRequestLimit(	double requestsPerSecond,
+								int burst,
+								int maxConcurrentRequests,
+								long maxWait)
+	{
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.maxWait = maxWait;
+	}
+
+
+
+
+
+
+	/**
+	 * @param requestsPerSecond
+	 *            the sustained request rate, or 0 for no rate limit.
+	 * @param burst
+	 *            the maximum number of requests that can be sent at once after an idle period.
+	 *            Must be at least 1 if the rate is limited.
+	 * @return a copy of this limit, with the given request rate.
+	 */
+	public HttpRequestLimit withRate(double requestsPerSecond, int burst)
+	{
+		if (requestsPerSecond < 0
+			|| Double.isNaN(requestsPerSecond) || Double.isInfinite(requestsPerSecond))
+		{
+			throw new IllegalArgumentException("'requestsPerSecond' must be a positive number");
+		}
+
+		if (requestsPerSecond > 0
+			&& burst < 1)
+		{
+			throw new IllegalArgumentException("'burst' must be at least 1");
+		}
+
+		return new HttpRequestLimit(requestsPerSecond, burst, maxConcurrentRequests, maxWait);
+	}
+
+
+
+
+
+
+	/**
+	 * @param maxConcurrentRequests
+	 *            the maximum number of requests in progress at the same time, or 0 for no limit.
+	 * @return a copy of this limit, with the given maximum number of requests in progress.
+	 */
+	public HttpRequestLimit withMaxConcurrentRequests(int maxConcurrentRequests)
+	{
+		if (maxConcurrentRequests < 0)
+		{
+			throw new IllegalArgumentException("'maxConcurrentRequests' cannot be negative");
+		}
+
+		return new HttpRequestLimit(requestsPerSecond, burst, maxConcurrentRequests, maxWait);
+	}
+
+
+
+
+
+
+	/**
+	 * @param maxWait
+	 *            the maximum time, in milliseconds, a request waits for the limits to allow it.
+	 *            The total timeout of the request policy, if shorter, applies.
+	 * @return a copy of this limit, with the given maximum waiting time.
+	 */
+	public HttpRequestLimit withMaxWait(long maxWait)
+	{
+		if (maxWait < 0)
+		{
+			throw new IllegalArgumentException("'maxWait' cannot be negative");
+		}
+
+		return new HttpRequestLimit(requestsPerSecond, burst, maxConcurrentRequests, maxWait);
+	}
+
+
+
+
+
+
+	public double getRequestsPerSecond()
+	{
+		return requestsPerSecond;
+	}
+
+
+
+
+
+
+	public int getBurst()
+	{
+		return burst;
+	}
+
+
+
+
+
+
+	public int getMaxConcurrentRequests()
+	{
+		return maxConcurrentRequests;
+	}
+
+
+
+
+
+
+	public long getMaxWait()
+	{
+		return maxWait;
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return "HttpRequestLimit[requestsPerSecond="
+			+ requestsPerSecond + ", burst=" + burst + ", maxConcurrentRequests="
+			+ maxConcurrentRequests + ", maxWait=" + maxWait + "]";
+	}
+}
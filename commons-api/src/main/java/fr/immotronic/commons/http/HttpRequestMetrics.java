@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.net.URL;
+
+
+
+/**
+ * The measures of a request sent by the HttpClientService. A request retried, or redirected, is
+ * measured once per attempt. Requests served from the response cache, or not sent because of a
+ * circuit breaker or of a request limit, are not measured.
+ */
+public interface HttpRequestMetrics
+{
+	/**
+	 * @return the HTTP method of the request, such as 'GET'.
+	 */
+	public String getMethod();
+
+
+
+
+
+
+	/**
+	 * @return the URL of the request.
+	 */
+	public URL getURL();
+
+
+
+
+
+
+	/**
+	 * @return the host of the request URL, in lower case.
+	 */
+	public String getHost();
+
+
+
+
+
+
+	/**
+	 * @return the response status code, or -1 if no response has been received.
+	 */
+	public int getResponseCode();
+
+
+
+
+
+
+	/**
+	 * @return true if the request has been sent on a connection opened by a previous request.
+	 */
+	public boolean isReusedConnection();
+
+
+
+
+
+
+	/**
+	 * Return the duration of a phase of the request.
+	 * 
+	 * @param phase
+	 *            the phase of the request.
+	 * @return the duration of the phase, in microseconds, or -1 if the request did not go through
+	 *         this phase, for instance if no new connection has been opened for it.
+	 */
+	public long getTime(HttpRequestPhase phase);
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes sent, headers included.
+	 */
+	public long getBytesSent();
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes received, headers included.
+	 */
+	public long getBytesReceived();
+}
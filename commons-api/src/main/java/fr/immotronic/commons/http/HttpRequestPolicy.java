@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.util.Arrays;
+
+
+
+/**
+ * Timeouts, retry rules and protocol applied to requests. HttpRequestPolicy objects are
+ * immutable: the with...() methods return a modified copy.
+ * 
+ * A policy applies to a whole call, redirections included. A request is retried, up to
+ * maxRetries times, if it fails to reach the server, if the server does not answer in time, or if
+ * the server answers with one of the retry statuses. Retries are delayed by an exponential
+ * backoff with jitter: the n-th retry waits a random time between half of and the whole of
+ * min(maxBackoff, backoff * 2^(n-1)) milliseconds.
+ * 
+ * Requests with a non idempotent method (POST) are only retried if they have not been sent, e.g.
+ * if the connection to the server could not be established, unless non idempotent retries are
+ * allowed.
+ * 
+ * Requests are sent with HTTP/1.1, unless the policy selects HTTP/2: concurrent requests to a host
+ * then share a single connection.
+ */
+public final class HttpRequestPolicy
+{
+	/**
+	 * The policy applied when none is configured: 30 seconds connection and read timeouts, no
+	 * total timeout, no retry and HTTP/1.1.
+	 */
+	public static final HttpRequestPolicy DEFAULT = new HttpRequestPolicy(
+		30000,
+		30000,
+		0,
+		0,
+		200,
+		10000,
+		new int[] { 502, 503, 504 },
+		false,
+		HttpProtocol.HTTP_1_1);
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final long totalTimeout;
+	private final int maxRetries;
+	private final long backoff;
+	private final long maxBackoff;
+	private final int[] retryStatuses;
+	private final boolean nonIdempotentRetries;
+	private final HttpProtocol protocol;
+
+
+
+
+
+
+	private HttpRequestPolicy(	int connectTimeout,
+								int readTimeout,
+								long totalTimeout,
+								int maxRetries,
+								long backoff,
+								long maxBackoff,
+								int[] retryStatuses,
+								boolean nonIdempotentRetries,
+								HttpProtocol protocol)
+	{
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.totalTimeout = totalTimeout;
+		this.maxRetries = maxRetries;
+		this.backoff = backoff;
+		this.maxBackoff = maxBackoff;
+		this.retryStatuses = retryStatuses;
+		this.nonIdempotentRetries = nonIdempotentRetries;
+		this.protocol = protocol;
+	}
+
+
+
+
+
+
+	/**
+	 * @param connectTimeout
+	 *            the maximum time, in milliseconds, to establish a connection to the server. Must
+	 *            be strictly positive.
+	 * @return a copy of this policy, with the given connection timeout.
+	 */
+	public HttpRequestPolicy withConnectTimeout(int connectTimeout)
+	{
+		if (connectTimeout <= 0)
+		{
+			throw new IllegalArgumentException("'connectTimeout' must be strictly positive");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param readTimeout
+	 *            the maximum time, in milliseconds, without receiving any byte from the server
+	 *            while waiting for a response. Must be strictly positive.
+	 * @return a copy of this policy, with the given read timeout.
+	 */
+	public HttpRequestPolicy withReadTimeout(int readTimeout)
+	{
+		if (readTimeout <= 0)
+		{
+			throw new IllegalArgumentException("'readTimeout' must be strictly positive");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param totalTimeout
+	 *            the maximum time, in milliseconds, a call may last until the response content is
+	 *            entirely received, retries and redirections included, or 0 for no limit. A
+	 *            streamed response content cannot be read anymore once this time has elapsed.
+	 * @return a copy of this policy, with the given total timeout.
+	 */
+	public HttpRequestPolicy withTotalTimeout(long totalTimeout)
+	{
+		if (totalTimeout < 0)
+		{
+			throw new IllegalArgumentException("'totalTimeout' cannot be negative");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param maxRetries
+	 *            the maximum number of times a failed request is sent again, or 0 to never retry.
+	 * @return a copy of this policy, with the given maximum number of retries.
+	 */
+	public HttpRequestPolicy withMaxRetries(int maxRetries)
+	{
+		if (maxRetries < 0)
+		{
+			throw new IllegalArgumentException("'maxRetries' cannot be negative");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param backoff
+	 *            the base delay, in milliseconds, before the first retry. Doubles at each retry.
+	 * @param maxBackoff
+	 *            the maximum base delay, in milliseconds, before a retry.
+	 * @return a copy of this policy, with the given backoff delays.
+	 */
+	public HttpRequestPolicy withBackoff(long backoff, long maxBackoff)
+	{
+		if (backoff < 0
+			|| maxBackoff < backoff)
+		{
+			throw new IllegalArgumentException(
+				"'backoff' cannot be negative, and 'maxBackoff' cannot be less than 'backoff'");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param retryStatuses
+	 *            the HTTP status codes the server may answer with that make a request be retried,
+	 *            such as 503 (Service Unavailable).
+	 * @return a copy of this policy, with the given retry statuses.
+	 */
+	public HttpRequestPolicy withRetryStatuses(int... retryStatuses)
+	{
+		int[] _retryStatuses = (retryStatuses == null) ? new int[0] : retryStatuses.clone();
+		Arrays.sort(_retryStatuses);
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			_retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param nonIdempotentRetries
+	 *            if true, requests with a non idempotent method (POST) are retried even if they
+	 *            may have been processed by the server.
+	 * @return a copy of this policy, with non idempotent retries allowed or not.
+	 */
+	public HttpRequestPolicy withNonIdempotentRetries(boolean nonIdempotentRetries)
+	{
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	/**
+	 * @param protocol
+	 *            the protocol to send requests with. HTTP/2 multiplexes concurrent requests to the
+	 *            same host over a single connection.
+	 * @return a copy of this policy, with the given protocol.
+	 */
+	public HttpRequestPolicy withProtocol(HttpProtocol protocol)
+	{
+		if (protocol == null)
+		{
+			throw new IllegalArgumentException("'protocol' cannot be null");
+		}
+
+		return new HttpRequestPolicy(
+			connectTimeout,
+			readTimeout,
+			totalTimeout,
+			maxRetries,
+			backoff,
+			maxBackoff,
+			retryStatuses,
+			nonIdempotentRetries,
+			protocol);
+	}
+
+
+
+
+
+
+	public int getConnectTimeout()
+	{
+		return connectTimeout;
+	}
+
+
+
+
+
+
+	public int getReadTimeout()
+	{
+		return readTimeout;
+	}
+
+
+
+
+
+
+	public long getTotalTimeout()
+	{
+		return totalTimeout;
+	}
+
+
+
+
+
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+
+
+
+
+
+	public long getBackoff()
+	{
+		return backoff;
+	}
+
+
+
+
+
+
+	public long getMaxBackoff()
+	{
+		return maxBackoff;
+	}
+
+
+
+
+
+
+	public int[] getRetryStatuses()
+	{
+		return retryStatuses.clone();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if a response with the given status code makes the request be retried.
+	 */
+	public boolean isRetryStatus(int statusCode)
+	{
+		return Arrays.binarySearch(retryStatuses, statusCode) >= 0;
+	}
+
+
+
+
+
+
+	public boolean allowsNonIdempotentRetries()
+	{
+		return nonIdempotentRetries;
+	}
+
+
+
+
+
+
+	public HttpProtocol getProtocol()
+	{
+		return protocol;
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return "HttpRequestPolicy[connectTimeout="
+			+ connectTimeout + ", readTimeout=" + readTimeout + ", totalTimeout=" + totalTimeout
+			+ ", maxRetries=" + maxRetries + ", backoff=" + backoff + ", maxBackoff="
+			+ maxBackoff + ", retryStatuses=" + Arrays.toString(retryStatuses)
+			+ ", nonIdempotentRetries=" + nonIdempotentRetries + ", protocol=" + protocol + "]";
+	}
+}
@@ -154,6 +154,37 @@ public interface HttpResponse
 
 
 
+	/**
+	 * Return the position of the content in the requested resource. The content of a 206 (Partial
+	 * Content) response is the part of the resource given by its 'Content-Range' header; the
+	 * content of other responses is the complete resource.
+	 * 
+	 * @return the position in bytes of the first byte of the content in the resource, which is 0
+	 *         unless the response is a partial response.
+	 */
+	public long getContentOffset();
+
+
+
+
+
+
+	/**
+	 * Return the size of the complete requested resource: the size of the content for a 200 (Ok)
+	 * response, including a response to a HEAD request which has no content, or the size given by
+	 * the 'Content-Range' header of a 206 (Partial Content) or 416 (Range Not Satisfiable)
+	 * response.
+	 * 
+	 * @return the size in bytes of the complete resource, or -1 if it is unknown, for instance if
+	 *         the content is compressed.
+	 */
+	public long getResourceLength();
+
+
+
+
+
+
 	/**
 	 * Return the HTTP status of the response (e.g. '200 OK', '404 Not Found', etc.).
 	 * 
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.util.concurrent.Future;
+
+
+
+/**
+ * The pending response of an asynchronous request.
+ * 
+ * The response is available through the Future methods, and can be processed as soon as it is
+ * received by adding response handlers. Waiting for a response with a timeout, using
+ * {@link #get(long, java.util.concurrent.TimeUnit)}, enforces a deadline on a request without
+ * blocking other ones: several requests can be sent first, and their responses collected later.
+ * 
+ * Requests that cannot be sent, or that fail, complete with a response which status is
+ * {@link HttpStatus#SERVER_TIMEOUT}: the get() methods never throw an ExecutionException.
+ * Cancelling a request does not interrupt it, but its response is ignored and its response
+ * handlers are not called.
+ */
+public interface HttpResponseFuture extends Future<HttpResponse>
+{
+	/**
+	 * Add a handler to notify when the response is received. Handlers are called in the order
+	 * they have been added, by the thread that completes the request. If the response is already
+	 * available, the handler is immediately called by the calling thread.
+	 * 
+	 * @param responseHandler
+	 *            a response handler that will be notified when the response will be available.
+	 * @return this HttpResponseFuture, so that calls can be chained.
+	 */
+	public HttpResponseFuture addHandler(HttpResponseHandler responseHandler);
+}
@@ -46,15 +46,23 @@ package fr.immotronic.commons.http;
 public enum HttpStatus
 {
 	OK(200, "Ok"),
+	CREATED(201, "Created"),
+	NO_CONTENT(204, "No Content"),
+	PARTIAL_CONTENT(206, "Partial Content"),
+	NOT_MODIFIED(304, "Not Modified"),
 	BAD_REQUEST(400, "Bad Request"),
 	UNAUTHORIZED(401, "Unauthorized"),
 	FORBIDDEN(403, "Forbidden"),
 	NOT_FOUND(404, "Not found"),
 	METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
 	NOT_ACCEPTABLE(406, "Not Acceptable"),
+	PRECONDITION_FAILED(412, "Precondition Failed"),
 	UNSUPPORTED_MEDIA_TYPE(415, "Unsupported Media Type"),
+	RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
 	INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
 	SERVER_TIMEOUT(1000, "Server Is Not Reachable"),
+	CIRCUIT_OPEN(1001, "Server Is Considered Down, Request Has Not Been Sent"),
+	REQUEST_THROTTLED(1002, "Request Limit Exceeded, Request Has Not Been Sent"),
 	WRONG_LENGTH(2000, "Content Has Unexpected Length"),
 	INVALID_JSON(2001, "Content Is Expected To Be JSON Formatted, But Is Not"),
 	UNSUPPORTED_CHARSET(2002, "Content Charset Is Not Supported In JVM");
@@ -66,6 +74,18 @@ public enum HttpStatus
 			case 200:
 				return OK;
 			
+			case 201:
+				return CREATED;
+			
+			case 204:
+				return NO_CONTENT;
+			
+			case 206:
+				return PARTIAL_CONTENT;
+			
+			case 304:
+				return NOT_MODIFIED;
+			
 			case 400:
 				return BAD_REQUEST;
 				
@@ -84,9 +104,15 @@ public enum HttpStatus
 			case 406:
 				return NOT_ACCEPTABLE;
 				
+			case 412:
+				return PRECONDITION_FAILED;
+				
 			case 415:
 				return UNSUPPORTED_MEDIA_TYPE;
 				
+			case 416:
+				return RANGE_NOT_SATISFIABLE;
+				
 			case 500:
 				return INTERNAL_SERVER_ERROR;
 				
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http;
+
+import java.io.Closeable;
+import java.io.InputStream;
+
+
+
+/**
+ * An HTTP response which content is not read in memory when the response is received, but read
+ * by the caller from a stream, as it is received. This allows processing large contents with
+ * bounded memory. A ReadableByteChannel view of the content can be obtained with
+ * java.nio.channels.Channels.newChannel(getContentStream()).
+ * 
+ * The connection the response is received on remains allocated to the response until its content
+ * has been entirely read or the response has been closed: a streamed response MUST always be
+ * closed.
+ * 
+ * The getContent() and getContentAsString() methods read in memory the part of the content that
+ * has not been read from the stream yet, and return it. The getContentAsJSON() method parses that
+ * part of the content directly from the stream, without reading it in memory first: once it has
+ * been called, the content is no longer available.
+ */
+public interface HttpStreamedResponse extends HttpResponse, Closeable
+{
+	/**
+	 * Get the response content as a stream. The same stream is returned by each call.
+	 * 
+	 * @return a stream to read the response content from. An empty stream is returned if response
+	 *         has no content.
+	 */
+	public InputStream getContentStream();
+
+
+
+
+
+
+	/**
+	 * Return the content size in bytes announced by the server, if any.
+	 * 
+	 * @return the content size in bytes, or -1 if the server did not announce it.
+	 */
+	public long getContentLengthLong();
+
+
+
+
+
+
+	/**
+	 * Return the content size in bytes announced by the server, if any.
+	 * 
+	 * @return the content size in bytes, or -1 if the server did not announce it or if it does not
+	 *         fit in an int.
+	 */
+	@Override
+	public int getContentLength();
+
+
+
+
+
+
+	/**
+	 * Release the connection the response is received on. The part of the content that has not
+	 * been read yet is discarded.
+	 */
+	@Override
+	public void close();
+}
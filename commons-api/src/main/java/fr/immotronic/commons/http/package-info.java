@@ -41,6 +41,6 @@
  *
  */
 
-@aQute.bnd.annotation.Version("1.0.0")
+@aQute.bnd.annotation.Version("1.1.0")
 package fr.immotronic.commons.http;
 
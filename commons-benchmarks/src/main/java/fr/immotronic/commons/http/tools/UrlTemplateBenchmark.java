@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http.tools;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Compare the expansion of URL templates by UrlTemplate with the former implementation of
+ * HttpRequester.transformURL(), which called String.replace() over the whole template once per
+ * argument.
+ * 
+ * Run with the GC profiler to compare allocations: 'java -jar benchmarks.jar UrlTemplate -prof
+ * gc'. Note that the former implementation does not encode arguments, and expands $10 as the
+ * value of $1 followed by '0'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlTemplateBenchmark
+{
+	/** Number of placeholders of the template. */
+	@Param({ "1", "3", "12" })
+	private int placeholders;
+
+	private String template;
+	private UrlTemplate urlTemplate;
+	private String[] arguments;
+
+
+
+
+
+
+	@Setup
+	public void setup()
+	{
+		StringBuilder _template = new StringBuilder("http://gateway.example.com:8080/api/v1");
+		arguments = new String[placeholders];
+		for (int i = 1; i <= placeholders; i++)
+		{
+			if (i <= 2)
+			{
+				_template.append("/$").append(i);
+			}
+			else
+			{
+				_template.append((i == 3) ? '?' : '&').append('p').append(i).append("=$").append(i);
+			}
+
+			arguments[i - 1] = "sensor-"
+				+ (1000 + i);
+		}
+
+		template = _template.toString();
+		urlTemplate = new UrlTemplate(template);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public URL urlTemplate() throws MalformedURLException
+	{
+		return new URL(urlTemplate.expand(arguments));
+	}
+
+
+
+
+
+
+	@Benchmark
+	public String urlTemplateExpandOnly()
+	{
+		return urlTemplate.expand(arguments);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public URL formerTransformURL() throws MalformedURLException
+	{
+		return new URL(formerExpand());
+	}
+
+
+
+
+
+
+	@Benchmark
+	public String formerTransformURLExpandOnly()
+	{
+		return formerExpand();
+	}
+
+
+
+
+
+
+	private String formerExpand()
+	{
+		String urlText = template;
+		int i = 1;
+		for (String argument : arguments)
+		{
+			urlText = urlText.replace("$"
+				+ i, argument);
+
+			i++;
+		}
+
+		return urlText;
+	}
+}
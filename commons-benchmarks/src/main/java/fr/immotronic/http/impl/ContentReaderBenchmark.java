@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Compare the reading of response contents by ContentReader with the former implementation of
+ * HttpResponseImpl.readContent(), which grew its array by 1 KB at each read.
+ * 
+ * Run with the GC profiler to compare allocations: 'java -jar benchmarks.jar ContentReader -prof
+ * gc' and look at the 'gc.alloc.rate.norm' lines (bytes allocated per operation). The former
+ * implementation copies about length^2 / 2048 bytes per content of unknown length: with 50 MB
+ * contents, a single invocation takes minutes. Use '-p length=10240,1048576' to skip them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentReaderBenchmark
+{
+	/** Maximum number of bytes returned by a read, as a socket would do. */
+	private static final int NETWORK_READ_SIZE = 8192;
+
+	@Param({ "10240", "1048576", "52428800" })
+	private int length;
+
+	/** True if the content length is known, as with a 'Content-Length' header. */
+	@Param({ "false", "true" })
+	private boolean lengthKnown;
+
+	private byte[] source;
+
+
+
+
+
+
+	@Setup
+	public void setup()
+	{
+		source = new byte[length];
+		new Random(42).nextBytes(source);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public byte[] contentReader() throws IOException
+	{
+		return ContentReader.read(new NetworkInputStream(source), lengthKnown ? length : -1);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public byte[] formerReadContent() throws IOException
+	{
+		InputStream stream = new NetworkInputStream(source);
+		byte[] content = new byte[lengthKnown ? length : 0];
+
+		int totalLength = 0;
+		int readLength = -1;
+		byte[] buffer = new byte[1024];
+		while ((readLength = stream.read(buffer, 0, 1024)) > 0)
+		{
+			int newLength = totalLength
+				+ readLength;
+
+			if (content.length < newLength)
+			{
+				content = Arrays.copyOf(content, newLength);
+			}
+			System.arraycopy(buffer, 0, content, totalLength, readLength);
+			totalLength = newLength;
+		}
+
+		return content;
+	}
+
+
+
+
+
+
+	/**
+	 * An input stream returning at most NETWORK_READ_SIZE bytes per read.
+	 */
+	private static final class NetworkInputStream extends ByteArrayInputStream
+	{
+		NetworkInputStream(byte[] buffer)
+		{
+			super(buffer);
+		}
+
+
+
+
+
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len)
+		{
+			return super.read(b, off, Math.min(len, NETWORK_READ_SIZE));
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.immotronic.commons.http.HttpPreparedRequest;
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.tools.HttpRequester;
+
+
+
+/**
+ * Measure the round trip of requests sent by HttpClientServiceImpl to an HTTP server embedded in
+ * the benchmark and listening on the loopback interface, so that results depend on the client
+ * code rather than on the network.
+ * 
+ * The state is shared by all benchmark threads: run with '-t 8' to measure the client under
+ * contention (connection pool, async executor, instrumentation). The 'engine' parameter only
+ * applies to asynchronous requests. Add '-prof gc' to measure allocations per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpClientBenchmark
+{
+	private static final String[] ACCEPT_JSON = new String[] { "application/json" };
+
+	/** Length in bytes of the JSON documents returned by the server. */
+	@Param({ "256", "65536" })
+	private int length;
+
+	/** Engine used for asynchronous requests: 'blocking' or 'nio'. */
+	@Param({ "blocking", "nio" })
+	private String engine;
+
+	private LoopbackServer server;
+	private HttpClientServiceImpl client;
+	private URL jsonURL;
+	private URL echoURL;
+	private HttpRequester requester;
+	private HttpPreparedRequest preparedGet;
+	private byte[] document;
+
+
+
+
+
+
+	@Setup
+	public void setup() throws Exception
+	{
+		server = new LoopbackServer(length, 0, 0, 0, 16);
+		server.start();
+
+		jsonURL = server.getURL("/json");
+		echoURL = server.getURL("/echo");
+		requester = new HttpRequester(HttpRequester.Method.GET, server.getURL("/$1").toString(),
+			"application/json");
+		document = JsonDocuments.create(length).getBytes("UTF-8");
+
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("maxConnectionsPerRoute", 32);
+		properties.put("asyncEngine", engine);
+		client = HttpClients.create(properties);
+		preparedGet = client.prepareGet(null, ACCEPT_JSON, null);
+	}
+
+
+
+
+
+
+	@TearDown
+	public void tearDown()
+	{
+		client.invalidate();
+		server.stop();
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponse get()
+	{
+		return client.sendRequest(HttpMethod.GET, jsonURL, null, null, null, ACCEPT_JSON, null);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponse preparedGet()
+	{
+		return preparedGet.send(jsonURL);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public Object getAsJSON()
+	{
+		return client
+			.sendRequest(HttpMethod.GET, jsonURL, null, null, null, ACCEPT_JSON, null)
+			.getContentAsJSON();
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponse post()
+	{
+		return client.sendRequest(
+			HttpMethod.POST,
+			echoURL,
+			null,
+			"application/json",
+			document,
+			ACCEPT_JSON,
+			null);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponse requester() throws MalformedURLException
+	{
+		return requester.sendRequest(client, "json");
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponse asyncGet() throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		final HttpResponse[] response = new HttpResponse[1];
+		client.get(jsonURL, ACCEPT_JSON, null, new HttpResponseHandler() {
+
+			@Override
+			public void processResponse(HttpResponse _response)
+			{
+				response[0] = _response;
+				done.countDown();
+			}
+		});
+
+		done.await();
+		return response[0];
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * Creates HttpClientServiceImpl instances outside of an OSGi framework.
+ */
+final class HttpClients
+{
+	private HttpClients()
+	{}
+
+
+
+
+
+
+	/**
+	 * Create and start a client configured with the default values of its iPOJO properties,
+	 * overridden by the given ones. As iPOJO does, values are injected into the fields of the
+	 * component.
+	 * 
+	 * @param properties
+	 *            values of the client properties, by field name. Values given as strings are
+	 *            converted to the type of their field.
+	 * @throws IllegalArgumentException
+	 *             if a property is unknown or its value cannot be converted.
+	 */
+	static HttpClientServiceImpl create(Map<String, ?> properties)
+	{
+		Map<String, Object> _properties = new HashMap<String, Object>();
+		_properties.put("maxConnectionsPerRoute", 5);
+		_properties.put("connectionIdleTimeout", 30000L);
+		_properties.put("connectionLeaseTimeout", 30000L);
+		_properties.put("validateAfterInactivity", 2000L);
+		_properties.put("asyncCorePoolSize", 4);
+		_properties.put("asyncMaxPoolSize", 16);
+		_properties.put("asyncQueueCapacity", 1000);
+		_properties.put("asyncKeepAliveTime", 60000L);
+		_properties.put("asyncRejectionPolicy", "callerRuns");
+		_properties.put("asyncEngine", "blocking");
+		_properties.put("nioSelectorThreads", 2);
+		_properties.put("nioMaxConnectionsPerRoute", 32);
+		_properties.put("tlsProtocol", "TLS");
+		_properties.put("tlsTrustStore", "");
+		_properties.put("tlsTrustStorePassword", "");
+		_properties.put("tlsTrustStoreType", "JKS");
+		_properties.put("tlsKeyStore", "");
+		_properties.put("tlsKeyStorePassword", "");
+		_properties.put("tlsKeyStoreType", "JKS");
+		_properties.put("tlsSessionCacheSize", 1000);
+		_properties.put("tlsSessionTimeout", 86400);
+		_properties.put("compressionThreshold", -1);
+		_properties.put("cacheMaxSize", 16777216L);
+		_properties.put("cacheMaxEntrySize", 1048576);
+		_properties.put("connectTimeout", 30000);
+		_properties.put("readTimeout", 30000);
+		_properties.put("retryBackoff", 200L);
+		_properties.put("retryMaxBackoff", 10000L);
+		_properties.put("retryStatuses", "502,503,504");
+		_properties.put("protocol", "HTTP/1.1");
+		_properties.put("circuitWindowSize", 20);
+		_properties.put("circuitMinimumRequests", 10);
+		_properties.put("circuitOpenDuration", 30000L);
+		_properties.put("metricsEnabled", true);
+		if (properties != null)
+		{
+			_properties.putAll(properties);
+		}
+
+		HttpClientServiceImpl client = new HttpClientServiceImpl(null);
+		for (Map.Entry<String, Object> property : _properties.entrySet())
+		{
+			try
+			{
+				Field field = HttpClientServiceImpl.class.getDeclaredField(property.getKey());
+				field.setAccessible(true);
+				field.set(client, convert(property.getValue(), field.getType()));
+			}
+			catch (NoSuchFieldException e)
+			{
+				throw new IllegalArgumentException("Unknown client property: "
+					+ property.getKey(), e);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IllegalArgumentException("Cannot set client property: "
+					+ property.getKey(), e);
+			}
+		}
+
+		client.validate();
+		return client;
+	}
+
+
+
+
+
+
+	private static Object convert(Object value, Class<?> type)
+	{
+		if (!(value instanceof String)
+			|| type == String.class)
+		{
+			return value;
+		}
+
+		String text = ((String) value).trim();
+		if (type == int.class)
+		{
+			return Integer.valueOf(text);
+		}
+		else if (type == long.class)
+		{
+			return Long.valueOf(text);
+		}
+		else if (type == boolean.class)
+		{
+			return Boolean.valueOf(text);
+		}
+
+		throw new IllegalArgumentException("Unsupported property type: "
+			+ type.getName());
+	}
+}
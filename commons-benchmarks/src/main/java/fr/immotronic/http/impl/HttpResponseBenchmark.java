@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measure the reading of responses by HttpResponseImpl, from the parsing of the status line and
+ * headers to the parsing of the content as JSON, without any network: responses are read from
+ * memory.
+ * 
+ * The 'chunked' parameter selects between a 'Content-Length' header and the chunked transfer
+ * coding, which goes through ChunkedInputStream and reads a content of unknown length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpResponseBenchmark
+{
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String[] ACCEPT_JSON = new String[] { "application/json" };
+	private static final int CHUNK_SIZE = 8192;
+
+	/** Length in bytes of the JSON content. */
+	@Param({ "256", "65536", "1048576" })
+	private int length;
+
+	/** True if the content is sent with the chunked transfer coding. */
+	@Param({ "false", "true" })
+	private boolean chunked;
+
+	private HttpRequest request;
+	private byte[] response;
+
+
+
+
+
+
+	@Setup
+	public void setup() throws IOException
+	{
+		request = new HttpRequest(
+			HttpMethod.GET,
+			new URL("http://gateway.example.com:8080/api/v1/readings"),
+			null,
+			null,
+			null,
+			ACCEPT_JSON,
+			null);
+
+		byte[] content = JsonDocuments.create(length).getBytes(UTF8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 1024);
+		out.write(("HTTP/1.1 200 OK\r\n"
+			+ "Date: Mon, 02 Jun 2014 10:00:00 GMT\r\n"
+			+ "Server: benchmark\r\n"
+			+ "Content-Type: application/json; charset=UTF-8\r\n"
+			+ "Cache-Control: no-cache\r\n").getBytes(ASCII));
+
+		if (chunked)
+		{
+			out.write("Transfer-Encoding: chunked\r\n\r\n".getBytes(ASCII));
+			for (int offset = 0; offset < content.length; offset += CHUNK_SIZE)
+			{
+				int size = Math.min(CHUNK_SIZE, content.length
+					- offset);
+
+				out.write((Integer.toHexString(size) + "\r\n").getBytes(ASCII));
+				out.write(content, offset, size);
+				out.write("\r\n".getBytes(ASCII));
+			}
+			out.write("0\r\n\r\n".getBytes(ASCII));
+		}
+		else
+		{
+			out.write(("Content-Length: "
+				+ content.length + "\r\n\r\n").getBytes(ASCII));
+			out.write(content);
+		}
+
+		response = out.toByteArray();
+	}
+
+
+
+
+
+
+	@Benchmark
+	public HttpResponseImpl read() throws IOException
+	{
+		InputStream in = new ByteArrayInputStream(response);
+		HttpResponseHead head = HttpResponseHead.read(in, request);
+
+		// Body framing as done by HttpExchange.
+		InputStream body = head.isChunked()
+			? new ChunkedInputStream(in)
+			: new FixedLengthInputStream(in, head.getContentLengthLong());
+
+		return new HttpResponseImpl(head, body, ACCEPT_JSON);
+	}
+
+
+
+
+
+
+	@Benchmark
+	public Object readAsJSON() throws IOException
+	{
+		return read().getContentAsJSON();
+	}
+}
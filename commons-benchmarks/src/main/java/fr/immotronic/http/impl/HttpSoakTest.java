@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import fr.immotronic.commons.http.HttpClientStatistics;
+import fr.immotronic.commons.http.HttpLatencyHistogram;
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.HttpStatus;
+
+
+
+/**
+ * A load generator driving HttpClientServiceImpl with sustained concurrency against a loopback
+ * server, to observe its behavior over time rather than the cost of a single request: growth of
+ * the async executor, connections and file descriptors, heap held by buffered responses.
+ * 
+ * Synchronous requests are sent by 'syncThreads' threads in a loop, asynchronous ones are kept
+ * 'asyncRequests' in flight. Every 'interval' seconds, a line reports the throughput, the latency
+ * percentiles of that interval, the number of live threads, the used heap, the open file
+ * descriptors and the state of the client. A summary is printed at the end of the run.
+ * 
+ * Run with 'java -cp benchmarks.jar fr.immotronic.http.impl.HttpSoakTest [option=value]...'.
+ * Options, with their default values:
+ * 
+ * <ul>
+ * <li>duration=60: length of the run, in seconds.</li>
+ * <li>interval=5: period of the reports, in seconds.</li>
+ * <li>syncThreads=50: number of threads sending synchronous requests.</li>
+ * <li>asyncRequests=500: number of asynchronous requests in flight.</li>
+ * <li>method=get: 'get' to fetch a document, 'post' to send one and get it back.</li>
+ * <li>bodySize=4096: length in bytes of the documents.</li>
+ * <li>latency=20: delay before the server responds, in milliseconds.</li>
+ * <li>errorRate=0: share of requests answered with '503 Service Unavailable'.</li>
+ * <li>dropRate=0: share of requests whose connection is closed without any response.</li>
+ * <li>serverThreads=32: number of threads of the server reading requests.</li>
+ * <li>client.&lt;field&gt;=&lt;value&gt;: a property of the client, by field name of
+ * HttpClientServiceImpl, such as 'client.asyncEngine=nio' or
+ * 'client.maxConnectionsPerRoute=100'.</li>
+ * </ul>
+ */
+public final class HttpSoakTest
+{
+	private static final String[] ACCEPT_JSON = new String[] { "application/json" };
+	private static final String CLIENT_OPTION_PREFIX = "client.";
+	private static final long DRAIN_TIMEOUT = 60000;
+
+	private final Map<String, String> options;
+	private final HttpClientServiceImpl client;
+	private final LoopbackServer server;
+	private final URL url;
+	private final byte[] document;
+	private final boolean post;
+
+	private final AtomicReference<LatencyHistogram> intervalLatencies;
+	private final LatencyHistogram latencies;
+	private final AtomicLong completed;
+	private final AtomicLong failed;
+	private final Semaphore asyncSlots;
+	private volatile boolean running = true;
+
+
+
+
+
+
+	private HttpSoakTest(Map<String, String> options) throws Exception
+	{
+		this.options = options;
+
+		Map<String, String> clientProperties = new HashMap<String, String>();
+		for (Map.Entry<String, String> option : options.entrySet())
+		{
+			if (option.getKey().startsWith(CLIENT_OPTION_PREFIX))
+			{
+				clientProperties.put(
+					option.getKey().substring(CLIENT_OPTION_PREFIX.length()),
+					option.getValue());
+			}
+		}
+
+		int bodySize = getInt("bodySize", 4096);
+		post = "post".equalsIgnoreCase(getString("method", "get"));
+		document = JsonDocuments.create(bodySize).getBytes("UTF-8");
+
+		server = new LoopbackServer(
+			bodySize,
+			getInt("latency", 20),
+			getDouble("errorRate", 0),
+			getDouble("dropRate", 0),
+			getInt("serverThreads", 32));
+		url = server.getURL(post ? "/echo" : "/json");
+		client = HttpClients.create(clientProperties);
+
+		intervalLatencies = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+		latencies = new LatencyHistogram();
+		completed = new AtomicLong();
+		failed = new AtomicLong();
+		asyncSlots = new Semaphore(getInt("asyncRequests", 500));
+	}
+
+
+
+
+
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args)
+		{
+			int separator = arg.indexOf('=');
+			if (separator <= 0)
+			{
+				System.err.println("Invalid option '"
+					+ arg + "': options are given as 'name=value'.");
+				System.exit(2);
+			}
+
+			options.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		new HttpSoakTest(options).run();
+		System.exit(0);
+	}
+
+
+
+
+
+
+	private void run() throws InterruptedException
+	{
+		long duration = TimeUnit.SECONDS.toMillis(getInt("duration", 60));
+		long interval = TimeUnit.SECONDS.toMillis(getInt("interval", 5));
+		int syncThreads = getInt("syncThreads", 50);
+		int asyncRequests = getInt("asyncRequests", 500);
+
+		server.start();
+		System.out.println("Soak test of "
+			+ url + " for " + (duration / 1000) + " s, options: " + options);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < syncThreads; i++)
+		{
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					while (running)
+					{
+						long start = System.nanoTime();
+						record(start, sendRequest());
+					}
+				}
+			}, "soak-sync-" + i));
+		}
+
+		if (asyncRequests > 0)
+		{
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						while (running)
+						{
+							asyncSlots.acquire();
+							sendAsyncRequest();
+						}
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "soak-async"));
+		}
+
+		for (Thread thread : threads)
+		{
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		System.out.println(String.format(
+			"%8s %9s %8s %8s %8s %8s %8s %8s %8s %6s %7s %6s %6s %7s",
+			"time(s)", "req/s", "failed", "p50(ms)", "p99(ms)", "p99.9", "max(ms)", "threads",
+			"heap(MB)", "fds", "leased", "idle", "async", "queue"));
+
+		long start = System.currentTimeMillis();
+		long lastElapsed = 0;
+		long lastCompleted = 0;
+		long lastFailed = 0;
+		long now;
+		while ((now = System.currentTimeMillis()) - start < duration)
+		{
+			Thread.sleep(Math.min(interval, duration
+				- (now - start)));
+
+			long _completed = completed.get();
+			long _failed = failed.get();
+			long elapsed = System.currentTimeMillis()
+				- start;
+
+			report(
+				elapsed,
+				(_completed - lastCompleted) * 1000.0 / Math.max(1, elapsed
+					- lastElapsed),
+				_failed - lastFailed,
+				intervalLatencies.getAndSet(new LatencyHistogram()).getSnapshot());
+
+			lastElapsed = elapsed;
+			lastCompleted = _completed;
+			lastFailed = _failed;
+		}
+
+		running = false;
+		for (Thread thread : threads)
+		{
+			thread.join(DRAIN_TIMEOUT);
+		}
+
+		if (!asyncSlots.tryAcquire(asyncRequests, DRAIN_TIMEOUT, TimeUnit.MILLISECONDS))
+		{
+			System.out.println("Some asynchronous requests have not completed after "
+				+ (DRAIN_TIMEOUT / 1000) + " s.");
+		}
+
+		summarize(System.currentTimeMillis()
+			- start);
+
+		client.invalidate();
+		server.stop();
+	}
+
+
+
+
+
+
+	private HttpResponse sendRequest()
+	{
+		try
+		{
+			return client.sendRequest(
+				post ? HttpMethod.POST : HttpMethod.GET,
+				url,
+				null,
+				post ? "application/json" : null,
+				post ? document : null,
+				ACCEPT_JSON,
+				null);
+		}
+		catch (RuntimeException e)
+		{
+			return null;
+		}
+	}
+
+
+
+
+
+
+	private void sendAsyncRequest()
+	{
+		final long start = System.nanoTime();
+		HttpResponseHandler handler = new HttpResponseHandler() {
+
+			@Override
+			public void processResponse(HttpResponse response)
+			{
+				record(start, response);
+				asyncSlots.release();
+			}
+		};
+
+		try
+		{
+			if (post)
+			{
+				client.post(url, "application/json", document, ACCEPT_JSON, null, handler);
+			}
+			else
+			{
+				client.get(url, ACCEPT_JSON, null, handler);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			record(start, null);
+			asyncSlots.release();
+		}
+	}
+
+
+
+
+
+
+	private void record(long start, HttpResponse response)
+	{
+		long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+			- start);
+
+		intervalLatencies.get().record(latency);
+		latencies.record(latency);
+		completed.incrementAndGet();
+
+		if (response == null
+			|| response.getStatus() != HttpStatus.OK)
+		{
+			failed.incrementAndGet();
+		}
+	}
+
+
+
+
+
+
+	private void report(long elapsed, double throughput, long _failed, HttpLatencyHistogram histogram)
+	{
+		HttpClientStatistics statistics = client.getStatistics();
+
+		System.out.println(String.format(
+			"%8.1f %9.1f %8d %8.1f %8.1f %8.1f %8.1f %8d %8d %6d %7d %6d %6d %7d",
+			elapsed / 1000.0,
+			throughput,
+			_failed,
+			histogram.getValueAtPercentile(50) / 1000.0,
+			histogram.getValueAtPercentile(99) / 1000.0,
+			histogram.getValueAtPercentile(99.9) / 1000.0,
+			histogram.getMax() / 1000.0,
+			ManagementFactory.getThreadMXBean().getThreadCount(),
+			ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024),
+			getOpenFileDescriptors(),
+			statistics.getLeasedConnections(),
+			statistics.getIdleConnections(),
+			statistics.getAsyncPoolSize(),
+			statistics.getAsyncQueueDepth()));
+	}
+
+
+
+
+
+
+	private void summarize(long elapsed)
+	{
+		HttpLatencyHistogram histogram = latencies.getSnapshot();
+		HttpClientStatistics statistics = client.getStatistics();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		System.out.println();
+		System.out.println(String.format(
+			"%d requests in %.1f s: %.1f req/s, %d failed",
+			completed.get(),
+			elapsed / 1000.0,
+			completed.get() * 1000.0 / elapsed,
+			failed.get()));
+		System.out.println(String.format(
+			"latency (ms): min %.1f, mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+			histogram.getMin() / 1000.0,
+			histogram.getMean() / 1000.0,
+			histogram.getValueAtPercentile(50) / 1000.0,
+			histogram.getValueAtPercentile(90) / 1000.0,
+			histogram.getValueAtPercentile(99) / 1000.0,
+			histogram.getValueAtPercentile(99.9) / 1000.0,
+			histogram.getMax() / 1000.0));
+		System.out.println("response codes: "
+			+ statistics.getResponseCodeCounts());
+		System.out.println(String.format(
+			"server: %d requests, %d errors and %d drops injected",
+			server.getRequests(),
+			server.getErrors(),
+			server.getDrops()));
+		System.out.println(String.format(
+			"threads: %d live, %d peak; async executor: %d largest pool, %d rejected",
+			threads.getThreadCount(),
+			threads.getPeakThreadCount(),
+			statistics.getAsyncLargestPoolSize(),
+			statistics.getAsyncRejectedRequests()));
+		System.out.println(String.format(
+			"connections: %d pool hits, %d misses, %d stale, %d lease waits (%d ms)",
+			statistics.getConnectionPoolHits(),
+			statistics.getConnectionPoolMisses(),
+			statistics.getStaleConnections(),
+			statistics.getConnectionLeaseWaits(),
+			statistics.getConnectionLeaseWaitTime()));
+		System.out.println(String.format(
+			"bytes: %d sent, %d received",
+			statistics.getBytesSent(),
+			statistics.getBytesReceived()));
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of file descriptors opened by the process, or -1 if unknown.
+	 */
+	private static long getOpenFileDescriptors()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof UnixOperatingSystemMXBean)
+		{
+			return ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+		}
+
+		return -1;
+	}
+
+
+
+
+
+
+	private String getString(String name, String defaultValue)
+	{
+		String value = options.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+
+
+
+
+
+
+	private int getInt(String name, int defaultValue)
+	{
+		String value = options.get(name);
+		return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+
+
+
+
+
+	private double getDouble(String name, double defaultValue)
+	{
+		String value = options.get(name);
+		return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+	}
+}
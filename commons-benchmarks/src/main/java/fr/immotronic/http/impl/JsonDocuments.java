@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.util.Locale;
+
+
+
+/**
+ * JSON documents of a given length, shaped as the sensor readings that gateways exchange.
+ */
+final class JsonDocuments
+{
+	private JsonDocuments()
+	{}
+
+
+
+
+
+
+	/**
+	 * @return a JSON object holding an array of readings, of at least 'length' characters.
+	 */
+	static String create(int length)
+	{
+		StringBuilder document = new StringBuilder(length + 128);
+		document.append("{\"gateway\":\"gw-0001\",\"readings\":[");
+
+		int i = 0;
+		while (document.length() < length)
+		{
+			if (i > 0)
+			{
+				document.append(',');
+			}
+
+			document.append("{\"id\":\"sensor-").append(i).append("\",\"timestamp\":")
+				.append(1400000000000L + i * 1000L).append(",\"value\":")
+				.append(String.format(Locale.ROOT, "%.2f", 20 + (i % 100) / 10.0))
+				.append(",\"valid\":").append(i % 7 != 0).append('}');
+
+			i++;
+		}
+
+		return document.append("]}").toString();
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+
+/**
+ * An HTTP server listening on the loopback interface, serving:
+ * 
+ * <ul>
+ * <li>'/json': a JSON document of a fixed length,</li>
+ * <li>'/echo': the content of the request, as a JSON document.</li>
+ * </ul>
+ * 
+ * Responses can be delayed, and failures injected: a share of requests gets a '503 Service
+ * Unavailable' response, another share has its connection closed without any response. Delayed
+ * responses are sent by a scheduler, so that thousands of pending responses do not hold as many
+ * threads.
+ */
+final class LoopbackServer
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService scheduler;
+	private final byte[] document;
+	private final long latency;
+	private final double errorRate;
+	private final double dropRate;
+	private final Random random;
+	private final AtomicLong requests;
+	private final AtomicLong errors;
+	private final AtomicLong drops;
+
+
+
+
+
+
+	static
+	{
+		// The JDK server writes the head and the body of responses separately: without
+		// TCP_NODELAY, delayed acknowledgments add 40 ms to most exchanges.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+		{
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @param documentLength
+	 *            length in bytes of the JSON document served at '/json'.
+	 * @param latency
+	 *            delay before each response is sent, in milliseconds. 0 to respond at once.
+	 * @param errorRate
+	 *            share of requests answered with '503 Service Unavailable', from 0 to 1.
+	 * @param dropRate
+	 *            share of requests whose connection is closed without any response, from 0 to 1.
+	 * @param threads
+	 *            number of threads reading requests.
+	 */
+	LoopbackServer(int documentLength, long latency, double errorRate, double dropRate, int threads)
+		throws IOException
+	{
+		this.document = JsonDocuments.create(documentLength).getBytes(UTF8);
+		this.latency = latency;
+		this.errorRate = errorRate;
+		this.dropRate = dropRate;
+		random = new Random();
+		requests = new AtomicLong();
+		errors = new AtomicLong();
+		drops = new AtomicLong();
+
+		executor = Executors.newFixedThreadPool(threads);
+		scheduler = Executors.newScheduledThreadPool(Math.max(1, threads / 4));
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/json", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				drainRequestBody(exchange);
+				respond(exchange, document);
+			}
+		});
+		server.createContext("/echo", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				respond(exchange, drainRequestBody(exchange));
+			}
+		});
+		server.setExecutor(executor);
+	}
+
+
+
+
+
+
+	void start()
+	{
+		server.start();
+	}
+
+
+
+
+
+
+	void stop()
+	{
+		server.stop(0);
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+
+
+
+
+
+	URL getURL(String path) throws MalformedURLException
+	{
+		return new URL("http://127.0.0.1:"
+			+ server.getAddress().getPort() + path);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests received.
+	 */
+	long getRequests()
+	{
+		return requests.get();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests answered with '503 Service Unavailable' on purpose.
+	 */
+	long getErrors()
+	{
+		return errors.get();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests whose connection has been closed on purpose.
+	 */
+	long getDrops()
+	{
+		return drops.get();
+	}
+
+
+
+
+
+
+	private void respond(final HttpExchange exchange, final byte[] content)
+	{
+		requests.incrementAndGet();
+
+		if (latency <= 0)
+		{
+			send(exchange, content);
+			return;
+		}
+
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				send(exchange, content);
+			}
+		}, latency, TimeUnit.MILLISECONDS);
+	}
+
+
+
+
+
+
+	private void send(HttpExchange exchange, byte[] content)
+	{
+		double draw;
+		synchronized (random)
+		{
+			draw = random.nextDouble();
+		}
+
+		try
+		{
+			if (draw < dropRate)
+			{
+				// Closing an exchange before sending its response head closes its connection.
+				drops.incrementAndGet();
+			}
+			else if (draw < dropRate
+				+ errorRate)
+			{
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(503, -1);
+			}
+			else
+			{
+				exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+				exchange.sendResponseHeaders(200, (content.length == 0) ? -1 : content.length);
+				if (content.length > 0)
+				{
+					exchange.getResponseBody().write(content);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// The client has gone: nothing more to do than closing the exchange.
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+
+
+
+
+
+	private static byte[] drainRequestBody(HttpExchange exchange) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+		{
+			out.write(buffer, 0, read);
+		}
+
+		return out.toByteArray();
+	}
+}
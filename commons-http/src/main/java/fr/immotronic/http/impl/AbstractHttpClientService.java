@@ -0,0 +1,1179 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fr.immotronic.commons.http.HttpClientService;
+import fr.immotronic.commons.http.HttpCredential;
+import fr.immotronic.commons.http.HttpPreparedRequest;
+import fr.immotronic.commons.http.HttpRequestBody;
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseFuture;
+import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.HttpStreamedResponse;
+
+
+
+/**
+ * The convenience methods of HttpClientService, expressed in terms of three ways of sending a
+ * request: synchronously, asynchronously, and synchronously without reading the response content
+ * in memory. Requests which content is read from an HttpRequestBody are sent synchronously or
+ * asynchronously by their own methods, and prepared requests are created by their own method.
+ */
+abstract class AbstractHttpClientService implements HttpClientService
+{
+	@Override
+	public HttpResponse get(URL url, Map<String, String> headers)
+	{
+		return get(url, null, (String) null, headers);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url, Map<String, String> headers, HttpResponseHandler responseHandler)
+	{
+		get(url, null, (String) null, headers, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse get(URL url, String accept, Map<String, String> otherHeaders)
+	{
+		return get(url, null, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url,
+					String accept,
+					Map<String, String> otherHeaders,
+					HttpResponseHandler responseHandler)
+	{
+		get(url, null, accept, otherHeaders, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse get(URL url, String[] accept, Map<String, String> otherHeaders)
+	{
+		return get(url, null, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url,
+					String[] accept,
+					Map<String, String> otherHeaders,
+					HttpResponseHandler responseHandler)
+	{
+		get(url, null, accept, otherHeaders, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse get(URL url, HttpCredential credential, Map<String, String> otherHeaders)
+	{
+		return get(url, credential, (String) null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url,
+					HttpCredential credential,
+					Map<String, String> otherHeaders,
+					HttpResponseHandler responseHandler)
+	{
+		get(url, credential, (String) null, otherHeaders, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse get(URL url,
+							HttpCredential credential,
+							String accept,
+							Map<String, String> otherHeaders)
+	{
+		return get(url, credential, explodeAccept(accept), otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url,
+					HttpCredential credential,
+					String accept,
+					Map<String, String> otherHeaders,
+					HttpResponseHandler responseHandler)
+	{
+		get(url, credential, explodeAccept(accept), otherHeaders, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse get(URL url,
+							HttpCredential credential,
+							String[] accept,
+							Map<String, String> otherHeaders)
+	{
+		return sendRequest(HttpMethod.GET, url, credential, null, null, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void get(URL url,
+					HttpCredential credential,
+					String[] accept,
+					Map<String, String> otherHeaders,
+					HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.GET,
+			url,
+			credential,
+			null,
+			null,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								String contentType,
+								byte[] content,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(HttpMethod.POST, url, null, contentType, content, null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						String contentType,
+						byte[] content,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			null,
+			contentType,
+			content,
+			null,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								String contentType,
+								byte[] content,
+								String accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.POST,
+			url,
+			null,
+			contentType,
+			content,
+			explodeAccept(accept),
+			otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						String contentType,
+						byte[] content,
+						String accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			null,
+			contentType,
+			content,
+			explodeAccept(accept),
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(HttpMethod.POST, url, null, contentType, content, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			null,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			null,
+			otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			null,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			explodeAccept(accept),
+			otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			explodeAccept(accept),
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								String contentType,
+								HttpRequestBody content,
+								Map<String, String> otherHeaders)
+	{
+		return sendBodyRequest(HttpMethod.POST, url, null, contentType, content, null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse post(	URL url,
+								HttpCredential credential,
+								String contentType,
+								HttpRequestBody content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendBodyRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void post(	URL url,
+						HttpCredential credential,
+						String contentType,
+						HttpRequestBody content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncBodyRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse delete(URL url, Map<String, String> headers)
+	{
+		return sendRequest(HttpMethod.DELETE, url, null, null, null, null, headers);
+	}
+
+
+
+
+
+
+	@Override
+	public void delete(URL url, Map<String, String> headers, HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(HttpMethod.DELETE, url, null, null, null, null, headers, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse
+		delete(URL url, HttpCredential credential, Map<String, String> otherHeaders)
+	{
+		return sendRequest(HttpMethod.DELETE, url, credential, null, null, null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public void delete(	URL url,
+						HttpCredential credential,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.DELETE,
+			url,
+			credential,
+			null,
+			null,
+			null,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse head(URL url, HttpCredential credential, Map<String, String> otherHeaders)
+	{
+		return sendRequest(HttpMethod.HEAD, url, credential, null, null, null, otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public void head(	URL url,
+						HttpCredential credential,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.HEAD,
+			url,
+			credential,
+			null,
+			null,
+			null,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+	@Override
+	public HttpResponse put(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.PUT,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public void put(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.PUT,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+	@Override
+	public HttpResponse put(	URL url,
+								HttpCredential credential,
+								String contentType,
+								HttpRequestBody content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendBodyRequest(
+			HttpMethod.PUT,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public HttpResponse patch(	URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders)
+	{
+		return sendRequest(
+			HttpMethod.PATCH,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public void patch(	URL url,
+						HttpCredential credential,
+						String contentType,
+						byte[] content,
+						String[] accept,
+						Map<String, String> otherHeaders,
+						HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(
+			HttpMethod.PATCH,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			responseHandler);
+	}
+
+
+
+
+
+	@Override
+	public HttpResponse getRange(	URL url,
+									HttpCredential credential,
+									String[] accept,
+									Map<String, String> otherHeaders,
+									long offset,
+									long length,
+									String ifRange)
+	{
+		return sendRequest(
+			HttpMethod.GET,
+			url,
+			credential,
+			null,
+			null,
+			accept,
+			withRange(otherHeaders, offset, length, ifRange));
+	}
+
+
+
+
+
+	@Override
+	public HttpStreamedResponse getStreamedRange(	URL url,
+													HttpCredential credential,
+													String[] accept,
+													Map<String, String> otherHeaders,
+													long offset,
+													long length,
+													String ifRange)
+	{
+		return sendStreamedRequest(
+			HttpMethod.GET,
+			url,
+			credential,
+			accept,
+			withRange(otherHeaders, offset, length, ifRange));
+	}
+
+
+
+
+
+	@Override
+	public HttpResponseFuture getAsync(URL url, Map<String, String> headers)
+	{
+		return getAsync(url, null, null, headers);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture getAsync(	URL url,
+										HttpCredential credential,
+										String[] accept,
+										Map<String, String> otherHeaders)
+	{
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		sendAsyncRequest(HttpMethod.GET, url, credential, null, null, accept, otherHeaders, future);
+
+		return future;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture postAsync(URL url,
+										String contentType,
+										byte[] content,
+										Map<String, String> otherHeaders)
+	{
+		return postAsync(url, null, contentType, content, null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture postAsync(URL url,
+										HttpCredential credential,
+										String contentType,
+										byte[] content,
+										String[] accept,
+										Map<String, String> otherHeaders)
+	{
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		sendAsyncRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			future);
+
+		return future;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture postAsync(URL url,
+										HttpCredential credential,
+										String contentType,
+										HttpRequestBody content,
+										String[] accept,
+										Map<String, String> otherHeaders)
+	{
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		sendAsyncBodyRequest(
+			HttpMethod.POST,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			future);
+
+		return future;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture deleteAsync(URL url, Map<String, String> headers)
+	{
+		return deleteAsync(url, null, headers);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture deleteAsync(	URL url,
+											HttpCredential credential,
+											Map<String, String> otherHeaders)
+	{
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		sendAsyncRequest(HttpMethod.DELETE, url, credential, null, null, null, otherHeaders, future);
+
+		return future;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpStreamedResponse getStreamed(URL url, Map<String, String> headers)
+	{
+		return getStreamed(url, null, null, headers);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpStreamedResponse getStreamed(URL url,
+											HttpCredential credential,
+											String[] accept,
+											Map<String, String> otherHeaders)
+	{
+		return sendStreamedRequest(HttpMethod.GET, url, credential, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest prepareGet(	HttpCredential credential,
+											String[] accept,
+											Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.GET, credential, null, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest preparePost(	HttpCredential credential,
+											String contentType,
+											String[] accept,
+											Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.POST, credential, contentType, accept, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest prepareDelete(	HttpCredential credential,
+												Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.DELETE, credential, null, null, otherHeaders);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest prepareHead(	HttpCredential credential,
+											Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.HEAD, credential, null, null, otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest preparePut(	HttpCredential credential,
+											String contentType,
+											String[] accept,
+											Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.PUT, credential, contentType, accept, otherHeaders);
+	}
+
+
+
+
+
+	@Override
+	public HttpPreparedRequest preparePatch(	HttpCredential credential,
+												String contentType,
+												String[] accept,
+												Map<String, String> otherHeaders)
+	{
+		return prepareRequest(HttpMethod.PATCH, credential, contentType, accept, otherHeaders);
+	}
+
+
+
+
+
+	/**
+	 * Add the headers of a range request to the headers given by client code. The content of a
+	 * range request is not compressed, unless client code asks for it: the range applies to the
+	 * content as sent by the server, and a part of a compressed content cannot be decoded alone.
+	 */
+	private Map<String, String> withRange(	Map<String, String> otherHeaders,
+											long offset,
+											long length,
+											String ifRange)
+	{
+		if (offset < 0)
+		{
+			throw new IllegalArgumentException("'offset' argument cannot be negative");
+		}
+
+		if (length < -1
+			|| length == 0)
+		{
+			throw new IllegalArgumentException("'length' argument must be positive, or -1");
+		}
+
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		if (otherHeaders != null)
+		{
+			headers.putAll(otherHeaders);
+		}
+
+		String lastBytePosition = (length == -1) ? "" : Long.toString(offset
+			+ length - 1);
+		headers.put("Range", "bytes="
+			+ offset + "-" + lastBytePosition);
+
+		if (ifRange != null)
+		{
+			headers.put("If-Range", ifRange);
+		}
+
+		if (!headers.containsKey("Accept-Encoding"))
+		{
+			headers.put("Accept-Encoding", "identity");
+		}
+
+		return headers;
+	}
+
+
+
+
+
+	private String[] explodeAccept(String accept)
+	{
+		String[] _accept = null;
+		if (accept != null)
+		{
+			_accept = accept.split(",");
+		}
+
+		return _accept;
+	}
+
+
+
+
+
+
+	abstract HttpResponse sendRequest(	HttpMethod method,
+										URL url,
+										HttpCredential credential,
+										String contentType,
+										byte[] content,
+										String[] accept,
+										Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * @param responseHandler
+	 *            the handler to call with the response, or null.
+	 */
+	abstract void sendAsyncRequest(	HttpMethod method,
+									URL url,
+									HttpCredential credential,
+									String contentType,
+									byte[] content,
+									String[] accept,
+									Map<String, String> otherHeaders,
+									HttpResponseHandler responseHandler);
+
+
+
+
+
+
+	/**
+	 * Send a request which content is read from its source while the request is sent.
+	 */
+	abstract HttpResponse sendBodyRequest(	HttpMethod method,
+											URL url,
+											HttpCredential credential,
+											String contentType,
+											HttpRequestBody content,
+											String[] accept,
+											Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * Send a request which content is read from its source while the request is sent.
+	 * 
+	 * @param responseHandler
+	 *            the handler to call with the response, or null.
+	 */
+	abstract void sendAsyncBodyRequest(	HttpMethod method,
+										URL url,
+										HttpCredential credential,
+										String contentType,
+										HttpRequestBody content,
+										String[] accept,
+										Map<String, String> otherHeaders,
+										HttpResponseHandler responseHandler);
+
+
+
+
+
+
+	abstract HttpStreamedResponse sendStreamedRequest(	HttpMethod method,
+														URL url,
+														HttpCredential credential,
+														String[] accept,
+														Map<String, String> otherHeaders);
+
+
+
+
+
+
+	/**
+	 * @param otherHeaders
+	 *            the headers given by client code, or null. The map must be copied.
+	 */
+	abstract HttpPreparedRequest prepareRequest(	HttpMethod method,
+													HttpCredential credential,
+													String contentType,
+													String[] accept,
+													Map<String, String> otherHeaders);
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+
+
+/**
+ * A single request/response exchange, independently of the version of the protocol it is
+ * performed with.
+ * 
+ * The exchange gives back its transport as soon as the response body has been entirely read
+ * from the stream returned by getInputStream(), or closes it if this stream is closed before, or
+ * if abort() is called. The permit of the request and its measures are released at the same
+ * time.
+ * 
+ * Reads of the response body fail once the total deadline of the request has passed, even if
+ * the server keeps sending bytes.
+ */
+abstract class AbstractHttpExchange
+{
+	final HttpRequest request;
+	final RequestMetrics metrics;
+	private final RequestLimiter.Permit permit;
+	private final long deadline;
+	long bytesSent = 0;
+	HttpResponseHead responseHead = null;
+	InputStream body = null;
+	private boolean released = false;
+
+
+
+
+
+
+	/**
+	 * @param request
+	 *            the request to send.
+	 * @param permit
+	 *            the permit of the request limit, released with the transport, or null.
+	 * @param metrics
+	 *            the measures of the request, published once the exchange is terminated, or
+	 *            null.
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, after which the response body cannot
+	 *            be read anymore, or Long.MAX_VALUE.
+	 */
+	AbstractHttpExchange(	HttpRequest request,
+							RequestLimiter.Permit permit,
+							RequestMetrics metrics,
+							long deadline)
+	{
+		this.request = request;
+		this.permit = permit;
+		this.metrics = metrics;
+		this.deadline = deadline;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the connection used by this exchange has already been used by a previous
+	 *         exchange.
+	 */
+	abstract boolean isReusedConnection();
+
+
+
+
+
+
+	/**
+	 * Send the request and read the response status line and headers.
+	 * 
+	 * @throws IOException
+	 *             if the request cannot be sent or if the response head cannot be read.
+	 */
+	abstract void send() throws IOException;
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes received by this exchange so far.
+	 */
+	abstract long getBytesReceived();
+
+
+
+
+
+
+	/**
+	 * Give back or close the transport of this exchange.
+	 * 
+	 * @param reusable
+	 *            true if the response has been entirely read.
+	 */
+	abstract void releaseTransport(boolean reusable);
+
+
+
+
+
+
+	/**
+	 * Set the time after which a read of the response body fails if no data is received.
+	 */
+	abstract void setReadTimeout(int readTimeout) throws IOException;
+
+
+
+
+
+
+	/**
+	 * @return the measures of the request, or null if the request is not measured.
+	 */
+	RequestMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the status line and headers of the response, or null if they have not been read
+	 *         yet.
+	 */
+	HttpResponseHead getResponseHead()
+	{
+		return responseHead;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the response body. Reading this stream up to its end gives back the transport.
+	 *         Closing it before closes the transport.
+	 */
+	InputStream getInputStream()
+	{
+		return body;
+	}
+
+
+
+
+
+
+	/**
+	 * Read and discard the remaining of the response body, so the transport can be reused. If
+	 * the remaining body is too big, the transport is closed instead.
+	 */
+	void discard()
+	{
+		try
+		{
+			byte[] buffer = new byte[4096];
+			int discarded = 0;
+			int readLength;
+			while (discarded < 65536
+				&& (readLength = body.read(buffer)) != -1)
+			{
+				discarded += readLength;
+			}
+		}
+		catch (IOException e)
+		{}
+
+		abort();
+	}
+
+
+
+
+
+
+	/**
+	 * Terminate this exchange. The transport is closed, unless the response has been entirely
+	 * read.
+	 */
+	void abort()
+	{
+		release(false);
+	}
+
+
+
+
+
+
+	private void release(boolean reusable)
+	{
+		if (!released)
+		{
+			released = true;
+
+			// Read before the transport is given back, and to another exchange.
+			long bytesReceived = getBytesReceived();
+
+			releaseTransport(reusable);
+
+			if (permit != null)
+			{
+				permit.release();
+			}
+
+			if (metrics != null)
+			{
+				metrics.complete(bytesSent, bytesReceived);
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The response body as given to the client code. Its end of stream gives back the transport.
+	 */
+	final class ResponseBodyInputStream extends FilterInputStream
+	{
+		private boolean eof = false;
+
+
+
+
+
+
+		ResponseBodyInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+
+
+
+
+
+		@Override
+		public int read() throws IOException
+		{
+			if (eof)
+			{
+				return -1;
+			}
+
+			return readOrAbort(null, 0, 1);
+		}
+
+
+
+
+
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (eof)
+			{
+				return -1;
+			}
+
+			return readOrAbort(b, off, len);
+		}
+
+
+
+
+
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			byte[] buffer = new byte[(int) Math.min(n, 4096)];
+			long skipped = 0;
+			int readLength;
+			while (skipped < n
+				&& (readLength = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1)
+			{
+				skipped += readLength;
+			}
+
+			return skipped;
+		}
+
+
+
+
+
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+
+
+
+
+
+		@Override
+		public void close()
+		{
+			if (!eof)
+			{
+				eof = true;
+				release(false);
+			}
+		}
+
+
+
+
+
+
+		private int readOrAbort(byte[] b, int off, int len) throws IOException
+		{
+			try
+			{
+				if (deadline != Long.MAX_VALUE)
+				{
+					checkDeadline();
+				}
+
+				int result = (b == null) ? in.read() : in.read(b, off, len);
+				if (result == -1)
+				{
+					eof = true;
+					release(true);
+				}
+
+				return result;
+			}
+			catch (IOException e)
+			{
+				eof = true;
+				release(false);
+				throw e;
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Fail if the deadline has passed, or make the next read fail when it passes.
+		 */
+		private void checkDeadline() throws IOException
+		{
+			long left = deadline
+				- System.currentTimeMillis();
+
+			if (left <= 0)
+			{
+				throw new SocketTimeoutException(request
+					+ ": total timeout exceeded.");
+			}
+
+			if (left < request.getPolicy().getReadTimeout())
+			{
+				setReadTimeout((int) left);
+			}
+		}
+	}
+}
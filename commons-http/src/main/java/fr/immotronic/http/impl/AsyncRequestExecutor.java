@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * The bounded thread pool that performs asynchronous HTTP requests.
+ * 
+ * Once all threads are busy and the queue is full, new requests are handled according to the
+ * rejection policy:
+ * 
+ * - 'callerRuns': the request is performed by the thread that submitted it, which slows down
+ * submitters until the pool catches up,
+ * 
+ * - 'abort': a RejectedExecutionException is thrown to the thread that submitted the request,
+ * 
+ * - 'discard': the request is not performed: its response handler is called with a
+ * SERVER_TIMEOUT response by another thread.
+ * 
+ * These policies apply to the threads of client code only. Tasks handed over by internal threads,
+ * such as the selector threads of the non-blocking engine, are rejected whatever the policy, as
+ * these threads must never perform them.
+ */
+final class AsyncRequestExecutor extends ThreadPoolExecutor
+{
+	static final String CALLER_RUNS_POLICY = "callerRuns";
+	static final String ABORT_POLICY = "abort";
+	static final String DISCARD_POLICY = "discard";
+
+	/**
+	 * A task notified when it is dropped by the 'discard' rejection policy, so that it can
+	 * release what it holds and answer its request.
+	 */
+	interface DiscardableTask extends Runnable
+	{
+		void discarded();
+	}
+
+	private final AtomicLong rejectedTasks;
+
+	final Logger logger = LoggerFactory.getLogger(AsyncRequestExecutor.class);
+
+
+
+
+
+
+	/**
+	 * Construct and start the executor.
+	 * 
+	 * @param name
+	 *            the prefix of the executor threads names.
+	 * @param corePoolSize
+	 *            the number of threads kept alive even when idle.
+	 * @param maxPoolSize
+	 *            the maximum number of threads, used when the queue is full.
+	 * @param queueCapacity
+	 *            the maximum number of requests waiting for a thread.
+	 * @param keepAliveTime
+	 *            the time, in milliseconds, after which threads above the core pool size
+	 *            terminate when idle.
+	 * @param rejectionPolicy
+	 *            one of 'callerRuns', 'abort' or 'discard'.
+	 */
+	AsyncRequestExecutor(	String name,
+							int corePoolSize,
+							int maxPoolSize,
+							int queueCapacity,
+							long keepAliveTime,
+							String rejectionPolicy)
+	{
+		this(name, corePoolSize, maxPoolSize, queueCapacity, keepAliveTime, rejectionPolicy,
+			new AtomicLong());
+	}
+
+
+
+
+
+
+	private AsyncRequestExecutor(	String name,
+									int corePoolSize,
+									int maxPoolSize,
+									int queueCapacity,
+									long keepAliveTime,
+									String rejectionPolicy,
+									AtomicLong rejectedTasks)
+	{
+		super(
+			corePoolSize,
+			Math.max(corePoolSize, maxPoolSize),
+			keepAliveTime,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueCapacity),
+			new NamedThreadFactory(name),
+			createRejectionHandler(name, rejectionPolicy, rejectedTasks));
+
+		this.rejectedTasks = rejectedTasks;
+	}
+
+
+
+
+
+
+	/**
+	 * Execute a task handed over by a thread that must not perform it, such as a selector thread.
+	 * Whatever the rejection policy, a task that cannot be queued is neither run by the calling
+	 * thread nor dropped, but rejected.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor is saturated or has been stopped.
+	 */
+	void handOff(Runnable task)
+	{
+		execute(new HandedOffTask(task));
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests waiting for a thread.
+	 */
+	int getQueueDepth()
+	{
+		return getQueue().size();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests that could not be queued because the executor was
+	 *         saturated, whatever the rejection policy.
+	 */
+	long getRejectedTaskCount()
+	{
+		return rejectedTasks.get();
+	}
+
+
+
+
+
+
+	/**
+	 * Stop the executor. Queued requests are given up to 'timeout' milliseconds to complete, then
+	 * remaining ones are interrupted.
+	 */
+	void shutdown(long timeout)
+	{
+		shutdown();
+
+		try
+		{
+			if (!awaitTermination(timeout, TimeUnit.MILLISECONDS))
+			{
+				int dropped = shutdownNow().size();
+				logger.warn("Asynchronous HTTP requests executor stopped with {} request(s) still "
+					+ "queued.", dropped);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the given name is one of 'callerRuns', 'abort' or 'discard'.
+	 */
+	static boolean isRejectionPolicy(String rejectionPolicy)
+	{
+		return CALLER_RUNS_POLICY.equalsIgnoreCase(rejectionPolicy)
+			|| ABORT_POLICY.equalsIgnoreCase(rejectionPolicy)
+			|| DISCARD_POLICY.equalsIgnoreCase(rejectionPolicy);
+	}
+
+
+
+
+
+
+	private static RejectedExecutionHandler createRejectionHandler(	final String name,
+																	String rejectionPolicy,
+																	final AtomicLong rejectedTasks)
+	{
+		final RejectedExecutionHandler policy;
+		if (ABORT_POLICY.equalsIgnoreCase(rejectionPolicy))
+		{
+			policy = new ThreadPoolExecutor.AbortPolicy();
+		}
+		else if (DISCARD_POLICY.equalsIgnoreCase(rejectionPolicy))
+		{
+			policy = new ThreadPoolExecutor.DiscardPolicy();
+		}
+		else if (CALLER_RUNS_POLICY.equalsIgnoreCase(rejectionPolicy))
+		{
+			policy = new ThreadPoolExecutor.CallerRunsPolicy();
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown rejection policy '"
+				+ rejectionPolicy + "'. Expected one of " + CALLER_RUNS_POLICY + ", "
+				+ ABORT_POLICY + " or " + DISCARD_POLICY + ".");
+		}
+
+		return new RejectedExecutionHandler() {
+
+			@Override
+			public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+			{
+				rejectedTasks.incrementAndGet();
+
+				if (executor.isShutdown())
+				{
+					throw new RejectedExecutionException(name
+						+ " executor has been stopped.");
+				}
+
+				if (task instanceof HandedOffTask)
+				{
+					throw new RejectedExecutionException(name
+						+ " executor is saturated.");
+				}
+
+				policy.rejectedExecution(task, executor);
+
+				if (policy instanceof ThreadPoolExecutor.DiscardPolicy
+					&& task instanceof DiscardableTask)
+				{
+					((DiscardableTask) task).discarded();
+				}
+			}
+		};
+	}
+
+
+
+
+
+
+	private static final class HandedOffTask implements Runnable
+	{
+		private final Runnable task;
+
+
+
+
+
+
+		HandedOffTask(Runnable task)
+		{
+			this.task = task;
+		}
+
+
+
+
+
+
+		@Override
+		public void run()
+		{
+			task.run();
+		}
+	}
+
+
+
+
+
+
+	private static final class NamedThreadFactory implements ThreadFactory
+	{
+		private final String name;
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+
+
+
+
+
+		NamedThreadFactory(String name)
+		{
+			this.name = name;
+		}
+
+
+
+
+
+
+		@Override
+		public Thread newThread(Runnable task)
+		{
+			Thread thread = new Thread(task, name
+				+ "-" + threadNumber.getAndIncrement());
+
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+
+/**
+ * An input stream that decodes a message body sent with the 'chunked' transfer coding. The end
+ * of stream is signaled once the last chunk and the trailer section have been read. Trailer
+ * fields are ignored. Closing this stream does not close the underlying stream.
+ */
+final class ChunkedInputStream extends FilterInputStream
+{
+	private long chunkRemaining = 0;
+	private boolean started = false;
+	private boolean eof = false;
+
+
+
+
+
+
+	ChunkedInputStream(InputStream in)
+	{
+		super(in);
+	}
+
+
+
+
+
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!prepareChunk())
+		{
+			return -1;
+		}
+
+		int b = in.read();
+		if (b == -1)
+		{
+			throw new EOFException("Connection closed in the middle of a chunk.");
+		}
+
+		chunkRemaining--;
+		return b;
+	}
+
+
+
+
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+		{
+			return 0;
+		}
+
+		if (!prepareChunk())
+		{
+			return -1;
+		}
+
+		int readLength = in.read(b, off, (int) Math.min(len, chunkRemaining));
+		if (readLength == -1)
+		{
+			throw new EOFException("Connection closed in the middle of a chunk.");
+		}
+
+		chunkRemaining -= readLength;
+		return readLength;
+	}
+
+
+
+
+
+
+	@Override
+	public int available() throws IOException
+	{
+		if (eof)
+		{
+			return 0;
+		}
+
+		return (int) Math.min(in.available(), chunkRemaining);
+	}
+
+
+
+
+
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+
+
+
+
+
+	@Override
+	public void close()
+	{}
+
+
+
+
+
+
+	/**
+	 * Position the stream on the data of a chunk.
+	 * 
+	 * @return true if some chunk data is available, false if the last chunk has been read.
+	 */
+	private boolean prepareChunk() throws IOException
+	{
+		if (eof)
+		{
+			return false;
+		}
+
+		if (chunkRemaining > 0)
+		{
+			return true;
+		}
+
+		if (chunkRemaining == 0
+			&& started)
+		{
+			// CRLF that ends the previous chunk data.
+			HttpResponseHead.readLine(in);
+		}
+
+		started = true;
+
+		String line = HttpResponseHead.readLine(in);
+		if (line == null)
+		{
+			throw new EOFException("Connection closed while reading chunk size.");
+		}
+
+		int extension = line.indexOf(';');
+		if (extension != -1)
+		{
+			line = line.substring(0, extension);
+		}
+
+		try
+		{
+			chunkRemaining = Long.parseLong(line.trim(), 16);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Invalid chunk size: '"
+				+ line + "'");
+		}
+
+		if (chunkRemaining < 0)
+		{
+			throw new IOException("Invalid chunk size: '"
+				+ line + "'");
+		}
+
+		if (chunkRemaining == 0)
+		{
+			// Last chunk: skip the trailer section up to the final empty line.
+			String trailer;
+			do
+			{
+				trailer = HttpResponseHead.readLine(in);
+			}
+			while (trailer != null
+				&& !trailer.isEmpty());
+
+			eof = true;
+			return false;
+		}
+
+		return true;
+	}
+}
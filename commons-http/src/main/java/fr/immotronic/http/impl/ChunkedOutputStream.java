@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+
+package fr.immotronic.http.impl;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+
+
+/**
+ * An output stream that encodes a message body with the 'chunked' transfer coding: each write
+ * is sent as a chunk. The last chunk is sent by finish(). Closing this stream finishes it, but
+ * does not close the underlying stream.
+ */
+final class ChunkedOutputStream extends FilterOutputStream
+{
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(ISO_8859_1);
+
+	private long bytesWritten = 0;
+	private boolean finished = false;
+
+
+
+
+
+
+	ChunkedOutputStream(OutputStream out)
+	{
+		super(out);
+	}
+
+
+
+
+
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+
+
+
+
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (finished)
+		{
+			throw new IOException("Chunked stream is finished.");
+		}
+
+		if (len == 0)
+		{
+			// An empty chunk would be taken for the last one.
+			return;
+		}
+
+		byte[] size = (Integer.toHexString(len) + "\r\n").getBytes(ISO_8859_1);
+		out.write(size);
+		out.write(b, off, len);
+		out.write(CRLF);
+
+		bytesWritten += size.length
+			+ len + CRLF.length;
+	}
+
+
+
+
+
+
+	/**
+	 * Send the last chunk, with no trailer. Nothing can be written afterwards.
+	 */
+	void finish() throws IOException
+	{
+		if (!finished)
+		{
+			finished = true;
+			out.write(LAST_CHUNK);
+			bytesWritten += LAST_CHUNK.length;
+		}
+	}
+
+
+
+
+
+
+	@Override
+	public void close() throws IOException
+	{
+		finish();
+		flush();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes written to the underlying stream, chunk framing included.
+	 */
+	long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpCircuitListener;
+import fr.immotronic.commons.http.HttpCircuitState;
+
+
+
+/**
+ * Per host circuit breakers. The outcomes of the last windowSize requests to each host are
+ * recorded: once at least minimumRequests outcomes are known, if the failure rate reaches the
+ * threshold, the circuit of the host opens and requests to it are rejected. After openDuration
+ * milliseconds, the circuit becomes half-open and lets a single request probe the host: the
+ * circuit closes if it succeeds, and opens again if it fails. If the outcome of the probe is not
+ * recorded within openDuration milliseconds, another request probes the host.
+ * 
+ * A request fails if it cannot be sent, if its response cannot be received, or if its response
+ * has a 5xx status. A request that waited in vain for a connection to its host, all of them
+ * being in use, is not recorded: the host may be healthy.
+ */
+final class CircuitBreaker
+{
+	/**
+	 * Thrown when a request is not sent because the circuit of its host is open.
+	 */
+	static final class CircuitOpenException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+
+
+
+
+		CircuitOpenException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private final int failureRateThreshold;
+	private final int windowSize;
+	private final int minimumRequests;
+	private final long openDuration;
+	private final List<HttpCircuitListener> listeners;
+	private final ConcurrentMap<String, Circuit> circuits;
+	private final AtomicLong rejectedRequests = new AtomicLong();
+
+	final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+
+
+
+
+
+	/**
+	 * @param failureRateThreshold
+	 *            the failure rate, in percent, from which a circuit opens.
+	 * @param windowSize
+	 *            the number of request outcomes the failure rate is computed on.
+	 * @param minimumRequests
+	 *            the minimum number of request outcomes needed to compute the failure rate.
+	 * @param openDuration
+	 *            the time, in milliseconds, a circuit stays open before a request probes the
+	 *            host.
+	 * @param listeners
+	 *            the listeners to notify of state changes. The list is read at each change.
+	 */
+	CircuitBreaker(	int failureRateThreshold,
+					int windowSize,
+					int minimumRequests,
+					long openDuration,
+					List<HttpCircuitListener> listeners)
+	{
+		this.failureRateThreshold = failureRateThreshold;
+		this.windowSize = Math.max(1, windowSize);
+		this.minimumRequests = Math.max(1, Math.min(minimumRequests, this.windowSize));
+		this.openDuration = openDuration;
+		this.listeners = listeners;
+		circuits = new ConcurrentHashMap<String, Circuit>();
+	}
+
+
+
+
+
+
+	/**
+	 * Check whether a request to the given host can be sent. If so, its outcome MUST be recorded
+	 * by calling recordSuccess() or recordFailure(), or releaseProbe() MUST be called if it failed
+	 * before reaching the host.
+	 * 
+	 * @return false if the circuit of the host is open, or if the host is already being probed.
+	 */
+	boolean allowRequest(String host)
+	{
+		Circuit circuit = getCircuit(host);
+		HttpCircuitState previousState;
+
+		synchronized (circuit)
+		{
+			previousState = circuit.state;
+
+			switch (circuit.state)
+			{
+				case CLOSED:
+					return true;
+
+				case OPEN:
+					if (System.currentTimeMillis() < circuit.openUntil)
+					{
+						rejectedRequests.incrementAndGet();
+						return false;
+					}
+
+					circuit.state = HttpCircuitState.HALF_OPEN;
+					circuit.probe(openDuration);
+					break;
+
+				default:
+					if (circuit.probing
+						&& System.currentTimeMillis() < circuit.probeUntil)
+					{
+						rejectedRequests.incrementAndGet();
+						return false;
+					}
+
+					circuit.probe(openDuration);
+					return true;
+			}
+		}
+
+		stateChanged(host, previousState, HttpCircuitState.HALF_OPEN);
+		return true;
+	}
+
+
+
+
+
+
+	void recordSuccess(String host)
+	{
+		record(host, false);
+	}
+
+
+
+
+
+
+	void recordFailure(String host)
+	{
+		record(host, true);
+	}
+
+
+
+
+
+
+	/**
+	 * Release the probe of the half-open circuit of a host without recording an outcome, as the
+	 * probing request failed before reaching the host: the next request probes it.
+	 */
+	void releaseProbe(String host)
+	{
+		Circuit circuit = circuits.get(host.toLowerCase());
+		if (circuit == null)
+		{
+			return;
+		}
+
+		synchronized (circuit)
+		{
+			if (circuit.state == HttpCircuitState.HALF_OPEN)
+			{
+				circuit.probing = false;
+			}
+		}
+	}
+
+
+
+
+
+
+	HttpCircuitState getState(String host)
+	{
+		Circuit circuit = circuits.get(host.toLowerCase());
+		if (circuit == null)
+		{
+			return HttpCircuitState.CLOSED;
+		}
+
+		synchronized (circuit)
+		{
+			return circuit.state;
+		}
+	}
+
+
+
+
+
+
+	long getRejectedRequests()
+	{
+		return rejectedRequests.get();
+	}
+
+
+
+
+
+
+	int getOpenCircuits()
+	{
+		int openCircuits = 0;
+		for (Circuit circuit : circuits.values())
+		{
+			synchronized (circuit)
+			{
+				if (circuit.state != HttpCircuitState.CLOSED)
+				{
+					openCircuits++;
+				}
+			}
+		}
+
+		return openCircuits;
+	}
+
+
+
+
+
+
+	private Circuit getCircuit(String host)
+	{
+		String key = host.toLowerCase();
+
+		Circuit circuit = circuits.get(key);
+		if (circuit == null)
+		{
+			circuit = new Circuit(windowSize);
+
+			Circuit existing = circuits.putIfAbsent(key, circuit);
+			if (existing != null)
+			{
+				circuit = existing;
+			}
+		}
+
+		return circuit;
+	}
+
+
+
+
+
+
+	private void record(String host, boolean failure)
+	{
+		Circuit circuit = getCircuit(host);
+		HttpCircuitState previousState;
+		HttpCircuitState newState;
+
+		synchronized (circuit)
+		{
+			previousState = circuit.state;
+
+			if (circuit.state == HttpCircuitState.CLOSED)
+			{
+				circuit.add(failure);
+
+				if (failure
+					&& circuit.count >= minimumRequests
+					&& circuit.failures * 100 >= failureRateThreshold * circuit.count)
+				{
+					circuit.open(openDuration);
+				}
+			}
+			else if (circuit.state == HttpCircuitState.HALF_OPEN
+				&& circuit.probing)
+			{
+				circuit.probing = false;
+
+				if (failure)
+				{
+					circuit.open(openDuration);
+				}
+				else
+				{
+					circuit.close();
+				}
+			}
+
+			// Outcomes of requests sent before the circuit opened are ignored.
+			newState = circuit.state;
+		}
+
+		if (newState != previousState)
+		{
+			stateChanged(host, previousState, newState);
+		}
+	}
+
+
+
+
+
+
+	private void stateChanged(String host, HttpCircuitState previousState, HttpCircuitState newState)
+	{
+		if (newState == HttpCircuitState.OPEN)
+		{
+			logger.warn("{}: Circuit is open, requests are not sent for {} ms.", host, openDuration);
+		}
+		else
+		{
+			logger.info("{}: Circuit is {}.", host, newState);
+		}
+
+		String _host = host.toLowerCase();
+		for (HttpCircuitListener listener : listeners)
+		{
+			try
+			{
+				listener.circuitStateChanged(_host, previousState, newState);
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("{}: Circuit listener failed.", host, e);
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The state of the circuit of a host, and the outcomes of the last requests to the host, in a
+	 * ring buffer.
+	 */
+	private static final class Circuit
+	{
+		HttpCircuitState state = HttpCircuitState.CLOSED;
+		final boolean[] outcomes;
+		int next = 0;
+		int count = 0;
+		int failures = 0;
+		long openUntil = 0;
+		boolean probing = false;
+		long probeUntil = 0;
+
+
+
+
+
+
+		Circuit(int windowSize)
+		{
+			outcomes = new boolean[windowSize];
+		}
+
+
+
+
+
+
+		void add(boolean failure)
+		{
+			if (count == outcomes.length)
+			{
+				if (outcomes[next])
+				{
+					failures--;
+				}
+			}
+			else
+			{
+				count++;
+			}
+
+			outcomes[next] = failure;
+			if (failure)
+			{
+				failures++;
+			}
+
+			next = (next + 1) % outcomes.length;
+		}
+
+
+
+
+
+
+		void open(long openDuration)
+		{
+			state = HttpCircuitState.OPEN;
+			openUntil = System.currentTimeMillis()
+				+ openDuration;
+		}
+
+
+
+
+
+
+		void probe(long timeout)
+		{
+			probing = true;
+			probeUntil = System.currentTimeMillis()
+				+ timeout;
+		}
+
+
+
+
+
+
+		void close()
+		{
+			state = HttpCircuitState.CLOSED;
+			next = 0;
+			count = 0;
+			failures = 0;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+
+/**
+ * Compression of request contents and decompression of response contents, as negotiated with
+ * 'Accept-Encoding' and 'Content-Encoding' headers.
+ */
+final class ContentEncoding
+{
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	/** Value of the 'Accept-Encoding' header sent when compressed responses are accepted. */
+	static final String ACCEPTED_ENCODINGS = GZIP
+		+ ", " + DEFLATE;
+
+	private static final int BUFFER_SIZE = 8192;
+
+
+
+
+
+
+	private ContentEncoding()
+	{}
+
+
+
+
+
+
+	/**
+	 * @return true if contents encoded with the given coding can be decoded.
+	 */
+	static boolean isSupported(String contentEncoding)
+	{
+		return GZIP.equalsIgnoreCase(contentEncoding)
+			|| "x-gzip".equalsIgnoreCase(contentEncoding) || DEFLATE.equalsIgnoreCase(contentEncoding);
+	}
+
+
+
+
+
+
+	/**
+	 * Compress a content with gzip.
+	 */
+	static byte[] gzip(byte[] content) throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+		GZIPOutputStream out = new GZIPOutputStream(compressed, BUFFER_SIZE);
+		out.write(content);
+		out.close();
+
+		return compressed.toByteArray();
+	}
+
+
+
+
+
+
+	/**
+	 * Decode a content as it is read.
+	 * 
+	 * @param contentEncoding
+	 *            the content coding, one of the supported ones.
+	 * @param stream
+	 *            the encoded content.
+	 * @return a stream of the decoded content. The encoded stream is read up to its end once the
+	 *         decoded content has been entirely read, and closed with the decoded stream.
+	 */
+	static InputStream decode(String contentEncoding, InputStream stream)
+	{
+		return new DecodingInputStream(contentEncoding, stream);
+	}
+
+
+
+
+
+
+	private static final class DecodingInputStream extends InputStream
+	{
+		private final String contentEncoding;
+		private final InputStream encoded;
+		private InputStream decoded = null;
+		private Inflater inflater = null;
+		private boolean eof = false;
+
+
+
+
+
+
+		DecodingInputStream(String contentEncoding, InputStream encoded)
+		{
+			this.contentEncoding = contentEncoding;
+			this.encoded = encoded;
+		}
+
+
+
+
+
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int readLength;
+			while ((readLength = read(b, 0, 1)) == 0)
+			{}
+
+			return (readLength == -1) ? -1 : (b[0] & 0xff);
+		}
+
+
+
+
+
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (eof)
+			{
+				return -1;
+			}
+
+			if (decoded == null)
+			{
+				decoded = openDecoder();
+			}
+
+			int readLength = decoded.read(b, off, len);
+			if (readLength == -1)
+			{
+				// Decoders may stop before the end of the encoded stream, which must be reached
+				// for the connection to be reused.
+				eof = true;
+				byte[] buffer = new byte[512];
+				while (encoded.read(buffer) != -1)
+				{}
+
+				close();
+			}
+
+			return readLength;
+		}
+
+
+
+
+
+
+		@Override
+		public int available() throws IOException
+		{
+			return (decoded == null || eof) ? 0 : decoded.available();
+		}
+
+
+
+
+
+
+		@Override
+		public void close() throws IOException
+		{
+			if (decoded == null)
+			{
+				encoded.close();
+				return;
+			}
+
+			// Also closes the encoded stream.
+			decoded.close();
+
+			if (inflater != null)
+			{
+				inflater.end();
+				inflater = null;
+			}
+		}
+
+
+
+
+
+
+		private InputStream openDecoder() throws IOException
+		{
+			if (!DEFLATE.equalsIgnoreCase(contentEncoding))
+			{
+				return new GZIPInputStream(encoded, BUFFER_SIZE);
+			}
+
+			// 'deflate' is specified as zlib-wrapped data, but some servers send raw deflate
+			// data: the zlib header is checked to choose.
+			PushbackInputStream in = new PushbackInputStream(encoded, 2);
+			int cmf = in.read();
+			int flg = in.read();
+			if (flg != -1)
+			{
+				in.unread(flg);
+			}
+			if (cmf != -1)
+			{
+				in.unread(cmf);
+			}
+
+			boolean zlibWrapped = cmf != -1
+				&& flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+
+			inflater = new Inflater(!zlibWrapped);
+			return new InflaterInputStream(in, inflater, BUFFER_SIZE);
+		}
+	}
+}
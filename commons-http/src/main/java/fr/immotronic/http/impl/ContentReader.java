@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+
+/**
+ * Read response contents in memory.
+ * 
+ * When the content length is known, the content is read directly in an array of that length.
+ * Otherwise, it is read in a buffer owned by the reading thread and reused from one response to
+ * the next, which grows geometrically, then copied once in an array of the exact content length.
+ * Reading a content of unknown length therefore allocates no more than the content itself, as long
+ * as the thread buffer is big enough to hold it.
+ */
+final class ContentReader
+{
+	/** Initial size of the thread buffers. */
+	static final int INITIAL_BUFFER_SIZE = 16384;
+
+	/** Maximum size of the buffers kept by threads between two reads. */
+	static final int MAX_RETAINED_BUFFER_SIZE = 1048576;
+
+	/** Maximum size of an array, some VMs reserve a few header words in arrays. */
+	private static final int MAX_CONTENT_LENGTH = Integer.MAX_VALUE - 8;
+
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[INITIAL_BUFFER_SIZE];
+		}
+	};
+
+
+
+
+
+
+	private ContentReader()
+	{}
+
+
+
+
+
+
+	/**
+	 * Read a stream up to its end.
+	 * 
+	 * @param stream
+	 *            the stream to read.
+	 * @param expectedLength
+	 *            the expected content length, or -1 if it is unknown. If the stream is shorter or
+	 *            longer than expected, the returned array contains the bytes actually read.
+	 * @return the content read.
+	 * @throws IOException
+	 *             if the stream cannot be read, or if the content is too big to be held in an
+	 *             array.
+	 */
+	static byte[] read(InputStream stream, long expectedLength) throws IOException
+	{
+		boolean exactLength = expectedLength >= 0
+			&& expectedLength <= MAX_CONTENT_LENGTH;
+
+		byte[] buffer = exactLength ? new byte[(int) expectedLength] : buffers.get();
+		int length = 0;
+
+		while (true)
+		{
+			if (length == buffer.length)
+			{
+				// Check that stream is at its end before growing the buffer, so that contents
+				// which length is known are never copied.
+				int b = stream.read();
+				if (b == -1)
+				{
+					break;
+				}
+
+				buffer = grow(buffer);
+				buffer[length++] = (byte) b;
+			}
+
+			int readLength = stream.read(buffer, length, buffer.length
+				- length);
+
+			if (readLength == -1)
+			{
+				break;
+			}
+
+			length += readLength;
+		}
+
+		if (exactLength
+			&& length == buffer.length)
+		{
+			return buffer;
+		}
+
+		if (!exactLength
+			&& buffer.length <= MAX_RETAINED_BUFFER_SIZE)
+		{
+			buffers.set(buffer);
+		}
+
+		return Arrays.copyOf(buffer, length);
+	}
+
+
+
+
+
+
+	private static byte[] grow(byte[] buffer) throws IOException
+	{
+		if (buffer.length >= MAX_CONTENT_LENGTH)
+		{
+			throw new IOException("Content is too big (max supported content length is "
+				+ MAX_CONTENT_LENGTH + " bytes).");
+		}
+
+		long newLength = Math.max((long) buffer.length * 2, INITIAL_BUFFER_SIZE);
+		return Arrays.copyOf(buffer, (int) Math.min(newLength, MAX_CONTENT_LENGTH));
+	}
+}
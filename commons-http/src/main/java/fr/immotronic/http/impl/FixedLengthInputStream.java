@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+
+/**
+ * An input stream that reads exactly 'length' bytes from the underlying stream, then signal the
+ * end of stream. It is used to read a message body which size is given by a Content-Length
+ * header. Closing this stream does not close the underlying stream.
+ */
+final class FixedLengthInputStream extends FilterInputStream
+{
+	private long remaining;
+
+
+
+
+
+
+	FixedLengthInputStream(InputStream in, long length)
+	{
+		super(in);
+		this.remaining = length;
+	}
+
+
+
+
+
+
+	@Override
+	public int read() throws IOException
+	{
+		if (remaining <= 0)
+		{
+			return -1;
+		}
+
+		int b = in.read();
+		if (b == -1)
+		{
+			throw new EOFException("Connection closed with "
+				+ remaining + " bytes of content left to read.");
+		}
+
+		remaining--;
+		return b;
+	}
+
+
+
+
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (remaining <= 0)
+		{
+			return -1;
+		}
+
+		int readLength = in.read(b, off, (int) Math.min(len, remaining));
+		if (readLength == -1)
+		{
+			throw new EOFException("Connection closed with "
+				+ remaining + " bytes of content left to read.");
+		}
+
+		remaining -= readLength;
+		return readLength;
+	}
+
+
+
+
+
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+
+
+
+
+
+	@Override
+	public int available() throws IOException
+	{
+		return (int) Math.min(in.available(), remaining);
+	}
+
+
+
+
+
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+
+
+
+
+
+	@Override
+	public void close()
+	{}
+}
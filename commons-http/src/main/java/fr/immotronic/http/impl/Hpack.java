@@ -0,0 +1,977 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541).
+ * 
+ * Each direction of a connection has its own compression context: an Encoder for the request
+ * headers, a Decoder for the response headers. Both maintain a dynamic table of the header fields
+ * recently sent, which later header blocks refer to by index. Header blocks must therefore be
+ * encoded and decoded in the order they are sent on the connection.
+ */
+final class Hpack
+{
+	/** The size, in octets, of the dynamic tables: the HTTP/2 default, never increased. */
+	static final int TABLE_SIZE = 4096;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final int ENTRY_OVERHEAD = 32;
+	private static final int EOS = 256;
+
+	private static final String[][] STATIC_TABLE = {
+		{ ":authority", "" },
+		{ ":method", "GET" },
+		{ ":method", "POST" },
+		{ ":path", "/" },
+		{ ":path", "/index.html" },
+		{ ":scheme", "http" },
+		{ ":scheme", "https" },
+		{ ":status", "200" },
+		{ ":status", "204" },
+		{ ":status", "206" },
+		{ ":status", "304" },
+		{ ":status", "400" },
+		{ ":status", "404" },
+		{ ":status", "500" },
+		{ "accept-charset", "" },
+		{ "accept-encoding", "gzip, deflate" },
+		{ "accept-language", "" },
+		{ "accept-ranges", "" },
+		{ "accept", "" },
+		{ "access-control-allow-origin", "" },
+		{ "age", "" },
+		{ "allow", "" },
+		{ "authorization", "" },
+		{ "cache-control", "" },
+		{ "content-disposition", "" },
+		{ "content-encoding", "" },
+		{ "content-language", "" },
+		{ "content-length", "" },
+		{ "content-location", "" },
+		{ "content-range", "" },
+		{ "content-type", "" },
+		{ "cookie", "" },
+		{ "date", "" },
+		{ "etag", "" },
+		{ "expect", "" },
+		{ "expires", "" },
+		{ "from", "" },
+		{ "host", "" },
+		{ "if-match", "" },
+		{ "if-modified-since", "" },
+		{ "if-none-match", "" },
+		{ "if-range", "" },
+		{ "if-unmodified-since", "" },
+		{ "last-modified", "" },
+		{ "link", "" },
+		{ "location", "" },
+		{ "max-forwards", "" },
+		{ "proxy-authenticate", "" },
+		{ "proxy-authorization", "" },
+		{ "range", "" },
+		{ "referer", "" },
+		{ "refresh", "" },
+		{ "retry-after", "" },
+		{ "server", "" },
+		{ "set-cookie", "" },
+		{ "strict-transport-security", "" },
+		{ "transfer-encoding", "" },
+		{ "user-agent", "" },
+		{ "vary", "" },
+		{ "via", "" },
+		{ "www-authenticate", "" } };
+
+	// The Huffman code of each octet, and of the end of string symbol, right aligned.
+	private static final int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5,
+		0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+		0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee,
+		0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9,
+		0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+		0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb,
+		0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+		0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+		0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21,
+		0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+		0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e,
+		0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73,
+		0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+		0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+		0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76,
+		0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd,
+		0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+		0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda,
+		0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+		0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+		0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+		0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf,
+		0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+		0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+		0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2,
+		0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+		0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+		0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3,
+		0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+		0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb,
+		0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+		0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+		0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff };
+
+	private static final int[] HUFFMAN_CODE_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30 };
+
+	private static final Map<String, Integer> staticNameIndexes;
+	private static final Map<String, Integer> staticFieldIndexes;
+
+	// The Huffman decoding tree: the two children of node n are at 2n and 2n+1. A positive child
+	// is a node, a negative one is the leaf of symbol -(child + 1).
+	private static final int[] huffmanTree;
+
+	static
+	{
+		staticNameIndexes = new HashMap<String, Integer>();
+		staticFieldIndexes = new HashMap<String, Integer>();
+		for (int i = STATIC_TABLE.length; i > 0; i--)
+		{
+			// The lowest index wins.
+			staticNameIndexes.put(STATIC_TABLE[i - 1][0], i);
+			staticFieldIndexes.put(STATIC_TABLE[i - 1][0]
+				+ '\0' + STATIC_TABLE[i - 1][1], i);
+		}
+
+		huffmanTree = buildHuffmanTree();
+	}
+
+
+
+
+
+
+	private Hpack()
+	{}
+
+
+
+
+
+
+	/**
+	 * The compression context of the header blocks sent on a connection.
+	 */
+	static final class Encoder
+	{
+		// Header fields which values are never added to a compression context, as they could be
+		// guessed by observing the size of the header blocks.
+		private static final String[] SENSITIVE_HEADERS = {
+			"authorization",
+			"proxy-authorization" };
+
+		private final DynamicTable table;
+		private int minTableSize = -1;
+
+
+
+
+
+
+		Encoder()
+		{
+			table = new DynamicTable(TABLE_SIZE);
+		}
+
+
+
+
+
+
+		/**
+		 * Change the size of the dynamic table, as the decoder allows with its
+		 * SETTINGS_HEADER_TABLE_SIZE setting. The change is signaled at the start of the next
+		 * header block.
+		 */
+		void setMaxTableSize(int maxTableSize)
+		{
+			maxTableSize = Math.min(maxTableSize, TABLE_SIZE);
+
+			if (minTableSize == -1
+				|| maxTableSize < minTableSize)
+			{
+				minTableSize = maxTableSize;
+			}
+
+			table.setMaxSize(maxTableSize);
+		}
+
+
+
+
+
+
+		/**
+		 * Encode a header block. Pseudo-header fields must come first.
+		 * 
+		 * @param headerFields
+		 *            the header fields, which names are in lower case.
+		 * @return the header block.
+		 */
+		byte[] encode(Map<String, String> headerFields)
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+			if (minTableSize != -1)
+			{
+				// The smallest size the table has been given since the last header block must be
+				// signaled, for the decoder to evict the same entries as the encoder did.
+				if (minTableSize < table.getMaxSize())
+				{
+					writeInteger(out, 0x20, 5, minTableSize);
+				}
+				writeInteger(out, 0x20, 5, table.getMaxSize());
+				minTableSize = -1;
+			}
+
+			for (Map.Entry<String, String> headerField : headerFields.entrySet())
+			{
+				String name = toOctets(headerField.getKey());
+				String value = toOctets(headerField.getValue());
+
+				if (isSensitive(name))
+				{
+					// Literal never indexed.
+					int nameIndex = indexOfName(name);
+					writeInteger(out, 0x10, 4, nameIndex);
+					if (nameIndex == 0)
+					{
+						writeString(out, name);
+					}
+					writeString(out, value);
+					continue;
+				}
+
+				int index = indexOf(name, value);
+				if (index != 0)
+				{
+					// Indexed field.
+					writeInteger(out, 0x80, 7, index);
+					continue;
+				}
+
+				int nameIndex = indexOfName(name);
+				if (name.equals("content-length"))
+				{
+					// Literal without indexing: content lengths seldom repeat.
+					writeInteger(out, 0x00, 4, nameIndex);
+				}
+				else
+				{
+					// Literal with incremental indexing.
+					writeInteger(out, 0x40, 6, nameIndex);
+					table.add(name, value);
+				}
+
+				if (nameIndex == 0)
+				{
+					writeString(out, name);
+				}
+				writeString(out, value);
+			}
+
+			return out.toByteArray();
+		}
+
+
+
+
+
+
+		private int indexOf(String name, String value)
+		{
+			Integer index = staticFieldIndexes.get(name
+				+ '\0' + value);
+			if (index != null)
+			{
+				return index;
+			}
+
+			int dynamicIndex = table.indexOf(name, value);
+			return (dynamicIndex == 0) ? 0 : STATIC_TABLE.length
+				+ dynamicIndex;
+		}
+
+
+
+
+
+
+		private int indexOfName(String name)
+		{
+			Integer index = staticNameIndexes.get(name);
+			if (index != null)
+			{
+				return index;
+			}
+
+			int dynamicIndex = table.indexOfName(name);
+			return (dynamicIndex == 0) ? 0 : STATIC_TABLE.length
+				+ dynamicIndex;
+		}
+
+
+
+
+
+
+		private static boolean isSensitive(String name)
+		{
+			for (String sensitiveHeader : SENSITIVE_HEADERS)
+			{
+				if (sensitiveHeader.equals(name))
+				{
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+
+
+
+
+
+		/**
+		 * @return the given string, which characters that are not ISO-8859-1 octets are
+		 *         replaced as they are when the string is written, so that the size of a table
+		 *         entry is the same for the encoder and for the decoder.
+		 */
+		private static String toOctets(String s)
+		{
+			for (int i = 0; i < s.length(); i++)
+			{
+				if (s.charAt(i) > 0xff)
+				{
+					return new String(s.getBytes(ISO_8859_1), ISO_8859_1);
+				}
+			}
+
+			return s;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The compression context of the header blocks received on a connection.
+	 */
+	static final class Decoder
+	{
+		private final DynamicTable table;
+		private byte[] block;
+		private int position;
+		private int limit;
+
+
+
+
+
+
+		Decoder()
+		{
+			table = new DynamicTable(TABLE_SIZE);
+		}
+
+
+
+
+
+
+		/**
+		 * Decode a header block.
+		 * 
+		 * @param block
+		 *            a buffer that holds the header block from its start.
+		 * @param length
+		 *            the length of the header block.
+		 * @return the header fields, in a case insensitive map. Values of fields that appear
+		 *         several times are joined with a comma.
+		 * @throws IOException
+		 *             if the header block is invalid. The compression context is then unusable.
+		 */
+		Map<String, String> decode(byte[] block, int length) throws IOException
+		{
+			this.block = block;
+			this.position = 0;
+			this.limit = length;
+
+			Map<String, String> headerFields = new TreeMap<String, String>(
+				String.CASE_INSENSITIVE_ORDER);
+			boolean fieldDecoded = false;
+
+			while (position < limit)
+			{
+				int b = block[position] & 0xff;
+				String name;
+				String value;
+
+				if ((b & 0x80) != 0)
+				{
+					// Indexed field.
+					String[] entry = getEntry(readInteger(7));
+					name = entry[0];
+					value = entry[1];
+				}
+				else if ((b & 0x40) != 0)
+				{
+					// Literal with incremental indexing.
+					int nameIndex = readInteger(6);
+					name = (nameIndex == 0) ? readString() : getEntry(nameIndex)[0];
+					value = readString();
+					table.add(name, value);
+				}
+				else if ((b & 0x20) != 0)
+				{
+					// Dynamic table size update, only allowed at the start of a block.
+					int maxSize = readInteger(5);
+					if (fieldDecoded
+						|| maxSize > TABLE_SIZE)
+					{
+						throw new IOException("Invalid dynamic table size update.");
+					}
+
+					table.setMaxSize(maxSize);
+					continue;
+				}
+				else
+				{
+					// Literal without indexing, or never indexed.
+					int nameIndex = readInteger(4);
+					name = (nameIndex == 0) ? readString() : getEntry(nameIndex)[0];
+					value = readString();
+				}
+
+				fieldDecoded = true;
+
+				String previousValue = headerFields.get(name);
+				if (previousValue != null)
+				{
+					value = previousValue
+						+ ", " + value;
+				}
+				headerFields.put(name, value);
+			}
+
+			this.block = null;
+
+			return headerFields;
+		}
+
+
+
+
+
+
+		private String[] getEntry(int index) throws IOException
+		{
+			if (index > 0
+				&& index <= STATIC_TABLE.length)
+			{
+				return STATIC_TABLE[index - 1];
+			}
+
+			String[] entry = (index > STATIC_TABLE.length) ? table.get(index
+				- STATIC_TABLE.length) : null;
+			if (entry == null)
+			{
+				throw new IOException("Invalid header table index "
+					+ index + ".");
+			}
+
+			return entry;
+		}
+
+
+
+
+
+
+		private int readInteger(int prefixBits) throws IOException
+		{
+			int maxPrefix = (1 << prefixBits) - 1;
+			int value = block[position++] & maxPrefix;
+			if (value < maxPrefix)
+			{
+				return value;
+			}
+
+			long _value = value;
+			int shift = 0;
+			int b;
+			do
+			{
+				if (position >= limit
+					|| shift > 28)
+				{
+					throw new IOException("Invalid integer in header block.");
+				}
+
+				b = block[position++] & 0xff;
+				_value += (long) (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+
+			if (_value > Integer.MAX_VALUE)
+			{
+				throw new IOException("Invalid integer in header block.");
+			}
+
+			return (int) _value;
+		}
+
+
+
+
+
+
+		private String readString() throws IOException
+		{
+			if (position >= limit)
+			{
+				throw new IOException("Truncated header block.");
+			}
+
+			boolean huffman = (block[position] & 0x80) != 0;
+			int length = readInteger(7);
+			if (length > limit
+				- position)
+			{
+				throw new IOException("Truncated header block.");
+			}
+
+			String s = huffman ? decodeHuffman(block, position, length) : new String(
+				block,
+				position,
+				length,
+				ISO_8859_1);
+			position += length;
+
+			return s;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The table of the header fields recently added to a compression context. The most recent
+	 * field has index 1.
+	 */
+	private static final class DynamicTable
+	{
+		private final List<String[]> entries;
+		private int size = 0;
+		private int maxSize;
+
+
+
+
+
+
+		DynamicTable(int maxSize)
+		{
+			this.maxSize = maxSize;
+			entries = new ArrayList<String[]>();
+		}
+
+
+
+
+
+
+		int getMaxSize()
+		{
+			return maxSize;
+		}
+
+
+
+
+
+
+		void setMaxSize(int maxSize)
+		{
+			this.maxSize = maxSize;
+			evict(maxSize);
+		}
+
+
+
+
+
+
+		/**
+		 * @return the entry at the given index, or null if there is no such entry.
+		 */
+		String[] get(int index)
+		{
+			return (index > entries.size()) ? null : entries.get(entries.size()
+				- index);
+		}
+
+
+
+
+
+
+		/**
+		 * Add an entry, evicting the oldest ones to make room for it. An entry larger than the
+		 * table empties it, and is not added.
+		 */
+		void add(String name, String value)
+		{
+			int entrySize = entrySize(name, value);
+			evict(maxSize
+				- entrySize);
+
+			if (entrySize <= maxSize)
+			{
+				entries.add(new String[] { name, value });
+				size += entrySize;
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * @return the index of the given field, or 0 if it is not in this table.
+		 */
+		int indexOf(String name, String value)
+		{
+			for (int i = entries.size() - 1; i >= 0; i--)
+			{
+				String[] entry = entries.get(i);
+				if (entry[0].equals(name)
+					&& entry[1].equals(value))
+				{
+					return entries.size()
+						- i;
+				}
+			}
+
+			return 0;
+		}
+
+
+
+
+
+
+		/**
+		 * @return the index of a field with the given name, or 0 if there is none in this table.
+		 */
+		int indexOfName(String name)
+		{
+			for (int i = entries.size() - 1; i >= 0; i--)
+			{
+				if (entries.get(i)[0].equals(name))
+				{
+					return entries.size()
+						- i;
+				}
+			}
+
+			return 0;
+		}
+
+
+
+
+
+
+		private void evict(int targetSize)
+		{
+			while (size > targetSize
+				&& !entries.isEmpty())
+			{
+				String[] entry = entries.remove(0);
+				size -= entrySize(entry[0], entry[1]);
+			}
+		}
+
+
+
+
+
+
+		private static int entrySize(String name, String value)
+		{
+			return name.length()
+				+ value.length() + ENTRY_OVERHEAD;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Write an integer with an N-bit prefix: the flags of the first octet occupy its high bits.
+	 */
+	static void writeInteger(ByteArrayOutputStream out, int flags, int prefixBits, int value)
+	{
+		int maxPrefix = (1 << prefixBits) - 1;
+		if (value < maxPrefix)
+		{
+			out.write(flags
+				| value);
+			return;
+		}
+
+		out.write(flags
+			| maxPrefix);
+		value -= maxPrefix;
+
+		while (value >= 0x80)
+		{
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		out.write(value);
+	}
+
+
+
+
+
+
+	/**
+	 * Write a string literal, Huffman encoded if it is shorter this way.
+	 */
+	static void writeString(ByteArrayOutputStream out, String s)
+	{
+		byte[] octets = s.getBytes(ISO_8859_1);
+
+		long huffmanBits = 0;
+		for (byte octet : octets)
+		{
+			huffmanBits += HUFFMAN_CODE_LENGTHS[octet & 0xff];
+		}
+
+		int huffmanLength = (int) ((huffmanBits + 7) / 8);
+		if (huffmanLength >= octets.length)
+		{
+			writeInteger(out, 0x00, 7, octets.length);
+			out.write(octets, 0, octets.length);
+			return;
+		}
+
+		writeInteger(out, 0x80, 7, huffmanLength);
+
+		long buffer = 0;
+		int bits = 0;
+		for (byte octet : octets)
+		{
+			int symbol = octet & 0xff;
+			buffer = (buffer << HUFFMAN_CODE_LENGTHS[symbol])
+				| HUFFMAN_CODES[symbol];
+			bits += HUFFMAN_CODE_LENGTHS[symbol];
+
+			while (bits >= 8)
+			{
+				bits -= 8;
+				out.write((int) (buffer >>> bits));
+			}
+
+			buffer &= (1L << bits) - 1;
+		}
+
+		if (bits > 0)
+		{
+			// Padded with the most significant bits of the end of string symbol.
+			out.write((int) (buffer << (8 - bits))
+				| (0xff >>> bits));
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Decode a Huffman encoded string literal.
+	 * 
+	 * @throws IOException
+	 *             if the literal contains the end of string symbol, or is not padded with the
+	 *             most significant bits of this symbol.
+	 */
+	static String decodeHuffman(byte[] data, int offset, int length) throws IOException
+	{
+		StringBuilder s = new StringBuilder(length * 8 / 5);
+		int node = 0;
+		int bitsSinceSymbol = 0;
+		boolean onlyOnes = true;
+
+		for (int i = offset; i < offset
+			+ length; i++)
+		{
+			int b = data[i] & 0xff;
+			for (int bit = 7; bit >= 0; bit--)
+			{
+				int branch = (b >>> bit) & 1;
+				int child = huffmanTree[2 * node + branch];
+				bitsSinceSymbol++;
+				onlyOnes = onlyOnes
+					&& branch == 1;
+
+				if (child < 0)
+				{
+					int symbol = -(child + 1);
+					if (symbol == EOS)
+					{
+						throw new IOException("Invalid Huffman literal: end of string symbol.");
+					}
+
+					s.append((char) symbol);
+					node = 0;
+					bitsSinceSymbol = 0;
+					onlyOnes = true;
+				}
+				else
+				{
+					node = child;
+				}
+			}
+		}
+
+		if (bitsSinceSymbol > 7
+			|| !onlyOnes)
+		{
+			throw new IOException("Invalid Huffman literal padding.");
+		}
+
+		return s.toString();
+	}
+
+
+
+
+
+
+	private static int[] buildHuffmanTree()
+	{
+		// 257 leaves make 256 nodes.
+		int[] tree = new int[2 * (HUFFMAN_CODES.length - 1)];
+		int nodes = 1;
+
+		for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++)
+		{
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+
+			for (int bit = HUFFMAN_CODE_LENGTHS[symbol] - 1; bit > 0; bit--)
+			{
+				int branch = 2
+					* node + ((code >>> bit) & 1);
+				if (tree[branch] == 0)
+				{
+					tree[branch] = nodes++;
+				}
+				node = tree[branch];
+			}
+
+			tree[2 * node + (code & 1)] = -(symbol + 1);
+		}
+
+		return tree;
+	}
+}
@@ -0,0 +1,1367 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * An HTTP/2 connection to a route, which multiplexes concurrent requests as streams over a single
+ * transport connection (RFC 7540).
+ * 
+ * A reader thread receives the frames sent by the server and dispatches them to the streams.
+ * Frames are written by the threads that send requests and read responses, one frame at a time.
+ * Flow control bounds the response data buffered by each stream to STREAM_WINDOW bytes, and
+ * makes request data wait for the server to be ready to receive it.
+ * 
+ * A connection stops accepting new streams once the server sends a GOAWAY frame, and is closed
+ * once its last stream is, or after it has been idle for idleTimeout milliseconds.
+ */
+final class Http2Connection
+{
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+
+	static final int FLAG_END_STREAM = 0x1;
+	static final int FLAG_ACK = 0x1;
+	static final int FLAG_END_HEADERS = 0x4;
+	static final int FLAG_PADDED = 0x8;
+	static final int FLAG_PRIORITY = 0x20;
+
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_ENABLE_PUSH = 0x2;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int INTERNAL_ERROR = 0x2;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int FRAME_SIZE_ERROR = 0x6;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	static final int COMPRESSION_ERROR = 0x9;
+
+	/** The receive window of each stream, in bytes. */
+	static final int STREAM_WINDOW = 1 << 20;
+
+	private static final String[] ERROR_NAMES = {
+		"NO_ERROR",
+		"PROTOCOL_ERROR",
+		"INTERNAL_ERROR",
+		"FLOW_CONTROL_ERROR",
+		"SETTINGS_TIMEOUT",
+		"STREAM_CLOSED",
+		"FRAME_SIZE_ERROR",
+		"REFUSED_STREAM",
+		"CANCEL",
+		"COMPRESSION_ERROR",
+		"CONNECT_ERROR",
+		"ENHANCE_YOUR_CALM",
+		"INADEQUATE_SECURITY",
+		"HTTP_1_1_REQUIRED" };
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(ISO_8859_1);
+	private static final int DEFAULT_WINDOW = 65535;
+	private static final int CONNECTION_WINDOW = 16 << 20;
+	private static final int MAX_WINDOW = Integer.MAX_VALUE;
+	private static final int MAX_FRAME_SIZE = 16384;
+	private static final int MAX_HEADER_BLOCK_SIZE = 1 << 20;
+
+	// Until the server announces its limit, as it may be lower than the number of requests that
+	// are ready to be sent.
+	private static final int INITIAL_MAX_CONCURRENT_STREAMS = 100;
+
+	private final Http2ConnectionPool pool;
+	private final HttpConnection transport;
+	private final InputStream in;
+	private final OutputStream out;
+	private final long idleTimeout;
+	private final Map<Integer, Http2Stream> streams;
+
+	// Guarded by writeLock, which is never acquired by a thread holding the connection lock.
+	private final Object writeLock;
+	private final Hpack.Encoder encoder;
+	private int nextStreamId = 1;
+
+	// Guarded by the connection lock.
+	private int activeStreams = 0;
+	private long streamCount = 0;
+	private int maxConcurrentStreams = INITIAL_MAX_CONCURRENT_STREAMS;
+	private long sendWindow = DEFAULT_WINDOW;
+	private int initialSendWindow = DEFAULT_WINDOW;
+	private boolean shutdown = false;
+	private long idleSince;
+
+	private volatile IOException failure = null;
+
+	// Used by the reader thread only.
+	private final Hpack.Decoder decoder;
+	private int unacknowledgedBytes = 0;
+
+	final Logger logger = LoggerFactory.getLogger(Http2Connection.class);
+
+
+
+
+
+
+	private Http2Connection(Http2ConnectionPool pool, HttpConnection transport, long idleTimeout)
+	{
+		this.pool = pool;
+		this.transport = transport;
+		this.in = transport.getInputStream();
+		this.out = transport.getOutputStream();
+		this.idleTimeout = idleTimeout;
+		this.streams = new HashMap<Integer, Http2Stream>();
+		this.writeLock = new Object();
+		this.encoder = new Hpack.Encoder();
+		this.decoder = new Hpack.Decoder();
+		this.idleSince = System.currentTimeMillis();
+	}
+
+
+
+
+
+
+	/**
+	 * Start an HTTP/2 connection: send the connection preface and start the reader thread.
+	 * 
+	 * @param pool
+	 *            the pool the connection belongs to, notified when it is closed.
+	 * @param transport
+	 *            a newly opened connection, on which HTTP/2 has been negotiated or is known to
+	 *            be supported.
+	 * @param idleTimeout
+	 *            the time, in milliseconds, after which the connection is closed if it has no
+	 *            stream.
+	 * @return the connection, ready to open streams.
+	 * @throws IOException
+	 *             if the preface cannot be sent. The transport is then closed.
+	 */
+	static Http2Connection open(	Http2ConnectionPool pool,
+								HttpConnection transport,
+								long idleTimeout) throws IOException
+	{
+		final Http2Connection connection = new Http2Connection(pool, transport, idleTimeout);
+
+		try
+		{
+			connection.writePreface();
+		}
+		catch (IOException e)
+		{
+			transport.close();
+			throw e;
+		}
+
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				connection.readFrames();
+			}
+		}, "HttpClientService-h2 " + transport);
+		reader.setDaemon(true);
+		reader.start();
+
+		return connection;
+	}
+
+
+
+
+
+
+	HttpConnection getTransport()
+	{
+		return transport;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if new streams can be opened on this connection.
+	 */
+	synchronized boolean isUsable()
+	{
+		return !shutdown;
+	}
+
+
+
+
+
+
+	/**
+	 * Reserve a stream, waiting for the number of concurrent streams to drop below the limit set
+	 * by the server if needed. The stream is given an identifier when its headers are sent.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds.
+	 * @return the stream, or null if this connection does not accept new streams anymore.
+	 * @throws IOException
+	 *             if no stream becomes available before the timeout.
+	 */
+	synchronized Http2Stream newStream(long timeout) throws IOException
+	{
+		long deadline = System.currentTimeMillis()
+			+ timeout;
+
+		while (!shutdown
+			&& activeStreams >= maxConcurrentStreams)
+		{
+			long remaining = deadline
+				- System.currentTimeMillis();
+			if (remaining <= 0)
+			{
+				throw new HttpConnectionPool.LeaseTimeoutException("No stream to "
+					+ transport.getRoute() + " became available within " + timeout + " ms.");
+			}
+
+			waitUninterruptibly(remaining);
+		}
+
+		if (shutdown)
+		{
+			return null;
+		}
+
+		activeStreams++;
+		return new Http2Stream(this, streamCount++ > 0);
+	}
+
+
+
+
+
+
+	/**
+	 * Send the headers of a stream, which gets its identifier.
+	 * 
+	 * @param endStream
+	 *            true if the request has no content.
+	 * @return the number of bytes written.
+	 */
+	int writeHeaders(Http2Stream stream, Map<String, String> headerFields, boolean endStream)
+		throws IOException
+	{
+		synchronized (writeLock)
+		{
+			int streamId;
+			synchronized (this)
+			{
+				checkOpen();
+				if (shutdown)
+				{
+					throw new IOException("Connection to "
+						+ transport.getRoute() + " is shutting down.");
+				}
+
+				streamId = nextStreamId;
+				if (streamId < 0)
+				{
+					// Stream identifiers are exhausted.
+					shutdown = true;
+					throw new IOException("Connection to "
+						+ transport.getRoute() + " has no stream identifier left.");
+				}
+
+				nextStreamId += 2;
+				streams.put(streamId, stream);
+				stream.opened(streamId, initialSendWindow);
+			}
+
+			try
+			{
+				byte[] block = encoder.encode(headerFields);
+				int type = HEADERS;
+				int offset = 0;
+				int written = 0;
+
+				do
+				{
+					int length = Math.min(MAX_FRAME_SIZE, block.length
+						- offset);
+					int flags = (offset + length == block.length) ? FLAG_END_HEADERS : 0;
+					if (type == HEADERS
+						&& endStream)
+					{
+						flags |= FLAG_END_STREAM;
+					}
+
+					writeFrame(type, flags, streamId, block, offset, length);
+					offset += length;
+					written += 9 + length;
+					type = CONTINUATION;
+				}
+				while (offset < block.length);
+
+				out.flush();
+
+				return written;
+			}
+			catch (IOException e)
+			{
+				// The compression context of the server is now unknown.
+				fail(e);
+				throw e;
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Send request data on a stream, as fast as flow control allows.
+	 * 
+	 * @param endStream
+	 *            true if the data ends the request content.
+	 * @param timeout
+	 *            the maximum time, in milliseconds, to wait for the server to accept more data.
+	 * @return the number of bytes written.
+	 */
+	int writeData(Http2Stream stream, byte[] b, int off, int len, boolean endStream, int timeout)
+		throws IOException
+	{
+		int written = 0;
+
+		do
+		{
+			int length = (len == 0) ? 0 : reserveWindow(stream, Math.min(len, MAX_FRAME_SIZE),
+				timeout);
+			boolean last = length == len;
+
+			synchronized (writeLock)
+			{
+				checkOpen();
+
+				try
+				{
+					writeFrame(DATA, (last && endStream) ? FLAG_END_STREAM : 0, stream.getId(), b,
+						off, length);
+
+					// Flushed before waiting for the window, as the server does not extend it
+					// for data it has not received.
+					out.flush();
+				}
+				catch (IOException e)
+				{
+					fail(e);
+					throw e;
+				}
+			}
+
+			off += length;
+			len -= length;
+			written += 9 + length;
+		}
+		while (len > 0);
+
+		return written;
+	}
+
+
+
+
+
+
+	/**
+	 * Reset a stream, which the server must stop sending.
+	 */
+	void writeReset(int streamId, int errorCode)
+	{
+		byte[] payload = new byte[4];
+		putInt(payload, 0, errorCode);
+
+		writeControlFrame(RST_STREAM, 0, streamId, payload);
+	}
+
+
+
+
+
+
+	/**
+	 * Allow the server to send more data on a stream, or on the connection if streamId is 0.
+	 */
+	void writeWindowUpdate(int streamId, int increment)
+	{
+		byte[] payload = new byte[4];
+		putInt(payload, 0, increment);
+
+		writeControlFrame(WINDOW_UPDATE, 0, streamId, payload);
+	}
+
+
+
+
+
+
+	/**
+	 * Terminate a stream: its slot is given back to the connection.
+	 */
+	void streamClosed(Http2Stream stream)
+	{
+		boolean drained;
+
+		synchronized (this)
+		{
+			streams.remove(stream.getId());
+			activeStreams--;
+			idleSince = System.currentTimeMillis();
+			drained = shutdown
+				&& activeStreams == 0;
+			notifyAll();
+		}
+
+		if (drained)
+		{
+			close();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Stop opening new streams on this connection, which is closed once its last stream is.
+	 */
+	void shutdown()
+	{
+		boolean drained;
+
+		synchronized (this)
+		{
+			shutdown = true;
+			drained = activeStreams == 0;
+			notifyAll();
+		}
+
+		if (drained)
+		{
+			close();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Close this connection, failing its streams which response has not been received.
+	 */
+	void close()
+	{
+		if (failure == null)
+		{
+			byte[] payload = new byte[8];
+			synchronized (writeLock)
+			{
+				putInt(payload, 0, Math.max(nextStreamId - 2, 0));
+			}
+			putInt(payload, 4, NO_ERROR);
+
+			writeControlFrame(GOAWAY, 0, 0, payload);
+			fail(new IOException("Connection to "
+				+ transport.getRoute() + " has been closed."));
+		}
+	}
+
+
+
+
+
+
+	static String getErrorName(int errorCode)
+	{
+		return (errorCode >= 0 && errorCode < ERROR_NAMES.length) ? ERROR_NAMES[errorCode] : "0x"
+			+ Integer.toHexString(errorCode);
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return "h2 "
+			+ transport;
+	}
+
+
+
+
+
+
+	private void writePreface() throws IOException
+	{
+		byte[] settings = new byte[12];
+		putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+		putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+
+		byte[] windowUpdate = new byte[4];
+		putInt(windowUpdate, 0, CONNECTION_WINDOW
+			- DEFAULT_WINDOW);
+
+		synchronized (writeLock)
+		{
+			out.write(PREFACE);
+			writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+			writeFrame(WINDOW_UPDATE, 0, 0, windowUpdate, 0, windowUpdate.length);
+			out.flush();
+		}
+	}
+
+
+
+
+
+
+	private void writeControlFrame(int type, int flags, int streamId, byte[] payload)
+	{
+		synchronized (writeLock)
+		{
+			if (failure != null)
+			{
+				return;
+			}
+
+			try
+			{
+				writeFrame(type, flags, streamId, payload, 0, payload.length);
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				fail(e);
+			}
+		}
+	}
+
+
+
+
+
+
+	private void writeFrame(	int type,
+							int flags,
+							int streamId,
+							byte[] payload,
+							int offset,
+							int length) throws IOException
+	{
+		byte[] header = new byte[9];
+		header[0] = (byte) (length >>> 16);
+		header[1] = (byte) (length >>> 8);
+		header[2] = (byte) length;
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		putInt(header, 5, streamId);
+
+		out.write(header);
+		out.write(payload, offset, length);
+	}
+
+
+
+
+
+
+	/**
+	 * Wait until some data can be sent on a stream, and consume the window it takes.
+	 * 
+	 * @return the number of bytes that can be sent, at most length.
+	 */
+	private synchronized int reserveWindow(Http2Stream stream, int length, int timeout)
+		throws IOException
+	{
+		long deadline = System.currentTimeMillis()
+			+ timeout;
+
+		for (;;)
+		{
+			checkOpen();
+			stream.checkWritable();
+
+			long available = Math.min(sendWindow, stream.sendWindow);
+			if (available > 0)
+			{
+				int reserved = (int) Math.min(available, length);
+				sendWindow -= reserved;
+				stream.sendWindow -= reserved;
+				return reserved;
+			}
+
+			long remaining = deadline
+				- System.currentTimeMillis();
+			if (remaining <= 0)
+			{
+				throw new SocketTimeoutException("Server did not accept request data within "
+					+ timeout + " ms.");
+			}
+
+			try
+			{
+				wait(remaining);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while sending request data.");
+			}
+		}
+	}
+
+
+
+
+
+
+	private void checkOpen() throws IOException
+	{
+		IOException failure = this.failure;
+		if (failure != null)
+		{
+			throw new IOException(failure.getMessage(), failure);
+		}
+	}
+
+
+
+
+
+
+	private void waitUninterruptibly(long timeout) throws InterruptedIOException
+	{
+		try
+		{
+			wait(timeout);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a stream to "
+				+ transport.getRoute());
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Fail this connection and the streams still open: no frame is sent nor received anymore.
+	 */
+	private void fail(IOException cause)
+	{
+		List<Http2Stream> openStreams;
+
+		synchronized (this)
+		{
+			if (failure != null)
+			{
+				return;
+			}
+
+			failure = cause;
+			shutdown = true;
+			openStreams = new ArrayList<Http2Stream>(streams.values());
+			notifyAll();
+		}
+
+		transport.close();
+
+		for (Http2Stream stream : openStreams)
+		{
+			stream.connectionFailed(cause);
+		}
+
+		pool.connectionClosed(this);
+
+		logger.debug("{}: connection closed ({}).", this, cause.getMessage());
+	}
+
+
+
+
+
+
+	/**
+	 * The loop of the reader thread.
+	 */
+	private void readFrames()
+	{
+		byte[] header = new byte[9];
+
+		try
+		{
+			transport.setReadTimeout((int) Math.min(Math.max(idleTimeout, 0), Integer.MAX_VALUE));
+
+			for (;;)
+			{
+				if (!readFrameHeader(header))
+				{
+					close();
+					return;
+				}
+
+				int length = ((header[0] & 0xff) << 16)
+					| ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+				int type = header[3] & 0xff;
+				int flags = header[4] & 0xff;
+				int streamId = getInt(header, 5) & 0x7fffffff;
+
+				if (length > MAX_FRAME_SIZE)
+				{
+					throw new ConnectionError(FRAME_SIZE_ERROR, "Frame of "
+						+ length + " bytes received.");
+				}
+
+				byte[] payload = new byte[length];
+				readFully(payload, 0, length);
+
+				switch (type)
+				{
+					case DATA:
+						readData(flags, streamId, payload);
+						break;
+
+					case HEADERS:
+						readHeaders(flags, streamId, payload);
+						break;
+
+					case RST_STREAM:
+						readReset(streamId, payload);
+						break;
+
+					case SETTINGS:
+						readSettings(flags, streamId, payload);
+						break;
+
+					case PUSH_PROMISE:
+						throw new ConnectionError(PROTOCOL_ERROR, "Server push is disabled.");
+
+					case PING:
+						readPing(flags, streamId, payload);
+						break;
+
+					case GOAWAY:
+						readGoAway(streamId, payload);
+						break;
+
+					case WINDOW_UPDATE:
+						readWindowUpdate(streamId, payload);
+						break;
+
+					case CONTINUATION:
+						throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION frame.");
+
+					default:
+						// PRIORITY frames, and unknown frame types, are ignored.
+						break;
+				}
+			}
+		}
+		catch (ConnectionError e)
+		{
+			logger.warn("{}: protocol error, closing connection.", this, e);
+
+			byte[] payload = new byte[8];
+			putInt(payload, 4, e.errorCode);
+			writeControlFrame(GOAWAY, 0, 0, payload);
+			fail(e);
+		}
+		catch (IOException e)
+		{
+			fail(e);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("{}: unexpected error, closing connection.", this, e);
+			fail(new IOException("Unexpected error on the connection to "
+				+ transport.getRoute(), e));
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Read the header of the next frame, and close the connection if it stays idle for too long.
+	 * 
+	 * @return false if the connection must be closed.
+	 */
+	private boolean readFrameHeader(byte[] header) throws IOException
+	{
+		for (;;)
+		{
+			try
+			{
+				int b = in.read();
+				if (b == -1)
+				{
+					throw new EOFException("Connection closed by server.");
+				}
+
+				header[0] = (byte) b;
+				break;
+			}
+			catch (SocketTimeoutException e)
+			{
+				synchronized (this)
+				{
+					if (failure != null)
+					{
+						throw e;
+					}
+
+					if (activeStreams == 0
+						&& System.currentTimeMillis() - idleSince >= idleTimeout)
+					{
+						shutdown = true;
+						return false;
+					}
+				}
+			}
+		}
+
+		readFully(header, 1, 8);
+		return true;
+	}
+
+
+
+
+
+
+	private void readFully(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			int read;
+			try
+			{
+				read = in.read(b, off, len);
+			}
+			catch (SocketTimeoutException e)
+			{
+				// The timeout only detects idle connections: a frame is always read entirely.
+				if (failure != null)
+				{
+					throw e;
+				}
+				continue;
+			}
+
+			if (read == -1)
+			{
+				throw new EOFException("Connection closed by server in the middle of a frame.");
+			}
+
+			off += read;
+			len -= read;
+		}
+	}
+
+
+
+
+
+
+	private void readData(int flags, int streamId, byte[] payload) throws IOException
+	{
+		if (streamId == 0)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "DATA frame on stream 0.");
+		}
+
+		int offset = 0;
+		int padding = 0;
+		if ((flags & FLAG_PADDED) != 0)
+		{
+			padding = readPadding(payload);
+			offset = 1;
+		}
+
+		// The connection window is given back as soon as data is received: the data buffered
+		// is bounded by the window of each stream.
+		unacknowledgedBytes += payload.length;
+		if (unacknowledgedBytes >= CONNECTION_WINDOW / 2)
+		{
+			writeWindowUpdate(0, unacknowledgedBytes);
+			unacknowledgedBytes = 0;
+		}
+
+		Http2Stream stream = getStream(streamId);
+		if (stream != null)
+		{
+			stream.dataReceived(payload, offset, payload.length
+				- offset - padding, payload.length, (flags & FLAG_END_STREAM) != 0);
+		}
+	}
+
+
+
+
+
+
+	private void readHeaders(int flags, int streamId, byte[] payload) throws IOException
+	{
+		if (streamId == 0)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "HEADERS frame on stream 0.");
+		}
+
+		int offset = 0;
+		int padding = 0;
+		if ((flags & FLAG_PADDED) != 0)
+		{
+			padding = readPadding(payload);
+			offset = 1;
+		}
+
+		if ((flags & FLAG_PRIORITY) != 0)
+		{
+			offset += 5;
+		}
+
+		if (offset + padding > payload.length)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid HEADERS frame.");
+		}
+
+		ByteArrayOutputStream block = new ByteArrayOutputStream(payload.length);
+		block.write(payload, offset, payload.length
+			- offset - padding);
+
+		boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+		byte[] header = new byte[9];
+		while (!endHeaders)
+		{
+			readFully(header, 0, 9);
+			int length = ((header[0] & 0xff) << 16)
+				| ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+			if ((header[3] & 0xff) != CONTINUATION
+				|| (getInt(header, 5) & 0x7fffffff) != streamId)
+			{
+				throw new ConnectionError(PROTOCOL_ERROR, "CONTINUATION frame expected.");
+			}
+
+			if (length > MAX_FRAME_SIZE
+				|| block.size() + length > MAX_HEADER_BLOCK_SIZE)
+			{
+				throw new ConnectionError(FRAME_SIZE_ERROR, "Header block is too large.");
+			}
+
+			byte[] continuation = new byte[length];
+			readFully(continuation, 0, length);
+			block.write(continuation, 0, length);
+			endHeaders = (header[4] & FLAG_END_HEADERS) != 0;
+		}
+
+		byte[] headerBlock = block.toByteArray();
+		Map<String, String> headerFields;
+		try
+		{
+			headerFields = decoder.decode(headerBlock, headerBlock.length);
+		}
+		catch (IOException e)
+		{
+			throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+		}
+
+		// Header blocks of closed streams are decoded all the same, for the compression context.
+		Http2Stream stream = getStream(streamId);
+		if (stream != null)
+		{
+			stream.headersReceived(headerFields, 9 + headerBlock.length,
+				(flags & FLAG_END_STREAM) != 0);
+		}
+	}
+
+
+
+
+
+
+	private void readReset(int streamId, byte[] payload) throws IOException
+	{
+		if (streamId == 0
+			|| payload.length != 4)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid RST_STREAM frame.");
+		}
+
+		Http2Stream stream;
+		synchronized (this)
+		{
+			stream = streams.remove(streamId);
+			notifyAll();
+		}
+
+		if (stream != null)
+		{
+			stream.resetReceived(getInt(payload, 0));
+		}
+	}
+
+
+
+
+
+
+	private void readSettings(int flags, int streamId, byte[] payload) throws IOException
+	{
+		if (streamId != 0
+			|| payload.length % 6 != 0)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid SETTINGS frame.");
+		}
+
+		if ((flags & FLAG_ACK) != 0)
+		{
+			return;
+		}
+
+		for (int i = 0; i < payload.length; i += 6)
+		{
+			int identifier = ((payload[i] & 0xff) << 8)
+				| (payload[i + 1] & 0xff);
+			int value = getInt(payload, i + 2);
+
+			switch (identifier)
+			{
+				case SETTINGS_HEADER_TABLE_SIZE:
+					synchronized (writeLock)
+					{
+						encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					}
+					break;
+
+				case SETTINGS_MAX_CONCURRENT_STREAMS:
+					synchronized (this)
+					{
+						maxConcurrentStreams = (value < 0) ? Integer.MAX_VALUE : value;
+						notifyAll();
+					}
+					break;
+
+				case SETTINGS_INITIAL_WINDOW_SIZE:
+					if (value < 0)
+					{
+						throw new ConnectionError(FLOW_CONTROL_ERROR, "Invalid window size.");
+					}
+
+					synchronized (this)
+					{
+						// The windows of open streams are adjusted by the difference.
+						int delta = value
+							- initialSendWindow;
+						initialSendWindow = value;
+						for (Http2Stream stream : streams.values())
+						{
+							stream.sendWindow += delta;
+						}
+						notifyAll();
+					}
+					break;
+
+				case SETTINGS_MAX_FRAME_SIZE:
+					if (value < MAX_FRAME_SIZE
+						|| value > 0xffffff)
+					{
+						throw new ConnectionError(PROTOCOL_ERROR, "Invalid maximum frame size.");
+					}
+
+					// Frames are never larger than the default size.
+					break;
+
+				default:
+					break;
+			}
+		}
+
+		writeControlFrame(SETTINGS, FLAG_ACK, 0, new byte[0]);
+	}
+
+
+
+
+
+
+	private void readPing(int flags, int streamId, byte[] payload) throws IOException
+	{
+		if (streamId != 0
+			|| payload.length != 8)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid PING frame.");
+		}
+
+		if ((flags & FLAG_ACK) == 0)
+		{
+			writeControlFrame(PING, FLAG_ACK, 0, payload);
+		}
+	}
+
+
+
+
+
+
+	private void readGoAway(int streamId, byte[] payload) throws IOException
+	{
+		if (streamId != 0
+			|| payload.length < 8)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid GOAWAY frame.");
+		}
+
+		int lastStreamId = getInt(payload, 0) & 0x7fffffff;
+		int errorCode = getInt(payload, 4);
+
+		List<Http2Stream> refusedStreams = new ArrayList<Http2Stream>();
+		boolean drained;
+
+		synchronized (this)
+		{
+			shutdown = true;
+
+			for (Map.Entry<Integer, Http2Stream> stream : streams.entrySet())
+			{
+				if (stream.getKey() > lastStreamId)
+				{
+					refusedStreams.add(stream.getValue());
+				}
+			}
+
+			drained = activeStreams == 0;
+			notifyAll();
+		}
+
+		logger.debug("{}: GOAWAY received ({}), last stream {}.", this, getErrorName(errorCode),
+			lastStreamId);
+
+		// Streams the server has not processed can be sent again on a new connection.
+		for (Http2Stream stream : refusedStreams)
+		{
+			stream.resetReceived(REFUSED_STREAM);
+		}
+
+		if (drained)
+		{
+			close();
+		}
+	}
+
+
+
+
+
+
+	private void readWindowUpdate(int streamId, byte[] payload) throws IOException
+	{
+		if (payload.length != 4)
+		{
+			throw new ConnectionError(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame.");
+		}
+
+		int increment = getInt(payload, 0) & 0x7fffffff;
+
+		synchronized (this)
+		{
+			if (streamId == 0)
+			{
+				if (increment == 0
+					|| sendWindow + increment > MAX_WINDOW)
+				{
+					throw new ConnectionError(FLOW_CONTROL_ERROR, "Invalid window update.");
+				}
+
+				sendWindow += increment;
+			}
+			else
+			{
+				Http2Stream stream = streams.get(streamId);
+				if (stream != null)
+				{
+					stream.sendWindow += increment;
+				}
+			}
+
+			notifyAll();
+		}
+	}
+
+
+
+
+
+
+	private synchronized Http2Stream getStream(int streamId)
+	{
+		return streams.get(streamId);
+	}
+
+
+
+
+
+
+	private static int readPadding(byte[] payload) throws ConnectionError
+	{
+		if (payload.length == 0
+			|| (payload[0] & 0xff) >= payload.length)
+		{
+			throw new ConnectionError(PROTOCOL_ERROR, "Invalid padding.");
+		}
+
+		return payload[0] & 0xff;
+	}
+
+
+
+
+
+
+	private static void putSetting(byte[] b, int offset, int identifier, int value)
+	{
+		b[offset] = (byte) (identifier >>> 8);
+		b[offset + 1] = (byte) identifier;
+		putInt(b, offset + 2, value);
+	}
+
+
+
+
+
+
+	private static void putInt(byte[] b, int offset, int value)
+	{
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+
+
+
+
+
+
+	private static int getInt(byte[] b, int offset)
+	{
+		return ((b[offset] & 0xff) << 24)
+			| ((b[offset + 1] & 0xff) << 16) | ((b[offset + 2] & 0xff) << 8)
+			| (b[offset + 3] & 0xff);
+	}
+
+
+
+
+
+
+	/**
+	 * A violation of the protocol by the server, which makes the connection unusable.
+	 */
+	private static final class ConnectionError extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		final int errorCode;
+
+
+
+
+
+
+		ConnectionError(int errorCode, String message)
+		{
+			super(getErrorName(errorCode)
+				+ ": " + message);
+			this.errorCode = errorCode;
+		}
+	}
+}
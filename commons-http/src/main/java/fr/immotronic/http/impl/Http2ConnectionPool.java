@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * The HTTP/2 connections, one per route, on which the requests to this route are multiplexed.
+ * 
+ * Secure connections negotiate HTTP/2 with the server during the TLS handshake (ALPN). Routes
+ * which servers do not select HTTP/2, or which cannot be negotiated with by the Java runtime,
+ * are remembered so that their requests are sent over HTTP/1.1 without trying again. Plain
+ * connections assume that the server supports HTTP/2 (prior knowledge), as the upgrade from
+ * HTTP/1.1 would cost a round-trip, and HTTP/2 is never sent through an HTTP proxy.
+ */
+final class Http2ConnectionPool
+{
+	private static final String[] APPLICATION_PROTOCOLS = { "h2", "http/1.1" };
+
+	private final long idleTimeout;
+	private final long streamTimeout;
+	private final SSLSocketFactory sslSocketFactory;
+	private final ConcurrentMap<HttpRoute, RouteEntry> routes;
+	private final Set<HttpRoute> http1Routes;
+	private volatile boolean shutdown = false;
+
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong streams = new AtomicLong();
+	private final AtomicLong tlsHandshakes = new AtomicLong();
+	private final AtomicLong resumedTlsSessions = new AtomicLong();
+
+	final Logger logger = LoggerFactory.getLogger(Http2ConnectionPool.class);
+
+
+
+
+
+
+	/**
+	 * Construct a pool without connection.
+	 * 
+	 * @param idleTimeout
+	 *            the time, in milliseconds, after which a connection without stream is closed.
+	 * @param streamTimeout
+	 *            the maximum time, in milliseconds, to wait for a stream when a connection has
+	 *            as many streams as the server allows.
+	 * @param sslSocketFactory
+	 *            the factory of the TLS sockets of secure connections, null if HTTPS is not
+	 *            available.
+	 */
+	Http2ConnectionPool(long idleTimeout, long streamTimeout, SSLSocketFactory sslSocketFactory)
+	{
+		this.idleTimeout = idleTimeout;
+		this.streamTimeout = streamTimeout;
+		this.sslSocketFactory = sslSocketFactory;
+		this.routes = new ConcurrentHashMap<HttpRoute, RouteEntry>();
+		this.http1Routes = Collections.newSetFromMap(new ConcurrentHashMap<HttpRoute, Boolean>());
+	}
+
+
+
+
+
+
+	/**
+	 * Open a stream to the given route, on the connection to this route, which is opened first if
+	 * needed. The stream MUST be terminated by calling its close() or cancel() method.
+	 * 
+	 * @param route
+	 *            the route to open a stream to.
+	 * @param connectTimeout
+	 *            the connection timeout to use if a new connection must be opened, in milliseconds.
+	 * @param readTimeout
+	 *            the read timeout of the TLS handshake, in milliseconds.
+	 * @return a stream ready to send a request, or null if HTTP/2 cannot be used to this route,
+	 *         which requests must be sent over HTTP/1.1.
+	 * @throws IOException
+	 *             if a new connection cannot be opened, or if no stream becomes available in
+	 *             time.
+	 */
+	Http2Stream newStream(HttpRoute route, int connectTimeout, int readTimeout) throws IOException
+	{
+		// A connection may be shutting down, if the server sent a GOAWAY frame: a new one is then
+		// opened.
+		for (int attempt = 0; attempt < 2; attempt++)
+		{
+			Http2Connection connection = getConnection(route, connectTimeout, readTimeout);
+			if (connection == null)
+			{
+				return null;
+			}
+
+			Http2Stream stream = connection.newStream(streamTimeout);
+			if (stream != null)
+			{
+				streams.incrementAndGet();
+				return stream;
+			}
+		}
+
+		throw new IOException("Connection to "
+			+ route + " is shutting down.");
+	}
+
+
+
+
+
+
+	/**
+	 * Called by a connection once it is closed.
+	 */
+	void connectionClosed(Http2Connection connection)
+	{
+		openConnections.decrementAndGet();
+	}
+
+
+
+
+
+
+	/**
+	 * Close the connections once their current streams are terminated.
+	 */
+	void shutdown()
+	{
+		shutdown = true;
+
+		for (RouteEntry entry : routes.values())
+		{
+			Http2Connection connection = entry.connection;
+			if (connection != null)
+			{
+				connection.shutdown();
+			}
+		}
+	}
+
+
+
+
+
+
+	int getOpenConnections()
+	{
+		return openConnections.get();
+	}
+
+
+
+
+
+
+	long getStreams()
+	{
+		return streams.get();
+	}
+
+
+
+
+
+
+	long getTlsHandshakes()
+	{
+		return tlsHandshakes.get();
+	}
+
+
+
+
+
+
+	long getResumedTlsSessions()
+	{
+		return resumedTlsSessions.get();
+	}
+
+
+
+
+
+
+	private Http2Connection getConnection(HttpRoute route, int connectTimeout, int readTimeout)
+		throws IOException
+	{
+		if (route.isProxied()
+			|| http1Routes.contains(route))
+		{
+			return null;
+		}
+
+		RouteEntry entry = routes.get(route);
+		if (entry == null)
+		{
+			RouteEntry newEntry = new RouteEntry();
+			entry = routes.putIfAbsent(route, newEntry);
+			if (entry == null)
+			{
+				entry = newEntry;
+			}
+		}
+
+		// Concurrent requests wait for the connection opened by the first one, so that they share
+		// it.
+		synchronized (entry)
+		{
+			if (entry.connection != null
+				&& entry.connection.isUsable())
+			{
+				return entry.connection;
+			}
+
+			if (shutdown)
+			{
+				throw new IOException("HTTP client is shutting down.");
+			}
+
+			if (route.isSecure()
+				&& !HttpConnection.isAlpnSupported())
+			{
+				logger.warn("{}: ALPN is not supported by this Java runtime, using HTTP/1.1.",
+					route);
+				http1Routes.add(route);
+				return null;
+			}
+
+			HttpConnection transport = HttpConnection.open(route, connectTimeout, readTimeout,
+				sslSocketFactory, APPLICATION_PROTOCOLS);
+
+			if (route.isSecure())
+			{
+				tlsHandshakes.incrementAndGet();
+				if (transport.isSessionResumed())
+				{
+					resumedTlsSessions.incrementAndGet();
+				}
+
+				if (!"h2".equals(transport.getApplicationProtocol()))
+				{
+					logger.info("{}: server does not support HTTP/2, using HTTP/1.1.", route);
+					transport.close();
+					http1Routes.add(route);
+					return null;
+				}
+			}
+
+			// Counted before the reader thread of the connection starts, as it may close it.
+			openConnections.incrementAndGet();
+			try
+			{
+				entry.connection = Http2Connection.open(this, transport, idleTimeout);
+			}
+			catch (IOException e)
+			{
+				openConnections.decrementAndGet();
+				throw e;
+			}
+
+			logger.debug("{}: new connection opened.", entry.connection);
+
+			return entry.connection;
+		}
+	}
+
+
+
+
+
+
+	private static final class RouteEntry
+	{
+		volatile Http2Connection connection = null;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fr.immotronic.commons.http.HttpRequestBody;
+
+
+
+/**
+ * A single request/response exchange performed on a stream of an HTTP/2 connection.
+ * 
+ * The stream is terminated once the response has been entirely read, or cancelled if the
+ * exchange is aborted before, which does not affect the other streams of the connection.
+ */
+final class Http2Exchange extends AbstractHttpExchange
+{
+	private static final int BUFFER_SIZE = 16384;
+
+	private final Http2Stream stream;
+	private final int readTimeout;
+
+
+
+
+
+
+	/**
+	 * Construct an exchange that will be performed on the given stream.
+	 * 
+	 * @param stream
+	 *            a stream opened to the route of the requested URL.
+	 * @param request
+	 *            the request to send.
+	 * @param permit
+	 *            the permit of the request limit, released with the stream, or null.
+	 * @param metrics
+	 *            the measures of the request, published once the exchange is terminated, or
+	 *            null.
+	 * @param readTimeout
+	 *            the maximum time, in milliseconds, to wait for the response head.
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, after which the response body cannot
+	 *            be read anymore, or Long.MAX_VALUE.
+	 */
+	Http2Exchange(	Http2Stream stream,
+					HttpRequest request,
+					RequestLimiter.Permit permit,
+					RequestMetrics metrics,
+					int readTimeout,
+					long deadline)
+	{
+		super(request, permit, metrics, deadline);
+		this.stream = stream;
+		this.readTimeout = readTimeout;
+
+		if (metrics != null
+			&& !stream.isReused())
+		{
+			HttpConnection transport = stream.getConnection().getTransport();
+			metrics.connectionOpened(transport.getDnsLookupTime(), transport.getConnectTime(),
+				transport.getTlsHandshakeTime());
+		}
+	}
+
+
+
+
+
+
+	@Override
+	boolean isReusedConnection()
+	{
+		return stream.isReused();
+	}
+
+
+
+
+
+
+	@Override
+	void send() throws IOException
+	{
+		if (metrics != null)
+		{
+			metrics.requestStarted(isReusedConnection());
+		}
+
+		byte[] content = request.getContent();
+		HttpRequestBody requestBody = request.getBody();
+		boolean hasContent = (content != null && content.length > 0)
+			|| requestBody != null;
+
+		bytesSent = stream.sendHeaders(request.getHttp2HeaderFields(), !hasContent);
+
+		if (hasContent)
+		{
+			Http2Stream.DataOutputStream data = stream.getOutputStream(readTimeout);
+			if (content != null)
+			{
+				data.write(content, 0, content.length);
+			}
+			else
+			{
+				// DATA frames are as large as possible, whatever the writes of the body are.
+				OutputStream out = new BufferedOutputStream(data, BUFFER_SIZE);
+				requestBody.writeTo(out);
+				out.flush();
+			}
+
+			data.close();
+			bytesSent += data.getBytesWritten();
+		}
+
+		responseHead = HttpResponseHead.create(request, stream.awaitHeaders(readTimeout));
+
+		if (metrics != null)
+		{
+			metrics.responseStarted(responseHead.getResponseCode());
+		}
+
+		// The read timeout may have been reduced to meet the total timeout of the request: reads of
+		// the body reduce it again when the total timeout gets near.
+		stream.setReadTimeout(request.getPolicy().getReadTimeout());
+
+		body = new ResponseBodyInputStream(stream.getInputStream());
+	}
+
+
+
+
+
+
+	@Override
+	long getBytesReceived()
+	{
+		return stream.getBytesReceived();
+	}
+
+
+
+
+
+
+	@Override
+	void setReadTimeout(int readTimeout)
+	{
+		stream.setReadTimeout(readTimeout);
+	}
+
+
+
+
+
+
+	@Override
+	void releaseTransport(boolean reusable)
+	{
+		if (reusable)
+		{
+			stream.close();
+		}
+		else
+		{
+			stream.cancel();
+		}
+	}
+}
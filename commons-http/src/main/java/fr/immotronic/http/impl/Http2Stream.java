@@ -0,0 +1,688 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+
+
+/**
+ * A request/response exchange multiplexed on an Http2Connection.
+ * 
+ * The response data received by the reader thread of the connection is buffered until it is
+ * read from the stream returned by getInputStream(). The server is allowed to send more data as
+ * this data is consumed, so no more than Http2Connection.STREAM_WINDOW bytes are buffered.
+ */
+final class Http2Stream
+{
+	private final Http2Connection connection;
+	private final boolean reused;
+	private final Deque<ByteBuffer> data;
+	private volatile int id = 0;
+	private volatile IOException failure = null;
+	private volatile int readTimeout = 0;
+
+	// Guarded by the lock of the connection.
+	long sendWindow = 0;
+
+	// Guarded by the stream lock.
+	private Map<String, String> headerFields = null;
+	private boolean remoteClosed = false;
+	private boolean closed = false;
+	private int unacknowledgedBytes = 0;
+	private long bytesReceived = 0;
+
+
+
+
+
+
+	Http2Stream(Http2Connection connection, boolean reused)
+	{
+		this.connection = connection;
+		this.reused = reused;
+		this.data = new ArrayDeque<ByteBuffer>();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the identifier of this stream, or 0 if its headers have not been sent yet.
+	 */
+	int getId()
+	{
+		return id;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if a previous stream has been opened on the connection of this stream.
+	 */
+	boolean isReused()
+	{
+		return reused;
+	}
+
+
+
+
+
+
+	Http2Connection getConnection()
+	{
+		return connection;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes of the frames received on this stream so far.
+	 */
+	synchronized long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+
+
+
+
+
+	/**
+	 * Set the time after which a read of the response body fails if no data is received.
+	 * 
+	 * @param readTimeout
+	 *            the timeout, in milliseconds, or 0 for no timeout.
+	 */
+	void setReadTimeout(int readTimeout)
+	{
+		this.readTimeout = readTimeout;
+	}
+
+
+
+
+
+
+	/**
+	 * Send the request headers.
+	 * 
+	 * @param endStream
+	 *            true if the request has no content.
+	 * @return the number of bytes written.
+	 */
+	int sendHeaders(Map<String, String> headerFields, boolean endStream) throws IOException
+	{
+		return connection.writeHeaders(this, headerFields, endStream);
+	}
+
+
+
+
+
+
+	/**
+	 * @param timeout
+	 *            the maximum time, in milliseconds, to wait for the server to accept more data.
+	 * @return a stream sending the request content. Closing it ends the request.
+	 */
+	DataOutputStream getOutputStream(int timeout)
+	{
+		return new DataOutputStream(timeout);
+	}
+
+
+
+
+
+
+	/**
+	 * Wait for the response headers.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds, or 0 for no timeout.
+	 * @return the response header fields, including the :status pseudo-header.
+	 * @throws IOException
+	 *             if the stream has been reset, or if the headers are not received before the
+	 *             timeout.
+	 */
+	synchronized Map<String, String> awaitHeaders(int timeout) throws IOException
+	{
+		long deadline = System.currentTimeMillis()
+			+ timeout;
+
+		while (headerFields == null)
+		{
+			checkFailure();
+			if (remoteClosed)
+			{
+				throw new IOException("Stream "
+					+ id + " ended without response headers.");
+			}
+
+			await(timeout, deadline);
+		}
+
+		return headerFields;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the response body.
+	 */
+	InputStream getInputStream()
+	{
+		return new DataInputStream();
+	}
+
+
+
+
+
+
+	/**
+	 * Terminate this stream once its response has been entirely read.
+	 */
+	void close()
+	{
+		synchronized (this)
+		{
+			if (closed)
+			{
+				return;
+			}
+
+			closed = true;
+			data.clear();
+		}
+
+		connection.streamClosed(this);
+	}
+
+
+
+
+
+
+	/**
+	 * Terminate this stream, and ask the server to stop sending its response if it has not been
+	 * entirely received.
+	 */
+	void cancel()
+	{
+		boolean reset;
+
+		synchronized (this)
+		{
+			if (closed)
+			{
+				return;
+			}
+
+			reset = id != 0
+				&& !remoteClosed && failure == null;
+		}
+
+		if (reset)
+		{
+			connection.writeReset(id, Http2Connection.CANCEL);
+		}
+
+		close();
+	}
+
+
+
+
+
+
+	/**
+	 * Called when the identifier of the stream is allocated, under the lock of the connection.
+	 */
+	void opened(int id, int initialWindow)
+	{
+		this.id = id;
+		this.sendWindow = initialWindow;
+	}
+
+
+
+
+
+
+	/**
+	 * @throws IOException
+	 *             if request data cannot be sent anymore on this stream.
+	 */
+	void checkWritable() throws IOException
+	{
+		checkFailure();
+	}
+
+
+
+
+
+
+	/**
+	 * Called by the reader thread of the connection when a header block is received.
+	 */
+	synchronized void headersReceived(Map<String, String> fields, int size, boolean endStream)
+	{
+		bytesReceived += size;
+
+		if (headerFields == null)
+		{
+			String status = fields.get(":status");
+
+			// Informational responses are followed by the final one.
+			if (status != null
+				&& status.length() == 3 && status.charAt(0) == '1')
+			{
+				return;
+			}
+
+			headerFields = fields;
+		}
+
+		// Trailers are ignored.
+		if (endStream)
+		{
+			remoteClosed = true;
+		}
+
+		notifyAll();
+	}
+
+
+
+
+
+
+	/**
+	 * Called by the reader thread of the connection when a DATA frame is received.
+	 */
+	synchronized void dataReceived(byte[] payload, int offset, int length, int frameLength,
+		boolean endStream)
+	{
+		bytesReceived += 9
+			+ frameLength;
+
+		if (closed)
+		{
+			return;
+		}
+
+		if (length > 0)
+		{
+			data.addLast(ByteBuffer.wrap(payload, offset, length));
+		}
+
+		if (endStream)
+		{
+			remoteClosed = true;
+		}
+
+		notifyAll();
+	}
+
+
+
+
+
+
+	/**
+	 * Called by the reader thread of the connection when the stream is reset by the server.
+	 */
+	synchronized void resetReceived(int errorCode)
+	{
+		// A server may reset a stream once it has sent its response, to stop receiving the
+		// request content.
+		if (remoteClosed
+			&& errorCode == Http2Connection.NO_ERROR)
+		{
+			return;
+		}
+
+		if (failure == null)
+		{
+			failure = new IOException("Stream "
+				+ id + " reset by server: " + Http2Connection.getErrorName(errorCode));
+		}
+
+		notifyAll();
+	}
+
+
+
+
+
+
+	/**
+	 * Called when the connection of this stream fails.
+	 */
+	synchronized void connectionFailed(IOException cause)
+	{
+		if (!remoteClosed
+			&& failure == null)
+		{
+			failure = cause;
+		}
+
+		notifyAll();
+	}
+
+
+
+
+
+
+	private void checkFailure() throws IOException
+	{
+		IOException failure = this.failure;
+		if (failure != null)
+		{
+			throw new IOException(failure.getMessage(), failure);
+		}
+	}
+
+
+
+
+
+
+	private void await(int timeout, long deadline) throws IOException
+	{
+		long remaining = deadline
+			- System.currentTimeMillis();
+		if (timeout > 0
+			&& remaining <= 0)
+		{
+			throw new SocketTimeoutException("Read timed out");
+		}
+
+		try
+		{
+			wait((timeout > 0) ? remaining : 0);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response.");
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Read buffered response data, waiting for the server to send some if needed.
+	 * 
+	 * @return the number of bytes read, or -1 at the end of the response.
+	 */
+	private int read(byte[] b, int off, int len) throws IOException
+	{
+		int read = 0;
+		int windowUpdate = 0;
+
+		synchronized (this)
+		{
+			int timeout = readTimeout;
+			long deadline = System.currentTimeMillis()
+				+ timeout;
+
+			while (data.isEmpty())
+			{
+				if (closed)
+				{
+					throw new IOException("Stream closed.");
+				}
+
+				if (remoteClosed)
+				{
+					return -1;
+				}
+
+				checkFailure();
+				await(timeout, deadline);
+			}
+
+			while (read < len
+				&& !data.isEmpty())
+			{
+				ByteBuffer buffer = data.peekFirst();
+				int length = Math.min(buffer.remaining(), len
+					- read);
+				buffer.get(b, off + read, length);
+				read += length;
+
+				if (!buffer.hasRemaining())
+				{
+					data.removeFirst();
+				}
+			}
+
+			// No need to extend the window of a stream which data has been entirely received.
+			unacknowledgedBytes += read;
+			if (unacknowledgedBytes >= Http2Connection.STREAM_WINDOW / 2
+				&& !remoteClosed)
+			{
+				windowUpdate = unacknowledgedBytes;
+				unacknowledgedBytes = 0;
+			}
+		}
+
+		// Written out of the stream lock, which the reader thread needs.
+		if (windowUpdate > 0)
+		{
+			connection.writeWindowUpdate(id, windowUpdate);
+		}
+
+		return read;
+	}
+
+
+
+
+
+
+	/**
+	 * The request content, sent as DATA frames.
+	 */
+	final class DataOutputStream extends OutputStream
+	{
+		private final int timeout;
+		private long bytesWritten = 0;
+		private boolean ended = false;
+
+
+
+
+
+
+		DataOutputStream(int timeout)
+		{
+			this.timeout = timeout;
+		}
+
+
+
+
+
+
+		/**
+		 * @return the number of bytes written, frame headers included.
+		 */
+		long getBytesWritten()
+		{
+			return bytesWritten;
+		}
+
+
+
+
+
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+
+
+
+
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (ended)
+			{
+				throw new IOException("Request content already ended.");
+			}
+
+			if (len > 0)
+			{
+				bytesWritten += connection.writeData(Http2Stream.this, b, off, len, false, timeout);
+			}
+		}
+
+
+
+
+
+
+		@Override
+		public void close() throws IOException
+		{
+			if (!ended)
+			{
+				ended = true;
+				bytesWritten += connection.writeData(Http2Stream.this, new byte[0], 0, 0, true,
+					timeout);
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The response body, read from the buffered DATA frames.
+	 */
+	private final class DataInputStream extends InputStream
+	{
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+
+			return (read == -1) ? -1 : b[0] & 0xff;
+		}
+
+
+
+
+
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+
+			return Http2Stream.this.read(b, off, len);
+		}
+
+
+
+
+
+
+		@Override
+		public int available()
+		{
+			synchronized (Http2Stream.this)
+			{
+				int available = 0;
+				for (ByteBuffer buffer : data)
+				{
+					available += buffer.remaining();
+				}
+
+				return available;
+			}
+		}
+	}
+}
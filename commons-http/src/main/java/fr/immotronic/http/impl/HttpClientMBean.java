@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+import fr.immotronic.commons.http.HttpClientStatistics;
+import fr.immotronic.commons.http.HttpLatencyHistogram;
+import fr.immotronic.commons.http.HttpRequestPhase;
+
+
+
+/**
+ * The JMX view of the statistics of a HttpClientServiceImpl instance. Numeric statistics are
+ * read-only attributes named after their getter, such as 'ConnectionPoolHits'. Response status
+ * counts and latency histograms are given as text attributes, and latency percentiles by the
+ * 'getLatencyPercentile' operation.
+ */
+final class HttpClientMBean implements DynamicMBean
+{
+	static final String OBJECT_NAME = "fr.immotronic.commons.http:type=HttpClientService";
+
+	private static final String RESPONSE_CODE_COUNTS = "ResponseCodeCounts";
+	private static final String LATENCY_HISTOGRAMS = "LatencyHistograms";
+	private static final String GET_LATENCY_PERCENTILE = "getLatencyPercentile";
+
+	private final HttpClientStatistics statistics;
+	private final Map<String, Method> getters;
+	private final MBeanInfo info;
+
+
+
+
+
+
+	HttpClientMBean(HttpClientStatistics statistics)
+	{
+		this.statistics = statistics;
+		getters = new TreeMap<String, Method>();
+
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Method method : HttpClientStatistics.class.getMethods())
+		{
+			if (method.getName().startsWith("get")
+				&& method.getParameterTypes().length == 0 && method.getReturnType().isPrimitive())
+			{
+				String name = method.getName().substring(3);
+				getters.put(name, method);
+				attributes.add(new MBeanAttributeInfo(name, method.getReturnType().getName(),
+					name, true, false, false));
+			}
+		}
+
+		attributes.add(new MBeanAttributeInfo(RESPONSE_CODE_COUNTS, String[].class.getName(),
+			"Number of requests by response status code", true, false, false));
+		attributes.add(new MBeanAttributeInfo(LATENCY_HISTOGRAMS, String[].class.getName(),
+			"Latency distributions by host and request phase, in microseconds", true, false,
+			false));
+
+		MBeanOperationInfo getLatencyPercentile = new MBeanOperationInfo(
+			GET_LATENCY_PERCENTILE,
+			"Latency, in microseconds, under which a percentage of the requests fall",
+			new MBeanParameterInfo[] {
+				new MBeanParameterInfo("host", String.class.getName(), "Host name, or '*'"),
+				new MBeanParameterInfo("phase", String.class.getName(), "Request phase, such as "
+					+ "TOTAL or TIME_TO_FIRST_BYTE"),
+				new MBeanParameterInfo("percentile", double.class.getName(), "Percentage") },
+			long.class.getName(),
+			MBeanOperationInfo.INFO);
+
+		info = new MBeanInfo(
+			HttpClientMBean.class.getName(),
+			"Statistics of the HttpClientService",
+			attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+			null,
+			new MBeanOperationInfo[] { getLatencyPercentile },
+			null);
+	}
+
+
+
+
+
+
+	@Override
+	public Object getAttribute(String attribute)
+		throws AttributeNotFoundException, MBeanException, ReflectionException
+	{
+		if (RESPONSE_CODE_COUNTS.equals(attribute))
+		{
+			return getResponseCodeCounts();
+		}
+
+		if (LATENCY_HISTOGRAMS.equals(attribute))
+		{
+			return getLatencyHistograms();
+		}
+
+		Method getter = getters.get(attribute);
+		if (getter == null)
+		{
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		try
+		{
+			return getter.invoke(statistics);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new ReflectionException(e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw new ReflectionException(e);
+		}
+	}
+
+
+
+
+
+
+	@Override
+	public AttributeList getAttributes(String[] attributes)
+	{
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes)
+		{
+			try
+			{
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			}
+			catch (Exception e)
+			{
+				// Attributes that cannot be read are omitted, as specified by DynamicMBean.
+			}
+		}
+
+		return list;
+	}
+
+
+
+
+
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+	{
+		throw new AttributeNotFoundException(attribute.getName()
+			+ " is read-only");
+	}
+
+
+
+
+
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes)
+	{
+		return new AttributeList();
+	}
+
+
+
+
+
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature)
+		throws MBeanException, ReflectionException
+	{
+		if (!GET_LATENCY_PERCENTILE.equals(actionName)
+			|| params == null || params.length != 3)
+		{
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		try
+		{
+			String host = (String) params[0];
+			HttpLatencyHistogram histogram = statistics.getLatencyHistogram(
+				(host == null || "*".equals(host)) ? null : host,
+				HttpRequestPhase.valueOf(((String) params[1]).toUpperCase()));
+
+			return (histogram == null) ? 0L : histogram.getValueAtPercentile(((Number) params[2])
+				.doubleValue());
+		}
+		catch (RuntimeException e)
+		{
+			throw new MBeanException(e, "Invalid arguments: "
+				+ e.getMessage());
+		}
+	}
+
+
+
+
+
+
+	@Override
+	public MBeanInfo getMBeanInfo()
+	{
+		return info;
+	}
+
+
+
+
+
+
+	private String[] getResponseCodeCounts()
+	{
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<Integer, Long> entry : new TreeMap<Integer, Long>(statistics
+			.getResponseCodeCounts()).entrySet())
+		{
+			lines.add(entry.getKey()
+				+ ": " + entry.getValue());
+		}
+
+		return lines.toArray(new String[lines.size()]);
+	}
+
+
+
+
+
+
+	private String[] getLatencyHistograms()
+	{
+		List<String> hosts = new ArrayList<String>();
+		hosts.add(null);
+		hosts.addAll(new TreeSet<String>(statistics.getMeasuredHosts()));
+
+		List<String> lines = new ArrayList<String>();
+		for (String host : hosts)
+		{
+			for (HttpRequestPhase phase : HttpRequestPhase.values())
+			{
+				HttpLatencyHistogram histogram = statistics.getLatencyHistogram(host, phase);
+				if (histogram != null)
+				{
+					lines.add(((host == null) ? "*" : host)
+						+ " " + phase + ": " + histogram);
+				}
+			}
+		}
+
+		return lines.toArray(new String[lines.size()]);
+	}
+}
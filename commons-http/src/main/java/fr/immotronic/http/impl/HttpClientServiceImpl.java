@@ -43,39 +43,285 @@
 
 package fr.immotronic.http.impl;
 
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
 import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Unbind;
 import org.apache.felix.ipojo.annotations.Validate;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import fr.immotronic.commons.Strings;
+import fr.immotronic.commons.http.HttpCircuitListener;
+import fr.immotronic.commons.http.HttpCircuitState;
 import fr.immotronic.commons.http.HttpClientService;
+import fr.immotronic.commons.http.HttpClientStatistics;
 import fr.immotronic.commons.http.HttpCredential;
+import fr.immotronic.commons.http.HttpPreparedRequest;
+import fr.immotronic.commons.http.HttpProtocol;
+import fr.immotronic.commons.http.HttpRequestBody;
+import fr.immotronic.commons.http.HttpRequestLimit;
+import fr.immotronic.commons.http.HttpRequestListener;
+import fr.immotronic.commons.http.HttpRequestPolicy;
 import fr.immotronic.commons.http.HttpResponse;
 import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.HttpStatus;
+import fr.immotronic.commons.http.HttpStreamedResponse;
 
 
 
-@Component
+@Component(managedservice = "fr.immotronic.commons.http")
 @Instantiate
 @Provides(specifications = { HttpClientService.class })
-final class HttpClientServiceImpl implements HttpClientService
+final class HttpClientServiceImpl extends AbstractHttpClientService
 {
-	private final static int connectionTimeout = 30000;
-	private final ExecutorService executor;
+	private final static int maxRedirects = 5;
+	private final static long executorShutdownTimeout = 5000;
+	private final HttpClientStatisticsImpl statistics;
+	private volatile HttpConnectionPool pool;
+	private volatile Http2ConnectionPool http2Pool;
+	private volatile AsyncRequestExecutor executor;
+	private volatile ScheduledExecutorService scheduler;
+	private volatile NioHttpEngine engine;
+	private volatile HttpResponseCache cache;
+	private volatile RequestCoalescer coalescer;
+	private volatile CircuitBreaker circuitBreaker;
+	private final List<HttpCircuitListener> circuitListeners;
+	private volatile HttpRequestPolicy defaultPolicy = HttpRequestPolicy.DEFAULT;
+	private final ConcurrentMap<String, HttpRequestPolicy> hostPolicies;
+	private final RequestLimiter requestLimiter;
+	private volatile RequestInstrumentation instrumentation;
+	private final List<HttpRequestListener> requestListeners;
+	private final BundleContext bundleContext;
+	private ServiceRegistration<?> statisticsRegistration = null;
+	private ObjectName mbeanName = null;
+
+	/** Maximum number of simultaneous connections to the same host. */
+	@Property(name = "http.pool.maxConnectionsPerRoute", value = "5")
+	private int maxConnectionsPerRoute;
+
+	/** Time, in milliseconds, after which an idle persistent connection is closed. */
+	@Property(name = "http.pool.idleTimeout", value = "30000")
+	private long connectionIdleTimeout;
+
+	/** Maximum time, in milliseconds, to wait for a connection to a host that has none free. */
+	@Property(name = "http.pool.leaseTimeout", value = "30000")
+	private long connectionLeaseTimeout;
+
+	/** Idle time, in milliseconds, after which a persistent connection is checked before reuse. */
+	@Property(name = "http.pool.validateAfterInactivity", value = "2000")
+	private long validateAfterInactivity;
+
+	/** Number of threads kept alive to perform asynchronous requests. */
+	@Property(name = "http.async.corePoolSize", value = "4")
+	private int asyncCorePoolSize;
+
+	/** Maximum number of threads performing asynchronous requests. */
+	@Property(name = "http.async.maxPoolSize", value = "16")
+	private int asyncMaxPoolSize;
+
+	/** Maximum number of asynchronous requests waiting for a thread. */
+	@Property(name = "http.async.queueCapacity", value = "1000")
+	private int asyncQueueCapacity;
+
+	/** Time, in milliseconds, after which an idle thread above the core pool size terminates. */
+	@Property(name = "http.async.keepAliveTime", value = "60000")
+	private long asyncKeepAliveTime;
+
+	/** Policy applied when the executor is saturated: 'callerRuns', 'abort' or 'discard'. */
+	@Property(name = "http.async.rejectionPolicy", value = "callerRuns")
+	private String asyncRejectionPolicy;
+
+	/** Engine performing asynchronous requests: 'blocking' (one thread per request) or 'nio'. */
+	@Property(name = "http.engine", value = "blocking")
+	private String asyncEngine;
+
+	/** Number of selector threads of the 'nio' engine. */
+	@Property(name = "http.nio.selectorThreads", value = "2")
+	private int nioSelectorThreads;
+
+	/** Maximum number of simultaneous connections to the same host of the 'nio' engine. */
+	@Property(name = "http.nio.maxConnectionsPerRoute", value = "32")
+	private int nioMaxConnectionsPerRoute;
+
+	/** Protocol of the SSLContext shared by HTTPS connections, as in SSLContext.getInstance(). */
+	@Property(name = "http.tls.protocol", value = "TLS")
+	private String tlsProtocol;
+
+	/** Path of the key store of the trusted certificates, or empty to use the JVM default ones. */
+	@Property(name = "http.tls.trustStore", value = "")
+	private String tlsTrustStore;
+
+	/** Password of the trust store, or empty if the trust store is not protected. */
+	@Property(name = "http.tls.trustStorePassword", value = "")
+	private String tlsTrustStorePassword;
+
+	/** Type of the trust store. */
+	@Property(name = "http.tls.trustStoreType", value = "JKS")
+	private String tlsTrustStoreType;
+
+	/** Path of the key store of the client certificates, or empty for no client certificate. */
+	@Property(name = "http.tls.keyStore", value = "")
+	private String tlsKeyStore;
+
+	/** Password of the key store and of its keys. */
+	@Property(name = "http.tls.keyStorePassword", value = "")
+	private String tlsKeyStorePassword;
+
+	/** Type of the key store. */
+	@Property(name = "http.tls.keyStoreType", value = "JKS")
+	private String tlsKeyStoreType;
+
+	/** Maximum number of TLS sessions kept for resumption, or 0 for no limit. */
+	@Property(name = "http.tls.sessionCacheSize", value = "1000")
+	private int tlsSessionCacheSize;
+
+	/** Time, in seconds, a TLS session can be resumed for, or 0 for no limit. */
+	@Property(name = "http.tls.sessionTimeout", value = "86400")
+	private int tlsSessionTimeout;
+
+	/**
+	 * If true, gzip and deflate encoded responses are accepted, and transparently decoded.
+	 */
+	@Property(name = "http.compression.acceptCompressedResponses", value = "false")
+	private boolean acceptCompressedResponses;
+
+	/**
+	 * Size, in bytes, from which request contents are sent gzip compressed, or -1 to never
+	 * compress request contents. Servers must support compressed request contents.
+	 */
+	@Property(name = "http.compression.requestThreshold", value = "-1")
+	private int compressionThreshold;
+
+	/** Maximum number of responses kept in the response cache, or 0 to disable the cache. */
+	@Property(name = "http.cache.maxEntries", value = "0")
+	private int cacheMaxEntries;
+
+	/** Maximum total size, in bytes, of the response contents kept in the response cache. */
+	@Property(name = "http.cache.maxSize", value = "16777216")
+	private long cacheMaxSize;
+
+	/** Size, in bytes, above which response contents are not cached. */
+	@Property(name = "http.cache.maxEntrySize", value = "1048576")
+	private int cacheMaxEntrySize;
+
+	/**
+	 * If true, concurrent identical GET requests share a single request and its response, each
+	 * of them getting its own copy of the response content.
+	 */
+	@Property(name = "http.coalescing.enabled", value = "false")
+	private boolean coalescingEnabled;
+
+	/** Maximum time, in milliseconds, to establish a connection to a server. */
+	@Property(name = "http.policy.connectTimeout", value = "30000")
+	private int connectTimeout;
+
+	/** Maximum time, in milliseconds, without receiving any byte from a server. */
+	@Property(name = "http.policy.readTimeout", value = "30000")
+	private int readTimeout;
+
+	/**
+	 * Maximum time, in milliseconds, to receive a response, its content, retries and
+	 * redirections included, or 0 for no limit.
+	 */
+	@Property(name = "http.policy.totalTimeout", value = "0")
+	private long totalTimeout;
+
+	/** Maximum number of times a failed request is sent again. */
+	@Property(name = "http.policy.maxRetries", value = "0")
+	private int maxRetries;
+
+	/** Base delay, in milliseconds, before the first retry. Doubles at each retry. */
+	@Property(name = "http.policy.backoff", value = "200")
+	private long retryBackoff;
+
+	/** Maximum base delay, in milliseconds, before a retry. */
+	@Property(name = "http.policy.maxBackoff", value = "10000")
+	private long retryMaxBackoff;
+
+	/** Comma separated list of the response statuses that make a request be retried. */
+	@Property(name = "http.policy.retryStatuses", value = "502,503,504")
+	private String retryStatuses;
+
+	/** If true, POST requests are retried even if the server may have processed them. */
+	@Property(name = "http.policy.nonIdempotentRetries", value = "false")
+	private boolean nonIdempotentRetries;
+
+	/** Protocol of requests: 'HTTP/1.1', or 'HTTP/2' to multiplex the requests to a host. */
+	@Property(name = "http.policy.protocol", value = "HTTP/1.1")
+	private String protocol;
+
+	/**
+	 * Failure rate, in percent, from which the circuit of a host opens, or 0 to disable circuit
+	 * breakers.
+	 */
+	@Property(name = "http.circuit.failureRateThreshold", value = "0")
+	private int circuitFailureRateThreshold;
+
+	/** Number of the last requests to a host the failure rate is computed on. */
+	@Property(name = "http.circuit.windowSize", value = "20")
+	private int circuitWindowSize;
+
+	/** Minimum number of requests to a host before its circuit can open. */
+	@Property(name = "http.circuit.minimumRequests", value = "10")
+	private int circuitMinimumRequests;
+
+	/** Time, in milliseconds, a circuit stays open before a request probes the host. */
+	@Property(name = "http.circuit.openDuration", value = "30000")
+	private long circuitOpenDuration;
+
+	/**
+	 * If true, requests are measured: timings, bytes, status codes and latency histograms by
+	 * host.
+	 */
+	@Property(name = "http.metrics.enabled", value = "true")
+	private boolean metricsEnabled;
+
+	/** If true, and if requests are measured, the statistics are published as a JMX MBean. */
+	@Property(name = "http.metrics.jmx", value = "true")
+	private boolean metricsJmx;
 
 	final Logger logger = LoggerFactory.getLogger(HttpClientServiceImpl.class);
 
@@ -86,7 +332,12 @@ final class HttpClientServiceImpl implements HttpClientService
 
 	public HttpClientServiceImpl(BundleContext bundleContext)
 	{
-		executor = Executors.newCachedThreadPool();
+		this.bundleContext = bundleContext;
+		statistics = new HttpClientStatisticsImpl(this);
+		hostPolicies = new ConcurrentHashMap<String, HttpRequestPolicy>();
+		circuitListeners = new CopyOnWriteArrayList<HttpCircuitListener>();
+		requestLimiter = new RequestLimiter();
+		requestListeners = new CopyOnWriteArrayList<HttpRequestListener>();
 	}
 
 
@@ -97,6 +348,52 @@ final class HttpClientServiceImpl implements HttpClientService
 	@Invalidate
 	public synchronized void invalidate()
 	{
+		if (engine != null)
+		{
+			engine.shutdown();
+			engine = null;
+		}
+
+		if (cache != null)
+		{
+			cache.clear();
+			cache = null;
+		}
+
+		circuitBreaker = null;
+		coalescer = null;
+
+		unregisterStatistics();
+		instrumentation = null;
+
+		requestLimiter.shutdown();
+
+		// Resources are missing if the service has not been entirely started.
+		if (executor != null)
+		{
+			executor.shutdown(executorShutdownTimeout);
+			executor = null;
+		}
+
+		if (scheduler != null)
+		{
+			// Pending retries still run: they fail, so that their response handlers are called.
+			scheduler.shutdown();
+			scheduler = null;
+		}
+
+		if (http2Pool != null)
+		{
+			http2Pool.shutdown();
+			http2Pool = null;
+		}
+
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+
 		logger.info("HttpClientService has stopped.");
 	}
 
@@ -108,6 +405,111 @@ final class HttpClientServiceImpl implements HttpClientService
 	@Validate
 	public synchronized void validate()
 	{
+		// Properties are checked first, so that an invalid one leaves no resource to release.
+		checkProperties();
+
+		SSLSocketFactory sslSocketFactory = null;
+		try
+		{
+			sslSocketFactory = createSSLContext().getSocketFactory();
+		}
+		catch (IOException e)
+		{
+			logger.error("Cannot initialize the TLS context, HTTPS requests will fail.", e);
+		}
+		catch (GeneralSecurityException e)
+		{
+			logger.error("Cannot initialize the TLS context, HTTPS requests will fail.", e);
+		}
+
+		pool = new HttpConnectionPool(
+			maxConnectionsPerRoute,
+			connectionIdleTimeout,
+			connectionLeaseTimeout,
+			validateAfterInactivity,
+			sslSocketFactory);
+
+		http2Pool = new Http2ConnectionPool(
+			connectionIdleTimeout,
+			connectionLeaseTimeout,
+			sslSocketFactory);
+
+		executor = new AsyncRequestExecutor(
+			"HttpClientService-async",
+			asyncCorePoolSize,
+			asyncMaxPoolSize,
+			asyncQueueCapacity,
+			asyncKeepAliveTime,
+			asyncRejectionPolicy);
+
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable task)
+				{
+					Thread thread = new Thread(task, "HttpClientService-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+		// Coalesced requests cancel their timeout once answered.
+		scheduler.setRemoveOnCancelPolicy(true);
+		this.scheduler = scheduler;
+
+		if (cacheMaxEntries > 0)
+		{
+			cache = new HttpResponseCache(cacheMaxEntries, cacheMaxSize, cacheMaxEntrySize);
+		}
+
+		defaultPolicy = createDefaultPolicy();
+
+		if (circuitFailureRateThreshold > 0)
+		{
+			circuitBreaker = new CircuitBreaker(
+				circuitFailureRateThreshold,
+				circuitWindowSize,
+				circuitMinimumRequests,
+				circuitOpenDuration,
+				circuitListeners);
+		}
+
+		if (coalescingEnabled)
+		{
+			coalescer = new RequestCoalescer(2L * Math.max(
+				defaultPolicy.getConnectTimeout(),
+				defaultPolicy.getReadTimeout()));
+		}
+
+		if ("nio".equalsIgnoreCase(asyncEngine))
+		{
+			try
+			{
+				engine = new NioHttpEngine(
+					"HttpClientService-nio",
+					nioSelectorThreads,
+					nioMaxConnectionsPerRoute,
+					connectionIdleTimeout);
+			}
+			catch (IOException e)
+			{
+				logger.error("Cannot start the non-blocking HTTP engine, asynchronous requests "
+					+ "will be performed by the blocking engine.", e);
+			}
+		}
+		else if (!"blocking".equalsIgnoreCase(asyncEngine))
+		{
+			logger.warn("Unknown HTTP engine '{}', asynchronous requests will be performed by the "
+				+ "blocking engine.", asyncEngine);
+		}
+
+		if (metricsEnabled)
+		{
+			instrumentation = new RequestInstrumentation(requestListeners);
+			registerStatistics();
+		}
+
 		logger.info("HttpClientService is running.");
 		logger.debug("HttpClientService DEBUG mode is activated.");
 	}
@@ -117,10 +519,25 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpCredential createCredential(String username, String password)
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a property of the service has an invalid value.
+	 */
+	private void checkProperties()
 	{
-		return new HttpCredentialImpl(username, password);
+		checkProperty("http.pool.maxConnectionsPerRoute", maxConnectionsPerRoute, 1);
+		checkProperty("http.async.corePoolSize", asyncCorePoolSize, 0);
+		checkProperty("http.async.maxPoolSize", asyncMaxPoolSize, 1);
+		checkProperty("http.async.queueCapacity", asyncQueueCapacity, 1);
+		checkProperty("http.async.keepAliveTime", asyncKeepAliveTime, 0);
+
+		if (!AsyncRequestExecutor.isRejectionPolicy(asyncRejectionPolicy))
+		{
+			throw new IllegalArgumentException("Unknown rejection policy '"
+				+ asyncRejectionPolicy + "' (http.async.rejectionPolicy property). Expected one of "
+				+ AsyncRequestExecutor.CALLER_RUNS_POLICY + ", " + AsyncRequestExecutor.ABORT_POLICY
+				+ " or " + AsyncRequestExecutor.DISCARD_POLICY + ".");
+		}
 	}
 
 
@@ -128,10 +545,13 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse get(URL url, Map<String, String> headers)
+	private static void checkProperty(String name, long value, long minimum)
 	{
-		return get(url, null, (String) null, headers);
+		if (value < minimum)
+		{
+			throw new IllegalArgumentException("Invalid value of the "
+				+ name + " property (" + value + "): it must be at least " + minimum + ".");
+		}
 	}
 
 
@@ -139,10 +559,40 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void get(URL url, Map<String, String> headers, HttpResponseHandler responseHandler)
+	/**
+	 * Create the SSLContext shared by all HTTPS connections, so that they share its TLS session
+	 * cache and can resume earlier sessions instead of performing full handshakes.
+	 */
+	private SSLContext createSSLContext() throws IOException, GeneralSecurityException
 	{
-		get(url, null, (String) null, headers, responseHandler);
+		TrustManager[] trustManagers = null;
+		if (!tlsTrustStore.isEmpty())
+		{
+			TrustManagerFactory factory = TrustManagerFactory.getInstance(
+				TrustManagerFactory.getDefaultAlgorithm());
+			factory.init(loadKeyStore(tlsTrustStore, tlsTrustStoreType, tlsTrustStorePassword));
+			trustManagers = factory.getTrustManagers();
+		}
+
+		KeyManager[] keyManagers = null;
+		if (!tlsKeyStore.isEmpty())
+		{
+			KeyManagerFactory factory = KeyManagerFactory.getInstance(
+				KeyManagerFactory.getDefaultAlgorithm());
+			factory.init(
+				loadKeyStore(tlsKeyStore, tlsKeyStoreType, tlsKeyStorePassword),
+				tlsKeyStorePassword.toCharArray());
+			keyManagers = factory.getKeyManagers();
+		}
+
+		SSLContext context = SSLContext.getInstance(tlsProtocol);
+		context.init(keyManagers, trustManagers, null);
+
+		SSLSessionContext sessions = context.getClientSessionContext();
+		sessions.setSessionCacheSize(tlsSessionCacheSize);
+		sessions.setSessionTimeout(tlsSessionTimeout);
+
+		return context;
 	}
 
 
@@ -150,10 +600,21 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse get(URL url, String accept, Map<String, String> otherHeaders)
+	private static KeyStore loadKeyStore(String path, String type, String password)
+		throws IOException, GeneralSecurityException
 	{
-		return get(url, null, accept, otherHeaders);
+		KeyStore keyStore = KeyStore.getInstance(type);
+		InputStream in = new FileInputStream(path);
+		try
+		{
+			keyStore.load(in, password.isEmpty() ? null : password.toCharArray());
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return keyStore;
 	}
 
 
@@ -161,13 +622,34 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void get(URL url,
-					String accept,
-					Map<String, String> otherHeaders,
-					HttpResponseHandler responseHandler)
+	/**
+	 * Publish the statistics as an OSGi service and, if enabled, as a JMX MBean.
+	 */
+	private void registerStatistics()
 	{
-		get(url, null, accept, otherHeaders, responseHandler);
+		if (bundleContext != null)
+		{
+			statisticsRegistration = bundleContext.registerService(
+				HttpClientStatistics.class.getName(),
+				statistics,
+				null);
+		}
+
+		if (metricsJmx)
+		{
+			try
+			{
+				mbeanName = new ObjectName(HttpClientMBean.OBJECT_NAME);
+				ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new HttpClientMBean(statistics),
+					mbeanName);
+			}
+			catch (JMException e)
+			{
+				logger.warn("Cannot register the HttpClientService MBean.", e);
+				mbeanName = null;
+			}
+		}
 	}
 
 
@@ -175,10 +657,27 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse get(URL url, String[] accept, Map<String, String> otherHeaders)
+	private void unregisterStatistics()
 	{
-		return get(url, null, accept, otherHeaders);
+		if (statisticsRegistration != null)
+		{
+			statisticsRegistration.unregister();
+			statisticsRegistration = null;
+		}
+
+		if (mbeanName != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			}
+			catch (JMException e)
+			{
+				logger.warn("Cannot unregister the HttpClientService MBean.", e);
+			}
+
+			mbeanName = null;
+		}
 	}
 
 
@@ -186,13 +685,63 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void get(URL url,
-					String[] accept,
-					Map<String, String> otherHeaders,
-					HttpResponseHandler responseHandler)
+	private HttpRequestPolicy createDefaultPolicy()
 	{
-		get(url, null, accept, otherHeaders, responseHandler);
+		List<Integer> statuses = new ArrayList<Integer>();
+		if (retryStatuses != null)
+		{
+			for (String status : retryStatuses.split(","))
+			{
+				if (!status.trim().isEmpty())
+				{
+					try
+					{
+						statuses.add(Integer.valueOf(status.trim()));
+					}
+					catch (NumberFormatException e)
+					{
+						logger.warn("Invalid retry status '{}' is ignored.", status);
+					}
+				}
+			}
+		}
+
+		int[] _statuses = new int[statuses.size()];
+		for (int i = 0; i < _statuses.length; i++)
+		{
+			_statuses[i] = statuses.get(i);
+		}
+
+		HttpProtocol _protocol = HttpProtocol.HTTP_1_1;
+		if ("HTTP/2".equalsIgnoreCase(protocol))
+		{
+			_protocol = HttpProtocol.HTTP_2;
+		}
+		else if (protocol != null
+			&& !"HTTP/1.1".equalsIgnoreCase(protocol))
+		{
+			logger.warn("Unknown protocol '{}', HTTP/1.1 is used instead.", protocol);
+		}
+
+		try
+		{
+			return HttpRequestPolicy.DEFAULT
+				.withConnectTimeout(connectTimeout)
+				.withReadTimeout(readTimeout)
+				.withTotalTimeout(totalTimeout)
+				.withMaxRetries(maxRetries)
+				.withBackoff(retryBackoff, retryMaxBackoff)
+				.withRetryStatuses(_statuses)
+				.withNonIdempotentRetries(nonIdempotentRetries)
+				.withProtocol(_protocol);
+		}
+		catch (IllegalArgumentException e)
+		{
+			logger.error("Invalid request policy properties, {} is applied instead.",
+				HttpRequestPolicy.DEFAULT, e);
+
+			return HttpRequestPolicy.DEFAULT;
+		}
 	}
 
 
@@ -201,9 +750,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse get(URL url, HttpCredential credential, Map<String, String> otherHeaders)
+	public HttpCredential createCredential(String username, String password)
 	{
-		return get(url, credential, (String) null, otherHeaders);
+		return new HttpCredentialImpl(username, password);
 	}
 
 
@@ -212,12 +761,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void get(URL url,
-					HttpCredential credential,
-					Map<String, String> otherHeaders,
-					HttpResponseHandler responseHandler)
+	public HttpClientStatistics getStatistics()
 	{
-		get(url, credential, (String) null, otherHeaders, responseHandler);
+		return statistics;
 	}
 
 
@@ -226,12 +772,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse get(URL url,
-							HttpCredential credential,
-							String accept,
-							Map<String, String> otherHeaders)
+	public HttpRequestPolicy getDefaultPolicy()
 	{
-		return get(url, credential, explodeAccept(accept), otherHeaders);
+		return defaultPolicy;
 	}
 
 
@@ -240,13 +783,21 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void get(URL url,
-					HttpCredential credential,
-					String accept,
-					Map<String, String> otherHeaders,
-					HttpResponseHandler responseHandler)
+	public void setHostPolicy(String host, HttpRequestPolicy policy)
 	{
-		get(url, credential, explodeAccept(accept), otherHeaders, responseHandler);
+		if (host == null)
+		{
+			throw new IllegalArgumentException("'host' argument cannot be null");
+		}
+
+		if (policy == null)
+		{
+			hostPolicies.remove(host.toLowerCase());
+		}
+		else
+		{
+			hostPolicies.put(host.toLowerCase(), policy);
+		}
 	}
 
 
@@ -254,13 +805,16 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
+
 	@Override
-	public HttpResponse get(URL url,
-							HttpCredential credential,
-							String[] accept,
-							Map<String, String> otherHeaders)
+	public HttpRequestPolicy getHostPolicy(String host)
 	{
-		return sendRequest(HttpMethod.GET, url, credential, null, null, accept, otherHeaders);
+		if (host == null)
+		{
+			throw new IllegalArgumentException("'host' argument cannot be null");
+		}
+
+		return getPolicy(host);
 	}
 
 
@@ -269,21 +823,14 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void get(URL url,
-					HttpCredential credential,
-					String[] accept,
-					Map<String, String> otherHeaders,
-					HttpResponseHandler responseHandler)
+	public HttpClientService withPolicy(HttpRequestPolicy policy)
 	{
-		sendAsyncRequest(
-			HttpMethod.GET,
-			url,
-			credential,
-			null,
-			null,
-			accept,
-			otherHeaders,
-			responseHandler);
+		if (policy == null)
+		{
+			throw new IllegalArgumentException("'policy' argument cannot be null");
+		}
+
+		return new PolicyView(policy);
 	}
 
 
@@ -292,12 +839,14 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse post(	URL url,
-								String contentType,
-								byte[] content,
-								Map<String, String> otherHeaders)
+	public void setRequestLimit(String target, HttpRequestLimit limit)
 	{
-		return sendRequest(HttpMethod.POST, url, null, contentType, content, null, otherHeaders);
+		if (target == null)
+		{
+			throw new IllegalArgumentException("'target' argument cannot be null");
+		}
+
+		requestLimiter.setLimit(target, limit);
 	}
 
 
@@ -306,21 +855,10 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void post(	URL url,
-						String contentType,
-						byte[] content,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	public HttpCircuitState getCircuitState(String host)
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			null,
-			contentType,
-			content,
-			null,
-			otherHeaders,
-			responseHandler);
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		return (circuitBreaker == null) ? HttpCircuitState.CLOSED : circuitBreaker.getState(host);
 	}
 
 
@@ -329,20 +867,12 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse post(	URL url,
-								String contentType,
-								byte[] content,
-								String accept,
-								Map<String, String> otherHeaders)
+	public void addCircuitListener(HttpCircuitListener listener)
 	{
-		return sendRequest(
-			HttpMethod.POST,
-			url,
-			null,
-			contentType,
-			content,
-			explodeAccept(accept),
-			otherHeaders);
+		if (listener != null)
+		{
+			circuitListeners.add(listener);
+		}
 	}
 
 
@@ -351,22 +881,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void post(	URL url,
-						String contentType,
-						byte[] content,
-						String accept,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	public void removeCircuitListener(HttpCircuitListener listener)
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			null,
-			contentType,
-			content,
-			explodeAccept(accept),
-			otherHeaders,
-			responseHandler);
+		circuitListeners.remove(listener);
 	}
 
 
@@ -375,13 +892,13 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse post(	URL url,
-								String contentType,
-								byte[] content,
-								String[] accept,
-								Map<String, String> otherHeaders)
+	@Bind(optional = true, aggregate = true)
+	public void addRequestListener(HttpRequestListener listener)
 	{
-		return sendRequest(HttpMethod.POST, url, null, contentType, content, accept, otherHeaders);
+		if (listener != null)
+		{
+			requestListeners.add(listener);
+		}
 	}
 
 
@@ -390,22 +907,10 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void post(	URL url,
-						String contentType,
-						byte[] content,
-						String[] accept,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	@Unbind
+	public void removeRequestListener(HttpRequestListener listener)
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			null,
-			contentType,
-			content,
-			accept,
-			otherHeaders,
-			responseHandler);
+		requestListeners.remove(listener);
 	}
 
 
@@ -413,21 +918,13 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse post(	URL url,
-								HttpCredential credential,
-								String contentType,
-								byte[] content,
-								Map<String, String> otherHeaders)
+	/**
+	 * @return the policy to apply to requests to the given host.
+	 */
+	HttpRequestPolicy getPolicy(String host)
 	{
-		return sendRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			null,
-			otherHeaders);
+		HttpRequestPolicy policy = hostPolicies.get(host.toLowerCase());
+		return (policy == null) ? defaultPolicy : policy;
 	}
 
 
@@ -435,23 +932,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void post(	URL url,
-						HttpCredential credential,
-						String contentType,
-						byte[] content,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	HttpConnectionPool getConnectionPool()
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			null,
-			otherHeaders,
-			responseHandler);
+		return pool;
 	}
 
 
@@ -459,22 +942,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse post(	URL url,
-								HttpCredential credential,
-								String contentType,
-								byte[] content,
-								String accept,
-								Map<String, String> otherHeaders)
+	Http2ConnectionPool getHttp2ConnectionPool()
 	{
-		return sendRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			explodeAccept(accept),
-			otherHeaders);
+		return http2Pool;
 	}
 
 
@@ -482,24 +952,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void post(	URL url,
-						HttpCredential credential,
-						String contentType,
-						byte[] content,
-						String accept,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	AsyncRequestExecutor getExecutor()
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			explodeAccept(accept),
-			otherHeaders,
-			responseHandler);
+		return executor;
 	}
 
 
@@ -507,22 +962,19 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse post(	URL url,
-								HttpCredential credential,
-								String contentType,
-								byte[] content,
-								String[] accept,
-								Map<String, String> otherHeaders)
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the service has been stopped.
+	 */
+	private AsyncRequestExecutor getRunningExecutor()
 	{
-		return sendRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			accept,
-			otherHeaders);
+		AsyncRequestExecutor executor = this.executor;
+		if (executor == null)
+		{
+			throw new RejectedExecutionException("HttpClientService has been stopped.");
+		}
+
+		return executor;
 	}
 
 
@@ -530,24 +982,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void post(	URL url,
-						HttpCredential credential,
-						String contentType,
-						byte[] content,
-						String[] accept,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	HttpResponseCache getResponseCache()
 	{
-		sendAsyncRequest(
-			HttpMethod.POST,
-			url,
-			credential,
-			contentType,
-			content,
-			accept,
-			otherHeaders,
-			responseHandler);
+		return cache;
 	}
 
 
@@ -555,10 +992,9 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public HttpResponse delete(URL url, Map<String, String> headers)
+	RequestCoalescer getRequestCoalescer()
 	{
-		return sendRequest(HttpMethod.DELETE, url, null, null, null, null, headers);
+		return coalescer;
 	}
 
 
@@ -566,10 +1002,29 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	@Override
-	public void delete(URL url, Map<String, String> headers, HttpResponseHandler responseHandler)
+	CircuitBreaker getCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+
+
+
+
+
+	RequestLimiter getRequestLimiter()
+	{
+		return requestLimiter;
+	}
+
+
+
+
+
+
+	RequestInstrumentation getInstrumentation()
 	{
-		sendAsyncRequest(HttpMethod.DELETE, url, null, null, null, null, headers, responseHandler);
+		return instrumentation;
 	}
 
 
@@ -578,10 +1033,15 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public HttpResponse
-		delete(URL url, HttpCredential credential, Map<String, String> otherHeaders)
+	HttpResponse sendRequest(	HttpMethod method,
+								URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders)
 	{
-		return sendRequest(HttpMethod.DELETE, url, credential, null, null, null, otherHeaders);
+		return sendRequest(method, url, credential, contentType, content, accept, otherHeaders, null);
 	}
 
 
@@ -590,19 +1050,76 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 	@Override
-	public void delete(	URL url,
-						HttpCredential credential,
-						Map<String, String> otherHeaders,
-						HttpResponseHandler responseHandler)
+	void sendAsyncRequest(	HttpMethod method,
+							URL url,
+							HttpCredential credential,
+							String contentType,
+							byte[] content,
+							String[] accept,
+							Map<String, String> otherHeaders,
+							HttpResponseHandler responseHandler)
 	{
 		sendAsyncRequest(
-			HttpMethod.DELETE,
+			method,
 			url,
 			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
 			null,
-			null,
-			null,
+			responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	HttpResponse sendBodyRequest(	HttpMethod method,
+									URL url,
+									HttpCredential credential,
+									String contentType,
+									HttpRequestBody content,
+									String[] accept,
+									Map<String, String> otherHeaders)
+	{
+		return sendBodyRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			null);
+	}
+
+
+
+
+
+
+	@Override
+	void sendAsyncBodyRequest(	HttpMethod method,
+								URL url,
+								HttpCredential credential,
+								String contentType,
+								HttpRequestBody content,
+								String[] accept,
+								Map<String, String> otherHeaders,
+								HttpResponseHandler responseHandler)
+	{
+		sendAsyncBodyRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
 			otherHeaders,
+			null,
 			responseHandler);
 	}
 
@@ -611,15 +1128,29 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	private String[] explodeAccept(String accept)
+	@Override
+	HttpStreamedResponse sendStreamedRequest(	HttpMethod method,
+												URL url,
+												HttpCredential credential,
+												String[] accept,
+												Map<String, String> otherHeaders)
 	{
-		String[] _accept = null;
-		if (accept != null)
-		{
-			_accept = accept.split(",");
-		}
+		return sendStreamedRequest(method, url, credential, accept, otherHeaders, null);
+	}
+
+
 
-		return _accept;
+
+
+
+	@Override
+	HttpPreparedRequest prepareRequest(	HttpMethod method,
+										HttpCredential credential,
+										String contentType,
+										String[] accept,
+										Map<String, String> otherHeaders)
+	{
+		return prepareRequest(method, credential, contentType, accept, otherHeaders, null);
 	}
 
 
@@ -627,128 +1158,391 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
+	/**
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
 	private HttpResponse sendRequest(	HttpMethod method,
 										URL url,
 										HttpCredential credential,
 										String contentType,
 										byte[] content,
 										String[] accept,
-										Map<String, String> otherHeaders)
+										Map<String, String> otherHeaders,
+										HttpRequestPolicy policy)
 	{
-		if (method == null)
+		return sendRequest(createRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			policy));
+	}
+
+
+
+
+
+
+	/**
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
+	private HttpResponse sendBodyRequest(	HttpMethod method,
+											URL url,
+											HttpCredential credential,
+											String contentType,
+											HttpRequestBody content,
+											String[] accept,
+											Map<String, String> otherHeaders,
+											HttpRequestPolicy policy)
+	{
+		return sendRequest(createRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			null,
+			accept,
+			otherHeaders,
+			policy).withBody(content));
+	}
+
+
+
+
+
+
+	/**
+	 * @param policy
+	 *            the policy to apply to the requests, or null to apply the policy of their host.
+	 */
+	private HttpPreparedRequest prepareRequest(	HttpMethod method,
+												HttpCredential credential,
+												String contentType,
+												String[] accept,
+												Map<String, String> otherHeaders,
+												HttpRequestPolicy policy)
+	{
+		Map<String, String> _otherHeaders = null;
+		if (otherHeaders != null)
 		{
-			throw new IllegalArgumentException(
-				"The specified HTTP method is null. 'method' argument must be valid");
+			_otherHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			_otherHeaders.putAll(otherHeaders);
+			_otherHeaders = Collections.unmodifiableMap(_otherHeaders);
 		}
 
-		if (url == null)
+		String[] _accept = (accept == null) ? null : accept.clone();
+
+		return new HttpPreparedRequestImpl(
+			this,
+			method,
+			new RequestHeaders(credential, contentType, _accept, _otherHeaders),
+			policy);
+	}
+
+
+
+
+
+
+	/**
+	 * Send a request, unless an identical request is in progress, in which case its response is
+	 * awaited.
+	 */
+	HttpResponse sendRequest(HttpRequest request)
+	{
+		RequestCoalescer coalescer = this.coalescer;
+		if (coalescer == null
+			|| !coalescer.isCoalescable(request))
 		{
-			throw new IllegalArgumentException(
-				"The specified URL is null. 'url' argument must be valid");
+			return sendRequest(request, false, getDeadline(request), null);
 		}
 
-		if (!url.getProtocol().equalsIgnoreCase("http"))
+		long deadline = getDeadline(request);
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		HttpResponseFutureImpl inFlight = coalescer.join(request, false, future);
+		if (inFlight != null)
 		{
-			throw new IllegalArgumentException("The URL protocol ("
-				+ url.getProtocol() + ") is not supported. Supported protocol is HTTP");
+			logger.debug("{}: Waiting for the response of an identical request.", request);
+			return awaitResponse(request, inFlight, deadline, coalescer.getMaxFlightTime());
 		}
 
+		HttpResponse response = null;
 		try
 		{
-			logger.info("{} {}", method, url);
+			response = sendRequest(request, false, deadline, null);
+			return response;
+		}
+		finally
+		{
+			if (response == null)
+			{
+				// Identical requests must not wait forever, even if this one failed unexpectedly.
+				response = new HttpResponseImpl(null, null, null);
+			}
+
+			coalescer.complete(request, false, future, response);
+		}
+	}
+
+
+
+
+
+
+	private HttpStreamedResponse sendStreamedRequest(	HttpMethod method,
+														URL url,
+														HttpCredential credential,
+														String[] accept,
+														Map<String, String> otherHeaders,
+														HttpRequestPolicy policy)
+	{
+		return sendStreamedRequest(createRequest(
+			method,
+			url,
+			credential,
+			null,
+			null,
+			accept,
+			otherHeaders,
+			policy));
+	}
+
+
+
+
+
 
-			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-			connection.setConnectTimeout(connectionTimeout);
-			connection.setReadTimeout(connectionTimeout);
-			connection.setDoOutput(content != null);
-			connection.setDoInput(true);
-			connection.setRequestMethod(method.toString());
+	/**
+	 * Send a request which response content is not read in memory. Streamed requests are never
+	 * coalesced, as their response content can be read only once.
+	 */
+	HttpStreamedResponse sendStreamedRequest(HttpRequest request)
+	{
+		return sendRequest(request, true, getDeadline(request), null);
+	}
+
+
+
+
+
+
+	/**
+	 * Wait for the response of a coalesced request. The wait is not interruptible, as is the wait
+	 * for the response of a request sent by the calling thread, but it ends at the deadline of the
+	 * waiting request, whatever the deadline of the in-flight one is. If the in-flight request has
+	 * not completed within the given maximum wait, for instance because it has been lost, the
+	 * waiting request is sent on its own.
+	 */
+	private HttpResponse awaitResponse(	HttpRequest request,
+										HttpResponseFutureImpl future,
+										long deadline,
+										long maxWait)
+	{
+		long timeout = Math.min(deadline, System.currentTimeMillis()
+			+ maxWait);
+		boolean interrupted = false;
 
-			if (otherHeaders != null)
+		try
+		{
+			for (;;)
 			{
-				Set<String> headerNames = otherHeaders.keySet();
-				for (String headerName : headerNames)
+				try
 				{
-					connection.setRequestProperty(headerName, otherHeaders.get(headerName));
+					long left = timeout
+						- System.currentTimeMillis();
 
-					if (logger.isDebugEnabled())
+					if (left > 0)
 					{
-						logger.debug("{} {}: Header '{}: {}'", method, url, headerName, connection
-							.getRequestProperty(headerName));
+						return future.get(left, TimeUnit.MILLISECONDS);
 					}
 				}
-			}
-
-			if (credential != null
-				&& credential instanceof HttpCredentialImpl)
-			{
-				HttpCredentialImpl c = (HttpCredentialImpl) credential;
-				connection.setRequestProperty("Authorization", c.getAuthorizationValue());
-				
-				if (logger.isDebugEnabled())
+				catch (InterruptedException e)
 				{
-					logger.debug("{} {}: Header 'Authorization: {}'", method, url,
-						connection.getRequestProperty("Authorization"));
+					interrupted = true;
+					continue;
+				}
+				catch (TimeoutException e)
+				{
+					// The in-flight request is lost, or the total timeout of the request is
+					// exceeded.
 				}
-			}
 
-			if (contentType != null)
-			{
-				connection.setRequestProperty("Content-Type", contentType);
-				
-				if (logger.isDebugEnabled())
+				if (timeout < deadline)
 				{
-					logger.debug("{} {}: Header 'Content-Type: {}'", method, url,
-						connection.getRequestProperty("Content-Type"));
+					logger.warn("{}: No response from an identical request, sending this one.",
+						request);
+
+					return sendRequest(request, false, deadline, null);
 				}
+
+				logger.warn("{}: Total timeout exceeded while waiting for the response of an "
+					+ "identical request.", request);
+
+				return new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT, request);
+			}
+		}
+		finally
+		{
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
 			}
+		}
+	}
+
+
+
+
+
 
-			if (accept != null)
+	/**
+	 * Send a request, following redirections. Responses are served from the response cache, if
+	 * enabled, when possible.
+	 * 
+	 * @param streamed
+	 *            if true, the response content is not read in memory: the returned response holds
+	 *            the connection until its content has been read or it has been closed.
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, at which the request fails if its
+	 *            response has not been entirely received, or Long.MAX_VALUE.
+	 * @param permit
+	 *            the permit of the request limit already acquired for the request, or null.
+	 */
+	private HttpResponseImpl sendRequest(	HttpRequest request,
+											boolean streamed,
+											long deadline,
+											RequestLimiter.Permit permit)
+	{
+		return sendRequest(request, streamed, deadline, permit, 0, 0, null);
+	}
+
+
+
+
+
+
+	/**
+	 * Send a request, following redirections, from the given attempt.
+	 * 
+	 * @param redirects
+	 *            the number of redirections already followed.
+	 * @param retries
+	 *            the number of times the request has already been retried.
+	 * @param retryScheduler
+	 *            the scheduler of the retries of the request, or null to wait for them in the
+	 *            calling thread.
+	 * @return the response, or null if a retry has been scheduled.
+	 */
+	private HttpResponseImpl sendRequest(	HttpRequest request,
+											boolean streamed,
+											long deadline,
+											RequestLimiter.Permit permit,
+											int redirects,
+											int retries,
+											RetryScheduler retryScheduler)
+	{
+		HttpResponseCache cache = this.cache;
+
+		try
+		{
+			for (;; redirects++)
 			{
-				String _accept = Strings.join(accept, ", ");
-				connection.setRequestProperty("Accept", _accept);
-				
-				if (logger.isDebugEnabled())
+				logger.info("{}", request);
+
+				HttpResponseCache.Entry cached = (cache == null) ? null : cache.lookup(request);
+				HttpRequest sentRequest = request;
+				if (cached != null)
 				{
-					logger.debug("{} {}: Header 'Accept: {}'", method, url,
-						connection.getRequestProperty("Accept"));
+					if (cached.isFresh(request))
+					{
+						logger.debug("{}: Served from response cache.", request);
+
+						cache.recordHit();
+						return cached.toResponse(request, streamed);
+					}
+
+					sentRequest = cached.toConditionalRequest(request);
 				}
-			}
 
-			if (content != null)
-			{
-				String contentLength = String.valueOf(content.length);
-				connection.setRequestProperty("Content-Length", contentLength);
+				AbstractHttpExchange exchange = sendExchange(
+					sentRequest,
+					deadline,
+					permit,
+					retries,
+					retryScheduler != null);
+
+				permit = null;
+				retries = 0;
+				HttpResponseHead head = exchange.getResponseHead();
 
-				if (logger.isDebugEnabled())
+				if (cached != null
+					&& head.getResponseCode() == 304)
 				{
-					logger.debug("{} {}: Header 'Content-Length: {}'", method, url,
-						connection.getRequestProperty("Content-Length"));
+					logger.debug("{}: Cached response revalidated.", request);
+
+					exchange.discard();
+					return cache.revalidate(cached, head).toResponse(request, streamed);
 				}
-				
-				DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
-				if (writer != null)
+
+				HttpRequest redirection = (redirects < maxRedirects) ? request.redirect(head) : null;
+				if (redirection == null)
 				{
-					try
-					{
-						writer.write(content);
-						writer.flush();
-					}
-					catch (IOException e)
+					logger.debug("{}: Now building the HttpResponse object...", request);
+
+					InputStream body = exchange.getInputStream();
+					if (cache != null)
 					{
-						logger.error("{} {}: Cannot send content.", method, url, e);
+						body = cache.store(request, head, body);
 					}
+
+					HttpResponseImpl response = new HttpResponseImpl(
+						head,
+						body,
+						request.getAccept(),
+						streamed);
+
+					response.setMetrics(exchange.getMetrics());
+					return response;
 				}
-			}
 
-			logger.debug("{} {}: Now building the HttpResponse object...", method, url);
+				logger.debug("{}: Redirected to {}.", request, redirection.getURL());
 
-			return new HttpResponseImpl(connection, accept);
+				exchange.discard();
+				request = redirection;
+			}
+		}
+		catch (CircuitBreaker.CircuitOpenException e)
+		{
+			logger.debug("{}", e.getMessage());
+			return new HttpResponseImpl(HttpStatus.CIRCUIT_OPEN, request);
+		}
+		catch (RequestLimiter.LimitExceededException e)
+		{
+			logger.warn("{}", e.getMessage());
+			return new HttpResponseImpl(HttpStatus.REQUEST_THROTTLED, request);
+		}
+		catch (DelayedRetryException e)
+		{
+			retryScheduler.retryLater(request, redirects, e.retries, e.delay);
+			return null;
 		}
 		catch (IOException e)
 		{
-			logger.error("{} {}: Cannot send request.", method, url, e);
-			return new HttpResponseImpl(null, null);
+			logger.error("{}: Cannot send request.", request, e);
+			return new HttpResponseImpl(null, null, null);
+		}
+		finally
+		{
+			// The request has not been sent, for instance its response is cached.
+			if (permit != null)
+			{
+				permit.release();
+			}
 		}
 	}
 
@@ -757,44 +1551,1887 @@ final class HttpClientServiceImpl implements HttpClientService
 
 
 
-	private void sendAsyncRequest(	HttpMethod method,
-									URL url,
-									HttpCredential credential,
-									String contentType,
-									byte[] content,
-									String[] accept,
-									Map<String, String> otherHeaders,
-									HttpResponseHandler responseHandler)
+	/**
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
+	private HttpRequest createRequest(	HttpMethod method,
+										URL url,
+										HttpCredential credential,
+										String contentType,
+										byte[] content,
+										String[] accept,
+										Map<String, String> otherHeaders,
+										HttpRequestPolicy policy)
 	{
-		final HttpMethod _method = method;
-		final URL _url = url;
-		final HttpCredential _credential = credential;
-		final String _contentType = contentType;
-		final byte[] _content = content;
-		final String[] _accept = accept;
-		final Map<String, String> _otherHeaders = otherHeaders;
-		final HttpResponseHandler _responseHandler = responseHandler;
+		if (method == null)
+		{
+			throw new IllegalArgumentException(
+				"The specified HTTP method is null. 'method' argument must be valid");
+		}
 
-		executor.execute(new Runnable() {
+		return createRequest(
+			method,
+			url,
+			new RequestHeaders(credential, contentType, accept, otherHeaders),
+			content,
+			policy);
+	}
 
-			@Override
-			public void run()
-			{
-				HttpResponse response = sendRequest(
-					_method,
-					_url,
-					_credential,
-					_contentType,
-					_content,
-					_accept,
-					_otherHeaders);
 
-				if (_responseHandler != null)
+
+
+
+
+	/**
+	 * Create a request which headers have already been computed, for instance by an
+	 * HttpPreparedRequest.
+	 * 
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
+	HttpRequest createRequest(	HttpMethod method,
+								URL url,
+								RequestHeaders headers,
+								byte[] content,
+								HttpRequestPolicy policy)
+	{
+		if (url == null)
+		{
+			throw new IllegalArgumentException(
+				"The specified URL is null. 'url' argument must be valid");
+		}
+
+		if (!url.getProtocol().equalsIgnoreCase("http")
+			&& !url.getProtocol().equalsIgnoreCase("https"))
+		{
+			throw new IllegalArgumentException("The URL protocol ("
+				+ url.getProtocol() + ") is not supported. Supported protocols are HTTP and HTTPS");
+		}
+
+		if (policy == null)
+		{
+			policy = getPolicy(url.getHost());
+		}
+
+		return new HttpRequest(method, url, headers, content, policy)
+			.withCompression(acceptCompressedResponses, compressionThreshold);
+	}
+
+
+
+
+
+
+	/**
+	 * Send a request on a pooled connection and read the response head. The request is retried as
+	 * its policy allows: if it cannot be sent, if the response head cannot be read or if the
+	 * response has a retry status. Besides, if the request cannot be sent on a reused connection,
+	 * because the server closed it in the meantime, the request is sent again on a new connection.
+	 * 
+	 * Each attempt waits for the request limit of the request, if any.
+	 * 
+	 * @param permit
+	 *            the permit of the request limit already acquired for the first attempt, or null.
+	 *            It is released by this method or by the returned exchange.
+	 * @param retries
+	 *            the number of times the request has already been retried.
+	 * @param delayed
+	 *            if true, the calling thread does not wait to retry the request: a
+	 *            DelayedRetryException is thrown instead.
+	 * @return the exchange which response head has been read. If retries are exhausted, its
+	 *         response may have a retry status.
+	 */
+	private AbstractHttpExchange sendExchange(	HttpRequest request,
+												long deadline,
+												RequestLimiter.Permit permit,
+												int retries,
+												boolean delayed) throws IOException
+	{
+		HttpConnectionPool pool = this.pool;
+		if (pool == null)
+		{
+			if (permit != null)
+			{
+				permit.release();
+			}
+
+			throw new IOException(request
+				+ ": HttpClientService has been stopped.");
+		}
+
+		Http2ConnectionPool http2Pool = (request.getPolicy().getProtocol() == HttpProtocol.HTTP_2)
+			? this.http2Pool : null;
+		HttpRoute route = request.getRoute();
+		HttpRequestPolicy policy = request.getPolicy();
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		RequestInstrumentation instrumentation = this.instrumentation;
+		boolean reconnected = false;
+		boolean permitted = false;
+
+		for (;; retries++)
+		{
+			if (permit == null)
+			{
+				permit = requestLimiter.acquire(request, deadline);
+			}
+
+			int connectTimeout;
+			int readTimeout;
+
+			try
+			{
+				connectTimeout = getTimeout(request, policy.getConnectTimeout(), deadline);
+				readTimeout = getTimeout(request, policy.getReadTimeout(), deadline);
+
+				if (circuitBreaker != null
+					&& !permitted)
+				{
+					if (!circuitBreaker.allowRequest(request.getURL().getHost()))
+					{
+						throw new CircuitBreaker.CircuitOpenException(request
+							+ ": circuit is open, request is not sent.");
+					}
+
+					permitted = true;
+				}
+			}
+			catch (IOException e)
+			{
+				if (permit != null)
+				{
+					permit.release();
+				}
+
+				throw e;
+			}
+
+			RequestMetrics metrics = (instrumentation == null) ? null : instrumentation
+				.start(request);
+			AbstractHttpExchange exchange = null;
+
+			try
+			{
+				// HTTP/1.1 is used if the route does not support HTTP/2.
+				Http2Stream stream = (http2Pool == null) ? null : http2Pool.newStream(route,
+					connectTimeout, readTimeout);
+				if (stream != null)
+				{
+					exchange = new Http2Exchange(stream, request, permit, metrics, readTimeout,
+						deadline);
+				}
+				else
+				{
+					HttpConnection connection = pool.lease(route, connectTimeout, readTimeout);
+					exchange = new HttpExchange(pool, connection, request, permit, metrics,
+						deadline);
+				}
+				permit = null;
+
+				exchange.send();
+			}
+			catch (IOException e)
+			{
+				if (exchange == null)
+				{
+					// No connection could be leased, nor stream opened.
+					if (permit != null)
+					{
+						permit.release();
+						permit = null;
+					}
+
+					if (metrics != null)
+					{
+						metrics.complete(0, 0);
+					}
+				}
+
+				if (exchange != null)
+				{
+					// A server that does not answer in time did not close the connection. The
+					// request may have reached the server before the connection was closed.
+					boolean stale = exchange.isReusedConnection()
+						&& !reconnected && !(e instanceof SocketTimeoutException)
+						&& request.isRepeatable() && request.isResendable();
+
+					exchange.abort();
+
+					if (stale)
+					{
+						logger.debug("{}: Persistent connection closed by server, retrying on a "
+							+ "new connection.", request);
+
+						reconnected = true;
+						retries--;
+						continue;
+					}
+				}
+
+				recordFailure(request, e);
+				permitted = false;
+
+				// If no connection could be leased, the request has not been sent.
+				long delay = getBackoff(policy, retries + 1);
+				if (!canRetry(request, exchange != null, retries, delay, deadline))
+				{
+					throw e;
+				}
+
+				logger.warn("{}: Request failed ({}), retrying in {} ms.", request, e, delay);
+				if (delayed)
+				{
+					throw new DelayedRetryException(retries + 1, delay);
+				}
+
+				sleep(request, delay);
+				continue;
+			}
+
+			int responseCode = exchange.getResponseHead().getResponseCode();
+			recordOutcome(request, responseCode >= 500);
+			permitted = false;
+
+			if (!policy.isRetryStatus(responseCode))
+			{
+				return exchange;
+			}
+
+			long delay = getBackoff(policy, retries + 1);
+			if (!canRetry(request, true, retries, delay, deadline))
+			{
+				return exchange;
+			}
+
+			logger.warn("{}: Server answered {}, retrying in {} ms.", request, responseCode, delay);
+			exchange.discard();
+			if (delayed)
+			{
+				throw new DelayedRetryException(retries + 1, delay);
+			}
+
+			sleep(request, delay);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds since the epoch, at which the given request fails if its
+	 *         response has not been entirely received, or Long.MAX_VALUE.
+	 */
+	private static long getDeadline(HttpRequest request)
+	{
+		long totalTimeout = request.getPolicy().getTotalTimeout();
+		if (totalTimeout == 0)
+		{
+			return Long.MAX_VALUE;
+		}
+
+		return System.currentTimeMillis()
+			+ totalTimeout;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the given timeout, reduced to the time left before the deadline.
+	 * @throws SocketTimeoutException
+	 *             if the deadline has passed.
+	 */
+	private static int getTimeout(HttpRequest request, int timeout, long deadline)
+		throws SocketTimeoutException
+	{
+		if (deadline == Long.MAX_VALUE)
+		{
+			return timeout;
+		}
+
+		long left = deadline
+			- System.currentTimeMillis();
+
+		if (left <= 0)
+		{
+			throw new SocketTimeoutException(request
+				+ ": total timeout exceeded.");
+		}
+
+		return (int) Math.min(timeout, left);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the delay, in milliseconds, before the given retry: a random time between half of
+	 *         and the whole of the exponential backoff.
+	 */
+	private static long getBackoff(HttpRequestPolicy policy, int retry)
+	{
+		long backoff = policy.getBackoff();
+		for (int i = 1; i < retry
+			&& backoff < policy.getMaxBackoff(); i++)
+		{
+			backoff *= 2;
+		}
+
+		backoff = Math.min(backoff, policy.getMaxBackoff());
+
+		return backoff
+			/ 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1);
+	}
+
+
+
+
+
+
+	/**
+	 * @param sent
+	 *            true if the server may have processed the failed request.
+	 * @param retries
+	 *            the number of times the request has already been retried.
+	 * @return true if the request can be retried after the given delay.
+	 */
+	private static boolean canRetry(HttpRequest request,
+									boolean sent,
+									int retries,
+									long delay,
+									long deadline)
+	{
+		HttpRequestPolicy policy = request.getPolicy();
+
+		if (retries >= policy.getMaxRetries()
+			|| Thread.currentThread().isInterrupted())
+		{
+			return false;
+		}
+
+		if (sent
+			&& !request.isResendable())
+		{
+			return false;
+		}
+
+		if (sent
+			&& !request.isRepeatable())
+		{
+			// The content, read from a stream, has been consumed.
+			return false;
+		}
+
+		return System.currentTimeMillis()
+			+ delay < deadline;
+	}
+
+
+
+
+
+
+	private static void sleep(HttpRequest request, long delay) throws InterruptedIOException
+	{
+		try
+		{
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(request
+				+ ": interrupted while waiting to retry.");
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
+	private void sendAsyncRequest(	HttpMethod method,
+									URL url,
+									HttpCredential credential,
+									String contentType,
+									byte[] content,
+									String[] accept,
+									Map<String, String> otherHeaders,
+									HttpRequestPolicy policy,
+									HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(createRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			content,
+			accept,
+			otherHeaders,
+			policy), responseHandler);
+	}
+
+
+
+
+
+
+	/**
+	 * @param policy
+	 *            the policy to apply to the request, or null to apply the policy of its host.
+	 */
+	private void sendAsyncBodyRequest(	HttpMethod method,
+										URL url,
+										HttpCredential credential,
+										String contentType,
+										HttpRequestBody content,
+										String[] accept,
+										Map<String, String> otherHeaders,
+										HttpRequestPolicy policy,
+										HttpResponseHandler responseHandler)
+	{
+		sendAsyncRequest(createRequest(
+			method,
+			url,
+			credential,
+			contentType,
+			null,
+			accept,
+			otherHeaders,
+			policy).withBody(content), responseHandler);
+	}
+
+
+
+
+
+
+	/**
+	 * Send a request asynchronously, unless an identical request is in progress, in which case
+	 * its response is awaited.
+	 * 
+	 * @param responseHandler
+	 *            the handler to call with the response, or null.
+	 */
+	void sendAsyncRequest(final HttpRequest request, HttpResponseHandler responseHandler)
+	{
+		// The total timeout includes the time spent waiting for a thread or a connection.
+		final long deadline = getDeadline(request);
+
+		RequestCoalescer coalescer = this.coalescer;
+		if (coalescer != null
+			&& coalescer.isCoalescable(request))
+		{
+			HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+			HttpResponseFutureImpl inFlight = coalescer.join(request, true, future);
+			if (inFlight != null)
+			{
+				logger.debug("{}: Waiting for the response of an identical request.", request);
+
+				if (responseHandler != null)
 				{
-					_responseHandler.processResponse(response);
+					new CoalescedHandler(request, responseHandler, deadline).await(
+						inFlight,
+						coalescer.getMaxFlightTime());
 				}
+
+				return;
+			}
+
+			// The handler of this request is not called if the request is rejected.
+			final AtomicBoolean rejected = new AtomicBoolean();
+			if (responseHandler != null)
+			{
+				final HttpResponseHandler _responseHandler = responseHandler;
+				future.addHandler(new HttpResponseHandler() {
+
+					@Override
+					public void processResponse(HttpResponse response)
+					{
+						if (!rejected.get())
+						{
+							_responseHandler.processResponse(response);
+						}
+					}
+				});
+			}
+
+			try
+			{
+				executeAsyncRequest(
+					request,
+					coalescer.completionHandler(request, future),
+					deadline);
+			}
+			catch (RuntimeException e)
+			{
+				// Requests that joined this one must not wait for it.
+				rejected.set(true);
+				coalescer.complete(request, true, future, new HttpResponseImpl(
+					HttpStatus.SERVER_TIMEOUT,
+					request));
+
+				throw e;
 			}
-		});
+
+			return;
+		}
+
+		executeAsyncRequest(request, responseHandler, deadline);
+	}
+
+
+
+
+
+
+	/**
+	 * Perform a request asynchronously, with the non-blocking engine if it supports the request.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor is saturated and its rejection policy is 'abort'.
+	 */
+	private void executeAsyncRequest(	HttpRequest request,
+										HttpResponseHandler responseHandler,
+										long deadline)
+	{
+		NioHttpEngine engine = this.engine;
+		if (engine != null
+			&& engine.supports(request))
+		{
+			executeNioRequest(engine, request, responseHandler, 0, 0, deadline, null);
+			return;
+		}
+
+		executeBlockingRequest(request, responseHandler, 0, 0, deadline);
 	}
 
+
+
+
+
+
+	/**
+	 * Perform a request with the blocking engine, on the asynchronous request executor. No thread
+	 * is held while the request waits for its request limit, nor while it waits to be retried.
+	 * 
+	 * @param redirects
+	 *            the number of redirections already followed.
+	 * @param retries
+	 *            the number of times the request has already been retried.
+	 */
+	private void executeBlockingRequest(final HttpRequest request,
+										final HttpResponseHandler responseHandler,
+										final int redirects,
+										final int retries,
+										final long deadline)
+	{
+		final RetryScheduler retryScheduler = new RetryScheduler() {
+
+			@Override
+			public void retryLater(	final HttpRequest retriedRequest,
+									final int retriedRedirects,
+									final int retriedRetries,
+									long delay)
+			{
+				schedule(new Runnable() {
+
+					@Override
+					public void run()
+					{
+						executeBlockingRequest(
+							retriedRequest,
+							responseHandler,
+							retriedRedirects,
+							retriedRetries,
+							deadline);
+					}
+				}, delay);
+			}
+		};
+
+		LimitedTask task = new LimitedTask(request, responseHandler) {
+
+			@Override
+			void run(RequestLimiter.Permit permit)
+			{
+				HttpResponse response;
+				try
+				{
+					response = sendRequest(
+						request,
+						false,
+						deadline,
+						permit,
+						redirects,
+						retries,
+						retryScheduler);
+				}
+				catch (RuntimeException e)
+				{
+					logger.error("{}: Cannot send request.", request, e);
+					response = new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT, request);
+				}
+
+				if (response != null
+					&& responseHandler != null)
+				{
+					responseHandler.processResponse(response);
+				}
+			}
+		};
+
+		// Retries and redirections are performed by internal threads.
+		if (retries == 0
+			&& redirects == 0)
+		{
+			task.submit(deadline);
+		}
+		else
+		{
+			requestLimiter.acquireLater(request, deadline, task);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Perform a request with the non-blocking engine, unless it can be served from the response
+	 * cache.
+	 * 
+	 * @param retries
+	 *            the number of times the request has already been retried.
+	 * @param permit
+	 *            the permit of the request limit already acquired for the request, or null.
+	 */
+	private void executeNioRequest(	final NioHttpEngine engine,
+									final HttpRequest request,
+									final HttpResponseHandler responseHandler,
+									final int redirects,
+									final int retries,
+									final long deadline,
+									RequestLimiter.Permit permit)
+	{
+		logger.info("{}", request);
+
+		HttpResponseCache cache = this.cache;
+		HttpResponseCache.Entry cached = (cache == null) ? null : cache.lookup(request);
+		if (cached != null
+			&& cached.isFresh(request))
+		{
+			logger.debug("{}: Served from response cache.", request);
+
+			cache.recordHit();
+
+			if (permit != null)
+			{
+				permit.release();
+			}
+
+			respondLater(responseHandler, cached.toResponse(request, false));
+			return;
+		}
+
+		if (permit == null
+			&& requestLimiter.isLimited(request))
+		{
+			LimitedTask task = new LimitedTask(request, responseHandler) {
+
+				@Override
+				void run(RequestLimiter.Permit permit)
+				{
+					executeNioRequest(
+						engine,
+						request,
+						responseHandler,
+						redirects,
+						retries,
+						deadline,
+						permit);
+				}
+			};
+
+			// Retries and redirections are performed by internal threads.
+			if (retries == 0
+				&& redirects == 0)
+			{
+				task.submit(deadline);
+			}
+			else
+			{
+				requestLimiter.acquireLater(request, deadline, task);
+			}
+
+			return;
+		}
+
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null
+			&& !circuitBreaker.allowRequest(request.getURL().getHost()))
+		{
+			logger.debug("{}: Circuit is open, request is not sent.", request);
+
+			if (permit != null)
+			{
+				permit.release();
+			}
+
+			respondLater(responseHandler, new HttpResponseImpl(HttpStatus.CIRCUIT_OPEN, request));
+			return;
+		}
+
+		RequestInstrumentation instrumentation = this.instrumentation;
+		RequestMetrics metrics = (instrumentation == null) ? null : instrumentation.start(request);
+
+		HttpRequest sentRequest = (cached == null) ? request : cached.toConditionalRequest(request);
+		engine.execute(sentRequest, deadline, metrics, new AsyncResponseCallback(
+			engine,
+			request,
+			cached,
+			responseHandler,
+			redirects,
+			retries,
+			deadline,
+			permit,
+			metrics));
+	}
+
+
+
+
+
+
+	/**
+	 * Call a response handler on the asynchronous request executor, or on the scheduler thread if
+	 * the executor is saturated: the calling thread never calls it.
+	 */
+	private void respondLater(final HttpResponseHandler responseHandler, final HttpResponse response)
+	{
+		if (responseHandler == null)
+		{
+			return;
+		}
+
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run()
+			{
+				responseHandler.processResponse(response);
+			}
+		};
+
+		try
+		{
+			getRunningExecutor().handOff(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			schedule(task, 0);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Run a task on the scheduler thread once the given delay has elapsed. The scheduler thread
+	 * performs retries, which are not blocking, and calls the response handlers of the requests
+	 * the asynchronous request executor rejected. If the service has been stopped, the task is run
+	 * at once by the calling thread.
+	 * 
+	 * @return the scheduled task, or null if the task has been run.
+	 */
+	private ScheduledFuture<?> schedule(Runnable task, long delay)
+	{
+		ScheduledExecutorService scheduler = this.scheduler;
+		if (scheduler != null)
+		{
+			try
+			{
+				return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// The service is being stopped.
+			}
+		}
+
+		task.run();
+		return null;
+	}
+
+
+
+
+
+
+	/**
+	 * Record the failure of a request to its host, unless the request failed for a local reason:
+	 * no connection to the host became available in time, because all of them were in use. If the
+	 * request was probing the host, another request can probe it.
+	 */
+	private void recordFailure(HttpRequest request, IOException e)
+	{
+		if (!(e instanceof HttpConnectionPool.LeaseTimeoutException))
+		{
+			recordOutcome(request, true);
+			return;
+		}
+
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null)
+		{
+			circuitBreaker.releaseProbe(request.getURL().getHost());
+		}
+	}
+
+
+
+
+
+
+	private void recordOutcome(HttpRequest request, boolean failure)
+	{
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null)
+		{
+			if (failure)
+			{
+				circuitBreaker.recordFailure(request.getURL().getHost());
+			}
+			else
+			{
+				circuitBreaker.recordSuccess(request.getURL().getHost());
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Schedules the retries of the requests performed by the blocking engine on the asynchronous
+	 * request executor.
+	 */
+	private interface RetryScheduler
+	{
+		/**
+		 * Perform the given request again once the given delay has elapsed.
+		 */
+		void retryLater(HttpRequest request, int redirects, int retries, long delay);
+	}
+
+
+
+
+
+
+	/**
+	 * Signals that a request must be retried after a delay, which the calling thread does not
+	 * wait for.
+	 */
+	private static final class DelayedRetryException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The number of times the request will have been retried.
+		 */
+		final int retries;
+
+		/**
+		 * The delay, in milliseconds, before the retry.
+		 */
+		final long delay;
+
+
+
+
+
+
+		DelayedRetryException(int retries, long delay)
+		{
+			super("Request to be retried in "
+				+ delay + " ms.");
+
+			this.retries = retries;
+			this.delay = delay;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A request started on the asynchronous request executor once its request limit allows it.
+	 * If the request waited too long, its response handler is called with a REQUEST_THROTTLED
+	 * response.
+	 * 
+	 * The rejection policy of the executor applies to the request only if the thread of client
+	 * code that submits it gets the permit at once. Otherwise, the permit is obtained by the
+	 * thread of the limiter, or by the thread that released it, possibly a selector thread: the
+	 * request is handed over to the executor, and fails if the executor is saturated.
+	 */
+	private abstract class LimitedTask implements RequestLimiter.Callback,
+		AsyncRequestExecutor.DiscardableTask
+	{
+		private final HttpRequest request;
+		private final HttpResponseHandler responseHandler;
+		private volatile RequestLimiter.Permit permit = null;
+		private volatile Thread submitter = null;
+
+
+
+
+
+
+		LimitedTask(HttpRequest request, HttpResponseHandler responseHandler)
+		{
+			this.request = request;
+			this.responseHandler = responseHandler;
+		}
+
+
+
+
+
+
+		/**
+		 * Perform the request. Called on the asynchronous request executor.
+		 * 
+		 * @param permit
+		 *            the permit of the request limit, or null if no limit applies to the request.
+		 */
+		abstract void run(RequestLimiter.Permit permit);
+
+
+
+
+
+
+		/**
+		 * Submit the request, from the thread of client code that sends it.
+		 * 
+		 * @throws RejectedExecutionException
+		 *             if the executor is saturated and its rejection policy is 'abort'.
+		 */
+		void submit(long deadline)
+		{
+			submitter = Thread.currentThread();
+			try
+			{
+				requestLimiter.acquireLater(request, deadline, this);
+			}
+			finally
+			{
+				submitter = null;
+			}
+		}
+
+
+
+
+
+
+		@Override
+		public void acquired(RequestLimiter.Permit permit)
+		{
+			this.permit = permit;
+
+			boolean submitting = Thread.currentThread() == submitter;
+			try
+			{
+				if (submitting)
+				{
+					getRunningExecutor().execute(this);
+				}
+				else
+				{
+					getRunningExecutor().handOff(this);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				releasePermit();
+
+				if (submitting)
+				{
+					throw e;
+				}
+
+				logger.error("{}: Request cannot be performed: {}", request, e.getMessage());
+				respondLater(responseHandler, new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT,
+					request));
+			}
+		}
+
+
+
+
+
+
+		@Override
+		public void rejected(IOException e)
+		{
+			logger.warn("{}", e.getMessage());
+			respondLater(
+				responseHandler,
+				new HttpResponseImpl(HttpStatus.REQUEST_THROTTLED, request));
+		}
+
+
+
+
+
+
+		@Override
+		public void run()
+		{
+			run(permit);
+		}
+
+
+
+
+
+
+		@Override
+		public void discarded()
+		{
+			releasePermit();
+
+			logger.warn("{}: Request discarded, the asynchronous executor is saturated.", request);
+			respondLater(responseHandler, new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT, request));
+		}
+
+
+
+
+
+
+		private void releasePermit()
+		{
+			if (permit != null)
+			{
+				permit.release();
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Receive the outcome of a request performed by the non-blocking engine. Redirections are
+	 * followed, the response is built and the response handler is called on the asynchronous
+	 * request executor, and retries are scheduled, so that selector threads are never blocked.
+	 */
+	private final class AsyncResponseCallback implements NioHttpEngine.ResponseCallback
+	{
+		private final NioHttpEngine engine;
+		private final HttpRequest request;
+		private final HttpResponseCache.Entry cached;
+		private final HttpResponseHandler responseHandler;
+		private final int redirects;
+		private final int retries;
+		private final long deadline;
+		private final RequestLimiter.Permit permit;
+		private final RequestMetrics metrics;
+		private volatile boolean answered = false;
+
+
+
+
+
+
+		/**
+		 * @param request
+		 *            the request, as built from client code arguments.
+		 * @param cached
+		 *            the cached response the request has been made conditional on, or null.
+		 * @param permit
+		 *            the permit of the request limit, released once the request has completed, or
+		 *            null.
+		 * @param metrics
+		 *            the measures of the request, published on the asynchronous request executor,
+		 *            or null.
+		 */
+		AsyncResponseCallback(	NioHttpEngine engine,
+								HttpRequest request,
+								HttpResponseCache.Entry cached,
+								HttpResponseHandler responseHandler,
+								int redirects,
+								int retries,
+								long deadline,
+								RequestLimiter.Permit permit,
+								RequestMetrics metrics)
+		{
+			this.engine = engine;
+			this.request = request;
+			this.cached = cached;
+			this.responseHandler = responseHandler;
+			this.redirects = redirects;
+			this.retries = retries;
+			this.deadline = deadline;
+			this.permit = permit;
+			this.metrics = metrics;
+		}
+
+
+
+
+
+
+		@Override
+		public void completed(final HttpResponseHead head, final byte[] body)
+		{
+			releasePermit();
+
+			dispatch(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						publishMetrics();
+						respond(head, body);
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+			}, head, null);
+		}
+
+
+
+
+
+
+		@Override
+		public void failed(final IOException e, final boolean sent)
+		{
+			releasePermit();
+
+			dispatch(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						publishMetrics();
+						recordFailure(request, e);
+
+						long delay = getBackoff(request.getPolicy(), retries + 1);
+						if (canRetry(request, sent, retries, delay, deadline))
+						{
+							logger.warn("{}: Request failed ({}), retrying in {} ms.", request,
+								e, delay);
+
+							retry(delay);
+							return;
+						}
+
+						logger.error("{}: Cannot send request.", request, e);
+						respond(null, null);
+					}
+					catch (RuntimeException re)
+					{
+						fail(re);
+					}
+				}
+			}, null, e);
+		}
+
+
+
+
+
+
+		/**
+		 * Hand a task over to the asynchronous request executor. If the executor rejects it, the
+		 * request fails: its outcome is recorded and its response handler is called by the
+		 * scheduler thread, as the selector thread must not call them.
+		 * 
+		 * @param head
+		 *            the response head the task handles, or null if the request failed.
+		 * @param e
+		 *            the failure of the request, if head is null.
+		 */
+		private void dispatch(Runnable task, final HttpResponseHead head, final IOException e)
+		{
+			try
+			{
+				getRunningExecutor().handOff(task);
+				return;
+			}
+			catch (RejectedExecutionException rejection)
+			{
+				logger.error("{}: Response dropped: {}", request, rejection.getMessage());
+			}
+
+			schedule(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					publishMetrics();
+
+					if (head != null)
+					{
+						recordOutcome(request, head.getResponseCode() >= 500);
+					}
+					else
+					{
+						recordFailure(request, e);
+					}
+
+					answer(new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT, request));
+				}
+			}, 0);
+		}
+
+
+
+
+
+
+		private void releasePermit()
+		{
+			if (permit != null)
+			{
+				permit.release();
+			}
+		}
+
+
+
+
+
+
+		private void publishMetrics()
+		{
+			if (metrics != null)
+			{
+				// The engine ended the measures, unless the request failed before being started.
+				metrics.ended(0, 0);
+				metrics.publish();
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Perform the request again, on the scheduler thread, once the given delay has elapsed: no
+		 * executor thread is held meanwhile.
+		 */
+		private void retry(long delay)
+		{
+			schedule(new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						executeNioRequest(
+							engine,
+							request,
+							responseHandler,
+							redirects,
+							retries + 1,
+							deadline,
+							null);
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+			}, delay);
+		}
+
+
+
+
+
+
+		/**
+		 * Handle the response, or the failure if head is null. Called on the asynchronous request
+		 * executor.
+		 */
+		private void respond(HttpResponseHead head, byte[] body)
+		{
+			if (head != null)
+			{
+				recordOutcome(request, head.getResponseCode() >= 500);
+
+				if (request.getPolicy().isRetryStatus(head.getResponseCode()))
+				{
+					long delay = getBackoff(request.getPolicy(), retries + 1);
+					if (canRetry(request, true, retries, delay, deadline))
+					{
+						logger.warn("{}: Server answered {}, retrying in {} ms.", request, head
+							.getResponseCode(), delay);
+
+						retry(delay);
+						return;
+					}
+				}
+			}
+
+			HttpResponseCache cache = HttpClientServiceImpl.this.cache;
+			if (head != null
+				&& cached != null && cache != null && head.getResponseCode() == 304)
+			{
+				logger.debug("{}: Cached response revalidated.", request);
+
+				answer(cache.revalidate(cached, head).toResponse(request, false));
+				return;
+			}
+
+			HttpRequest redirection = null;
+			if (head != null
+				&& redirects < maxRedirects)
+			{
+				redirection = request.redirect(head);
+			}
+
+			if (redirection != null)
+			{
+				logger.debug("{}: Redirected to {}.", request, redirection.getURL());
+
+				executeNioRequest(
+					engine,
+					redirection,
+					responseHandler,
+					redirects + 1,
+					retries,
+					deadline,
+					null);
+
+				return;
+			}
+
+			logger.debug("{}: Now building the HttpResponse object...", request);
+
+			HttpResponseImpl response;
+			if (head == null)
+			{
+				response = new HttpResponseImpl(null, null, null);
+			}
+			else
+			{
+				if (cache != null)
+				{
+					cache.store(request, head, body);
+				}
+
+				response = new HttpResponseImpl(
+					head,
+					new ByteArrayInputStream(body),
+					request.getAccept());
+
+				response.setMetrics(metrics);
+			}
+
+			answer(response);
+		}
+
+
+
+
+
+
+		private void answer(HttpResponse response)
+		{
+			answered = true;
+
+			if (responseHandler != null)
+			{
+				responseHandler.processResponse(response);
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Answer the request with a failure if handling its outcome failed unexpectedly, so that
+		 * its response handler, and the requests that joined it, do not wait forever.
+		 */
+		private void fail(RuntimeException e)
+		{
+			logger.error("{}: Cannot handle the outcome of the request.", request, e);
+
+			if (!answered)
+			{
+				answer(new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT, request));
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A view of the service that applies a given policy to all its requests.
+	 */
+	/**
+	 * Calls the response handler of an asynchronous request with the response of the identical
+	 * in-flight request it joined. If that request has not completed within the maximum wait, for
+	 * instance because it has been lost, the joining request is sent on its own, unless its total
+	 * timeout is exceeded.
+	 */
+	private final class CoalescedHandler implements HttpResponseHandler, Runnable
+	{
+		private final HttpRequest request;
+		private final HttpResponseHandler responseHandler;
+		private final long deadline;
+		private final AtomicBoolean answered = new AtomicBoolean();
+		private volatile ScheduledFuture<?> timeout = null;
+
+
+
+
+
+
+		CoalescedHandler(HttpRequest request, HttpResponseHandler responseHandler, long deadline)
+		{
+			this.request = request;
+			this.responseHandler = responseHandler;
+			this.deadline = deadline;
+		}
+
+
+
+
+
+
+		void await(HttpResponseFutureImpl inFlight, long maxWait)
+		{
+			long left = deadline
+				- System.currentTimeMillis();
+
+			timeout = schedule(this, Math.max(0, Math.min(left, maxWait)));
+			inFlight.addHandler(this);
+		}
+
+
+
+
+
+
+		@Override
+		public void processResponse(HttpResponse response)
+		{
+			if (!answered.compareAndSet(false, true))
+			{
+				return;
+			}
+
+			ScheduledFuture<?> timeout = this.timeout;
+			if (timeout != null)
+			{
+				timeout.cancel(false);
+			}
+
+			responseHandler.processResponse(response);
+		}
+
+
+
+
+
+
+		/**
+		 * Stop waiting for the in-flight request. Called on the scheduler thread.
+		 */
+		@Override
+		public void run()
+		{
+			if (!answered.compareAndSet(false, true))
+			{
+				return;
+			}
+
+			if (System.currentTimeMillis() >= deadline)
+			{
+				logger.warn("{}: Total timeout exceeded while waiting for the response of an "
+					+ "identical request.", request);
+
+				respondLater(responseHandler, new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT,
+					request));
+				return;
+			}
+
+			logger.warn("{}: No response from an identical request, sending this one.", request);
+
+			try
+			{
+				getRunningExecutor().handOff(new Runnable() {
+
+					@Override
+					public void run()
+					{
+						try
+						{
+							executeAsyncRequest(request, responseHandler, deadline);
+						}
+						catch (RuntimeException e)
+						{
+							logger.error("{}: Request cannot be performed: {}", request, e
+								.getMessage());
+							responseHandler.processResponse(new HttpResponseImpl(
+								HttpStatus.SERVER_TIMEOUT,
+								request));
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{
+				logger.error("{}: Request cannot be performed: {}", request, e.getMessage());
+				respondLater(responseHandler, new HttpResponseImpl(HttpStatus.SERVER_TIMEOUT,
+					request));
+			}
+		}
+	}
+
+
+
+
+
+
+	private final class PolicyView extends AbstractHttpClientService
+	{
+		private final HttpRequestPolicy policy;
+
+
+
+
+
+
+		PolicyView(HttpRequestPolicy policy)
+		{
+			this.policy = policy;
+		}
+
+
+
+
+
+
+		@Override
+		public HttpCredential createCredential(String username, String password)
+		{
+			return HttpClientServiceImpl.this.createCredential(username, password);
+		}
+
+
+
+
+
+
+		@Override
+		public HttpClientStatistics getStatistics()
+		{
+			return statistics;
+		}
+
+
+
+
+
+
+		@Override
+		public HttpRequestPolicy getDefaultPolicy()
+		{
+			return policy;
+		}
+
+
+
+
+
+
+		@Override
+		public void setHostPolicy(String host, HttpRequestPolicy policy)
+		{
+			HttpClientServiceImpl.this.setHostPolicy(host, policy);
+		}
+
+
+
+
+
+
+
+		@Override
+		public HttpRequestPolicy getHostPolicy(String host)
+		{
+			if (host == null)
+			{
+				throw new IllegalArgumentException("'host' argument cannot be null");
+			}
+
+			// The policy of this view applies whatever the host.
+			return policy;
+		}
+
+
+
+
+
+
+		@Override
+		public HttpClientService withPolicy(HttpRequestPolicy policy)
+		{
+			return HttpClientServiceImpl.this.withPolicy(policy);
+		}
+
+
+
+
+
+
+		@Override
+		public void setRequestLimit(String target, HttpRequestLimit limit)
+		{
+			HttpClientServiceImpl.this.setRequestLimit(target, limit);
+		}
+
+
+
+
+
+
+		@Override
+		public void addRequestListener(HttpRequestListener listener)
+		{
+			HttpClientServiceImpl.this.addRequestListener(listener);
+		}
+
+
+
+
+
+
+		@Override
+		public void removeRequestListener(HttpRequestListener listener)
+		{
+			HttpClientServiceImpl.this.removeRequestListener(listener);
+		}
+
+
+
+
+
+
+		@Override
+		public HttpCircuitState getCircuitState(String host)
+		{
+			return HttpClientServiceImpl.this.getCircuitState(host);
+		}
+
+
+
+
+
+
+		@Override
+		public void addCircuitListener(HttpCircuitListener listener)
+		{
+			HttpClientServiceImpl.this.addCircuitListener(listener);
+		}
+
+
+
+
+
+
+		@Override
+		public void removeCircuitListener(HttpCircuitListener listener)
+		{
+			HttpClientServiceImpl.this.removeCircuitListener(listener);
+		}
+
+
+
+
+
+
+		@Override
+		HttpResponse sendRequest(	HttpMethod method,
+									URL url,
+									HttpCredential credential,
+									String contentType,
+									byte[] content,
+									String[] accept,
+									Map<String, String> otherHeaders)
+		{
+			return HttpClientServiceImpl.this.sendRequest(
+				method,
+				url,
+				credential,
+				contentType,
+				content,
+				accept,
+				otherHeaders,
+				policy);
+		}
+
+
+
+
+
+
+		@Override
+		void sendAsyncRequest(	HttpMethod method,
+								URL url,
+								HttpCredential credential,
+								String contentType,
+								byte[] content,
+								String[] accept,
+								Map<String, String> otherHeaders,
+								HttpResponseHandler responseHandler)
+		{
+			HttpClientServiceImpl.this.sendAsyncRequest(
+				method,
+				url,
+				credential,
+				contentType,
+				content,
+				accept,
+				otherHeaders,
+				policy,
+				responseHandler);
+		}
+
+
+
+
+
+
+		@Override
+		HttpResponse sendBodyRequest(	HttpMethod method,
+										URL url,
+										HttpCredential credential,
+										String contentType,
+										HttpRequestBody content,
+										String[] accept,
+										Map<String, String> otherHeaders)
+		{
+			return HttpClientServiceImpl.this.sendBodyRequest(
+				method,
+				url,
+				credential,
+				contentType,
+				content,
+				accept,
+				otherHeaders,
+				policy);
+		}
+
+
+
+
+
+
+		@Override
+		void sendAsyncBodyRequest(	HttpMethod method,
+									URL url,
+									HttpCredential credential,
+									String contentType,
+									HttpRequestBody content,
+									String[] accept,
+									Map<String, String> otherHeaders,
+									HttpResponseHandler responseHandler)
+		{
+			HttpClientServiceImpl.this.sendAsyncBodyRequest(
+				method,
+				url,
+				credential,
+				contentType,
+				content,
+				accept,
+				otherHeaders,
+				policy,
+				responseHandler);
+		}
+
+
+
+
+
+
+		@Override
+		HttpStreamedResponse sendStreamedRequest(	HttpMethod method,
+													URL url,
+													HttpCredential credential,
+													String[] accept,
+													Map<String, String> otherHeaders)
+		{
+			return HttpClientServiceImpl.this.sendStreamedRequest(
+				method,
+				url,
+				credential,
+				accept,
+				otherHeaders,
+				policy);
+		}
+
+
+
+
+
+
+		@Override
+		HttpPreparedRequest prepareRequest(	HttpMethod method,
+											HttpCredential credential,
+											String contentType,
+											String[] accept,
+											Map<String, String> otherHeaders)
+		{
+			return HttpClientServiceImpl.this.prepareRequest(
+				method,
+				credential,
+				contentType,
+				accept,
+				otherHeaders,
+				policy);
+		}
+	}
 }
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fr.immotronic.commons.http.HttpClientStatistics;
+import fr.immotronic.commons.http.HttpLatencyHistogram;
+import fr.immotronic.commons.http.HttpRequestPhase;
+
+
+
+/**
+ * A live view on the statistics of the components of a HttpClientServiceImpl instance.
+ */
+final class HttpClientStatisticsImpl implements HttpClientStatistics
+{
+	private final HttpClientServiceImpl httpClient;
+
+
+
+
+
+
+	HttpClientStatisticsImpl(HttpClientServiceImpl httpClient)
+	{
+		this.httpClient = httpClient;
+	}
+
+
+
+
+
+
+	@Override
+	public long getConnectionPoolHits()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getHits();
+	}
+
+
+
+
+
+
+	@Override
+	public long getConnectionPoolMisses()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getMisses();
+	}
+
+
+
+
+
+
+	@Override
+	public long getStaleConnections()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getStaleConnections();
+	}
+
+
+
+
+
+
+	@Override
+	public long getTlsHandshakes()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		Http2ConnectionPool http2Pool = httpClient.getHttp2ConnectionPool();
+		return ((pool == null) ? 0 : pool.getTlsHandshakes())
+			+ ((http2Pool == null) ? 0 : http2Pool.getTlsHandshakes());
+	}
+
+
+
+
+
+
+	@Override
+	public long getResumedTlsSessions()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		Http2ConnectionPool http2Pool = httpClient.getHttp2ConnectionPool();
+		return ((pool == null) ? 0 : pool.getResumedTlsSessions())
+			+ ((http2Pool == null) ? 0 : http2Pool.getResumedTlsSessions());
+	}
+
+
+
+
+
+
+	@Override
+	public int getHttp2Connections()
+	{
+		Http2ConnectionPool http2Pool = httpClient.getHttp2ConnectionPool();
+		return (http2Pool == null) ? 0 : http2Pool.getOpenConnections();
+	}
+
+
+
+
+
+
+	@Override
+	public long getHttp2Streams()
+	{
+		Http2ConnectionPool http2Pool = httpClient.getHttp2ConnectionPool();
+		return (http2Pool == null) ? 0 : http2Pool.getStreams();
+	}
+
+
+
+
+
+
+	@Override
+	public long getConnectionLeaseWaits()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getLeaseWaits();
+	}
+
+
+
+
+
+
+	@Override
+	public long getConnectionLeaseWaitTime()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getLeaseWaitTime();
+	}
+
+
+
+
+
+
+	@Override
+	public int getLeasedConnections()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getLeasedConnections();
+	}
+
+
+
+
+
+
+	@Override
+	public int getIdleConnections()
+	{
+		HttpConnectionPool pool = httpClient.getConnectionPool();
+		return (pool == null) ? 0 : pool.getIdleConnections();
+	}
+
+
+
+
+
+
+	@Override
+	public int getAsyncActiveThreads()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getActiveCount();
+	}
+
+
+
+
+
+
+	@Override
+	public int getAsyncPoolSize()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getPoolSize();
+	}
+
+
+
+
+
+
+	@Override
+	public int getAsyncLargestPoolSize()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getLargestPoolSize();
+	}
+
+
+
+
+
+
+	@Override
+	public int getAsyncQueueDepth()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getQueueDepth();
+	}
+
+
+
+
+
+
+	@Override
+	public long getAsyncCompletedRequests()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getCompletedTaskCount();
+	}
+
+
+
+
+
+
+	@Override
+	public long getAsyncRejectedRequests()
+	{
+		AsyncRequestExecutor executor = httpClient.getExecutor();
+		return (executor == null) ? 0 : executor.getRejectedTaskCount();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCacheHits()
+	{
+		HttpResponseCache cache = httpClient.getResponseCache();
+		return (cache == null) ? 0 : cache.getHits();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCacheRevalidations()
+	{
+		HttpResponseCache cache = httpClient.getResponseCache();
+		return (cache == null) ? 0 : cache.getRevalidations();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCacheMisses()
+	{
+		HttpResponseCache cache = httpClient.getResponseCache();
+		return (cache == null) ? 0 : cache.getMisses();
+	}
+
+
+
+
+
+
+	@Override
+	public int getCacheEntries()
+	{
+		HttpResponseCache cache = httpClient.getResponseCache();
+		return (cache == null) ? 0 : cache.getEntryCount();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCacheSize()
+	{
+		HttpResponseCache cache = httpClient.getResponseCache();
+		return (cache == null) ? 0 : cache.getSize();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCoalescedRequests()
+	{
+		RequestCoalescer coalescer = httpClient.getRequestCoalescer();
+		return (coalescer == null) ? 0 : coalescer.getCoalescedRequests();
+	}
+
+
+
+
+
+
+	@Override
+	public long getCircuitRejectedRequests()
+	{
+		CircuitBreaker circuitBreaker = httpClient.getCircuitBreaker();
+		return (circuitBreaker == null) ? 0 : circuitBreaker.getRejectedRequests();
+	}
+
+
+
+
+
+
+	@Override
+	public int getOpenCircuits()
+	{
+		CircuitBreaker circuitBreaker = httpClient.getCircuitBreaker();
+		return (circuitBreaker == null) ? 0 : circuitBreaker.getOpenCircuits();
+	}
+
+
+
+
+
+
+	@Override
+	public long getThrottledRequests()
+	{
+		return httpClient.getRequestLimiter().getThrottledRequests();
+	}
+
+
+
+
+
+
+	@Override
+	public long getThrottleWaitTime()
+	{
+		return httpClient.getRequestLimiter().getWaitTime();
+	}
+
+
+
+
+
+
+	@Override
+	public long getThrottleRejectedRequests()
+	{
+		return httpClient.getRequestLimiter().getRejectedRequests();
+	}
+
+
+
+
+
+
+	@Override
+	public int getThrottleQueueDepth()
+	{
+		return httpClient.getRequestLimiter().getQueueDepth();
+	}
+
+
+
+
+
+
+	@Override
+	public long getBytesSent()
+	{
+		RequestInstrumentation instrumentation = httpClient.getInstrumentation();
+		return (instrumentation == null) ? 0 : instrumentation.getBytesSent();
+	}
+
+
+
+
+
+
+	@Override
+	public long getBytesReceived()
+	{
+		RequestInstrumentation instrumentation = httpClient.getInstrumentation();
+		return (instrumentation == null) ? 0 : instrumentation.getBytesReceived();
+	}
+
+
+
+
+
+
+	@Override
+	public Map<Integer, Long> getResponseCodeCounts()
+	{
+		RequestInstrumentation instrumentation = httpClient.getInstrumentation();
+		return (instrumentation == null) ? new HashMap<Integer, Long>() : instrumentation
+			.getResponseCodeCounts();
+	}
+
+
+
+
+
+
+	@Override
+	public Set<String> getMeasuredHosts()
+	{
+		RequestInstrumentation instrumentation = httpClient.getInstrumentation();
+		return (instrumentation == null) ? new HashSet<String>() : instrumentation.getHosts();
+	}
+
+
+
+
+
+
+	@Override
+	public HttpLatencyHistogram getLatencyHistogram(String host, HttpRequestPhase phase)
+	{
+		RequestInstrumentation instrumentation = httpClient.getInstrumentation();
+		return (instrumentation == null) ? null : instrumentation.getHistogram(host, phase);
+	}
+}
@@ -0,0 +1,683 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+
+
+/**
+ * A persistent HTTP/1.1 connection to a route. Instances are created and recycled by the
+ * HttpConnectionPool. A connection is used by one exchange at a time.
+ * 
+ * A connection can also be the transport of an Http2Connection, which multiplexes exchanges.
+ */
+final class HttpConnection
+{
+	private static final int BUFFER_SIZE = 8192;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	// ALPN is only available from Java 8u252 on, so it is looked up by reflection.
+	private static final Method setApplicationProtocols = findMethod(
+		SSLParameters.class,
+		"setApplicationProtocols",
+		String[].class);
+	private static final Method getApplicationProtocol = findMethod(
+		SSLSocket.class,
+		"getApplicationProtocol");
+
+	private final HttpRoute route;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private long expiry = Long.MAX_VALUE;
+	private long idleSince = 0;
+	private int useCount = 0;
+	private long bytesReceived = 0;
+	private final long dnsLookupTime;
+	private final long connectTime;
+	private final long tlsHandshakeTime;
+	private final boolean sessionResumed;
+	private final String applicationProtocol;
+
+
+
+
+
+
+	private HttpConnection(	HttpRoute route,
+							Socket socket,
+							long dnsLookupTime,
+							long connectTime,
+							long tlsHandshakeTime,
+							boolean sessionResumed,
+							String applicationProtocol) throws IOException
+	{
+		this.route = route;
+		this.socket = socket;
+		this.dnsLookupTime = dnsLookupTime;
+		this.connectTime = connectTime;
+		this.tlsHandshakeTime = tlsHandshakeTime;
+		this.sessionResumed = sessionResumed;
+		this.applicationProtocol = applicationProtocol;
+		this.in = new BufferedInputStream(new CountingInputStream(socket.getInputStream()),
+			BUFFER_SIZE);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+	}
+
+
+
+
+
+
+	/**
+	 * Open a new connection to the given route. On a secure route, the TLS handshake is performed
+	 * before returning, through a CONNECT tunnel if the route goes through an HTTP proxy.
+	 * 
+	 * @param route
+	 *            the route to connect to.
+	 * @param connectTimeout
+	 *            the connection timeout, in milliseconds. It also bounds the TLS handshake.
+	 * @param readTimeout
+	 *            the read timeout, in milliseconds.
+	 * @param sslSocketFactory
+	 *            the factory of TLS sockets used on secure routes, null if HTTPS is not available.
+	 * @return a connected HttpConnection.
+	 * @throws IOException
+	 *             if the route host cannot be reached, or if the TLS handshake failed.
+	 */
+	static HttpConnection open(	HttpRoute route,
+								int connectTimeout,
+								int readTimeout,
+								SSLSocketFactory sslSocketFactory) throws IOException
+	{
+		return open(route, connectTimeout, readTimeout, sslSocketFactory, null);
+	}
+
+
+
+
+
+
+	/**
+	 * Open a new connection to the given route, offering the given application protocols to the
+	 * server during the TLS handshake, if the route is secure and if ALPN is supported.
+	 * 
+	 * @param applicationProtocols
+	 *            the ALPN identifiers of the protocols the connection can be used for, by order of
+	 *            preference, or null.
+	 * @see #open(HttpRoute, int, int, SSLSocketFactory)
+	 * @see #isAlpnSupported()
+	 */
+	static HttpConnection open(	HttpRoute route,
+								int connectTimeout,
+								int readTimeout,
+								SSLSocketFactory sslSocketFactory,
+								String[] applicationProtocols) throws IOException
+	{
+		if (route.isSecure()
+			&& sslSocketFactory == null)
+		{
+			throw new IOException("HTTPS is not available: the TLS context failed to initialize.");
+		}
+
+		Socket socket;
+		if (route.getProxy().type() == Proxy.Type.SOCKS)
+		{
+			socket = new Socket(route.getProxy());
+		}
+		else
+		{
+			socket = new Socket();
+		}
+
+		try
+		{
+			socket.setTcpNoDelay(true);
+			socket.setKeepAlive(true);
+			socket.setSoTimeout(readTimeout);
+
+			long start = System.nanoTime();
+			InetSocketAddress address = route.getConnectAddress();
+			long resolved = System.nanoTime();
+			socket.connect(address, connectTimeout);
+			long connected = System.nanoTime();
+
+			if (!route.isSecure())
+			{
+				return new HttpConnection(route, socket, resolved - start, connected - resolved,
+					-1, false, null);
+			}
+
+			if (route.isTunneled())
+			{
+				openTunnel(socket, route);
+			}
+
+			SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket,
+				route.getHost(), route.getPort(), true);
+			socket = sslSocket;
+
+			SSLParameters parameters = sslSocket.getSSLParameters();
+			parameters.setEndpointIdentificationAlgorithm("HTTPS");
+			if (applicationProtocols != null
+				&& isAlpnSupported())
+			{
+				invoke(setApplicationProtocols, parameters, (Object) applicationProtocols);
+			}
+			sslSocket.setSSLParameters(parameters);
+
+			long handshakeStart = System.currentTimeMillis();
+			sslSocket.setSoTimeout(connectTimeout);
+			sslSocket.startHandshake();
+			sslSocket.setSoTimeout(readTimeout);
+
+			// A resumed session has been created by an earlier handshake.
+			boolean resumed = sslSocket.getSession().getCreationTime() < handshakeStart;
+
+			String applicationProtocol = null;
+			if (applicationProtocols != null
+				&& isAlpnSupported())
+			{
+				applicationProtocol = (String) invoke(getApplicationProtocol, sslSocket);
+			}
+
+			return new HttpConnection(route, socket, resolved - start, connected - resolved,
+				System.nanoTime() - connected, resumed, applicationProtocol);
+		}
+		catch (IOException e)
+		{
+			closeQuietly(socket);
+			throw e;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the Java runtime supports ALPN, the TLS extension HTTP/2 is negotiated with.
+	 */
+	static boolean isAlpnSupported()
+	{
+		return setApplicationProtocols != null
+			&& getApplicationProtocol != null;
+	}
+
+
+
+
+
+
+	/**
+	 * Ask the HTTP proxy a socket is connected to to open a tunnel to the route host.
+	 */
+	private static void openTunnel(Socket socket, HttpRoute route) throws IOException
+	{
+		String authority = route.getHost()
+			+ ":" + route.getPort();
+
+		OutputStream out = socket.getOutputStream();
+		out.write(("CONNECT "
+			+ authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes(ISO_8859_1));
+		out.flush();
+
+		// The input stream is read byte per byte so that nothing past the proxy response is
+		// consumed before the TLS handshake.
+		InputStream in = socket.getInputStream();
+		String statusLine = HttpResponseHead.readLine(in);
+		if (statusLine == null)
+		{
+			throw new IOException("Proxy closed the connection before answering to CONNECT.");
+		}
+
+		String[] parts = statusLine.split(" ", 3);
+		if (parts.length < 2
+			|| !parts[0].startsWith("HTTP/") || !parts[1].startsWith("2"))
+		{
+			if (parts.length >= 2
+				&& parts[1].equals("407"))
+			{
+				throw new IOException("Proxy authentication required to open a tunnel to "
+					+ authority + ".");
+			}
+
+			throw new IOException("Proxy refused to open a tunnel to "
+				+ authority + ": " + statusLine);
+		}
+
+		String line;
+		do
+		{
+			line = HttpResponseHead.readLine(in);
+			if (line == null)
+			{
+				throw new IOException("Proxy closed the connection while opening a tunnel.");
+			}
+		}
+		while (!line.isEmpty());
+	}
+
+
+
+
+
+
+	HttpRoute getRoute()
+	{
+		return route;
+	}
+
+
+
+
+
+
+	InputStream getInputStream()
+	{
+		return in;
+	}
+
+
+
+
+
+
+	OutputStream getOutputStream()
+	{
+		return out;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of bytes received on this connection.
+	 */
+	long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the duration, in nanoseconds, of the resolution of the host name of this
+	 *         connection.
+	 */
+	long getDnsLookupTime()
+	{
+		return dnsLookupTime;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the duration, in nanoseconds, of the establishment of this connection.
+	 */
+	long getConnectTime()
+	{
+		return connectTime;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the duration, in nanoseconds, of the TLS handshake of this connection, including
+	 *         the opening of a proxy tunnel, or -1 if this connection is not secure.
+	 */
+	long getTlsHandshakeTime()
+	{
+		return tlsHandshakeTime;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the TLS session of this connection has been resumed from an earlier
+	 *         handshake rather than negotiated from scratch.
+	 */
+	boolean isSessionResumed()
+	{
+		return sessionResumed;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the ALPN identifier of the protocol agreed on with the server during the TLS
+	 *         handshake, an empty string if the server did not select any, or null if no protocol
+	 *         has been offered.
+	 */
+	String getApplicationProtocol()
+	{
+		return applicationProtocol;
+	}
+
+
+
+
+
+
+	void setReadTimeout(int readTimeout) throws IOException
+	{
+		socket.setSoTimeout(readTimeout);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of exchanges already performed with this connection.
+	 */
+	int getUseCount()
+	{
+		return useCount;
+	}
+
+
+
+
+
+
+	void markUsed()
+	{
+		useCount++;
+	}
+
+
+
+
+
+
+	/**
+	 * Mark this connection as idle.
+	 * 
+	 * @param now
+	 *            the current date, in milliseconds since the epoch.
+	 * @param expiry
+	 *            the date after which this connection must not be reused anymore, in milliseconds
+	 *            since the epoch.
+	 */
+	void setIdle(long now, long expiry)
+	{
+		this.idleSince = now;
+		this.expiry = expiry;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, this connection has been idle for.
+	 */
+	long getIdleTime(long now)
+	{
+		return now
+			- idleSince;
+	}
+
+
+
+
+
+
+	boolean isExpired(long now)
+	{
+		return now >= expiry;
+	}
+
+
+
+
+
+
+	/**
+	 * Check that an idle connection can still be used to send a request: the socket must be open
+	 * and the peer must not have closed its side or sent unsolicited data.
+	 * 
+	 * @return true if the connection has been closed by peer or is in an unknown state.
+	 */
+	boolean isStale()
+	{
+		if (socket.isClosed()
+			|| socket.isInputShutdown() || socket.isOutputShutdown())
+		{
+			return true;
+		}
+
+		try
+		{
+			int readTimeout = socket.getSoTimeout();
+			try
+			{
+				socket.setSoTimeout(1);
+				if (in.read() == -1)
+				{
+					return true;
+				}
+
+				// Data received on an idle connection means the protocol state is unknown.
+				return true;
+			}
+			catch (SocketTimeoutException e)
+			{
+				return false;
+			}
+			finally
+			{
+				socket.setSoTimeout(readTimeout);
+			}
+		}
+		catch (IOException e)
+		{
+			return true;
+		}
+	}
+
+
+
+
+
+
+	void close()
+	{
+		closeQuietly(socket);
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return route
+			+ " [local port " + socket.getLocalPort() + "]";
+	}
+
+
+
+
+
+
+	private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes)
+	{
+		try
+		{
+			return type.getMethod(name, parameterTypes);
+		}
+		catch (NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+
+
+
+
+
+
+	private static Object invoke(Method method, Object target, Object... arguments)
+		throws IOException
+	{
+		try
+		{
+			return method.invoke(target, arguments);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IOException("Cannot negotiate the application protocol.", e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw new IOException("Cannot negotiate the application protocol.", e.getCause());
+		}
+	}
+
+
+
+
+
+
+	private static void closeQuietly(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{}
+	}
+
+
+
+
+
+
+	/**
+	 * Count the bytes received on the socket.
+	 */
+	private final class CountingInputStream extends FilterInputStream
+	{
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+
+
+
+
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b != -1)
+			{
+				bytesReceived++;
+			}
+
+			return b;
+		}
+
+
+
+
+
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int readLength = in.read(b, off, len);
+			if (readLength > 0)
+			{
+				bytesReceived += readLength;
+			}
+
+			return readLength;
+		}
+	}
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * A pool of persistent HTTP connections, organized by route.
+ * 
+ * At most maxConnectionsPerRoute connections can be leased at the same time for a given route.
+ * Requesters that exceed this limit wait up to leaseTimeout milliseconds for a connection to be
+ * released. Idle connections are closed after idleTimeout milliseconds, or earlier if the server
+ * announced a shorter keep-alive timeout. Connections that have been idle for more than
+ * validateAfterInactivity milliseconds are validated before being reused: checking a socket costs
+ * a short blocking read, which is not worth paying for connections that have just been released.
+ * 
+ * Secure connections are opened with a shared SSLSocketFactory, so that the TLS sessions it caches
+ * can be resumed by the next connections to the same host, and are pooled like plain ones.
+ */
+final class HttpConnectionPool
+{
+	/**
+	 * Thrown when no connection to a route becomes available in time, because all the connections
+	 * allowed to the route are in use. This failure is local: it says nothing of the health of
+	 * the server.
+	 */
+	static final class LeaseTimeoutException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+
+
+
+
+		LeaseTimeoutException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private final int maxConnectionsPerRoute;
+	private final long idleTimeout;
+	private final long leaseTimeout;
+	private final long validateAfterInactivity;
+	private final SSLSocketFactory sslSocketFactory;
+	private final ConcurrentMap<HttpRoute, RoutePool> routePools;
+	private volatile boolean shutdown = false;
+	private volatile long nextEviction = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleConnections = new AtomicLong();
+	private final AtomicLong tlsHandshakes = new AtomicLong();
+	private final AtomicLong resumedTlsSessions = new AtomicLong();
+	private final AtomicLong leaseWaits = new AtomicLong();
+	private final AtomicLong leaseWaitTime = new AtomicLong();
+	private final AtomicInteger leasedConnections = new AtomicInteger();
+	private final AtomicInteger idleConnections = new AtomicInteger();
+
+	final Logger logger = LoggerFactory.getLogger(HttpConnectionPool.class);
+
+
+
+
+
+
+	/**
+	 * Construct an empty connection pool.
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            the maximum number of connections that can be opened at the same time to the same
+	 *            route.
+	 * @param idleTimeout
+	 *            the maximum time, in milliseconds, a connection stays idle in the pool.
+	 * @param leaseTimeout
+	 *            the maximum time, in milliseconds, to wait for a connection when all connections
+	 *            to a route are in use.
+	 * @param validateAfterInactivity
+	 *            the idle time, in milliseconds, after which a connection is validated before
+	 *            being reused.
+	 * @param sslSocketFactory
+	 *            the factory of the TLS sockets of secure connections, null if HTTPS is not
+	 *            available.
+	 */
+	HttpConnectionPool(	int maxConnectionsPerRoute,
+						long idleTimeout,
+						long leaseTimeout,
+						long validateAfterInactivity,
+						SSLSocketFactory sslSocketFactory)
+	{
+		if (maxConnectionsPerRoute < 1)
+		{
+			throw new IllegalArgumentException("'maxConnectionsPerRoute' must be at least 1");
+		}
+
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.idleTimeout = idleTimeout;
+		this.leaseTimeout = leaseTimeout;
+		this.validateAfterInactivity = validateAfterInactivity;
+		this.sslSocketFactory = sslSocketFactory;
+		this.routePools = new ConcurrentHashMap<HttpRoute, RoutePool>();
+	}
+
+
+
+
+
+
+	/**
+	 * Lease a connection to the given route. An idle connection is reused if a valid one is
+	 * available, otherwise a new connection is opened. The connection MUST be given back to the
+	 * pool by calling release().
+	 * 
+	 * @param route
+	 *            the route to connect to.
+	 * @param connectTimeout
+	 *            the connection timeout to use if a new connection must be opened, in milliseconds.
+	 * @param readTimeout
+	 *            the read timeout to set on the leased connection, in milliseconds.
+	 * @return a connection ready to send a request.
+	 * @throws IOException
+	 *             if no connection becomes available before the lease timeout, or if a new
+	 *             connection cannot be opened.
+	 */
+	HttpConnection lease(HttpRoute route, int connectTimeout, int readTimeout) throws IOException
+	{
+		RoutePool routePool = getRoutePool(route);
+		acquirePermit(route, routePool);
+
+		try
+		{
+			long now = System.currentTimeMillis();
+			evictExpiredConnections(now);
+
+			HttpConnection connection;
+			while ((connection = routePool.pollIdle()) != null)
+			{
+				idleConnections.decrementAndGet();
+
+				if (connection.isExpired(now))
+				{
+					connection.close();
+				}
+				else if (connection.getIdleTime(now) >= validateAfterInactivity
+					&& connection.isStale())
+				{
+					staleConnections.incrementAndGet();
+					connection.close();
+
+					logger.debug("{}: stale connection discarded.", connection);
+				}
+				else
+				{
+					connection.setReadTimeout(readTimeout);
+					hits.incrementAndGet();
+					leasedConnections.incrementAndGet();
+
+					return connection;
+				}
+			}
+
+			misses.incrementAndGet();
+			connection = HttpConnection.open(route, connectTimeout, readTimeout, sslSocketFactory);
+			leasedConnections.incrementAndGet();
+
+			if (route.isSecure())
+			{
+				tlsHandshakes.incrementAndGet();
+				if (connection.isSessionResumed())
+				{
+					resumedTlsSessions.incrementAndGet();
+				}
+			}
+
+			logger.debug("{}: new connection opened.", connection);
+
+			return connection;
+		}
+		catch (IOException e)
+		{
+			routePool.permits.release();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			routePool.permits.release();
+			throw e;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Give back a leased connection to the pool.
+	 * 
+	 * @param connection
+	 *            the connection to give back.
+	 * @param reusable
+	 *            true if the connection is in a state that allow another request to be sent on it,
+	 *            false if it must be closed.
+	 * @param keepAliveTimeout
+	 *            the keep-alive timeout announced by the server, in milliseconds, or -1 if the
+	 *            server announced none.
+	 */
+	void release(HttpConnection connection, boolean reusable, long keepAliveTimeout)
+	{
+		RoutePool routePool = getRoutePool(connection.getRoute());
+		leasedConnections.decrementAndGet();
+
+		long now = System.currentTimeMillis();
+		if (reusable
+			&& !shutdown)
+		{
+			long timeout = idleTimeout;
+			if (keepAliveTimeout >= 0
+				&& keepAliveTimeout < timeout)
+			{
+				timeout = keepAliveTimeout;
+			}
+
+			connection.setIdle(now, now
+				+ timeout);
+
+			routePool.offerIdle(connection);
+			idleConnections.incrementAndGet();
+		}
+		else
+		{
+			connection.close();
+		}
+
+		routePool.permits.release();
+		evictExpiredConnections(now);
+	}
+
+
+
+
+
+
+	/**
+	 * Close all idle connections. Connections currently leased are closed when released.
+	 */
+	void shutdown()
+	{
+		shutdown = true;
+
+		for (RoutePool routePool : routePools.values())
+		{
+			HttpConnection connection;
+			while ((connection = routePool.pollIdle()) != null)
+			{
+				idleConnections.decrementAndGet();
+				connection.close();
+			}
+		}
+	}
+
+
+
+
+
+
+	int getMaxConnectionsPerRoute()
+	{
+		return maxConnectionsPerRoute;
+	}
+
+
+
+
+
+
+	long getHits()
+	{
+		return hits.get();
+	}
+
+
+
+
+
+
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+
+
+
+
+
+	long getStaleConnections()
+	{
+		return staleConnections.get();
+	}
+
+
+
+
+
+
+	long getTlsHandshakes()
+	{
+		return tlsHandshakes.get();
+	}
+
+
+
+
+
+
+	long getResumedTlsSessions()
+	{
+		return resumedTlsSessions.get();
+	}
+
+
+
+
+
+
+	long getLeaseWaits()
+	{
+		return leaseWaits.get();
+	}
+
+
+
+
+
+
+	long getLeaseWaitTime()
+	{
+		return leaseWaitTime.get();
+	}
+
+
+
+
+
+
+	int getLeasedConnections()
+	{
+		return leasedConnections.get();
+	}
+
+
+
+
+
+
+	int getIdleConnections()
+	{
+		return idleConnections.get();
+	}
+
+
+
+
+
+
+	private RoutePool getRoutePool(HttpRoute route)
+	{
+		RoutePool routePool = routePools.get(route);
+		if (routePool == null)
+		{
+			RoutePool newRoutePool = new RoutePool(maxConnectionsPerRoute);
+			routePool = routePools.putIfAbsent(route, newRoutePool);
+			if (routePool == null)
+			{
+				routePool = newRoutePool;
+			}
+		}
+
+		return routePool;
+	}
+
+
+
+
+
+
+	private void acquirePermit(HttpRoute route, RoutePool routePool) throws IOException
+	{
+		if (routePool.permits.tryAcquire())
+		{
+			return;
+		}
+
+		leaseWaits.incrementAndGet();
+		long start = System.nanoTime();
+
+		try
+		{
+			boolean acquired = routePool.permits.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS);
+			leaseWaitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- start));
+
+			if (!acquired)
+			{
+				throw new LeaseTimeoutException("No connection to "
+					+ route + " became available within " + leaseTimeout + " ms.");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a connection to "
+				+ route);
+		}
+	}
+
+
+
+
+
+
+	private void evictExpiredConnections(long now)
+	{
+		if (now < nextEviction)
+		{
+			return;
+		}
+
+		nextEviction = now
+			+ Math.max(idleTimeout / 2, 1000);
+
+		for (RoutePool routePool : routePools.values())
+		{
+			synchronized (routePool)
+			{
+				Iterator<HttpConnection> i = routePool.idle.iterator();
+				while (i.hasNext())
+				{
+					HttpConnection connection = i.next();
+					if (connection.isExpired(now))
+					{
+						i.remove();
+						idleConnections.decrementAndGet();
+						connection.close();
+					}
+				}
+			}
+		}
+	}
+
+
+
+
+
+
+	private static final class RoutePool
+	{
+		final Semaphore permits;
+		final Deque<HttpConnection> idle = new ArrayDeque<HttpConnection>();
+
+
+
+
+
+
+		RoutePool(int maxConnections)
+		{
+			permits = new Semaphore(maxConnections, true);
+		}
+
+
+
+
+
+
+		synchronized HttpConnection pollIdle()
+		{
+			// Most recently used connections first: they are the less likely to be stale.
+			return idle.pollFirst();
+		}
+
+
+
+
+
+
+		synchronized void offerIdle(HttpConnection connection)
+		{
+			idle.offerFirst(connection);
+		}
+	}
+}
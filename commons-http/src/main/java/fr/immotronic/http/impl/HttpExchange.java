@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import fr.immotronic.commons.http.HttpRequestBody;
+
+
+
+/**
+ * A single HTTP/1.1 request/response exchange performed on a connection leased from a
+ * HttpConnectionPool.
+ * 
+ * The connection is given back to the pool once the response has been entirely read, to be
+ * reused by a next exchange if the response allows it.
+ */
+final class HttpExchange extends AbstractHttpExchange
+{
+	private final HttpConnectionPool pool;
+	private final HttpConnection connection;
+	private final long initialBytesReceived;
+
+
+
+
+
+
+	/**
+	 * Construct an exchange that will be performed on the given connection.
+	 * 
+	 * @param pool
+	 *            the pool the connection has been leased from.
+	 * @param connection
+	 *            a connection to the route of the requested URL.
+	 * @param request
+	 *            the request to send.
+	 * @param permit
+	 *            the permit of the request limit, released with the connection, or null.
+	 * @param metrics
+	 *            the measures of the request, published once the exchange is terminated, or
+	 *            null.
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, after which the response body cannot
+	 *            be read anymore, or Long.MAX_VALUE.
+	 */
+	HttpExchange(	HttpConnectionPool pool,
+					HttpConnection connection,
+					HttpRequest request,
+					RequestLimiter.Permit permit,
+					RequestMetrics metrics,
+					long deadline)
+	{
+		super(request, permit, metrics, deadline);
+		this.pool = pool;
+		this.connection = connection;
+
+		initialBytesReceived = connection.getBytesReceived();
+
+		if (metrics != null
+			&& connection.getUseCount() == 0)
+		{
+			metrics.connectionOpened(connection.getDnsLookupTime(), connection.getConnectTime(),
+				connection.getTlsHandshakeTime());
+		}
+	}
+
+
+
+
+
+
+	@Override
+	boolean isReusedConnection()
+	{
+		return connection.getUseCount() > 0;
+	}
+
+
+
+
+
+
+	@Override
+	void send() throws IOException
+	{
+		if (metrics != null)
+		{
+			metrics.requestStarted(isReusedConnection());
+		}
+
+		OutputStream out = connection.getOutputStream();
+		byte[] head = request.encodeHead(connection.getRoute());
+		out.write(head);
+		bytesSent = head.length;
+
+		byte[] content = request.getContent();
+		HttpRequestBody requestBody = request.getBody();
+		if (content != null)
+		{
+			out.write(content);
+			bytesSent += content.length;
+		}
+		else if (requestBody != null
+			&& requestBody.getLength() >= 0)
+		{
+			requestBody.writeTo(out);
+			bytesSent += requestBody.getLength();
+		}
+		else if (requestBody != null)
+		{
+			ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+			requestBody.writeTo(chunked);
+			chunked.finish();
+			bytesSent += chunked.getBytesWritten();
+		}
+
+		out.flush();
+		connection.markUsed();
+
+		InputStream in = connection.getInputStream();
+		responseHead = HttpResponseHead.read(in, request);
+
+		if (metrics != null)
+		{
+			metrics.responseStarted(responseHead.getResponseCode());
+		}
+
+		// The read timeout may have been reduced to meet the total timeout of the request: reads of
+		// the body reduce it again when the total timeout gets near.
+		connection.setReadTimeout(request.getPolicy().getReadTimeout());
+
+		if (!responseHead.hasBody())
+		{
+			body = new ResponseBodyInputStream(new FixedLengthInputStream(in, 0));
+		}
+		else if (responseHead.isChunked())
+		{
+			body = new ResponseBodyInputStream(new ChunkedInputStream(in));
+		}
+		else if (!responseHead.isDelimitedByClose())
+		{
+			body = new ResponseBodyInputStream(new FixedLengthInputStream(in, responseHead
+				.getContentLengthLong()));
+		}
+		else
+		{
+			body = new ResponseBodyInputStream(in);
+		}
+	}
+
+
+
+
+
+
+	@Override
+	long getBytesReceived()
+	{
+		return connection.getBytesReceived()
+			- initialBytesReceived;
+	}
+
+
+
+
+
+
+	@Override
+	void setReadTimeout(int readTimeout) throws IOException
+	{
+		connection.setReadTimeout(readTimeout);
+	}
+
+
+
+
+
+
+	@Override
+	void releaseTransport(boolean reusable)
+	{
+		if (responseHead == null)
+		{
+			pool.release(connection, false, -1);
+		}
+		else
+		{
+			pool.release(connection, reusable
+				&& responseHead.isPersistent(), responseHead.getKeepAliveTimeout());
+		}
+	}
+}
@@ -45,7 +45,66 @@ package fr.immotronic.http.impl;
 
 public enum HttpMethod
 {
-	GET,
-	POST,
-	DELETE
+	GET(true, true),
+	HEAD(true, true),
+	POST(false, false),
+	PUT(true, false),
+	PATCH(false, false),
+	DELETE(true, false);
+
+	private final boolean idempotent;
+	private final boolean safe;
+
+
+
+
+
+
+	private HttpMethod(boolean idempotent, boolean safe)
+	{
+		this.idempotent = idempotent;
+		this.safe = safe;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if sending a request with this method several times has the same effect as
+	 *         sending it once, so that it can be retried safely.
+	 */
+	public boolean isIdempotent()
+	{
+		return idempotent;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if a request with this method does not change the state of the server, so that
+	 *         it does not invalidate the responses cached for its URL.
+	 */
+	public boolean isSafe()
+	{
+		return safe;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if a request with this method can have a content.
+	 */
+	public boolean allowsContent()
+	{
+		return this == POST
+			|| this == PUT || this == PATCH;
+	}
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.net.URL;
+
+import fr.immotronic.commons.http.HttpPreparedRequest;
+import fr.immotronic.commons.http.HttpRequestPolicy;
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseFuture;
+import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.HttpStreamedResponse;
+
+
+
+/**
+ * A prepared request: its headers are computed and encoded once, and shared by all the requests
+ * it sends. Only the request line and the headers that depend on the URL and on the content are
+ * computed for each request.
+ */
+final class HttpPreparedRequestImpl implements HttpPreparedRequest
+{
+	private final HttpClientServiceImpl service;
+	private final HttpMethod method;
+	private final RequestHeaders headers;
+	private final HttpRequestPolicy policy;
+
+
+
+
+
+
+	/**
+	 * @param headers
+	 *            the headers, which must not depend on objects that client code can modify.
+	 * @param policy
+	 *            the policy to apply to the requests, or null to apply the policy of their host.
+	 */
+	HttpPreparedRequestImpl(HttpClientServiceImpl service,
+							HttpMethod method,
+							RequestHeaders headers,
+							HttpRequestPolicy policy)
+	{
+		this.service = service;
+		this.method = method;
+		this.headers = headers;
+		this.policy = policy;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse send(URL url)
+	{
+		return send(url, (byte[]) null);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponse send(URL url, byte[] content)
+	{
+		return service.sendRequest(createRequest(url, content));
+	}
+
+
+
+
+
+
+	@Override
+	public void send(URL url, HttpResponseHandler responseHandler)
+	{
+		send(url, null, responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public void send(URL url, byte[] content, HttpResponseHandler responseHandler)
+	{
+		service.sendAsyncRequest(createRequest(url, content), responseHandler);
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture sendAsync(URL url, byte[] content)
+	{
+		HttpResponseFutureImpl future = new HttpResponseFutureImpl();
+		service.sendAsyncRequest(createRequest(url, content), future);
+
+		return future;
+	}
+
+
+
+
+
+
+	@Override
+	public HttpStreamedResponse sendStreamed(URL url)
+	{
+		if (method != HttpMethod.GET)
+		{
+			throw new IllegalStateException("Only GET requests can be streamed, not "
+				+ method + " requests");
+		}
+
+		return service.sendStreamedRequest(createRequest(url, null));
+	}
+
+
+
+
+
+
+	private HttpRequest createRequest(URL url, byte[] content)
+	{
+		if (content != null
+			&& !method.allowsContent())
+		{
+			throw new IllegalArgumentException("A "
+				+ method + " request cannot have a content. 'content' argument must be null");
+		}
+
+		return service.createRequest(method, url, headers, content, policy);
+	}
+}
@@ -0,0 +1,740 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpCredential;
+import fr.immotronic.commons.http.HttpRequestBody;
+import fr.immotronic.commons.http.HttpRequestPolicy;
+
+
+
+/**
+ * A request to send, as specified by the client code. Instances are immutable, so the same
+ * request can be sent again, for instance on a new connection or to follow a redirection.
+ * 
+ * The headers given by client code are held by a RequestHeaders object, which requests sent with
+ * the same HttpPreparedRequest share.
+ */
+final class HttpRequest
+{
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final HttpMethod method;
+	private final URL url;
+	private final RequestHeaders headers;
+	private final byte[] content;
+	private final HttpRequestBody body;
+	private final String acceptEncoding;
+	private final String contentEncoding;
+	private final HttpRequestPolicy policy;
+
+	final Logger logger = LoggerFactory.getLogger(HttpRequest.class);
+
+
+
+
+
+
+	HttpRequest(HttpMethod method,
+				URL url,
+				HttpCredential credential,
+				String contentType,
+				byte[] content,
+				String[] accept,
+				Map<String, String> otherHeaders)
+	{
+		this(
+			method,
+			url,
+			new RequestHeaders(credential, contentType, accept, otherHeaders),
+			content,
+			HttpRequestPolicy.DEFAULT);
+	}
+
+
+
+
+
+
+	/**
+	 * Construct a request which headers have already been computed.
+	 */
+	HttpRequest(HttpMethod method,
+				URL url,
+				RequestHeaders headers,
+				byte[] content,
+				HttpRequestPolicy policy)
+	{
+		this(method, url, headers, content, null, null, null, policy);
+	}
+
+
+
+
+
+
+	private HttpRequest(HttpMethod method,
+						URL url,
+						RequestHeaders headers,
+						byte[] content,
+						HttpRequestBody body,
+						String acceptEncoding,
+						String contentEncoding,
+						HttpRequestPolicy policy)
+	{
+		this.method = method;
+		this.url = url;
+		this.headers = headers;
+		this.content = content;
+		this.body = body;
+		this.acceptEncoding = acceptEncoding;
+		this.contentEncoding = contentEncoding;
+		this.policy = policy;
+	}
+
+
+
+
+
+
+	/**
+	 * Build the same request, with compression enabled. Client code headers take precedence: no
+	 * encoding is negotiated if client code gives an 'Accept-Encoding' header, and the content is
+	 * not compressed if client code gives a 'Content-Encoding' header.
+	 * 
+	 * @param acceptCompressedResponses
+	 *            if true, compressed responses are accepted and transparently decoded.
+	 * @param compressionThreshold
+	 *            the size, in bytes, from which contents are compressed, or -1 to never compress
+	 *            contents.
+	 * @return a request which compression settings are applied.
+	 */
+	HttpRequest withCompression(boolean acceptCompressedResponses, int compressionThreshold)
+	{
+		String _acceptEncoding = null;
+		if (acceptCompressedResponses
+			&& !hasHeader("Accept-Encoding"))
+		{
+			_acceptEncoding = ContentEncoding.ACCEPTED_ENCODINGS;
+		}
+
+		byte[] _content = content;
+		String _contentEncoding = null;
+		if (content != null
+			&& compressionThreshold >= 0 && content.length >= compressionThreshold
+			&& !hasHeader("Content-Encoding"))
+		{
+			try
+			{
+				_content = ContentEncoding.gzip(content);
+				_contentEncoding = ContentEncoding.GZIP;
+			}
+			catch (IOException e)
+			{
+				logger.warn("{} {}: Cannot compress content, it is sent uncompressed.", method, url,
+					e);
+			}
+		}
+
+		if (_acceptEncoding == null
+			&& _contentEncoding == null)
+		{
+			return this;
+		}
+
+		return new HttpRequest(
+			method,
+			url,
+			headers,
+			_content,
+			body,
+			_acceptEncoding,
+			_contentEncoding,
+			policy);
+	}
+
+
+
+
+
+
+	/**
+	 * Build the same request, which content is read from the given body while it is sent.
+	 */
+	HttpRequest withBody(HttpRequestBody body)
+	{
+		return new HttpRequest(
+			method,
+			url,
+			headers,
+			null,
+			body,
+			acceptEncoding,
+			contentEncoding,
+			policy);
+	}
+
+
+
+
+
+
+	/**
+	 * Build the same request, with the given timeouts and retry rules.
+	 */
+	HttpRequest withPolicy(HttpRequestPolicy policy)
+	{
+		return new HttpRequest(
+			method,
+			url,
+			headers,
+			content,
+			body,
+			acceptEncoding,
+			contentEncoding,
+			policy);
+	}
+
+
+
+
+
+
+	HttpRequestPolicy getPolicy()
+	{
+		return policy;
+	}
+
+
+
+
+
+
+	HttpMethod getMethod()
+	{
+		return method;
+	}
+
+
+
+
+
+
+	URL getURL()
+	{
+		return url;
+	}
+
+
+
+
+
+
+	HttpRoute getRoute()
+	{
+		return HttpRoute.of(url);
+	}
+
+
+
+
+
+
+	byte[] getContent()
+	{
+		return content;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the content to read while the request is sent, or null if the content, if any, is
+	 *         given by getContent().
+	 */
+	HttpRequestBody getBody()
+	{
+		return body;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the request content, if any, can be sent several times, so that the request
+	 *         can be retried or redirected.
+	 */
+	boolean isRepeatable()
+	{
+		return body == null
+			|| body.isRepeatable();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the request can be sent again although the server may have processed it:
+	 *         its method is idempotent, or its policy allows non-idempotent requests to be retried.
+	 */
+	boolean isResendable()
+	{
+		return method.isIdempotent()
+			|| policy.allowsNonIdempotentRetries();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the request content, if any, is held in memory.
+	 */
+	boolean isContentInMemory()
+	{
+		return body == null
+			|| body.getBuffer() != null;
+	}
+
+
+
+
+
+
+	String[] getAccept()
+	{
+		return headers.getAccept();
+	}
+
+
+
+
+
+
+	/**
+	 * Build the same request, made conditional on the validators of a cached response.
+	 * 
+	 * @param entityTag
+	 *            the ETag of the cached response, or null.
+	 * @param lastModified
+	 *            the Last-Modified date of the cached response, or null.
+	 * @return a request the server answers with a 304 status if the cached response is still
+	 *         valid.
+	 */
+	HttpRequest withConditions(String entityTag, String lastModified)
+	{
+		Map<String, String> conditions = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+		if (entityTag != null)
+		{
+			conditions.put("If-None-Match", entityTag);
+		}
+
+		if (lastModified != null)
+		{
+			conditions.put("If-Modified-Since", lastModified);
+		}
+
+		return new HttpRequest(
+			method,
+			url,
+			headers.with(conditions),
+			content,
+			body,
+			acceptEncoding,
+			contentEncoding,
+			policy);
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if compressed responses have been negotiated for this request, and must be
+	 *         transparently decoded.
+	 */
+	boolean isContentDecoded()
+	{
+		return acceptEncoding != null;
+	}
+
+
+
+
+
+
+	/**
+	 * Compute the headers to send. Header names are case insensitive: credential, content type
+	 * and accepted media types override the corresponding headers given by the client code.
+	 * 
+	 * @return the request headers, in a case insensitive and unmodifiable map.
+	 */
+	Map<String, String> getHeaders()
+	{
+		if (acceptEncoding == null
+			&& contentEncoding == null)
+		{
+			return headers.getHeaders();
+		}
+
+		Map<String, String> _headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		_headers.putAll(headers.getHeaders());
+
+		if (acceptEncoding != null)
+		{
+			_headers.put("Accept-Encoding", acceptEncoding);
+		}
+
+		if (contentEncoding != null)
+		{
+			_headers.put("Content-Encoding", contentEncoding);
+		}
+
+		return Collections.unmodifiableMap(_headers);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the value of a header given by client code, or null if client code gave no such
+	 *         header. Header names are case insensitive.
+	 */
+	String getHeader(String name)
+	{
+		return headers.getHeader(name);
+	}
+
+
+
+
+
+
+	private boolean hasHeader(String name)
+	{
+		return getHeader(name) != null;
+	}
+
+
+
+
+
+
+	/**
+	 * Encode the request line and the request headers. The headers given by client code are
+	 * encoded once, and only the request line and the headers that depend on the URL and on the
+	 * content are encoded for each request.
+	 * 
+	 * @param route
+	 *            the route the request is sent on. Requests sent to an HTTP proxy use the
+	 *            absolute form of the request target.
+	 * @return the request head, ready to be written on a connection.
+	 */
+	byte[] encodeHead(HttpRoute route) throws MalformedURLException
+	{
+		String target;
+		if (route.isProxied())
+		{
+			target = new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getFile())
+				.toExternalForm();
+		}
+		else
+		{
+			target = url.getFile();
+			if (target.isEmpty())
+			{
+				target = "/";
+			}
+		}
+
+		if (logger.isDebugEnabled())
+		{
+			for (Map.Entry<String, String> header : getHeaders().entrySet())
+			{
+				logger.debug("{} {}: Header '{}: {}'", method, url, header.getKey(), header
+					.getValue());
+			}
+		}
+
+		StringBuilder head = new StringBuilder(128);
+		head.append(method.toString()).append(' ').append(target).append(" HTTP/1.1\r\n");
+
+		head.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1
+			&& url.getPort() != url.getDefaultPort())
+		{
+			head.append(':').append(url.getPort());
+		}
+		head.append("\r\n");
+
+		StringBuilder tail = new StringBuilder(64);
+
+		if (acceptEncoding != null)
+		{
+			tail.append("Accept-Encoding: ").append(acceptEncoding).append("\r\n");
+		}
+
+		if (contentEncoding != null)
+		{
+			tail.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+		}
+
+		String transferEncoding = headers.getHeader("Transfer-Encoding");
+		if (content != null)
+		{
+			tail.append("Content-Length: ").append(content.length).append("\r\n");
+		}
+		else if (body != null
+			&& body.getLength() >= 0)
+		{
+			tail.append("Content-Length: ").append(body.getLength()).append("\r\n");
+		}
+		else if (body != null)
+		{
+			tail.append("Transfer-Encoding: chunked\r\n");
+		}
+		else if (transferEncoding != null)
+		{
+			tail.append("Transfer-Encoding: ").append(transferEncoding).append("\r\n");
+		}
+
+		tail.append("\r\n");
+
+		byte[] encodedHeaders = headers.getEncodedHeaders();
+		byte[] encodedHead = head.toString().getBytes(ISO_8859_1);
+		byte[] encodedTail = tail.toString().getBytes(ISO_8859_1);
+
+		byte[] requestHead = new byte[encodedHead.length
+			+ encodedHeaders.length + encodedTail.length];
+		System.arraycopy(encodedHead, 0, requestHead, 0, encodedHead.length);
+		System.arraycopy(encodedHeaders, 0, requestHead, encodedHead.length, encodedHeaders.length);
+		System.arraycopy(encodedTail, 0, requestHead, encodedHead.length
+			+ encodedHeaders.length, encodedTail.length);
+
+		return requestHead;
+	}
+
+
+
+
+
+
+	/**
+	 * Build the header fields of the request as sent over HTTP/2: pseudo-headers first, then
+	 * lowercase header names, without the headers that are specific to an HTTP/1.1 connection.
+	 * 
+	 * @return the header fields, in the order they must be sent.
+	 */
+	Map<String, String> getHttp2HeaderFields()
+	{
+		String path = url.getFile();
+		if (path.isEmpty())
+		{
+			path = "/";
+		}
+
+		String authority = url.getHost();
+		if (url.getPort() != -1
+			&& url.getPort() != url.getDefaultPort())
+		{
+			authority += ":"
+				+ url.getPort();
+		}
+
+		Map<String, String> headerFields = new LinkedHashMap<String, String>();
+		headerFields.put(":method", method.toString());
+		headerFields.put(":scheme", url.getProtocol());
+		headerFields.put(":authority", authority);
+		headerFields.put(":path", path);
+		headerFields.putAll(headers.getHttp2HeaderFields());
+
+		if (acceptEncoding != null)
+		{
+			headerFields.put("accept-encoding", acceptEncoding);
+		}
+
+		if (contentEncoding != null)
+		{
+			headerFields.put("content-encoding", contentEncoding);
+		}
+
+		if (content != null)
+		{
+			headerFields.put("content-length", Integer.toString(content.length));
+		}
+		else if (body != null
+			&& body.getLength() >= 0)
+		{
+			headerFields.put("content-length", Long.toString(body.getLength()));
+		}
+
+		return headerFields;
+	}
+
+
+
+
+
+
+	/**
+	 * Build the request to send to follow a redirection, as HttpURLConnection does: POST requests
+	 * redirected by a 301, 302 or 303 response are turned into GET requests without content, and
+	 * credentials are only sent again to the same host. Requests which content cannot be sent
+	 * again are not redirected with their content.
+	 * 
+	 * @param head
+	 *            the head of the response to this request.
+	 * @return the request to send to follow the redirection, or null if the response is not a
+	 *         redirection that can be followed automatically.
+	 */
+	HttpRequest redirect(HttpResponseHead head)
+	{
+		int responseCode = head.getResponseCode();
+		switch (responseCode)
+		{
+			case 301:
+			case 302:
+			case 303:
+			case 307:
+			case 308:
+				break;
+
+			default:
+				return null;
+		}
+
+		String location = head.getHeaderField("Location");
+		if (location == null)
+		{
+			return null;
+		}
+
+		URL target;
+		try
+		{
+			target = new URL(url, location);
+		}
+		catch (MalformedURLException e)
+		{
+			logger.warn("{} {}: Invalid redirection location '{}'.", method, url, location);
+			return null;
+		}
+
+		if (!target.getProtocol().equalsIgnoreCase(url.getProtocol()))
+		{
+			return null;
+		}
+
+		RequestHeaders _headers = headers;
+		if (!target.getHost().equalsIgnoreCase(url.getHost()))
+		{
+			_headers = headers.withoutCredential();
+		}
+
+		// A HEAD request stays a HEAD request, as its response has no content anyway.
+		if ((responseCode == 303 && method != HttpMethod.HEAD)
+			|| (method == HttpMethod.POST && responseCode != 307 && responseCode != 308))
+		{
+			return new HttpRequest(
+				HttpMethod.GET,
+				target,
+				_headers.withoutContentType(),
+				null,
+				null,
+				acceptEncoding,
+				null,
+				policy);
+		}
+
+		if (!isRepeatable())
+		{
+			return null;
+		}
+
+		return new HttpRequest(
+			method,
+			target,
+			_headers,
+			content,
+			body,
+			acceptEncoding,
+			contentEncoding,
+			policy);
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return method
+			+ " " + url;
+	}
+}
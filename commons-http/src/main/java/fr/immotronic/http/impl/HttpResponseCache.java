@@ -0,0 +1,853 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * An in-memory cache of responses to GET requests, bounded in number of entries and in total
+ * content size. Least recently used entries are evicted first.
+ * 
+ * Responses are stored if they carry freshness information (Cache-Control max-age or Expires
+ * headers) or validators (ETag or Last-Modified headers). A fresh response is served without
+ * contacting the server. A stale response is revalidated with a conditional request, and served
+ * again if the server answers 304 (Not Modified).
+ * 
+ * One response is stored per URL. It is only served to requests which headers named by its Vary
+ * header, as well as Authorization and Accept-Encoding headers, match those of the request it
+ * answered. Contents are stored as received, i.e. possibly compressed.
+ */
+final class HttpResponseCache
+{
+	private static final String[] implicitVaryHeaders = { "Authorization", "Accept-Encoding" };
+	private static final String[] conditionalHeaders = {
+		"If-None-Match",
+		"If-Modified-Since",
+		"If-Match",
+		"If-Unmodified-Since",
+		"If-Range",
+		"Range" };
+	private static final Pattern maxAgePattern = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)");
+
+	private final int maxEntries;
+	private final long maxSize;
+	private final int maxEntrySize;
+	private final LinkedHashMap<String, Entry> entries;
+	private long size = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	final Logger logger = LoggerFactory.getLogger(HttpResponseCache.class);
+
+
+
+
+
+
+	/**
+	 * Construct an empty response cache.
+	 * 
+	 * @param maxEntries
+	 *            the maximum number of responses kept in the cache.
+	 * @param maxSize
+	 *            the maximum total size, in bytes, of the contents kept in the cache.
+	 * @param maxEntrySize
+	 *            the size, in bytes, above which response contents are not cached.
+	 */
+	HttpResponseCache(int maxEntries, long maxSize, int maxEntrySize)
+	{
+		if (maxEntries < 1)
+		{
+			throw new IllegalArgumentException("'maxEntries' must be at least 1");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+		this.maxEntrySize = (int) Math.min(maxEntrySize, maxSize);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+
+
+
+
+
+	/**
+	 * Look up the cached response to a request. Requests with an unsafe method, such as POST or
+	 * PUT, invalidate the response cached for their URL.
+	 * 
+	 * @param request
+	 *            the request about to be sent.
+	 * @return a cached response, either fresh or that can be revalidated, or null if the request
+	 *         must be sent.
+	 */
+	Entry lookup(HttpRequest request)
+	{
+		if (request.getMethod() != HttpMethod.GET)
+		{
+			if (!request.getMethod().isSafe())
+			{
+				synchronized (this)
+				{
+					Entry entry = entries.remove(keyOf(request));
+					if (entry != null)
+					{
+						size -= entry.getSize();
+					}
+				}
+			}
+
+			return null;
+		}
+
+		if (!isCacheable(request))
+		{
+			return null;
+		}
+
+		Entry entry;
+		synchronized (this)
+		{
+			entry = entries.get(keyOf(request));
+		}
+
+		if (entry == null
+			|| !entry.matches(request))
+		{
+			return null;
+		}
+
+		if (!entry.isFresh(request)
+			&& !entry.hasValidators())
+		{
+			return null;
+		}
+
+		return entry;
+	}
+
+
+
+
+
+
+	/**
+	 * Store the response to a request, if it can be cached, once its content has been entirely
+	 * read.
+	 * 
+	 * @param request
+	 *            the request the response answers.
+	 * @param head
+	 *            the head of the response.
+	 * @param body
+	 *            the response body.
+	 * @return the stream client code must read the response body from.
+	 */
+	InputStream store(HttpRequest request, HttpResponseHead head, InputStream body)
+	{
+		if (!isCacheable(request))
+		{
+			return body;
+		}
+
+		misses.incrementAndGet();
+
+		if (!isStorable(head)
+			|| head.getContentLengthLong() > maxEntrySize)
+		{
+			return body;
+		}
+
+		return new CachingInputStream(body, request, head);
+	}
+
+
+
+
+
+
+	/**
+	 * Store the response to a request, if it can be cached.
+	 * 
+	 * @param request
+	 *            the request the response answers.
+	 * @param head
+	 *            the head of the response.
+	 * @param body
+	 *            the entire response body.
+	 */
+	void store(HttpRequest request, HttpResponseHead head, byte[] body)
+	{
+		if (!isCacheable(request))
+		{
+			return;
+		}
+
+		misses.incrementAndGet();
+
+		if (isStorable(head)
+			&& body.length <= maxEntrySize)
+		{
+			put(keyOf(request), new Entry(request, head, body));
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Freshen a cached response the server answered a conditional request with 304 (Not
+	 * Modified) for.
+	 * 
+	 * @param entry
+	 *            the cached response.
+	 * @param notModified
+	 *            the head of the 304 response.
+	 * @return the freshened cached response.
+	 */
+	Entry revalidate(Entry entry, HttpResponseHead notModified)
+	{
+		revalidations.incrementAndGet();
+
+		HttpResponseHead head = entry.head.updatedWith(notModified);
+		Entry revalidated = new Entry(head, entry.body, entry.varyValues);
+
+		if (isStorable(head))
+		{
+			put(keyOf(entry.head.getRequest()), revalidated);
+		}
+
+		return revalidated;
+	}
+
+
+
+
+
+
+	/**
+	 * Record a request served by a fresh cached response.
+	 */
+	void recordHit()
+	{
+		hits.incrementAndGet();
+	}
+
+
+
+
+
+
+	long getHits()
+	{
+		return hits.get();
+	}
+
+
+
+
+
+
+	long getRevalidations()
+	{
+		return revalidations.get();
+	}
+
+
+
+
+
+
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+
+
+
+
+
+	synchronized int getEntryCount()
+	{
+		return entries.size();
+	}
+
+
+
+
+
+
+	synchronized long getSize()
+	{
+		return size;
+	}
+
+
+
+
+
+
+	synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the response to a request may be looked up in and stored in the cache.
+	 *         Conditional and range requests of client code bypass the cache, as well as requests
+	 *         with a 'Cache-Control: no-store' header.
+	 */
+	private boolean isCacheable(HttpRequest request)
+	{
+		if (request.getMethod() != HttpMethod.GET)
+		{
+			return false;
+		}
+
+		for (String conditionalHeader : conditionalHeaders)
+		{
+			if (request.getHeader(conditionalHeader) != null)
+			{
+				return false;
+			}
+		}
+
+		String cacheControl = request.getHeader("Cache-Control");
+		return cacheControl == null
+			|| !cacheControl.toLowerCase().contains("no-store");
+	}
+
+
+
+
+
+
+	private boolean isStorable(HttpResponseHead head)
+	{
+		if (head.getResponseCode() != 200)
+		{
+			return false;
+		}
+
+		String cacheControl = head.getHeaderField("Cache-Control");
+		if (cacheControl != null
+			&& cacheControl.toLowerCase().contains("no-store"))
+		{
+			return false;
+		}
+
+		String vary = head.getHeaderField("Vary");
+		if (vary != null
+			&& vary.contains("*"))
+		{
+			return false;
+		}
+
+		return freshnessLifetime(head) > 0
+			|| head.getHeaderField("ETag") != null || head.getHeaderField("Last-Modified") != null;
+	}
+
+
+
+
+
+
+	private synchronized void put(String key, Entry entry)
+	{
+		Entry replaced = entries.put(key, entry);
+		if (replaced != null)
+		{
+			size -= replaced.getSize();
+		}
+
+		size += entry.getSize();
+
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()
+			&& (entries.size() > maxEntries || size > maxSize))
+		{
+			Entry eldest = iterator.next();
+			iterator.remove();
+			size -= eldest.getSize();
+
+			if (logger.isDebugEnabled())
+			{
+				logger.debug("{}: Evicted from response cache.", eldest.head.getURL());
+			}
+		}
+	}
+
+
+
+
+
+
+	private static String keyOf(HttpRequest request)
+	{
+		return HttpMethod.GET
+			+ " " + request.getURL().toExternalForm();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, a response stays fresh after it has been received.
+	 */
+	private static long freshnessLifetime(HttpResponseHead head)
+	{
+		String cacheControl = head.getHeaderField("Cache-Control");
+		if (cacheControl != null)
+		{
+			cacheControl = cacheControl.toLowerCase();
+			if (cacheControl.contains("no-cache"))
+			{
+				return 0;
+			}
+
+			Matcher matcher = maxAgePattern.matcher(cacheControl);
+			if (matcher.find())
+			{
+				try
+				{
+					return Long.parseLong(matcher.group(1)) * 1000;
+				}
+				catch (NumberFormatException e)
+				{
+					return Integer.MAX_VALUE * 1000L;
+				}
+			}
+		}
+
+		String expires = head.getHeaderField("Expires");
+		if (expires != null)
+		{
+			long expiresTime = parseDate(expires);
+			if (expiresTime == -1)
+			{
+				// An invalid date means the response has already expired.
+				return 0;
+			}
+
+			long date = -1;
+			String dateHeader = head.getHeaderField("Date");
+			if (dateHeader != null)
+			{
+				date = parseDate(dateHeader);
+			}
+
+			if (date == -1)
+			{
+				date = System.currentTimeMillis();
+			}
+
+			return Math.max(0, expiresTime - date);
+		}
+
+		return 0;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the given HTTP date in milliseconds since the epoch, or -1 if the date is invalid.
+	 */
+	private static long parseDate(String date)
+	{
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		try
+		{
+			return format.parse(date.trim()).getTime();
+		}
+		catch (ParseException e)
+		{
+			return -1;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A cached response.
+	 */
+	static final class Entry
+	{
+		private final HttpResponseHead head;
+		private final byte[] body;
+		private final Map<String, String> varyValues;
+		private final long expirationTime;
+
+
+
+
+
+
+		private Entry(HttpRequest request, HttpResponseHead head, byte[] body)
+		{
+			this(head, body, varyValuesOf(request, head));
+		}
+
+
+
+
+
+
+		private Entry(HttpResponseHead head, byte[] body, Map<String, String> varyValues)
+		{
+			this.head = head;
+			this.body = body;
+			this.varyValues = varyValues;
+			this.expirationTime = System.currentTimeMillis()
+				+ freshnessLifetime(head);
+		}
+
+
+
+
+
+
+		/**
+		 * @return true if this response can be served without being revalidated.
+		 */
+		boolean isFresh(HttpRequest request)
+		{
+			String cacheControl = request.getHeader("Cache-Control");
+			if (cacheControl != null)
+			{
+				cacheControl = cacheControl.toLowerCase();
+				if (cacheControl.contains("no-cache")
+					|| cacheControl.matches(".*max-age\\s*=\\s*0.*"))
+				{
+					return false;
+				}
+			}
+
+			String pragma = request.getHeader("Pragma");
+			if (pragma != null
+				&& pragma.toLowerCase().contains("no-cache"))
+			{
+				return false;
+			}
+
+			return System.currentTimeMillis() < expirationTime;
+		}
+
+
+
+
+
+
+		boolean hasValidators()
+		{
+			return head.getHeaderField("ETag") != null
+				|| head.getHeaderField("Last-Modified") != null;
+		}
+
+
+
+
+
+
+		/**
+		 * @return the given request, made conditional on the validators of this response.
+		 */
+		HttpRequest toConditionalRequest(HttpRequest request)
+		{
+			return request.withConditions(
+				head.getHeaderField("ETag"),
+				head.getHeaderField("Last-Modified"));
+		}
+
+
+
+
+
+
+		/**
+		 * @return a new response object, built from this cached response.
+		 */
+		HttpResponseImpl toResponse(HttpRequest request, boolean streamed)
+		{
+			return new HttpResponseImpl(
+				head,
+				new ByteArrayInputStream(body),
+				request.getAccept(),
+				streamed);
+		}
+
+
+
+
+
+
+		private boolean matches(HttpRequest request)
+		{
+			Map<String, String> headers = request.getHeaders();
+			for (Map.Entry<String, String> varyValue : varyValues.entrySet())
+			{
+				String value = headers.get(varyValue.getKey());
+				if (value == null ? varyValue.getValue() != null : !value.equals(varyValue
+					.getValue()))
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+
+
+
+
+
+		private long getSize()
+		{
+			return body.length;
+		}
+
+
+
+
+
+
+		private static Map<String, String> varyValuesOf(HttpRequest request, HttpResponseHead head)
+		{
+			Map<String, String> headers = request.getHeaders();
+			Map<String, String> varyValues = new TreeMap<String, String>(
+				String.CASE_INSENSITIVE_ORDER);
+
+			for (String name : implicitVaryHeaders)
+			{
+				varyValues.put(name, headers.get(name));
+			}
+
+			String vary = head.getHeaderField("Vary");
+			if (vary != null)
+			{
+				for (String name : vary.split(","))
+				{
+					name = name.trim();
+					if (!name.isEmpty())
+					{
+						varyValues.put(name, headers.get(name));
+					}
+				}
+			}
+
+			return varyValues;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A response body stream that copies the bytes read from it, and stores the response in the
+	 * cache once the body has been entirely read. Responses which body turns out to be bigger
+	 * than maxEntrySize are not stored.
+	 */
+	private final class CachingInputStream extends FilterInputStream
+	{
+		private final HttpRequest request;
+		private final HttpResponseHead head;
+		private ByteArrayOutputStream copy;
+		private boolean stored = false;
+
+
+
+
+
+
+		CachingInputStream(InputStream in, HttpRequest request, HttpResponseHead head)
+		{
+			super(in);
+			this.request = request;
+			this.head = head;
+
+			long contentLength = head.getContentLengthLong();
+			copy = new ByteArrayOutputStream((contentLength < 0) ? 4096 : (int) contentLength);
+		}
+
+
+
+
+
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b == -1)
+			{
+				storeCopy();
+			}
+			else if (copy != null)
+			{
+				copy.write(b);
+				checkCopySize();
+			}
+
+			return b;
+		}
+
+
+
+
+
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int readLength = super.read(b, off, len);
+			if (readLength == -1)
+			{
+				storeCopy();
+			}
+			else if (copy != null)
+			{
+				copy.write(b, off, readLength);
+				checkCopySize();
+			}
+
+			return readLength;
+		}
+
+
+
+
+
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// Skipped bytes are not copied: the response cannot be cached.
+			copy = null;
+			return super.skip(n);
+		}
+
+
+
+
+
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+
+
+
+
+
+		private void checkCopySize()
+		{
+			if (copy.size() > maxEntrySize)
+			{
+				copy = null;
+			}
+		}
+
+
+
+
+
+
+		private void storeCopy()
+		{
+			if (copy != null
+				&& !stored)
+			{
+				stored = true;
+				put(keyOf(request), new Entry(request, head, copy.toByteArray()));
+				copy = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseFuture;
+import fr.immotronic.commons.http.HttpResponseHandler;
+
+
+
+/**
+ * An HttpResponseFuture completed by the thread that performed the request: it is the response
+ * handler of the asynchronous request, so that no additional thread is involved to complete it.
+ */
+final class HttpResponseFutureImpl implements HttpResponseFuture, HttpResponseHandler
+{
+	private List<HttpResponseHandler> responseHandlers = new ArrayList<HttpResponseHandler>(1);
+	private HttpResponse response = null;
+	private boolean done = false;
+	private boolean cancelled = false;
+
+	final Logger logger = LoggerFactory.getLogger(HttpResponseFutureImpl.class);
+
+
+
+
+
+
+	@Override
+	public void processResponse(HttpResponse response)
+	{
+		List<HttpResponseHandler> handlers;
+
+		synchronized (this)
+		{
+			if (done)
+			{
+				return;
+			}
+
+			this.response = response;
+			done = true;
+			handlers = responseHandlers;
+			responseHandlers = null;
+			notifyAll();
+		}
+
+		for (HttpResponseHandler handler : handlers)
+		{
+			notifyHandler(handler, response);
+		}
+	}
+
+
+
+
+
+
+	@Override
+	public HttpResponseFuture addHandler(HttpResponseHandler responseHandler)
+	{
+		if (responseHandler == null)
+		{
+			throw new IllegalArgumentException(
+				"The specified response handler is null. 'responseHandler' argument must be valid");
+		}
+
+		synchronized (this)
+		{
+			if (!done)
+			{
+				responseHandlers.add(responseHandler);
+				return this;
+			}
+
+			if (cancelled)
+			{
+				return this;
+			}
+		}
+
+		notifyHandler(responseHandler, response);
+		return this;
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning)
+	{
+		if (done)
+		{
+			return false;
+		}
+
+		cancelled = true;
+		done = true;
+		responseHandlers = null;
+		notifyAll();
+
+		return true;
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized boolean isDone()
+	{
+		return done;
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized HttpResponse get() throws InterruptedException
+	{
+		while (!done)
+		{
+			wait();
+		}
+
+		return getResponse();
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized HttpResponse get(long timeout, TimeUnit unit)	throws InterruptedException,
+																		TimeoutException
+	{
+		long deadline = System.nanoTime()
+			+ unit.toNanos(timeout);
+
+		while (!done)
+		{
+			long remaining = deadline
+				- System.nanoTime();
+
+			if (remaining <= 0)
+			{
+				throw new TimeoutException();
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+
+		return getResponse();
+	}
+
+
+
+
+
+
+	private HttpResponse getResponse()
+	{
+		if (cancelled)
+		{
+			throw new CancellationException();
+		}
+
+		return response;
+	}
+
+
+
+
+
+
+	private void notifyHandler(HttpResponseHandler handler, HttpResponse response)
+	{
+		try
+		{
+			handler.processResponse(response);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("A response handler failed to process a response.", e);
+		}
+	}
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+/**
+ * The status line and headers of a response, and the framing of its body they imply.
+ */
+final class HttpResponseHead
+{
+	static final int MAX_LINE_LENGTH = 65536;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Pattern keepAliveTimeoutPattern = Pattern.compile("timeout=(\\d+)");
+	private static final Pattern contentRangePattern = Pattern.compile(
+		"(?i)bytes\\s+(?:(\\d+)-(\\d+)|\\*)/(?:(\\d+)|\\*)");
+
+	private final HttpRequest request;
+	private final String version;
+	private final int responseCode;
+	private final Map<String, String> headerFields;
+
+
+
+
+
+
+	private HttpResponseHead(	HttpRequest request,
+								String version,
+								int responseCode,
+								Map<String, String> headerFields)
+	{
+		this.request = request;
+		this.version = version;
+		this.responseCode = responseCode;
+		this.headerFields = Collections.unmodifiableMap(headerFields);
+	}
+
+
+
+
+
+
+	/**
+	 * Build the head of a cached response, freshened by the head of a 304 (Not Modified) response
+	 * that validated it: headers of the 304 response replace stored ones, except those that
+	 * describe the framing of the stored body.
+	 * 
+	 * @param notModified
+	 *            the head of the 304 response.
+	 * @return the updated head.
+	 */
+	HttpResponseHead updatedWith(HttpResponseHead notModified)
+	{
+		Map<String, String> _headerFields = new TreeMap<String, String>(
+			String.CASE_INSENSITIVE_ORDER);
+		_headerFields.putAll(headerFields);
+
+		for (Map.Entry<String, String> header : notModified.headerFields.entrySet())
+		{
+			String name = header.getKey();
+			if (!name.equalsIgnoreCase("Content-Length")
+				&& !name.equalsIgnoreCase("Content-Encoding")
+				&& !name.equalsIgnoreCase("Transfer-Encoding"))
+			{
+				_headerFields.put(name, header.getValue());
+			}
+		}
+
+		return new HttpResponseHead(request, version, responseCode, _headerFields);
+	}
+
+
+
+
+
+
+	/**
+	 * Read a response head from a stream. Interim 1xx responses are skipped.
+	 * 
+	 * @param in
+	 *            the stream to read from.
+	 * @param request
+	 *            the request this response answers.
+	 * @return the head of the final response.
+	 * @throws IOException
+	 *             if the head cannot be read or is invalid.
+	 */
+	static HttpResponseHead read(InputStream in, HttpRequest request) throws IOException
+	{
+		Parser parser = new Parser(request);
+
+		String line = readLine(in);
+		if (line == null)
+		{
+			throw new EOFException("Connection closed by server before any response.");
+		}
+
+		while (!parser.parseLine(line))
+		{
+			line = readLine(in);
+			if (line == null)
+			{
+				throw new EOFException("Connection closed while reading response headers.");
+			}
+		}
+
+		return parser.getHead();
+	}
+
+
+
+
+
+
+	/**
+	 * Build a response head from the header fields of an HTTP/2 response.
+	 * 
+	 * @param request
+	 *            the request this response answers.
+	 * @param headerFields
+	 *            the decoded header fields, including the :status pseudo-header.
+	 * @return the head of the response.
+	 * @throws IOException
+	 *             if the response has no valid status.
+	 */
+	static HttpResponseHead create(HttpRequest request, Map<String, String> headerFields)
+		throws IOException
+	{
+		int responseCode;
+		try
+		{
+			responseCode = Integer.parseInt(headerFields.get(":status"));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Invalid response status: "
+				+ headerFields.get(":status"));
+		}
+
+		Map<String, String> _headerFields = new TreeMap<String, String>(
+			String.CASE_INSENSITIVE_ORDER);
+		for (Map.Entry<String, String> header : headerFields.entrySet())
+		{
+			if (!header.getKey().startsWith(":"))
+			{
+				_headerFields.put(header.getKey(), header.getValue());
+			}
+		}
+
+		return new HttpResponseHead(request, "HTTP/2", responseCode, _headerFields);
+	}
+
+
+
+
+
+
+	/**
+	 * Read a line terminated by LF or CRLF, decoded as ISO-8859-1.
+	 * 
+	 * @return the line without its terminator, or null if the end of stream is reached before any
+	 *         character has been read.
+	 */
+	static String readLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b;
+		while ((b = in.read()) != -1)
+		{
+			if (b == '\n')
+			{
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length;
+				if (length > 0
+					&& bytes[length - 1] == '\r')
+				{
+					length--;
+				}
+
+				return new String(bytes, 0, length, ISO_8859_1);
+			}
+
+			if (line.size() >= MAX_LINE_LENGTH)
+			{
+				throw new IOException("Line is too long (more than "
+					+ MAX_LINE_LENGTH + " bytes).");
+			}
+
+			line.write(b);
+		}
+
+		if (line.size() == 0)
+		{
+			return null;
+		}
+
+		throw new EOFException("Connection closed in the middle of a line.");
+	}
+
+
+
+
+
+
+	URL getURL()
+	{
+		return request.getURL();
+	}
+
+
+
+
+
+
+	String getRequestMethod()
+	{
+		return request.getMethod().toString();
+	}
+
+
+
+
+
+
+	HttpRequest getRequest()
+	{
+		return request;
+	}
+
+
+
+
+
+
+	int getResponseCode()
+	{
+		return responseCode;
+	}
+
+
+
+
+
+
+	/**
+	 * @return all response headers. The returned map is case insensitive. Values of headers that
+	 *         appear several times are joined with a comma.
+	 */
+	Map<String, String> getHeaderFields()
+	{
+		return headerFields;
+	}
+
+
+
+
+
+
+	String getHeaderField(String name)
+	{
+		return headerFields.get(name);
+	}
+
+
+
+
+
+
+	String getContentType()
+	{
+		return headerFields.get("Content-Type");
+	}
+
+
+
+
+
+
+	String getContentEncoding()
+	{
+		return headerFields.get("Content-Encoding");
+	}
+
+
+
+
+
+
+	/**
+	 * @return the value of the Content-Length header, or -1 if the response has no such header or
+	 *         if the header value is invalid.
+	 */
+	long getContentLengthLong()
+	{
+		String contentLength = headerFields.get("Content-Length");
+		if (contentLength != null)
+		{
+			int comma = contentLength.indexOf(',');
+			if (comma != -1)
+			{
+				contentLength = contentLength.substring(0, comma);
+			}
+
+			try
+			{
+				return Long.parseLong(contentLength.trim());
+			}
+			catch (NumberFormatException e)
+			{}
+		}
+
+		return -1;
+	}
+
+
+
+
+
+
+	/**
+	 * Parse the 'Content-Range' header of a partial response, or of a response which range cannot
+	 * be satisfied. Only byte ranges are supported.
+	 * 
+	 * @return the position of the first and of the last byte of the content, and the length of the
+	 *         complete resource, each of them -1 if the header does not give it; or null if the
+	 *         response has no such header or if the header value is invalid.
+	 */
+	long[] getContentRange()
+	{
+		String contentRange = headerFields.get("Content-Range");
+		if (contentRange == null)
+		{
+			return null;
+		}
+
+		Matcher matcher = contentRangePattern.matcher(contentRange.trim());
+		if (!matcher.matches())
+		{
+			return null;
+		}
+
+		try
+		{
+			long[] range = new long[] { -1, -1, -1 };
+			if (matcher.group(1) != null)
+			{
+				range[0] = Long.parseLong(matcher.group(1));
+				range[1] = Long.parseLong(matcher.group(2));
+			}
+
+			if (matcher.group(3) != null)
+			{
+				range[2] = Long.parseLong(matcher.group(3));
+			}
+
+			return range;
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return false if this response cannot have a body, whatever its headers say: responses to
+	 *         HEAD requests, 204 (No Content) and 304 (Not Modified) responses.
+	 */
+	boolean hasBody()
+	{
+		return responseCode != 204
+			&& responseCode != 304
+			&& (request == null || request.getMethod() != HttpMethod.HEAD);
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the response body is sent with the 'chunked' transfer coding.
+	 */
+	boolean isChunked()
+	{
+		String transferEncoding = headerFields.get("Transfer-Encoding");
+		return transferEncoding != null
+			&& transferEncoding.toLowerCase().trim().endsWith("chunked");
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the response body end is signaled by the server closing the connection.
+	 */
+	boolean isDelimitedByClose()
+	{
+		return hasBody()
+			&& !isChunked() && getContentLengthLong() < 0;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the connection can be reused once the response body has been read.
+	 */
+	boolean isPersistent()
+	{
+		if (isDelimitedByClose())
+		{
+			return false;
+		}
+
+		String connectionHeader = headerFields.get("Connection");
+		if (version.equals("HTTP/1.0"))
+		{
+			return connectionHeader != null
+				&& connectionHeader.toLowerCase().contains("keep-alive");
+		}
+
+		return connectionHeader == null
+			|| !connectionHeader.toLowerCase().contains("close");
+	}
+
+
+
+
+
+
+	/**
+	 * @return the keep-alive timeout announced by the server, in milliseconds, or -1 if none.
+	 */
+	long getKeepAliveTimeout()
+	{
+		String keepAlive = headerFields.get("Keep-Alive");
+		if (keepAlive != null)
+		{
+			Matcher matcher = keepAliveTimeoutPattern.matcher(keepAlive);
+			if (matcher.find())
+			{
+				return Long.parseLong(matcher.group(1)) * 1000;
+			}
+		}
+
+		return -1;
+	}
+
+
+
+
+
+
+	/**
+	 * An incremental parser of response heads, fed line by line.
+	 */
+	static final class Parser
+	{
+		private final HttpRequest request;
+		private String version = null;
+		private int responseCode = -1;
+		private Map<String, String> headerFields;
+		private String lastName = null;
+		private HttpResponseHead head = null;
+
+
+
+
+
+
+		Parser(HttpRequest request)
+		{
+			this.request = request;
+		}
+
+
+
+
+
+
+		/**
+		 * Parse the next line of the response head.
+		 * 
+		 * @param line
+		 *            a line, without its terminator.
+		 * @return true if the line was the one that ends the head of the final response.
+		 * @throws IOException
+		 *             if the line is invalid.
+		 */
+		boolean parseLine(String line) throws IOException
+		{
+			if (version == null)
+			{
+				parseStatusLine(line);
+				return false;
+			}
+
+			if (line.isEmpty())
+			{
+				if (responseCode >= 100
+					&& responseCode < 200)
+				{
+					// Interim response: the final response follows.
+					version = null;
+					return false;
+				}
+
+				head = new HttpResponseHead(request, version, responseCode, headerFields);
+				return true;
+			}
+
+			if ((line.charAt(0) == ' ' || line.charAt(0) == '\t')
+				&& lastName != null)
+			{
+				// Obsolete line folding: the line continues the previous header value.
+				headerFields.put(lastName, headerFields.get(lastName)
+					+ " " + line.trim());
+				return false;
+			}
+
+			int colon = line.indexOf(':');
+			if (colon <= 0)
+			{
+				return false;
+			}
+
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			String previousValue = headerFields.get(name);
+			if (previousValue != null)
+			{
+				value = previousValue
+					+ ", " + value;
+			}
+
+			headerFields.put(name, value);
+			lastName = name;
+
+			return false;
+		}
+
+
+
+
+
+
+		HttpResponseHead getHead()
+		{
+			return head;
+		}
+
+
+
+
+
+
+		private void parseStatusLine(String statusLine) throws IOException
+		{
+			String[] statusLineComponents = statusLine.split(" ", 3);
+			if (statusLineComponents.length < 2
+				|| !statusLineComponents[0].startsWith("HTTP/"))
+			{
+				throw new IOException("Invalid status line: '"
+					+ statusLine + "'");
+			}
+
+			try
+			{
+				responseCode = Integer.parseInt(statusLineComponents[1]);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Invalid status line: '"
+					+ statusLine + "'");
+			}
+
+			version = statusLineComponents[0];
+			headerFields = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			lastName = null;
+		}
+	}
+}
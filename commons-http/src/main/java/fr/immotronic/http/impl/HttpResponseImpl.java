@@ -43,30 +43,31 @@
 
 package fr.immotronic.http.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import fr.immotronic.commons.http.HttpResponse;
 import fr.immotronic.commons.http.HttpStatus;
+import fr.immotronic.commons.http.HttpStreamedResponse;
 
 
 
-final class HttpResponseImpl implements HttpResponse
+final class HttpResponseImpl implements HttpStreamedResponse
 {
 	private Pattern p = Pattern.compile("charset=([^ ]*)");
 	private byte[] content = null;
@@ -74,10 +75,18 @@ final class HttpResponseImpl implements HttpResponse
 	private final String contentType;
 	private final boolean isAcceptable;
 	private final Charset charset;
-	private final Map<String, String> headers = new HashMap<String, String>();
-	private final Object contentAsJSON;
+	private final Map<String, String> headers =
+		new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	private Object contentAsJSON = null;
+	private boolean contentParsedAsJSON = false;
+	private boolean shared = false;
 	private final URL requestedURL;
 	private final String requestMethod;
+	private final long contentLength;
+	private final long contentOffset;
+	private final long resourceLength;
+	private InputStream contentStream = null;
+	private RequestMetrics metrics = null;
 
 	final Logger logger = LoggerFactory.getLogger(HttpResponseImpl.class);
 
@@ -89,28 +98,85 @@ final class HttpResponseImpl implements HttpResponse
 	/**
 	 * Construct a HttpResponse object.
 	 * 
-	 * @param connection
-	 *            The opened connection, ready to receive the response. If this argument is null,
+	 * @param head
+	 *            The status line and headers of the received response. If this argument is null,
 	 *            the object created will have no content and its status will be
 	 *            HttpStatus.SERVER_TIMEOUT.
+	 * @param body
+	 *            The stream to read the response body from. This stream is read up to its end,
+	 *            or closed if an error occurs.
 	 */
-	HttpResponseImpl(HttpURLConnection connection, String[] accept)
+	HttpResponseImpl(HttpResponseHead head, InputStream body, String[] accept)
 	{
-		if (connection == null)
+		this(head, body, accept, false);
+	}
+
+
+
+
+
+
+	/**
+	 * Construct a HttpResponse object for a request that has not been sent. The object created
+	 * has no content.
+	 * 
+	 * @param status
+	 *            The reason why the request has not been sent, such as HttpStatus.CIRCUIT_OPEN.
+	 * @param request
+	 *            The request that has not been sent.
+	 */
+	HttpResponseImpl(HttpStatus status, HttpRequest request)
+	{
+		requestedURL = request.getURL();
+		requestMethod = request.getMethod().toString();
+		this.status = status;
+		contentLength = 0;
+		contentOffset = 0;
+		resourceLength = -1;
+		content = new byte[0];
+		contentType = null;
+		isAcceptable = false;
+		charset = null;
+	}
+
+
+
+
+
+
+	/**
+	 * Construct a HttpResponse object.
+	 * 
+	 * @param head
+	 *            The status line and headers of the received response. If this argument is null,
+	 *            the object created will have no content and its status will be
+	 *            HttpStatus.SERVER_TIMEOUT.
+	 * @param body
+	 *            The stream to read the response body from.
+	 * @param streamed
+	 *            If true, the response body is not read by this constructor, but by the caller
+	 *            through getContentStream(). Otherwise, the stream is read up to its end, or
+	 *            closed if an error occurs.
+	 */
+	HttpResponseImpl(HttpResponseHead head, InputStream body, String[] accept, boolean streamed)
+	{
+		if (head == null)
 		{
 			requestedURL = null;
 			requestMethod = null;
+			contentLength = 0;
+			contentOffset = 0;
+			resourceLength = -1;
 			content = new byte[0];
 			status = HttpStatus.SERVER_TIMEOUT;
 			contentType = null;
 			isAcceptable = false;
 			charset = null;
-			contentAsJSON = null;
 		}
 		else
 		{
-			requestedURL = connection.getURL();
-			requestMethod = connection.getRequestMethod();
+			requestedURL = head.getURL();
+			requestMethod = head.getRequestMethod();
 
 			if (logger.isDebugEnabled())
 			{
@@ -118,141 +184,133 @@ final class HttpResponseImpl implements HttpResponse
 					.toString());
 			}
 
-			try
+			int statusCode = head.getResponseCode();
+			status = HttpStatus.valueof(statusCode);
+			if (status == null)
 			{
-				int statusCode = connection.getResponseCode();
-				status = HttpStatus.valueof(statusCode);
-				if (status == null)
-				{
-					logger.error("{} {}: Unsupported HTTP status code: {}", connection
-						.getRequestMethod(), requestedURL.toString(), statusCode);
-				}
-				else if (logger.isDebugEnabled())
-				{
-					logger
-						.debug("{} {}: HTTP status code: {}, HttpStatus={}.", connection
-							.getRequestMethod(), requestedURL.toString(), statusCode, status
-							.toString());
-				}
+				logger.error("{} {}: Unsupported HTTP status code: {}", requestMethod, requestedURL
+					.toString(), statusCode);
 			}
-			catch (IOException e)
+			else if (logger.isDebugEnabled())
 			{
-				logger.error(
-					"{} {}: cannot get HTTP status code.",
-					connection.getRequestMethod(),
-					requestedURL.toString(),
-					e);
+				logger.debug("{} {}: HTTP status code: {}, HttpStatus={}.", requestMethod,
+					requestedURL.toString(), statusCode, status.toString());
 			}
 
-			contentType = connection.getContentType();
+			contentType = head.getContentType();
 			charset = readContentCharset();
 			isAcceptable = computeResponseAcceptablity(accept);
 
-			long expectedContentLength = connection.getContentLengthLong();
+			long[] contentRange = head.getContentRange();
+			if (statusCode == 206
+				&& contentRange != null && contentRange[0] >= 0)
+			{
+				contentOffset = contentRange[0];
+			}
+			else
+			{
+				contentOffset = 0;
+			}
+
+			if (contentRange != null
+				&& (statusCode == 206 || statusCode == 416))
+			{
+				resourceLength = contentRange[2];
+			}
+			else if (statusCode == 200
+				&& head.getContentEncoding() == null)
+			{
+				resourceLength = head.getContentLengthLong();
+			}
+			else
+			{
+				resourceLength = -1;
+			}
+
+			// Responses to HEAD requests announce the length of a content they do not have.
+			long expectedContentLength = head.hasBody() ? head.getContentLengthLong() : 0;
+			boolean decoded = body != null && isContentDecoded(head);
+			if (decoded)
+			{
+				// Length of the decoded content cannot be known before it is read.
+				expectedContentLength = -1;
+				body = ContentEncoding.decode(head.getContentEncoding(), body);
+			}
+
+			contentLength = expectedContentLength;
 
 			if (logger.isDebugEnabled())
 			{
 				logger.debug(
 					"{} {}: Content-Type: {}.",
-					connection.getRequestMethod(),
+					requestMethod,
 					requestedURL.toString(),
 					contentType);
 
 				logger.debug(
 					"{} {}: Content-Length: {}.",
-					connection.getRequestMethod(),
+					requestMethod,
 					requestedURL.toString(),
 					expectedContentLength);
 
 				logger.debug(
 					"{} {}: Content-Encoding: {}.",
-					connection.getRequestMethod(),
+					requestMethod,
 					requestedURL.toString(),
-					connection.getContentEncoding());
+					head.getContentEncoding());
+			}
+
+			if (streamed)
+			{
+				// Content is read by the caller, from the stream.
+				readHeaders(head, decoded);
+				contentStream = body;
+				return;
 			}
 
 			if (expectedContentLength > Integer.MAX_VALUE)
 			{
 				logger.error(
 					"{} {}: Content is too big: {} bytes (max supported content length is {}).",
-					connection.getRequestMethod(),
+					requestMethod,
 					requestedURL.toString(),
 					expectedContentLength,
 					Integer.MAX_VALUE);
 
+				closeQuietly(body);
 				content = new byte[0];
 				status = HttpStatus.WRONG_LENGTH;
-				contentAsJSON = null;
 				return;
 			}
 
-			if (expectedContentLength == -1)
-			{
-				content = new byte[0];
-			}
-			else
-			{
-				content = new byte[(int) expectedContentLength];
-			}
-
-			Object _contentAsJSON = null;
-
 			try
 			{
-				if (status == HttpStatus.OK)
+				if (status == HttpStatus.OK
+					|| status == HttpStatus.PARTIAL_CONTENT)
 				{
-					long totalLength = readContent(connection.getInputStream());
+					long totalLength = readContent(body, expectedContentLength);
 
 					if (totalLength != expectedContentLength
 						&& expectedContentLength != -1)
 					{
 						status = HttpStatus.WRONG_LENGTH;
 					}
-					else
-					{
-						logger.debug("{} {}: Testing for JSON content...", connection
-							.getRequestMethod(), requestedURL.toString());
-
-						if (contentType != null
-							&& contentType.toLowerCase().matches(".*json.*"))
-						{
-							try
-							{
-								_contentAsJSON = parseContentAsJSON();
-							}
-							catch (JSONException e)
-							{
-								logger.error("{} {}: Content-Type announce a JSON content, but "
-									+ "content cannot be parsed as JSON", connection
-									.getRequestMethod(), requestedURL.toString(), e);
-
-							}
-							catch (Exception e)
-							{
-								logger.error("{} {}: Unexpected Exception.", connection
-									.getRequestMethod(), requestedURL.toString(), e);
-							}
-						}
-
-					}
 				}
 				else
 				{
-					readContent(connection.getErrorStream());
+					readContent(body, expectedContentLength);
 				}
 
-				readHeaders(connection);
+				readHeaders(head, decoded);
 			}
 			catch (IOException e)
 			{
+				closeQuietly(body);
 				content = new byte[0];
 				status = HttpStatus.SERVER_TIMEOUT;
 
-				logger.error("{} {}: Cannot get content.", connection
-					.getRequestMethod(), requestedURL.toString(), e);
+				logger.error("{} {}: Cannot get content.", requestMethod, requestedURL.toString(), e);
 			}
-
-			contentAsJSON = _contentAsJSON;
 		}
 	}
 
@@ -264,6 +322,15 @@ final class HttpResponseImpl implements HttpResponse
 	@Override
 	public byte[] getContent()
 	{
+		byte[] content = readRemainingContent();
+
+		// Callers of a shared response may modify the array they get: each of them gets its own.
+		if (shared
+			&& content.length > 0)
+		{
+			return content.clone();
+		}
+
 		return content;
 	}
 
@@ -275,6 +342,8 @@ final class HttpResponseImpl implements HttpResponse
 	@Override
 	public String getContentAsString()
 	{
+		byte[] content = readRemainingContent();
+
 		if (charset != null)
 		{
 			return new String(content, charset);
@@ -289,16 +358,19 @@ final class HttpResponseImpl implements HttpResponse
 
 
 	@Override
-	public Object getContentAsJSON()
+	public synchronized Object getContentAsJSON()
 	{
-		if (contentAsJSON == null)
+		// Callers of a shared response may modify the tree they get: each of them gets its own.
+		if (shared)
 		{
-			try
-			{
-				parseContentAsJSON();
-			}
-			catch (JSONException e)
-			{}
+			return readContentAsJSON();
+		}
+
+		// Content is parsed on first call only, parsing failures included.
+		if (!contentParsedAsJSON)
+		{
+			contentParsedAsJSON = true;
+			contentAsJSON = readContentAsJSON();
 		}
 
 		return contentAsJSON;
@@ -356,6 +428,11 @@ final class HttpResponseImpl implements HttpResponse
 	@Override
 	public int getContentLength()
 	{
+		if (isStreamed())
+		{
+			return (contentLength > Integer.MAX_VALUE) ? -1 : (int) contentLength;
+		}
+
 		return content.length;
 	}
 
@@ -364,6 +441,75 @@ final class HttpResponseImpl implements HttpResponse
 
 
 
+	@Override
+	public long getContentLengthLong()
+	{
+		if (isStreamed())
+		{
+			return contentLength;
+		}
+
+		return content.length;
+	}
+
+
+
+
+
+
+	@Override
+	public long getContentOffset()
+	{
+		return contentOffset;
+	}
+
+
+
+
+
+
+	@Override
+	public long getResourceLength()
+	{
+		return resourceLength;
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized InputStream getContentStream()
+	{
+		if (isStreamed())
+		{
+			return contentStream;
+		}
+
+		// Each caller of a buffered response reads and closes its own stream.
+		return new ByteArrayInputStream(content);
+	}
+
+
+
+
+
+
+	@Override
+	public synchronized void close()
+	{
+		if (contentStream != null)
+		{
+			closeQuietly(contentStream);
+		}
+	}
+
+
+
+
+
+
 	@Override
 	public HttpStatus getStatus()
 	{
@@ -386,28 +532,110 @@ final class HttpResponseImpl implements HttpResponse
 
 
 
-	private long readContent(InputStream stream) throws IOException
+	/**
+	 * @param metrics
+	 *            the measures of the request, completed with the parsing time of the content.
+	 */
+	synchronized void setMetrics(RequestMetrics metrics)
 	{
-		int totalLength = 0;
-		if (stream != null)
+		this.metrics = metrics;
+	}
+
+
+
+
+
+
+	/**
+	 * Mark this response as shared by several callers, such as coalesced requests: its JSON tree
+	 * is no longer kept, but built for each call of getContentAsJSON().
+	 */
+	synchronized void setShared()
+	{
+		shared = true;
+	}
+
+
+
+
+
+
+	private synchronized boolean isStreamed()
+	{
+		return content == null;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the response content. For a streamed response, the part of the content that has not
+	 *         been read from the stream yet is read first.
+	 */
+	private synchronized byte[] readRemainingContent()
+	{
+		if (content == null)
 		{
-			int readLength = -1;
-			byte[] buffer = new byte[1024];
-			while ((readLength = stream.read(buffer, 0, 1024)) > 0)
+			try
 			{
-				int newLength = totalLength
-					+ readLength;
-
-				if (content.length < newLength)
-				{
-					content = Arrays.copyOf(content, newLength);
-				}
-				System.arraycopy(buffer, 0, content, totalLength, readLength);
-				totalLength = newLength;
+				readContent(contentStream, contentLength);
+			}
+			catch (IOException e)
+			{
+				content = new byte[0];
+				logger.error("{} {}: Cannot get content.", requestMethod, requestedURL, e);
+			}
+			finally
+			{
+				closeQuietly(contentStream);
 			}
+
+			contentStream = null;
 		}
 
-		return totalLength;
+		return content;
+	}
+
+
+
+
+
+
+	private long readContent(InputStream stream, long expectedLength) throws IOException
+	{
+		content = (stream == null) ? new byte[0] : ContentReader.read(stream, expectedLength);
+		return content.length;
+	}
+
+
+
+
+
+
+	private void readHeaders(HttpResponseHead head, boolean decoded)
+	{
+		headers.putAll(head.getHeaderFields());
+
+		if (decoded)
+		{
+			// Headers describe the content as client code receives it, i.e. decoded.
+			headers.remove("Content-Encoding");
+			headers.remove("Content-Length");
+		}
+	}
+
+
+
+
+
+
+	private boolean isContentDecoded(HttpResponseHead head)
+	{
+		return head.getRequest() != null
+			&& head.getRequest().isContentDecoded() && head.hasBody()
+			&& ContentEncoding.isSupported(head.getContentEncoding());
 	}
 
 
@@ -415,15 +643,14 @@ final class HttpResponseImpl implements HttpResponse
 
 
 
-	private void readHeaders(HttpURLConnection connection)
+	private void closeQuietly(InputStream stream)
 	{
-		int index = 1;
-		String headerName = null;
-		while ((headerName = connection.getHeaderFieldKey(index)) != null)
+		try
 		{
-			headers.put(headerName, connection.getHeaderField(index));
-			index++;
+			stream.close();
 		}
+		catch (IOException e)
+		{}
 	}
 
 
@@ -511,24 +738,125 @@ final class HttpResponseImpl implements HttpResponse
 
 
 
+	private boolean isContentTypeJSON()
+	{
+		return contentType != null
+			&& contentType.toLowerCase().contains("json");
+	}
+
+
+
+
+
+
+	/**
+	 * @return the JSON tree of the content, or null if the content is not JSON formatted.
+	 */
+	private Object readContentAsJSON()
+	{
+		Object json = null;
+		long start = System.nanoTime();
+
+		try
+		{
+			json = parseContentAsJSON();
+		}
+		catch (JSONException e)
+		{
+			if (isContentTypeJSON())
+			{
+				logger.error("{} {}: Content-Type announce a JSON content, but content cannot "
+					+ "be parsed as JSON", requestMethod, requestedURL, e);
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("{} {}: Unexpected Exception.", requestMethod, requestedURL, e);
+		}
+
+		if (metrics != null)
+		{
+			metrics.contentParsed(System.nanoTime()
+				- start);
+		}
+
+		return json;
+	}
+
+
+
+
+
+
+	/**
+	 * Parse the content directly from its bytes, without decoding it as a String first. Content of
+	 * a streamed response that has not been read yet is parsed directly from the stream, then
+	 * discarded.
+	 */
 	private Object parseContentAsJSON() throws JSONException
 	{
 		logger.debug("Parsing JSON content...");
 
-		String ctnt = getContentAsString().trim();
-		if (!ctnt.isEmpty())
+		InputStream stream = isStreamed() ? contentStream : new ByteArrayInputStream(content);
+
+		try
 		{
-			if (ctnt.charAt(0) == '{')
+			Charset _charset = (charset != null) ? charset : Charset.defaultCharset();
+			JSONTokener tokener = new JSONTokener(new InputStreamReader(stream, _charset));
+
+			char firstCharacter = tokener.nextClean();
+			if (firstCharacter == 0)
 			{
-				return new JSONObject(ctnt);
+				return null;
+			}
+
+			tokener.back();
+			if (firstCharacter == '{')
+			{
+				return new JSONObject(tokener);
 			}
 			else
 			{
-				return new JSONArray(ctnt);
+				return new JSONArray(tokener);
+			}
+		}
+		finally
+		{
+			if (isStreamed())
+			{
+				discardRemainingContent();
 			}
 		}
+	}
 
-		return null;
+
+
+
+
+
+	/**
+	 * Read a streamed response content up to its end and drop it, so that the connection it is
+	 * received on can be reused.
+	 */
+	private synchronized void discardRemainingContent()
+	{
+		try
+		{
+			byte[] buffer = new byte[4096];
+			while (contentStream.read(buffer) != -1)
+			{}
+		}
+		catch (IOException e)
+		{
+			logger.debug("{} {}: Cannot read content up to its end.", requestMethod, requestedURL);
+		}
+		finally
+		{
+			closeQuietly(contentStream);
+		}
+
+		content = new byte[0];
+		contentStream = null;
 	}
 
 
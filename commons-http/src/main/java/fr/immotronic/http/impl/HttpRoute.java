@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+
+
+
+/**
+ * The target of a connection: a host, a port, whether TLS is used, and the proxy, if any, used to
+ * reach them. Two requests that share the same route can share the same persistent connections.
+ */
+final class HttpRoute
+{
+	private final String host;
+	private final int port;
+	private final boolean secure;
+	private final Proxy proxy;
+
+
+
+
+
+
+	HttpRoute(String host, int port, boolean secure, Proxy proxy)
+	{
+		this.host = host.toLowerCase();
+		this.port = port;
+		this.secure = secure;
+		this.proxy = (proxy == null) ? Proxy.NO_PROXY : proxy;
+	}
+
+
+
+
+
+
+	/**
+	 * Build the route to use to reach the given URL, according to the JVM default proxy selector.
+	 * 
+	 * @param url
+	 *            the requested URL.
+	 * @return the route to the URL host.
+	 */
+	static HttpRoute of(URL url)
+	{
+		int port = url.getPort();
+		if (port == -1)
+		{
+			port = url.getDefaultPort();
+		}
+
+		return new HttpRoute(
+			url.getHost(),
+			port,
+			url.getProtocol().equalsIgnoreCase("https"),
+			selectProxy(url));
+	}
+
+
+
+
+
+
+	String getHost()
+	{
+		return host;
+	}
+
+
+
+
+
+
+	int getPort()
+	{
+		return port;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if connections on this route are secured by TLS.
+	 */
+	boolean isSecure()
+	{
+		return secure;
+	}
+
+
+
+
+
+
+	Proxy getProxy()
+	{
+		return proxy;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if requests on this route are sent to an HTTP proxy, and so must use the
+	 *         absolute form of the request target.
+	 */
+	boolean isProxied()
+	{
+		return proxy.type() == Proxy.Type.HTTP
+			&& !secure;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if connections on this route go through a tunnel opened by an HTTP proxy
+	 *         with the CONNECT method. Requests are then sent as if the connection was direct.
+	 */
+	boolean isTunneled()
+	{
+		return proxy.type() == Proxy.Type.HTTP
+			&& secure;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the address the socket of this route must connect to: the HTTP proxy address if
+	 *         any, the target host address otherwise.
+	 */
+	InetSocketAddress getConnectAddress()
+	{
+		if (proxy.type() == Proxy.Type.HTTP)
+		{
+			InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+			if (proxyAddress.isUnresolved())
+			{
+				return new InetSocketAddress(proxyAddress.getHostName(), proxyAddress.getPort());
+			}
+
+			return proxyAddress;
+		}
+
+		return new InetSocketAddress(host, port);
+	}
+
+
+
+
+
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+
+		if (!(o instanceof HttpRoute))
+		{
+			return false;
+		}
+
+		HttpRoute route = (HttpRoute) o;
+		return port == route.port
+			&& secure == route.secure && host.equals(route.host) && proxy.equals(route.proxy);
+	}
+
+
+
+
+
+
+	@Override
+	public int hashCode()
+	{
+		return ((host.hashCode() * 31 + port) * 31 + (secure ? 1 : 0)) * 31 + proxy.hashCode();
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		String target = (secure ? "https://" : "")
+			+ host + ":" + port;
+
+		if (proxy.type() == Proxy.Type.DIRECT)
+		{
+			return target;
+		}
+
+		return target
+			+ " via " + proxy;
+	}
+
+
+
+
+
+
+	private static Proxy selectProxy(URL url)
+	{
+		ProxySelector selector = ProxySelector.getDefault();
+		if (selector != null)
+		{
+			try
+			{
+				List<Proxy> proxies = selector.select(url.toURI());
+				if (proxies != null
+					&& !proxies.isEmpty())
+				{
+					return proxies.get(0);
+				}
+			}
+			catch (URISyntaxException e)
+			{
+				// Such an URL cannot match any proxy rule. A direct connection is used.
+			}
+		}
+
+		return Proxy.NO_PROXY;
+	}
+}
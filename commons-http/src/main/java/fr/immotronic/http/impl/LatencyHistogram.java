@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fr.immotronic.commons.http.HttpLatencyHistogram;
+
+
+
+/**
+ * A lock-free histogram of durations, in microseconds, with log-linear buckets: each power of two
+ * range is split into 32 buckets, so that recorded values are known with a relative precision of
+ * about 3% whatever their magnitude, in a fixed amount of memory.
+ */
+final class LatencyHistogram
+{
+	/** Number of bits of a value kept by its bucket. */
+	private static final int PRECISION_BITS = 6;
+	private static final int HALF_BUCKET_COUNT = 1 << (PRECISION_BITS - 1);
+
+	/** Values are capped to about 12 days. */
+	private static final long MAX_VALUE = (1L << 40) - 1;
+	private static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+
+
+
+
+
+	LatencyHistogram()
+	{
+		counts = new AtomicLongArray(BUCKET_COUNT);
+	}
+
+
+
+
+
+
+	/**
+	 * @param value
+	 *            a duration, in microseconds. Negative values are ignored.
+	 */
+	void record(long value)
+	{
+		if (value < 0)
+		{
+			return;
+		}
+
+		value = Math.min(value, MAX_VALUE);
+
+		counts.incrementAndGet(getIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long _min;
+		while (value < (_min = min.get())
+			&& !min.compareAndSet(_min, value))
+		{}
+
+		long _max;
+		while (value > (_max = max.get())
+			&& !max.compareAndSet(_max, value))
+		{}
+	}
+
+
+
+
+
+
+	/**
+	 * @return a copy of the current distribution. Values recorded while the copy is made may be
+	 *         partially taken into account.
+	 */
+	HttpLatencyHistogram getSnapshot()
+	{
+		long[] _counts = new long[BUCKET_COUNT];
+		long _count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			_counts[i] = counts.get(i);
+			_count += _counts[i];
+		}
+
+		return new Snapshot(_counts, _count, sum.get(), (_count == 0) ? 0 : min.get(), max.get());
+	}
+
+
+
+
+
+
+	/**
+	 * @return the index of the bucket of the given value: values up to 63 have their own bucket,
+	 *         then each power of two range is split into 32 buckets.
+	 */
+	private static int getIndex(long value)
+	{
+		int shift = 64
+			- Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+
+		if (shift <= 0)
+		{
+			return (int) value;
+		}
+
+		return (int) ((shift + 1) * HALF_BUCKET_COUNT + (value >>> shift) - HALF_BUCKET_COUNT);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the highest value of the given bucket.
+	 */
+	private static long getHighestValue(int index)
+	{
+		if (index < 2 * HALF_BUCKET_COUNT)
+		{
+			return index;
+		}
+
+		int shift = index
+			/ HALF_BUCKET_COUNT - 1;
+		long subBucket = index
+			- shift * HALF_BUCKET_COUNT;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+
+
+
+
+
+	private static final class Snapshot implements HttpLatencyHistogram
+	{
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+
+
+
+
+
+
+		Snapshot(long[] counts, long count, long sum, long min, long max)
+		{
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+		}
+
+
+
+
+
+
+		@Override
+		public long getCount()
+		{
+			return count;
+		}
+
+
+
+
+
+
+		@Override
+		public long getMin()
+		{
+			return min;
+		}
+
+
+
+
+
+
+		@Override
+		public long getMax()
+		{
+			return max;
+		}
+
+
+
+
+
+
+		@Override
+		public double getMean()
+		{
+			return (count == 0) ? 0 : (double) sum / count;
+		}
+
+
+
+
+
+
+		@Override
+		public long getValueAtPercentile(double percentile)
+		{
+			if (count == 0)
+			{
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+			rank = Math.max(1, rank);
+
+			long cumulated = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				cumulated += counts[i];
+				if (cumulated >= rank)
+				{
+					return Math.max(min, Math.min(max, getHighestValue(i)));
+				}
+			}
+
+			return max;
+		}
+
+
+
+
+
+
+		@Override
+		public String toString()
+		{
+			return "count="
+				+ count + ", min=" + min + ", p50=" + getValueAtPercentile(50) + ", p90="
+				+ getValueAtPercentile(90) + ", p99=" + getValueAtPercentile(99) + ", p999="
+				+ getValueAtPercentile(99.9) + ", max=" + max + " (us)";
+		}
+	}
+}
@@ -0,0 +1,824 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpProtocol;
+
+
+
+/**
+ * A non-blocking HTTP/1.1 engine that performs asynchronous requests with a few selector threads,
+ * instead of blocking one thread per request.
+ * 
+ * Requests to a given route are always handled by the same selector thread, which owns the
+ * connections to that route: this way, all connection and request states are confined to one
+ * thread and need no synchronization. Up to maxConnectionsPerRoute requests to a route are in
+ * progress at the same time, next ones wait in a queue for a connection to be free. Persistent
+ * connections are kept idle for idleTimeout milliseconds.
+ * 
+ * Callbacks are invoked on the selector threads: they MUST return quickly and never block.
+ */
+final class NioHttpEngine
+{
+	/**
+	 * Receive the outcome of a request performed by the engine.
+	 */
+	interface ResponseCallback
+	{
+		void completed(HttpResponseHead head, byte[] body);
+
+
+
+
+
+
+		/**
+		 * @param sent
+		 *            true if the request may have been received by the server, false if it has
+		 *            not been sent at all.
+		 */
+		void failed(IOException e, boolean sent);
+	}
+
+	private static final int READ_BUFFER_SIZE = 65536;
+	private static final long TIMEOUT_CHECK_PERIOD = 100;
+
+	private final SelectorLoop[] loops;
+	private final int maxConnectionsPerRoute;
+	private final long idleTimeout;
+	private final AtomicInteger inFlightRequests = new AtomicInteger();
+	private volatile boolean running = true;
+
+	final Logger logger = LoggerFactory.getLogger(NioHttpEngine.class);
+
+
+
+
+
+
+	/**
+	 * Construct the engine and start its selector threads.
+	 * 
+	 * @param name
+	 *            the prefix of the selector threads names.
+	 * @param selectorThreads
+	 *            the number of selector threads.
+	 * @param maxConnectionsPerRoute
+	 *            the maximum number of connections to the same route.
+	 * @param idleTimeout
+	 *            the time, in milliseconds, after which an idle persistent connection is closed.
+	 * @throws IOException
+	 *             if selectors cannot be opened.
+	 */
+	NioHttpEngine(	String name,
+					int selectorThreads,
+					int maxConnectionsPerRoute,
+					long idleTimeout) throws IOException
+	{
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.idleTimeout = idleTimeout;
+
+		loops = new SelectorLoop[Math.max(1, selectorThreads)];
+		for (int i = 0; i < loops.length; i++)
+		{
+			loops[i] = new SelectorLoop(Selector.open());
+
+			Thread thread = new Thread(loops[i], name
+				+ "-selector-" + (i + 1));
+
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if this engine can perform the given request. Routes through a SOCKS proxy and
+	 *         HTTPS routes are not supported, nor are contents read from a file or a stream, which
+	 *         reads would block the selector thread. HTTP/2 requests are left to the HTTP/2
+	 *         connections, which already multiplex them.
+	 */
+	boolean supports(HttpRequest request)
+	{
+		return request.getRoute().getProxy().type() != Proxy.Type.SOCKS
+			&& !request.getRoute().isSecure() && request.isContentInMemory()
+			&& request.getPolicy().getProtocol() != HttpProtocol.HTTP_2;
+	}
+
+
+
+
+
+
+	/**
+	 * Perform a request. This method returns once the host name has been resolved; the callback is
+	 * invoked once the response has been entirely received, or if the request fails. Connection
+	 * and read timeouts are those of the request policy.
+	 * 
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, at which the request fails if its
+	 *            response has not been entirely received, or Long.MAX_VALUE.
+	 * @param metrics
+	 *            the measures of the request, ended before the callback is invoked, or null.
+	 */
+	void execute(	HttpRequest request,
+					long deadline,
+					RequestMetrics metrics,
+					ResponseCallback callback)
+	{
+		HttpRoute route = request.getRoute();
+
+		if (!running)
+		{
+			callback.failed(new IOException("HTTP engine has been stopped."), false);
+			return;
+		}
+
+		if (!supports(request))
+		{
+			callback.failed(new IOException(request
+				+ ": request on route " + route + " is not supported."), false);
+			return;
+		}
+
+		NioHttpExchange exchange = new NioHttpExchange(request, route, deadline, metrics, callback);
+
+		inFlightRequests.incrementAndGet();
+
+		int index = (route.hashCode() & Integer.MAX_VALUE) % loops.length;
+		loops[index].submit(exchange);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests submitted and not completed yet.
+	 */
+	int getInFlightRequests()
+	{
+		return inFlightRequests.get();
+	}
+
+
+
+
+
+
+	/**
+	 * Stop the selector threads. Requests in progress fail.
+	 */
+	void shutdown()
+	{
+		running = false;
+
+		for (SelectorLoop loop : loops)
+		{
+			loop.selector.wakeup();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A connection owned by a selector thread.
+	 */
+	private static final class Connection
+	{
+		final HttpRoute route;
+		final SocketChannel channel;
+		SelectionKey key;
+		NioHttpExchange exchange = null;
+		boolean reused = false;
+		long expiry = Long.MAX_VALUE;
+
+
+
+
+
+
+		Connection(HttpRoute route, SocketChannel channel)
+		{
+			this.route = route;
+			this.channel = channel;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The connections and the requests waiting for one, for a given route.
+	 */
+	private static final class RouteState
+	{
+		final Deque<Connection> idle = new ArrayDeque<Connection>();
+		final Deque<NioHttpExchange> pending = new ArrayDeque<NioHttpExchange>();
+		int openConnections = 0;
+	}
+
+
+
+
+
+
+	private final class SelectorLoop implements Runnable
+	{
+		final Selector selector;
+		final Queue<NioHttpExchange> submissions = new ConcurrentLinkedQueue<NioHttpExchange>();
+		final Map<HttpRoute, RouteState> routes = new HashMap<HttpRoute, RouteState>();
+		final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		long nextTimeoutCheck = 0;
+
+
+
+
+
+
+		SelectorLoop(Selector selector)
+		{
+			this.selector = selector;
+		}
+
+
+
+
+
+
+		void submit(NioHttpExchange exchange)
+		{
+			submissions.add(exchange);
+			selector.wakeup();
+		}
+
+
+
+
+
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (running)
+				{
+					selector.select(TIMEOUT_CHECK_PERIOD);
+
+					NioHttpExchange exchange;
+					while ((exchange = submissions.poll()) != null)
+					{
+						dispatch(exchange);
+					}
+
+					Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+					while (i.hasNext())
+					{
+						SelectionKey key = i.next();
+						i.remove();
+
+						if (key.isValid())
+						{
+							handle(key);
+						}
+					}
+
+					checkTimeouts();
+				}
+			}
+			catch (IOException e)
+			{
+				logger.error("HTTP selector loop failed.", e);
+			}
+			catch (ClosedSelectorException e)
+			{
+				logger.error("HTTP selector loop failed.", e);
+			}
+			finally
+			{
+				terminate();
+			}
+		}
+
+
+
+
+
+
+		private void dispatch(NioHttpExchange exchange)
+		{
+			RouteState routeState = routes.get(exchange.getRoute());
+			if (routeState == null)
+			{
+				routeState = new RouteState();
+				routes.put(exchange.getRoute(), routeState);
+			}
+
+			Connection connection = routeState.idle.pollFirst();
+			if (connection != null)
+			{
+				begin(connection, exchange);
+			}
+			else if (routeState.openConnections < maxConnectionsPerRoute)
+			{
+				connect(routeState, exchange);
+			}
+			else
+			{
+				exchange.stopTimer();
+				routeState.pending.addLast(exchange);
+			}
+		}
+
+
+
+
+
+
+		private void connect(RouteState routeState, NioHttpExchange exchange)
+		{
+			if (exchange.getAddress().isUnresolved())
+			{
+				fail(exchange, new UnknownHostException(exchange.getAddress().getHostName()));
+				return;
+			}
+
+			SocketChannel channel = null;
+			try
+			{
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				channel.socket().setKeepAlive(true);
+
+				exchange.start();
+
+				Connection connection = new Connection(exchange.getRoute(), channel);
+				connection.exchange = exchange;
+
+				exchange.connectionStarting();
+				if (channel.connect(exchange.getAddress()))
+				{
+					exchange.connectionEstablished();
+					exchange.startTimer(false);
+					connection.key = channel.register(selector, SelectionKey.OP_WRITE, connection);
+				}
+				else
+				{
+					exchange.startTimer(true);
+					connection.key = channel
+						.register(selector, SelectionKey.OP_CONNECT, connection);
+				}
+
+				routeState.openConnections++;
+			}
+			catch (IOException e)
+			{
+				if (channel != null)
+				{
+					closeQuietly(channel);
+				}
+
+				fail(exchange, e);
+			}
+		}
+
+
+
+
+
+
+		private void begin(Connection connection, NioHttpExchange exchange)
+		{
+			connection.exchange = exchange;
+			connection.reused = true;
+
+			try
+			{
+				exchange.start();
+				exchange.connectionReused();
+				exchange.startTimer(false);
+
+				connection.key.interestOps(SelectionKey.OP_WRITE);
+			}
+			catch (IOException e)
+			{
+				close(connection);
+				fail(exchange, e);
+			}
+		}
+
+
+
+
+
+
+		private void handle(SelectionKey key)
+		{
+			Connection connection = (Connection) key.attachment();
+			NioHttpExchange exchange = connection.exchange;
+
+			if (exchange == null)
+			{
+				// An idle connection became readable: the server closed it or sent unexpected
+				// data. In both cases, it cannot be reused.
+				routes.get(connection.route).idle.remove(connection);
+				close(connection);
+				return;
+			}
+
+			try
+			{
+				if (key.isConnectable())
+				{
+					connection.channel.finishConnect();
+					exchange.connectionEstablished();
+					exchange.startTimer(false);
+					key.interestOps(SelectionKey.OP_WRITE);
+				}
+				else if (key.isWritable())
+				{
+					connection.channel.write(exchange.getRequestBuffers());
+					if (exchange.isRequestWritten())
+					{
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+				else if (key.isReadable())
+				{
+					read(connection, exchange);
+				}
+			}
+			catch (IOException e)
+			{
+				close(connection);
+				retryOrFail(connection, exchange, e);
+			}
+		}
+
+
+
+
+
+
+		private void read(Connection connection, NioHttpExchange exchange) throws IOException
+		{
+			readBuffer.clear();
+			int readLength = connection.channel.read(readBuffer);
+
+			if (readLength == -1)
+			{
+				if (exchange.receiveEndOfStream())
+				{
+					close(connection);
+					complete(connection, exchange, false);
+				}
+
+				return;
+			}
+
+			readBuffer.flip();
+			exchange.startTimer(false);
+
+			if (exchange.receive(readBuffer))
+			{
+				complete(connection, exchange, !readBuffer.hasRemaining());
+			}
+		}
+
+
+
+
+
+
+		private void complete(Connection connection, NioHttpExchange exchange, boolean reusable)
+		{
+			HttpResponseHead head = exchange.getResponseHead();
+			RouteState routeState = routes.get(connection.route);
+			connection.exchange = null;
+
+			if (reusable
+				&& head.isPersistent() && connection.channel.isOpen())
+			{
+				long timeout = idleTimeout;
+				long keepAliveTimeout = head.getKeepAliveTimeout();
+				if (keepAliveTimeout >= 0
+					&& keepAliveTimeout < timeout)
+				{
+					timeout = keepAliveTimeout;
+				}
+
+				connection.expiry = System.currentTimeMillis()
+					+ timeout;
+
+				NioHttpExchange next = routeState.pending.pollFirst();
+				if (next != null)
+				{
+					begin(connection, next);
+				}
+				else
+				{
+					// Idle connections are watched for reading, to detect servers closing them.
+					connection.key.interestOps(SelectionKey.OP_READ);
+					routeState.idle.addFirst(connection);
+				}
+			}
+			else if (connection.channel.isOpen())
+			{
+				close(connection);
+			}
+
+			inFlightRequests.decrementAndGet();
+			exchange.end();
+
+			try
+			{
+				exchange.getCallback().completed(head, exchange.getResponseBody());
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("{}: response callback failed.", exchange.getRequest(), e);
+			}
+		}
+
+
+
+
+
+
+		private void retryOrFail(Connection connection, NioHttpExchange exchange, IOException e)
+		{
+			if (connection.reused
+				&& !exchange.isResponseStarted() && !exchange.isRetried()
+				&& (!exchange.isRequestStarted() || exchange.getRequest().isResendable()))
+			{
+				// The server closed a persistent connection while the request was sent on it, and
+				// may have processed the request before.
+				logger.debug("{}: Persistent connection closed by server, retrying on a new "
+					+ "connection.", exchange.getRequest());
+
+				exchange.setRetried();
+				dispatch(exchange);
+			}
+			else
+			{
+				fail(exchange, e);
+			}
+		}
+
+
+
+
+
+
+		private void fail(NioHttpExchange exchange, IOException e)
+		{
+			inFlightRequests.decrementAndGet();
+			exchange.end();
+
+			try
+			{
+				exchange.getCallback().failed(e, exchange.isRequestStarted());
+			}
+			catch (RuntimeException re)
+			{
+				logger.error("{}: response callback failed.", exchange.getRequest(), re);
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Close a connection and give its slot to a request waiting for a connection to the same
+		 * route, if any.
+		 */
+		private void close(Connection connection)
+		{
+			if (!connection.channel.isOpen())
+			{
+				return;
+			}
+
+			closeQuietly(connection.channel);
+			connection.exchange = null;
+
+			RouteState routeState = routes.get(connection.route);
+			routeState.openConnections--;
+
+			NioHttpExchange next = routeState.pending.pollFirst();
+			if (next != null)
+			{
+				connect(routeState, next);
+			}
+		}
+
+
+
+
+
+
+		private void checkTimeouts()
+		{
+			long now = System.currentTimeMillis();
+			if (now < nextTimeoutCheck)
+			{
+				return;
+			}
+
+			nextTimeoutCheck = now
+				+ TIMEOUT_CHECK_PERIOD;
+
+			List<Connection> expired = new ArrayList<Connection>();
+			for (SelectionKey key : selector.keys())
+			{
+				if (!key.isValid())
+				{
+					continue;
+				}
+
+				Connection connection = (Connection) key.attachment();
+				if (connection.exchange == null)
+				{
+					if (now >= connection.expiry)
+					{
+						expired.add(connection);
+					}
+				}
+				else if (now >= connection.exchange.getDeadline())
+				{
+					expired.add(connection);
+				}
+			}
+
+			for (Connection connection : expired)
+			{
+				NioHttpExchange exchange = connection.exchange;
+				if (exchange == null)
+				{
+					routes.get(connection.route).idle.remove(connection);
+					close(connection);
+				}
+				else
+				{
+					close(connection);
+					fail(exchange, new SocketTimeoutException(exchange.getRequest()
+						+ ": timeout."));
+				}
+			}
+
+			for (RouteState routeState : routes.values())
+			{
+				Iterator<NioHttpExchange> i = routeState.pending.iterator();
+				while (i.hasNext())
+				{
+					NioHttpExchange exchange = i.next();
+					if (now >= exchange.getDeadline())
+					{
+						i.remove();
+
+						// No connection became available: the server is not to blame.
+						String message = exchange.getRequest()
+							+ ": timeout while waiting for a connection.";
+						fail(exchange, new HttpConnectionPool.LeaseTimeoutException(message));
+					}
+				}
+			}
+		}
+
+
+
+
+
+
+		private void terminate()
+		{
+			IOException e = new IOException("HTTP engine has been stopped.");
+
+			for (SelectionKey key : selector.keys())
+			{
+				Connection connection = (Connection) key.attachment();
+				closeQuietly(connection.channel);
+
+				if (connection.exchange != null)
+				{
+					fail(connection.exchange, e);
+				}
+			}
+
+			for (RouteState routeState : routes.values())
+			{
+				NioHttpExchange exchange;
+				while ((exchange = routeState.pending.pollFirst()) != null)
+				{
+					fail(exchange, e);
+				}
+			}
+
+			NioHttpExchange exchange;
+			while ((exchange = submissions.poll()) != null)
+			{
+				fail(exchange, e);
+			}
+
+			try
+			{
+				selector.close();
+			}
+			catch (IOException ioe)
+			{}
+		}
+	}
+
+
+
+
+
+
+	private static void closeQuietly(SocketChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{}
+	}
+}
@@ -0,0 +1,661 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import fr.immotronic.commons.http.HttpRequestBody;
+
+
+
+/**
+ * The state of a request performed by the NioHttpEngine: the request bytes left to write and the
+ * incremental parser of the response, fed with bytes as they are received.
+ */
+final class NioHttpExchange
+{
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private enum State
+	{
+		HEAD,
+		BODY_FIXED,
+		BODY_UNTIL_CLOSE,
+		CHUNK_SIZE,
+		CHUNK_DATA,
+		CHUNK_END,
+		TRAILER,
+		DONE
+	}
+
+	private final HttpRequest request;
+	private final HttpRoute route;
+	private final NioHttpEngine.ResponseCallback callback;
+	private final RequestMetrics metrics;
+	private final InetSocketAddress address;
+	private final long dnsLookupTime;
+	private long connectStartTime;
+	private long bytesSent;
+	private long bytesReceived;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final long totalDeadline;
+	private ByteBuffer[] requestBuffers;
+	private HttpResponseHead.Parser headParser;
+	private HttpResponseHead head;
+	private State state;
+	private long remaining;
+	private ByteArrayOutputStream line;
+	private ByteArrayOutputStream body;
+	private boolean responseStarted;
+	private boolean retried = false;
+	private long deadline;
+
+
+
+
+
+
+	/**
+	 * @param totalDeadline
+	 *            the time, in milliseconds since the epoch, at which the exchange fails if its
+	 *            response has not been entirely received, or Long.MAX_VALUE.
+	 * @param metrics
+	 *            the measures of the request, or null.
+	 */
+	NioHttpExchange(HttpRequest request,
+					HttpRoute route,
+					long totalDeadline,
+					RequestMetrics metrics,
+					NioHttpEngine.ResponseCallback callback)
+	{
+		this.request = request;
+		this.route = route;
+		this.totalDeadline = totalDeadline;
+		this.metrics = metrics;
+		this.callback = callback;
+
+		connectTimeout = request.getPolicy().getConnectTimeout();
+		readTimeout = request.getPolicy().getReadTimeout();
+		deadline = totalDeadline;
+
+		// Resolved here, in the calling thread, so that selector threads never block on a DNS
+		// lookup.
+		long start = System.nanoTime();
+		address = route.getConnectAddress();
+		dnsLookupTime = System.nanoTime()
+			- start;
+	}
+
+
+
+
+
+
+	HttpRequest getRequest()
+	{
+		return request;
+	}
+
+
+
+
+
+
+	HttpRoute getRoute()
+	{
+		return route;
+	}
+
+
+
+
+
+
+	NioHttpEngine.ResponseCallback getCallback()
+	{
+		return callback;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the address to connect to, unresolved if the host name could not be resolved.
+	 */
+	InetSocketAddress getAddress()
+	{
+		return address;
+	}
+
+
+
+
+
+
+	/**
+	 * Prepare this exchange to be performed, or performed again, on a connection.
+	 */
+	void start() throws IOException
+	{
+		byte[] content = request.getContent();
+		HttpRequestBody requestBody = request.getBody();
+		if (content != null)
+		{
+			requestBuffers = new ByteBuffer[] {
+				ByteBuffer.wrap(request.encodeHead(route)),
+				ByteBuffer.wrap(content) };
+		}
+		else if (requestBody != null)
+		{
+			// The engine only performs requests which content is held in memory.
+			requestBuffers = new ByteBuffer[] {
+				ByteBuffer.wrap(request.encodeHead(route)),
+				requestBody.getBuffer() };
+		}
+		else
+		{
+			requestBuffers = new ByteBuffer[] { ByteBuffer.wrap(request.encodeHead(route)) };
+		}
+
+		bytesSent = 0;
+		for (ByteBuffer buffer : requestBuffers)
+		{
+			bytesSent += buffer.remaining();
+		}
+
+		bytesReceived = 0;
+		headParser = new HttpResponseHead.Parser(request);
+		head = null;
+		state = State.HEAD;
+		remaining = 0;
+		line = new ByteArrayOutputStream(128);
+		body = null;
+		responseStarted = false;
+	}
+
+
+
+
+
+
+	/**
+	 * Record the start of the establishment of a new connection for this exchange.
+	 */
+	void connectionStarting()
+	{
+		connectStartTime = System.nanoTime();
+	}
+
+
+
+
+
+
+	/**
+	 * Record the establishment of the new connection of this exchange: the request sending
+	 * starts.
+	 */
+	void connectionEstablished()
+	{
+		if (metrics != null)
+		{
+			metrics.connectionOpened(dnsLookupTime, System.nanoTime()
+				- connectStartTime, -1);
+			metrics.requestStarted(false);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Record that this exchange is performed on a persistent connection: the request sending
+	 * starts.
+	 */
+	void connectionReused()
+	{
+		if (metrics != null)
+		{
+			metrics.requestStarted(true);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Record the end of this exchange, successful or not.
+	 */
+	void end()
+	{
+		if (metrics != null)
+		{
+			metrics.ended(bytesSent, bytesReceived);
+		}
+	}
+
+
+
+
+
+
+	ByteBuffer[] getRequestBuffers()
+	{
+		return requestBuffers;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if at least one byte of the request has been written, so that the server may
+	 *         have processed it.
+	 */
+	boolean isRequestStarted()
+	{
+		return requestBuffers != null
+			&& requestBuffers[0].position() > 0;
+	}
+
+
+
+
+
+
+	boolean isRequestWritten()
+	{
+		return !requestBuffers[requestBuffers.length - 1].hasRemaining();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if at least one byte of the response has been received.
+	 */
+	boolean isResponseStarted()
+	{
+		return responseStarted;
+	}
+
+
+
+
+
+
+	boolean isRetried()
+	{
+		return retried;
+	}
+
+
+
+
+
+
+	void setRetried()
+	{
+		retried = true;
+	}
+
+
+
+
+
+
+	long getDeadline()
+	{
+		return deadline;
+	}
+
+
+
+
+
+
+	/**
+	 * Start the timer of the next step of the exchange: the establishment of the connection, or
+	 * the reception of the next bytes from the server. The deadline is bounded by the total
+	 * deadline, until the response body has been entirely received.
+	 */
+	void startTimer(boolean connecting)
+	{
+		long _deadline = System.currentTimeMillis()
+			+ (connecting ? connectTimeout : readTimeout);
+
+		deadline = Math.min(_deadline, totalDeadline);
+	}
+
+
+
+
+
+
+	/**
+	 * Stop the timer of the current step, for instance while the exchange waits for a free
+	 * connection: only the total deadline applies.
+	 */
+	void stopTimer()
+	{
+		deadline = totalDeadline;
+	}
+
+
+
+
+
+
+	HttpResponseHead getResponseHead()
+	{
+		return head;
+	}
+
+
+
+
+
+
+	byte[] getResponseBody()
+	{
+		return (body == null) ? new byte[0] : body.toByteArray();
+	}
+
+
+
+
+
+
+	boolean isComplete()
+	{
+		return state == State.DONE;
+	}
+
+
+
+
+
+
+	/**
+	 * Feed the parser with received bytes.
+	 * 
+	 * @param buffer
+	 *            a buffer ready to be read. All its remaining bytes are consumed, unless the
+	 *            response completes before.
+	 * @return true if the response is complete.
+	 * @throws IOException
+	 *             if the response is invalid.
+	 */
+	boolean receive(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.hasRemaining())
+		{
+			responseStarted = true;
+			bytesReceived += buffer.remaining();
+		}
+
+		while (buffer.hasRemaining()
+			&& state != State.DONE)
+		{
+			switch (state)
+			{
+				case HEAD:
+				case CHUNK_SIZE:
+				case CHUNK_END:
+				case TRAILER:
+					String _line = readLine(buffer);
+					if (_line != null)
+					{
+						parseLine(_line);
+					}
+					break;
+
+				case BODY_FIXED:
+				case CHUNK_DATA:
+					int length = (int) Math.min(buffer.remaining(), remaining);
+					body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+					buffer.position(buffer.position()
+						+ length);
+
+					remaining -= length;
+					if (remaining == 0)
+					{
+						state = (state == State.BODY_FIXED) ? State.DONE : State.CHUNK_END;
+					}
+					break;
+
+				case BODY_UNTIL_CLOSE:
+					body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer
+						.remaining());
+					buffer.position(buffer.limit());
+					break;
+
+				default:
+					break;
+			}
+		}
+
+		return state == State.DONE;
+	}
+
+
+
+
+
+
+	/**
+	 * Notify the parser that the server closed the connection.
+	 * 
+	 * @return true if the response is complete.
+	 * @throws IOException
+	 *             if the connection has been closed before the end of the response.
+	 */
+	boolean receiveEndOfStream() throws IOException
+	{
+		if (state == State.BODY_UNTIL_CLOSE)
+		{
+			state = State.DONE;
+			return true;
+		}
+
+		if (state == State.DONE)
+		{
+			return true;
+		}
+
+		throw new EOFException("Connection closed by server before the end of the response.");
+	}
+
+
+
+
+
+
+	private String readLine(ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			byte b = buffer.get();
+			if (b == '\n')
+			{
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length;
+				if (length > 0
+					&& bytes[length - 1] == '\r')
+				{
+					length--;
+				}
+
+				line.reset();
+				return new String(bytes, 0, length, ISO_8859_1);
+			}
+
+			if (line.size() >= HttpResponseHead.MAX_LINE_LENGTH)
+			{
+				throw new IOException("Line is too long (more than "
+					+ HttpResponseHead.MAX_LINE_LENGTH + " bytes).");
+			}
+
+			line.write(b);
+		}
+
+		return null;
+	}
+
+
+
+
+
+
+	private void parseLine(String _line) throws IOException
+	{
+		switch (state)
+		{
+			case HEAD:
+				if (headParser.parseLine(_line))
+				{
+					head = headParser.getHead();
+
+					if (metrics != null)
+					{
+						metrics.responseStarted(head.getResponseCode());
+					}
+
+					startBody();
+				}
+				break;
+
+			case CHUNK_SIZE:
+				int extension = _line.indexOf(';');
+				if (extension != -1)
+				{
+					_line = _line.substring(0, extension);
+				}
+
+				try
+				{
+					remaining = Long.parseLong(_line.trim(), 16);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Invalid chunk size: '"
+						+ _line + "'");
+				}
+
+				if (remaining < 0)
+				{
+					throw new IOException("Invalid chunk size: '"
+						+ _line + "'");
+				}
+
+				state = (remaining == 0) ? State.TRAILER : State.CHUNK_DATA;
+				break;
+
+			case CHUNK_END:
+				state = State.CHUNK_SIZE;
+				break;
+
+			case TRAILER:
+				if (_line.isEmpty())
+				{
+					state = State.DONE;
+				}
+				break;
+
+			default:
+				break;
+		}
+	}
+
+
+
+
+
+
+	private void startBody() throws IOException
+	{
+		if (!head.hasBody())
+		{
+			state = State.DONE;
+		}
+		else if (head.isChunked())
+		{
+			body = new ByteArrayOutputStream();
+			state = State.CHUNK_SIZE;
+		}
+		else if (head.isDelimitedByClose())
+		{
+			body = new ByteArrayOutputStream();
+			state = State.BODY_UNTIL_CLOSE;
+		}
+		else
+		{
+			remaining = head.getContentLengthLong();
+			if (remaining > Integer.MAX_VALUE)
+			{
+				throw new IOException("Content is too big: "
+					+ remaining + " bytes (max supported content length is " + Integer.MAX_VALUE
+					+ ").");
+			}
+
+			body = new ByteArrayOutputStream((int) remaining);
+			state = (remaining == 0) ? State.DONE : State.BODY_FIXED;
+		}
+	}
+}
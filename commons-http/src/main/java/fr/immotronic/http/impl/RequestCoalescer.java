@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpResponseHandler;
+
+
+
+/**
+ * Single-flight coalescing of identical GET requests: while a request is in flight, identical
+ * requests do not reach the network, but wait for the response of the in-flight request, which
+ * is marked as shared: each of them gets its own copy of its content and JSON tree.
+ * 
+ * Requests are identical if they have the same method, URL and headers, credential and accepted
+ * media types included, and are sent under the same policy, so that a request never depends on
+ * the timeouts, retries or protocol of another. Synchronous and asynchronous requests are
+ * coalesced separately: a calling thread only waits for a request performed by another calling
+ * thread, never for a request waiting for an asynchronous executor thread, which could be the
+ * calling thread itself. Response handlers of asynchronous requests are called by the thread
+ * that completes the in-flight request.
+ */
+final class RequestCoalescer
+{
+	private final long maxFlightTime;
+	private final ConcurrentMap<String, Flight> inFlightRequests;
+	private final AtomicLong coalescedRequests = new AtomicLong();
+
+
+
+
+
+
+	/**
+	 * @param maxFlightTime
+	 *            the time, in milliseconds, after which an in-flight request is considered lost,
+	 *            e.g. because its thread failed unexpectedly: identical requests are then sent
+	 *            instead of joining it, and requests that joined it stop waiting for it.
+	 */
+	RequestCoalescer(long maxFlightTime)
+	{
+		this.maxFlightTime = maxFlightTime;
+		inFlightRequests = new ConcurrentHashMap<String, Flight>();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, after which requests stop waiting for the in-flight
+	 *         request they joined, and are sent on their own.
+	 */
+	long getMaxFlightTime()
+	{
+		return maxFlightTime;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the given request can share the response of an identical request.
+	 */
+	boolean isCoalescable(HttpRequest request)
+	{
+		return request.getMethod() == HttpMethod.GET;
+	}
+
+
+
+
+
+
+	/**
+	 * Join the in-flight request identical to a request, or register the request as in flight.
+	 * 
+	 * @param request
+	 *            a coalescable request.
+	 * @param asynchronous
+	 *            true if the request is an asynchronous one.
+	 * @param future
+	 *            the future to complete with the response of the request, registered if no
+	 *            identical request is in flight.
+	 * @return the future of the identical in-flight request, or null if the request has been
+	 *         registered as in flight: the caller MUST then send it and call complete().
+	 */
+	HttpResponseFutureImpl join(HttpRequest request,
+								boolean asynchronous,
+								HttpResponseFutureImpl future)
+	{
+		String key = keyOf(request, asynchronous);
+		Flight flight = new Flight(future);
+
+		for (;;)
+		{
+			Flight inFlight = inFlightRequests.putIfAbsent(key, flight);
+			if (inFlight == null)
+			{
+				return null;
+			}
+
+			if (flight.startTime
+				- inFlight.startTime < maxFlightTime)
+			{
+				coalescedRequests.incrementAndGet();
+				return inFlight.future;
+			}
+
+			if (inFlightRequests.replace(key, inFlight, flight))
+			{
+				return null;
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Complete an in-flight request: subsequent identical requests will be sent, and requests
+	 * that joined it receive its response.
+	 */
+	void complete(	HttpRequest request,
+					boolean asynchronous,
+					HttpResponseFutureImpl future,
+					HttpResponse response)
+	{
+		String key = keyOf(request, asynchronous);
+		Flight flight = inFlightRequests.get(key);
+		if (flight != null
+			&& flight.future == future)
+		{
+			inFlightRequests.remove(key, flight);
+		}
+
+		if (response instanceof HttpResponseImpl)
+		{
+			((HttpResponseImpl) response).setShared();
+		}
+
+		future.processResponse(response);
+	}
+
+
+
+
+
+
+	/**
+	 * Build the handler completing an in-flight asynchronous request.
+	 */
+	HttpResponseHandler completionHandler(	final HttpRequest request,
+											final HttpResponseFutureImpl future)
+	{
+		return new HttpResponseHandler() {
+
+			@Override
+			public void processResponse(HttpResponse response)
+			{
+				complete(request, true, future, response);
+			}
+		};
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests that received the response of an identical in-flight
+	 *         request instead of being sent.
+	 */
+	long getCoalescedRequests()
+	{
+		return coalescedRequests.get();
+	}
+
+
+
+
+
+
+	private static String keyOf(HttpRequest request, boolean asynchronous)
+	{
+		StringBuilder key = new StringBuilder(256);
+		key.append(asynchronous ? "async " : "sync ");
+		key.append(request.getMethod()).append(' ').append(request.getURL().toExternalForm());
+		key.append('\n').append(request.getPolicy());
+
+		for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+		{
+			key.append('\n').append(header.getKey().toLowerCase()).append(':').append(
+				header.getValue());
+		}
+
+		return key.toString();
+	}
+
+
+
+
+
+
+	private static final class Flight
+	{
+		private final HttpResponseFutureImpl future;
+		private final long startTime;
+
+
+
+
+
+
+		Flight(HttpResponseFutureImpl future)
+		{
+			this.future = future;
+			this.startTime = System.currentTimeMillis();
+		}
+	}
+}
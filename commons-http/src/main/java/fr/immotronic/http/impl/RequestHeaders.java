@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import fr.immotronic.commons.Strings;
+import fr.immotronic.commons.http.HttpCredential;
+
+
+
+/**
+ * The headers of a request that are given by client code: credential, content type, accepted
+ * media types and other headers. Instances are immutable, and compute their headers and their
+ * encodings once, so that the requests sent with the same HttpPreparedRequest share them.
+ */
+final class RequestHeaders
+{
+	static final String USER_AGENT = "Java/"
+		+ System.getProperty("java.version");
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	// Headers about the HTTP/1.1 connection and framing, which are forbidden over HTTP/2, and the
+	// headers replaced by pseudo-headers.
+	private static final Set<String> HTTP2_EXCLUDED_HEADERS = new HashSet<String>(Arrays.asList(
+		"connection",
+		"keep-alive",
+		"proxy-connection",
+		"transfer-encoding",
+		"upgrade",
+		"te",
+		"host",
+		"content-length"));
+
+	private final HttpCredential credential;
+	private final String contentType;
+	private final String[] accept;
+	private final Map<String, String> otherHeaders;
+	private final Map<String, String> headers;
+
+	// Computed on first use: a request is sent either over HTTP/1.1 or over HTTP/2.
+	private volatile byte[] encodedHeaders = null;
+	private volatile Map<String, String> http2HeaderFields = null;
+
+
+
+
+
+
+	/**
+	 * @param credential
+	 *            the credential, which overrides the 'Authorization' header, or null.
+	 * @param contentType
+	 *            the media type of the content, which overrides the 'Content-Type' header, or
+	 *            null.
+	 * @param accept
+	 *            the accepted media types, which override the 'Accept' header, or null.
+	 * @param otherHeaders
+	 *            the other headers, or null. The map is not copied: it must not be modified.
+	 */
+	RequestHeaders(	HttpCredential credential,
+					String contentType,
+					String[] accept,
+					Map<String, String> otherHeaders)
+	{
+		this.credential = credential;
+		this.contentType = contentType;
+		this.accept = accept;
+		this.otherHeaders = otherHeaders;
+
+		Map<String, String> _headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+		if (otherHeaders != null)
+		{
+			_headers.putAll(otherHeaders);
+		}
+
+		if (credential != null
+			&& credential instanceof HttpCredentialImpl)
+		{
+			_headers.put("Authorization", ((HttpCredentialImpl) credential).getAuthorizationValue());
+		}
+
+		if (contentType != null)
+		{
+			_headers.put("Content-Type", contentType);
+		}
+
+		if (accept != null)
+		{
+			_headers.put("Accept", Strings.join(accept, ", "));
+		}
+
+		this.headers = Collections.unmodifiableMap(_headers);
+	}
+
+
+
+
+
+
+	HttpCredential getCredential()
+	{
+		return credential;
+	}
+
+
+
+
+
+
+	String[] getAccept()
+	{
+		return accept;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the headers, in a case insensitive and unmodifiable map.
+	 */
+	Map<String, String> getHeaders()
+	{
+		return headers;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the value of a header, or null if there is no such header. Header names are case
+	 *         insensitive.
+	 */
+	String getHeader(String name)
+	{
+		return headers.get(name);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the same headers, without credential.
+	 */
+	RequestHeaders withoutCredential()
+	{
+		return (credential == null) ? this : new RequestHeaders(
+			null,
+			contentType,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the same headers, without content type.
+	 */
+	RequestHeaders withoutContentType()
+	{
+		return (contentType == null) ? this : new RequestHeaders(
+			credential,
+			null,
+			accept,
+			otherHeaders);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the same headers, with the given other headers added.
+	 */
+	RequestHeaders with(Map<String, String> additionalHeaders)
+	{
+		Map<String, String> _otherHeaders = new TreeMap<String, String>(
+			String.CASE_INSENSITIVE_ORDER);
+
+		if (otherHeaders != null)
+		{
+			_otherHeaders.putAll(otherHeaders);
+		}
+
+		_otherHeaders.putAll(additionalHeaders);
+
+		return new RequestHeaders(credential, contentType, accept, _otherHeaders);
+	}
+
+
+
+
+
+
+	/**
+	 * Encode the headers as HTTP/1.1 header lines, a default 'User-Agent' header included. The
+	 * headers that depend on the request URL and content are left out: 'Host', 'Content-Length'
+	 * and 'Transfer-Encoding'.
+	 * 
+	 * @return the encoded header lines, which MUST NOT be modified.
+	 */
+	byte[] getEncodedHeaders()
+	{
+		byte[] _encodedHeaders = encodedHeaders;
+		if (_encodedHeaders == null)
+		{
+			StringBuilder lines = new StringBuilder(256);
+
+			if (!headers.containsKey("User-Agent"))
+			{
+				lines.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+			}
+
+			for (Map.Entry<String, String> header : headers.entrySet())
+			{
+				if (!header.getKey().equalsIgnoreCase("Host")
+					&& !header.getKey().equalsIgnoreCase("Content-Length")
+					&& !header.getKey().equalsIgnoreCase("Transfer-Encoding"))
+				{
+					lines
+						.append(header.getKey())
+						.append(": ")
+						.append(header.getValue())
+						.append("\r\n");
+				}
+			}
+
+			_encodedHeaders = lines.toString().getBytes(ISO_8859_1);
+			encodedHeaders = _encodedHeaders;
+		}
+
+		return _encodedHeaders;
+	}
+
+
+
+
+
+
+	/**
+	 * Build the headers as sent over HTTP/2: lowercase header names, a default 'user-agent' header
+	 * included, without the headers that are specific to an HTTP/1.1 connection.
+	 * 
+	 * @return the header fields, in an unmodifiable map.
+	 */
+	Map<String, String> getHttp2HeaderFields()
+	{
+		Map<String, String> _http2HeaderFields = http2HeaderFields;
+		if (_http2HeaderFields == null)
+		{
+			_http2HeaderFields = new LinkedHashMap<String, String>();
+
+			if (!headers.containsKey("User-Agent"))
+			{
+				_http2HeaderFields.put("user-agent", USER_AGENT);
+			}
+
+			for (Map.Entry<String, String> header : headers.entrySet())
+			{
+				String name = header.getKey().toLowerCase();
+				if (!HTTP2_EXCLUDED_HEADERS.contains(name))
+				{
+					_http2HeaderFields.put(name, header.getValue());
+				}
+			}
+
+			_http2HeaderFields = Collections.unmodifiableMap(_http2HeaderFields);
+			http2HeaderFields = _http2HeaderFields;
+		}
+
+		return _http2HeaderFields;
+	}
+}
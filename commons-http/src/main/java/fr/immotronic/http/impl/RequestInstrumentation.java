@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpLatencyHistogram;
+import fr.immotronic.commons.http.HttpRequestListener;
+import fr.immotronic.commons.http.HttpRequestPhase;
+import fr.immotronic.commons.http.HttpStatus;
+
+
+
+/**
+ * The aggregation of the measures of the requests: bytes sent and received, counts by response
+ * status code, and latency histograms by host and by request phase. Measures are also given to
+ * the request listeners.
+ */
+final class RequestInstrumentation
+{
+	private static final HttpRequestPhase[] PHASES = HttpRequestPhase.values();
+
+	private final List<HttpRequestListener> listeners;
+	private final PhaseHistograms allHosts;
+	private final ConcurrentMap<String, PhaseHistograms> hosts;
+	private final ConcurrentMap<Integer, AtomicLong> responseCodes;
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	final Logger logger = LoggerFactory.getLogger(RequestInstrumentation.class);
+
+
+
+
+
+
+	/**
+	 * @param listeners
+	 *            the listeners to give the measures to. The list is read for each request.
+	 */
+	RequestInstrumentation(List<HttpRequestListener> listeners)
+	{
+		this.listeners = listeners;
+		allHosts = new PhaseHistograms();
+		hosts = new ConcurrentHashMap<String, PhaseHistograms>();
+		responseCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+	}
+
+
+
+
+
+
+	/**
+	 * Start measuring an attempt to send a request.
+	 */
+	RequestMetrics start(HttpRequest request)
+	{
+		return new RequestMetrics(this, request);
+	}
+
+
+
+
+
+
+	void requestCompleted(RequestMetrics metrics)
+	{
+		bytesSent.addAndGet(metrics.getBytesSent());
+		bytesReceived.addAndGet(metrics.getBytesReceived());
+
+		int responseCode = metrics.getResponseCode();
+		if (responseCode == -1)
+		{
+			responseCode = HttpStatus.SERVER_TIMEOUT.getCode();
+		}
+
+		AtomicLong counter = responseCodes.get(responseCode);
+		if (counter == null)
+		{
+			AtomicLong newCounter = new AtomicLong();
+			counter = responseCodes.putIfAbsent(responseCode, newCounter);
+			if (counter == null)
+			{
+				counter = newCounter;
+			}
+		}
+
+		counter.incrementAndGet();
+
+		PhaseHistograms hostHistograms = getHostHistograms(metrics.getHost());
+		for (HttpRequestPhase phase : PHASES)
+		{
+			long time = metrics.getTime(phase);
+			if (time >= 0)
+			{
+				allHosts.record(phase, time);
+				hostHistograms.record(phase, time);
+			}
+		}
+
+		for (HttpRequestListener listener : listeners)
+		{
+			try
+			{
+				listener.requestCompleted(metrics);
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("{}: Request listener failed.", metrics, e);
+			}
+		}
+	}
+
+
+
+
+
+
+	void contentParsed(RequestMetrics metrics)
+	{
+		long time = metrics.getTime(HttpRequestPhase.CONTENT_PARSING);
+		allHosts.record(HttpRequestPhase.CONTENT_PARSING, time);
+		getHostHistograms(metrics.getHost()).record(HttpRequestPhase.CONTENT_PARSING, time);
+
+		for (HttpRequestListener listener : listeners)
+		{
+			try
+			{
+				listener.contentParsed(metrics);
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("{}: Request listener failed.", metrics, e);
+			}
+		}
+	}
+
+
+
+
+
+
+	long getBytesSent()
+	{
+		return bytesSent.get();
+	}
+
+
+
+
+
+
+	long getBytesReceived()
+	{
+		return bytesReceived.get();
+	}
+
+
+
+
+
+
+	Map<Integer, Long> getResponseCodeCounts()
+	{
+		Map<Integer, Long> counts = new HashMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> entry : responseCodes.entrySet())
+		{
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return counts;
+	}
+
+
+
+
+
+
+	Set<String> getHosts()
+	{
+		return new HashSet<String>(hosts.keySet());
+	}
+
+
+
+
+
+
+	/**
+	 * @param host
+	 *            the host name, or null for all hosts.
+	 * @return a snapshot of the histogram, or null if nothing has been recorded.
+	 */
+	HttpLatencyHistogram getHistogram(String host, HttpRequestPhase phase)
+	{
+		PhaseHistograms histograms = (host == null) ? allHosts : hosts.get(host.toLowerCase());
+		return (histograms == null) ? null : histograms.getSnapshot(phase);
+	}
+
+
+
+
+
+
+	private PhaseHistograms getHostHistograms(String host)
+	{
+		PhaseHistograms histograms = hosts.get(host);
+		if (histograms == null)
+		{
+			PhaseHistograms newHistograms = new PhaseHistograms();
+			histograms = hosts.putIfAbsent(host, newHistograms);
+			if (histograms == null)
+			{
+				histograms = newHistograms;
+			}
+		}
+
+		return histograms;
+	}
+
+
+
+
+
+
+	/**
+	 * The histograms of the phases of the requests, created on first use.
+	 */
+	private static final class PhaseHistograms
+	{
+		private final AtomicReferenceArray<LatencyHistogram> histograms;
+
+
+
+
+
+
+		PhaseHistograms()
+		{
+			histograms = new AtomicReferenceArray<LatencyHistogram>(PHASES.length);
+		}
+
+
+
+
+
+
+		void record(HttpRequestPhase phase, long time)
+		{
+			LatencyHistogram histogram = histograms.get(phase.ordinal());
+			if (histogram == null)
+			{
+				histograms.compareAndSet(phase.ordinal(), null, new LatencyHistogram());
+				histogram = histograms.get(phase.ordinal());
+			}
+
+			histogram.record(time);
+		}
+
+
+
+
+
+
+		HttpLatencyHistogram getSnapshot(HttpRequestPhase phase)
+		{
+			LatencyHistogram histogram = histograms.get(phase.ordinal());
+			return (histogram == null) ? null : histogram.getSnapshot();
+		}
+	}
+}
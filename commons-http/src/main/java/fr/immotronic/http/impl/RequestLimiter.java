@@ -0,0 +1,861 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpRequestLimit;
+
+
+
+/**
+ * The request limits, by host and by URL prefix. Each limit is enforced by a token bucket and a
+ * counter of requests in progress.
+ * 
+ * Requests a limit does not allow immediately wait in a FIFO queue. The queue is drained by a
+ * scheduler thread when a token is expected to be available, when a request in progress
+ * completes, and when a waiting request reaches its maximum waiting time. Synchronous requests
+ * wait for their turn in the calling thread, asynchronous requests are notified by a callback.
+ */
+final class RequestLimiter
+{
+	/**
+	 * Receive the outcome of an asynchronous acquisition. Callbacks are invoked by the calling
+	 * thread or by the scheduler thread: they MUST return quickly.
+	 */
+	interface Callback
+	{
+		/**
+		 * @param permit
+		 *            the permit to release once the request has completed.
+		 */
+		void acquired(Permit permit);
+
+
+
+
+
+
+		void rejected(IOException e);
+	}
+
+	/**
+	 * Thrown when a request is not sent because a limit did not allow it in time.
+	 */
+	static final class LimitExceededException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+
+
+
+
+		LimitExceededException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * The right to send a request, which MUST be released once the request has completed.
+	 */
+	static final class Permit
+	{
+		private final Limiter limiter;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+
+
+
+
+
+		private Permit(Limiter limiter)
+		{
+			this.limiter = limiter;
+		}
+
+
+
+
+
+
+		/**
+		 * Release this permit. Calling this method more than once has no effect.
+		 */
+		void release()
+		{
+			if (released.compareAndSet(false, true))
+			{
+				limiter.release();
+			}
+		}
+	}
+
+	private static final Comparator<Limiter> LONGEST_PREFIX_FIRST = new Comparator<Limiter>() {
+
+		@Override
+		public int compare(Limiter limiter1, Limiter limiter2)
+		{
+			return limiter2.target.length()
+				- limiter1.target.length();
+		}
+	};
+
+	private final ConcurrentMap<String, Limiter> hostLimiters;
+	private volatile Limiter[] prefixLimiters = new Limiter[0];
+	private ScheduledExecutorService scheduler = null;
+	private final AtomicLong throttledRequests = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong rejectedRequests = new AtomicLong();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	final Logger logger = LoggerFactory.getLogger(RequestLimiter.class);
+
+
+
+
+
+
+	RequestLimiter()
+	{
+		hostLimiters = new ConcurrentHashMap<String, Limiter>();
+	}
+
+
+
+
+
+
+	/**
+	 * Set the limit of a host or of a URL prefix.
+	 * 
+	 * @param target
+	 *            a host name, or a URL prefix if it contains '://'.
+	 * @param limit
+	 *            the limit, or null to remove the limit of the target.
+	 */
+	synchronized void setLimit(String target, HttpRequestLimit limit)
+	{
+		if (!target.contains("://"))
+		{
+			if (limit == null)
+			{
+				hostLimiters.remove(target.toLowerCase());
+			}
+			else
+			{
+				hostLimiters.put(target.toLowerCase(), new Limiter(target.toLowerCase(), limit));
+			}
+
+			return;
+		}
+
+		List<Limiter> limiters = new ArrayList<Limiter>();
+		for (Limiter limiter : prefixLimiters)
+		{
+			if (!limiter.target.equals(target))
+			{
+				limiters.add(limiter);
+			}
+		}
+
+		if (limit != null)
+		{
+			limiters.add(new Limiter(target, limit));
+		}
+
+		Limiter[] _prefixLimiters = limiters.toArray(new Limiter[limiters.size()]);
+		Arrays.sort(_prefixLimiters, LONGEST_PREFIX_FIRST);
+		prefixLimiters = _prefixLimiters;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if a limit applies to the given request.
+	 */
+	boolean isLimited(HttpRequest request)
+	{
+		return getLimiter(request) != null;
+	}
+
+
+
+
+
+
+	/**
+	 * Wait until the limit of a request allows it.
+	 * 
+	 * @param deadline
+	 *            the time, in milliseconds since the epoch, after which the request must not wait
+	 *            anymore, or Long.MAX_VALUE.
+	 * @return the permit to send the request, or null if no limit applies to it.
+	 * @throws LimitExceededException
+	 *             if the limit did not allow the request in time.
+	 * @throws InterruptedIOException
+	 *             if the calling thread has been interrupted while waiting.
+	 */
+	Permit acquire(HttpRequest request, long deadline) throws IOException
+	{
+		Limiter limiter = getLimiter(request);
+		if (limiter == null)
+		{
+			return null;
+		}
+
+		BlockingCallback callback = new BlockingCallback();
+		limiter.acquireLater(request, deadline, callback);
+
+		return callback.await(request);
+	}
+
+
+
+
+
+
+	/**
+	 * Get a permit for a request without blocking. The callback is invoked as soon as the limit
+	 * of the request allows it, or once the request has waited too long. If no limit applies to
+	 * the request, the callback is invoked immediately with a null permit.
+	 */
+	void acquireLater(HttpRequest request, long deadline, Callback callback)
+	{
+		Limiter limiter = getLimiter(request);
+		if (limiter == null)
+		{
+			callback.acquired(null);
+			return;
+		}
+
+		limiter.acquireLater(request, deadline, callback);
+	}
+
+
+
+
+
+
+	/**
+	 * Stop the scheduler thread. Waiting requests are rejected.
+	 */
+	void shutdown()
+	{
+		ScheduledExecutorService _scheduler;
+		synchronized (this)
+		{
+			_scheduler = scheduler;
+			scheduler = null;
+		}
+
+		if (_scheduler != null)
+		{
+			_scheduler.shutdownNow();
+		}
+
+		for (Limiter limiter : prefixLimiters)
+		{
+			limiter.rejectAll();
+		}
+
+		for (Limiter limiter : hostLimiters.values())
+		{
+			limiter.rejectAll();
+		}
+	}
+
+
+
+
+
+
+	long getThrottledRequests()
+	{
+		return throttledRequests.get();
+	}
+
+
+
+
+
+
+	long getWaitTime()
+	{
+		return waitTime.get();
+	}
+
+
+
+
+
+
+	long getRejectedRequests()
+	{
+		return rejectedRequests.get();
+	}
+
+
+
+
+
+
+	int getQueueDepth()
+	{
+		return queueDepth.get();
+	}
+
+
+
+
+
+
+	private Limiter getLimiter(HttpRequest request)
+	{
+		Limiter[] _prefixLimiters = prefixLimiters;
+		if (_prefixLimiters.length > 0)
+		{
+			String url = request.getURL().toString();
+			for (Limiter limiter : _prefixLimiters)
+			{
+				if (url.startsWith(limiter.target))
+				{
+					return limiter;
+				}
+			}
+		}
+
+		if (hostLimiters.isEmpty())
+		{
+			return null;
+		}
+
+		return hostLimiters.get(request.getURL().getHost().toLowerCase());
+	}
+
+
+
+
+
+
+	private synchronized ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable task)
+				{
+					Thread thread = new Thread(task, "HttpClientService-limiter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return scheduler;
+	}
+
+
+
+
+
+
+	/**
+	 * A request waiting for a limit to allow it.
+	 */
+	private static final class Waiter
+	{
+		final HttpRequest request;
+		final Callback callback;
+		final long enqueueTime;
+		final long expiry;
+
+
+
+
+
+
+		Waiter(HttpRequest request, Callback callback, long enqueueTime, long expiry)
+		{
+			this.request = request;
+			this.callback = callback;
+			this.enqueueTime = enqueueTime;
+			this.expiry = expiry;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The token bucket, the counter of requests in progress and the queue of waiting requests of
+	 * a limit. Tokens are refilled lazily, when the bucket is used.
+	 */
+	private final class Limiter implements Runnable
+	{
+		final String target;
+		private final double tokensPerMillisecond;
+		private final double burst;
+		private final int maxConcurrentRequests;
+		private final long maxWait;
+		private double tokens;
+		private long lastRefill;
+		private int activeRequests = 0;
+		private final Deque<Waiter> waiters = new ArrayDeque<Waiter>();
+		private long nextDrain = Long.MAX_VALUE;
+
+
+
+
+
+
+		Limiter(String target, HttpRequestLimit limit)
+		{
+			this.target = target;
+			tokensPerMillisecond = limit.getRequestsPerSecond() / 1000;
+			burst = limit.getBurst();
+			maxConcurrentRequests = limit.getMaxConcurrentRequests();
+			maxWait = limit.getMaxWait();
+			tokens = burst;
+			lastRefill = System.currentTimeMillis();
+		}
+
+
+
+
+
+
+		void acquireLater(HttpRequest request, long deadline, Callback callback)
+		{
+			boolean acquired = false;
+
+			synchronized (this)
+			{
+				long now = System.currentTimeMillis();
+				if (waiters.isEmpty()
+					&& take(now))
+				{
+					acquired = true;
+				}
+				else
+				{
+					long expiry = (maxWait < deadline - now) ? now + maxWait : deadline;
+					waiters.addLast(new Waiter(request, callback, now, expiry));
+					queueDepth.incrementAndGet();
+					scheduleDrain(now);
+				}
+			}
+
+			if (acquired)
+			{
+				callback.acquired(new Permit(this));
+			}
+		}
+
+
+
+
+
+
+		void release()
+		{
+			synchronized (this)
+			{
+				activeRequests--;
+				if (waiters.isEmpty())
+				{
+					return;
+				}
+			}
+
+			drainLater(0);
+		}
+
+
+
+
+
+
+		/**
+		 * Drain the queue: give permits to the first waiting requests the limit allows, and
+		 * reject the waiting requests that reached their maximum waiting time.
+		 */
+		@Override
+		public void run()
+		{
+			List<Waiter> acquired = new ArrayList<Waiter>();
+			List<Waiter> rejected = new ArrayList<Waiter>();
+			long now = System.currentTimeMillis();
+
+			synchronized (this)
+			{
+				if (now >= nextDrain)
+				{
+					nextDrain = Long.MAX_VALUE;
+				}
+
+				while (!waiters.isEmpty()
+					&& take(now))
+				{
+					acquired.add(waiters.pollFirst());
+				}
+
+				Iterator<Waiter> i = waiters.iterator();
+				while (i.hasNext())
+				{
+					Waiter waiter = i.next();
+					if (now >= waiter.expiry)
+					{
+						i.remove();
+						rejected.add(waiter);
+					}
+				}
+
+				queueDepth.addAndGet(-(acquired.size() + rejected.size()));
+
+				if (!waiters.isEmpty())
+				{
+					scheduleDrain(now);
+				}
+			}
+
+			for (Waiter waiter : acquired)
+			{
+				throttledRequests.incrementAndGet();
+				waitTime.addAndGet(now
+					- waiter.enqueueTime);
+
+				notifyAcquired(waiter, new Permit(this));
+			}
+
+			for (Waiter waiter : rejected)
+			{
+				reject(waiter);
+			}
+		}
+
+
+
+
+
+
+		void rejectAll()
+		{
+			List<Waiter> rejected;
+			synchronized (this)
+			{
+				rejected = new ArrayList<Waiter>(waiters);
+				waiters.clear();
+				queueDepth.addAndGet(-rejected.size());
+			}
+
+			for (Waiter waiter : rejected)
+			{
+				reject(waiter);
+			}
+		}
+
+
+
+
+
+
+		/**
+		 * Take a token and a slot for a request in progress, if available. MUST be called while
+		 * holding the lock of this limiter.
+		 */
+		private boolean take(long now)
+		{
+			if (getDelay(now) > 0)
+			{
+				return false;
+			}
+
+			if (tokensPerMillisecond > 0)
+			{
+				tokens -= 1;
+			}
+
+			activeRequests++;
+			return true;
+		}
+
+
+
+
+
+
+		/**
+		 * @return the time, in milliseconds, before a token is available, 0 if a request can be
+		 *         sent now, or Long.MAX_VALUE if too many requests are in progress. MUST be called
+		 *         while holding the lock of this limiter.
+		 */
+		private long getDelay(long now)
+		{
+			if (maxConcurrentRequests > 0
+				&& activeRequests >= maxConcurrentRequests)
+			{
+				return Long.MAX_VALUE;
+			}
+
+			if (tokensPerMillisecond <= 0)
+			{
+				return 0;
+			}
+
+			if (now > lastRefill)
+			{
+				tokens = Math.min(burst, tokens
+					+ (now - lastRefill) * tokensPerMillisecond);
+				lastRefill = now;
+			}
+
+			if (tokens >= 1)
+			{
+				return 0;
+			}
+
+			return Math.max(1, (long) Math.ceil((1 - tokens)
+				/ tokensPerMillisecond));
+		}
+
+
+
+
+
+
+		/**
+		 * Schedule the next drain of the queue, when a token is expected to be available or when
+		 * a waiting request reaches its maximum waiting time. MUST be called while holding the
+		 * lock of this limiter.
+		 */
+		private void scheduleDrain(long now)
+		{
+			long delay = getDelay(now);
+			for (Waiter waiter : waiters)
+			{
+				delay = Math.min(delay, waiter.expiry
+					- now);
+			}
+
+			delay = Math.max(0, delay);
+			if (now
+				+ delay < nextDrain)
+			{
+				nextDrain = now
+					+ delay;
+				drainLater(delay);
+			}
+		}
+
+
+
+
+
+
+		private void drainLater(long delay)
+		{
+			try
+			{
+				getScheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (RuntimeException e)
+			{
+				// The scheduler has been stopped: waiting requests have been rejected.
+				logger.debug("{}: Cannot schedule the request queue.", target, e);
+			}
+		}
+
+
+
+
+
+
+		private void notifyAcquired(Waiter waiter, Permit permit)
+		{
+			try
+			{
+				waiter.callback.acquired(permit);
+			}
+			catch (RuntimeException e)
+			{
+				permit.release();
+				logger.error("{}: Request cannot be performed.", waiter.request, e);
+			}
+		}
+
+
+
+
+
+
+		private void reject(Waiter waiter)
+		{
+			rejectedRequests.incrementAndGet();
+
+			try
+			{
+				waiter.callback.rejected(new LimitExceededException(waiter.request
+					+ ": request limit of '" + target + "' exceeded, request is not sent."));
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("{}: Request cannot be rejected.", waiter.request, e);
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * The callback of a synchronous acquisition, which the calling thread waits for.
+	 */
+	private static final class BlockingCallback implements Callback
+	{
+		private Permit permit = null;
+		private IOException failure = null;
+		private boolean done = false;
+		private boolean cancelled = false;
+
+
+
+
+
+
+		@Override
+		public void acquired(Permit permit)
+		{
+			synchronized (this)
+			{
+				if (!cancelled)
+				{
+					this.permit = permit;
+					done = true;
+					notifyAll();
+					return;
+				}
+			}
+
+			// The calling thread does not wait anymore.
+			if (permit != null)
+			{
+				permit.release();
+			}
+		}
+
+
+
+
+
+
+		@Override
+		public synchronized void rejected(IOException e)
+		{
+			failure = e;
+			done = true;
+			notifyAll();
+		}
+
+
+
+
+
+
+		synchronized Permit await(HttpRequest request) throws IOException
+		{
+			try
+			{
+				while (!done)
+				{
+					wait();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				cancelled = true;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(request
+					+ ": interrupted while waiting for the request limit.");
+			}
+
+			if (failure != null)
+			{
+				throw failure;
+			}
+
+			return permit;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.http.impl;
+
+import java.net.URL;
+
+import fr.immotronic.commons.http.HttpRequestMetrics;
+import fr.immotronic.commons.http.HttpRequestPhase;
+
+
+
+/**
+ * The measures of an attempt to send a request, filled in as the attempt progresses by the
+ * thread performing it, then published to the RequestInstrumentation.
+ * 
+ * Times are measured with System.nanoTime() and given in microseconds.
+ */
+final class RequestMetrics implements HttpRequestMetrics
+{
+	private final RequestInstrumentation instrumentation;
+	private final String method;
+	private final URL url;
+	private final String host;
+	private final long startTime;
+	private long dnsLookupTime = -1;
+	private long connectTime = -1;
+	private long tlsHandshakeTime = -1;
+	private long requestTime = -1;
+	private long responseTime = -1;
+	private long endTime = -1;
+	private volatile long contentParsingTime = -1;
+	private int responseCode = -1;
+	private boolean reusedConnection = false;
+	private long bytesSent = 0;
+	private long bytesReceived = 0;
+
+
+
+
+
+
+	RequestMetrics(RequestInstrumentation instrumentation, HttpRequest request)
+	{
+		this.instrumentation = instrumentation;
+		method = request.getMethod().toString();
+		url = request.getURL();
+		host = url.getHost().toLowerCase();
+		startTime = System.nanoTime();
+	}
+
+
+
+
+
+
+	/**
+	 * Record the opening of a new connection for this request.
+	 * 
+	 * @param dnsLookupTime
+	 *            the duration of the host name resolution, in nanoseconds, or -1 if unknown.
+	 * @param connectTime
+	 *            the duration of the TCP connection establishment, in nanoseconds.
+	 * @param tlsHandshakeTime
+	 *            the duration of the TLS handshake, in nanoseconds, or -1 if the connection is not
+	 *            secure.
+	 */
+	void connectionOpened(long dnsLookupTime, long connectTime, long tlsHandshakeTime)
+	{
+		this.dnsLookupTime = (dnsLookupTime < 0) ? -1 : dnsLookupTime / 1000;
+		this.connectTime = connectTime / 1000;
+		this.tlsHandshakeTime = (tlsHandshakeTime < 0) ? -1 : tlsHandshakeTime / 1000;
+		reusedConnection = false;
+	}
+
+
+
+
+
+
+	/**
+	 * Record the start of the request sending.
+	 */
+	void requestStarted(boolean reusedConnection)
+	{
+		this.reusedConnection = this.reusedConnection
+			|| reusedConnection;
+
+		requestTime = System.nanoTime();
+	}
+
+
+
+
+
+
+	/**
+	 * Record the reception of the response head.
+	 */
+	void responseStarted(int responseCode)
+	{
+		this.responseCode = responseCode;
+		responseTime = System.nanoTime();
+	}
+
+
+
+
+
+
+	/**
+	 * Record the end of the request, successful or not. Only the first call is taken into account.
+	 * 
+	 * @return false if the end of the request has already been recorded.
+	 */
+	boolean ended(long bytesSent, long bytesReceived)
+	{
+		if (endTime != -1)
+		{
+			return false;
+		}
+
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		endTime = System.nanoTime();
+
+		return true;
+	}
+
+
+
+
+
+
+	/**
+	 * Give these measures to the instrumentation, once the end of the request has been recorded.
+	 */
+	void publish()
+	{
+		instrumentation.requestCompleted(this);
+	}
+
+
+
+
+
+
+	/**
+	 * Record the end of the request, then publish these measures, unless they have already been.
+	 */
+	void complete(long bytesSent, long bytesReceived)
+	{
+		if (ended(bytesSent, bytesReceived))
+		{
+			publish();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Record the parsing of the response content, then publish it.
+	 * 
+	 * @param contentParsingTime
+	 *            the duration of the parsing, in nanoseconds.
+	 */
+	void contentParsed(long contentParsingTime)
+	{
+		this.contentParsingTime = contentParsingTime / 1000;
+		instrumentation.contentParsed(this);
+	}
+
+
+
+
+
+
+	@Override
+	public String getMethod()
+	{
+		return method;
+	}
+
+
+
+
+
+
+	@Override
+	public URL getURL()
+	{
+		return url;
+	}
+
+
+
+
+
+
+	@Override
+	public String getHost()
+	{
+		return host;
+	}
+
+
+
+
+
+
+	@Override
+	public int getResponseCode()
+	{
+		return responseCode;
+	}
+
+
+
+
+
+
+	@Override
+	public boolean isReusedConnection()
+	{
+		return reusedConnection;
+	}
+
+
+
+
+
+
+	@Override
+	public long getTime(HttpRequestPhase phase)
+	{
+		switch (phase)
+		{
+			case DNS_LOOKUP:
+				return dnsLookupTime;
+
+			case CONNECT:
+				return connectTime;
+
+			case TLS_HANDSHAKE:
+				return tlsHandshakeTime;
+
+			case TIME_TO_FIRST_BYTE:
+				return (requestTime == -1 || responseTime == -1) ? -1 : (responseTime - requestTime)
+					/ 1000;
+
+			case BODY_READ:
+				return (responseTime == -1 || endTime == -1) ? -1 : (endTime - responseTime) / 1000;
+
+			case CONTENT_PARSING:
+				return contentParsingTime;
+
+			case TOTAL:
+				return (endTime == -1) ? -1 : (endTime - startTime) / 1000;
+
+			default:
+				return -1;
+		}
+	}
+
+
+
+
+
+
+	@Override
+	public long getBytesSent()
+	{
+		return bytesSent;
+	}
+
+
+
+
+
+
+	@Override
+	public long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return method
+			+ " " + url + " [" + responseCode + ", " + getTime(HttpRequestPhase.TOTAL) + " us]";
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http.tools;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpStatus;
+
+
+
+/**
+ * The outcome of a batch of requests sent by an HttpRequester: responses, in the order of the
+ * argument tuples of the batch, and aggregate statistics.
+ * 
+ * A request is considered failed if its response status is not a 2xx one, i.e. if the server
+ * has not been reached, the response content has not been received entirely, or the server
+ * answered with an unsupported or an error status. A request given up by the requester, because
+ * it has been rejected or has not completed in time, has a null response and is failed too.
+ * 
+ * @author Lionel Balme <lbalme@immotronic.fr>
+ *
+ */
+public final class HttpBatchResult
+{
+	private final List<HttpResponse> responses;
+	private final long[] latencies;
+	private final long elapsedTime;
+	private final int failureCount;
+
+
+
+
+
+
+	HttpBatchResult(HttpResponse[] responses, long[] latencies, long elapsedTime)
+	{
+		this.responses = Collections.unmodifiableList(Arrays.asList(responses));
+		this.latencies = latencies;
+		this.elapsedTime = elapsedTime;
+
+		int failures = 0;
+		for (HttpResponse response : responses)
+		{
+			if (isFailure(response))
+			{
+				failures++;
+			}
+		}
+
+		this.failureCount = failures;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the responses of the batch requests, in the order of the argument tuples of the
+	 *         batch.
+	 */
+	public List<HttpResponse> getResponses()
+	{
+		return responses;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the response of the request built from the argument tuple at the given index, or
+	 *         null if the request has been given up.
+	 */
+	public HttpResponse getResponse(int index)
+	{
+		return responses.get(index);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of requests of the batch.
+	 */
+	public int size()
+	{
+		return responses.size();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the request built from the argument tuple at the given index failed.
+	 */
+	public boolean isFailed(int index)
+	{
+		return isFailure(responses.get(index));
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of failed requests.
+	 */
+	public int getFailureCount()
+	{
+		return failureCount;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, between the dispatch of the request built from the
+	 *         argument tuple at the given index and the reception of its response.
+	 */
+	public long getLatency(int index)
+	{
+		return latencies[index];
+	}
+
+
+
+
+
+
+	/**
+	 * @return the average latency of the batch requests, in milliseconds.
+	 */
+	public long getAverageLatency()
+	{
+		if (latencies.length == 0)
+		{
+			return 0;
+		}
+
+		long total = 0;
+		for (long latency : latencies)
+		{
+			total += latency;
+		}
+
+		return total
+			/ latencies.length;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the highest latency of the batch requests, in milliseconds.
+	 */
+	public long getMaxLatency()
+	{
+		long max = 0;
+		for (long latency : latencies)
+		{
+			max = Math.max(max, latency);
+		}
+
+		return max;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, the whole batch took to complete.
+	 */
+	public long getElapsedTime()
+	{
+		return elapsedTime;
+	}
+
+
+
+
+
+
+	private static boolean isFailure(HttpResponse response)
+	{
+		if (response == null)
+		{
+			return true;
+		}
+
+		HttpStatus status = response.getStatus();
+		return status == null
+			|| status.getCode() < 200 || status.getCode() >= 300;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http.tools;
+
+import java.security.MessageDigest;
+
+import fr.immotronic.commons.http.HttpResponse;
+
+
+
+/**
+ * The outcome of a download performed by an HttpDownloader: whether the resource has been
+ * entirely and correctly written to the file, its length and digest, and transfer statistics.
+ * 
+ * @author Lionel Balme <lbalme@immotronic.fr>
+ *
+ */
+public final class HttpDownloadResult
+{
+	public static enum Outcome
+	{
+		/** The resource has been entirely written to the file, and its digest matches. */
+		COMPLETE,
+
+		/** A transfer failed more times than allowed, or the server answered with an error. */
+		FAILED,
+
+		/** The resource changed on the server while it was downloaded. */
+		RESOURCE_CHANGED,
+
+		/** The length of the file differs from the length of the resource. */
+		WRONG_LENGTH,
+
+		/** The digest of the file differs from the expected one. */
+		DIGEST_MISMATCH;
+	};
+
+	private final Outcome outcome;
+	private final long length;
+	private final byte[] digest;
+	private final int segmentCount;
+	private final int retryCount;
+	private final HttpResponse failedResponse;
+	private final long elapsedTime;
+
+
+
+
+
+
+	HttpDownloadResult(	Outcome outcome,
+						long length,
+						byte[] digest,
+						int segmentCount,
+						int retryCount,
+						HttpResponse failedResponse,
+						long elapsedTime)
+	{
+		this.outcome = outcome;
+		this.length = length;
+		this.digest = digest;
+		this.segmentCount = segmentCount;
+		this.retryCount = retryCount;
+		this.failedResponse = failedResponse;
+		this.elapsedTime = elapsedTime;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the outcome of the download.
+	 */
+	public Outcome getOutcome()
+	{
+		return outcome;
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the resource has been entirely written to the file, and its digest matches
+	 *         the expected one, if any.
+	 */
+	public boolean isComplete()
+	{
+		return outcome == Outcome.COMPLETE;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the length in bytes of the downloaded file.
+	 */
+	public long getLength()
+	{
+		return length;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the digest of the downloaded file, or null if no digest algorithm has been given or
+	 *         if the download did not complete.
+	 */
+	public byte[] getDigest()
+	{
+		return (digest == null) ? null : digest.clone();
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the digest of the downloaded file is the given one.
+	 */
+	public boolean hasDigest(byte[] expectedDigest)
+	{
+		return digest != null
+			&& MessageDigest.isEqual(digest, expectedDigest);
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of segments the resource has been split into: 1 if it has been
+	 *         downloaded over a single connection.
+	 */
+	public int getSegmentCount()
+	{
+		return segmentCount;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the number of transfers resumed after a failure.
+	 */
+	public int getRetryCount()
+	{
+		return retryCount;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the response of the last failed request, if the download failed because of it, or
+	 *         null.
+	 */
+	public HttpResponse getFailedResponse()
+	{
+		return failedResponse;
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, the whole download took to complete.
+	 */
+	public long getElapsedTime()
+	{
+		return elapsedTime;
+	}
+}
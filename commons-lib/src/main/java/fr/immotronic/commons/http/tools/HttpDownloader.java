@@ -0,0 +1,952 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.immotronic.commons.http.HttpClientService;
+import fr.immotronic.commons.http.HttpCredential;
+import fr.immotronic.commons.http.HttpResponse;
+import fr.immotronic.commons.http.HttpStatus;
+import fr.immotronic.commons.http.HttpStreamedResponse;
+import fr.immotronic.commons.http.tools.HttpDownloadResult.Outcome;
+
+
+
+/**
+ * A class to download large resources, such as firmware images, to a file rather than in memory.
+ * 
+ * If the server supports byte ranges and announces the size of the resource, the resource is
+ * split into segments, which are fetched in parallel over several connections of the HTTP client
+ * service, and written to the file at their offset as they are received. Otherwise, the resource
+ * is fetched over a single connection.
+ * 
+ * A transfer that fails is resumed from its last received byte, if the server supports byte
+ * ranges, with an 'If-Range' condition so that parts of different versions of the resource are
+ * never mixed. Otherwise, it is started again from the first byte. Once all transfers are
+ * complete, the length of the file is checked against the size of the resource, and its digest
+ * is compared to the expected one, if any.
+ * 
+ * @author Lionel Balme <lbalme@immotronic.fr>
+ *
+ */
+public final class HttpDownloader
+{
+	public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	public static final int DEFAULT_PARALLELISM = 4;
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final long segmentSize;
+	private final int parallelism;
+	private final int maxAttempts;
+
+	final Logger logger = LoggerFactory.getLogger(HttpDownloader.class);
+
+
+
+
+
+
+	/**
+	 * Create an instance of a HttpDownloader class.
+	 * 
+	 * @param segmentSize
+	 *            the size in bytes of the segments the resources are split into. Resources which
+	 *            size is not larger are downloaded over a single connection.
+	 * @param parallelism
+	 *            the maximum number of segments fetched at the same time. The actual parallelism
+	 *            is also bounded by the number of connections per route of the HTTP client
+	 *            service.
+	 * @param maxAttempts
+	 *            the number of times the transfer of a segment is attempted before the download
+	 *            fails.
+	 */
+	public HttpDownloader(long segmentSize, int parallelism, int maxAttempts)
+	{
+		if (segmentSize < 1)
+		{
+			throw new IllegalArgumentException("'segmentSize' argument must be at least 1");
+		}
+
+		if (parallelism < 1)
+		{
+			throw new IllegalArgumentException("'parallelism' argument must be at least 1");
+		}
+
+		if (maxAttempts < 1)
+		{
+			throw new IllegalArgumentException("'maxAttempts' argument must be at least 1");
+		}
+
+		this.segmentSize = segmentSize;
+		this.parallelism = parallelism;
+		this.maxAttempts = maxAttempts;
+	}
+
+
+
+
+
+
+	public HttpDownloader()
+	{
+		this(DEFAULT_SEGMENT_SIZE, DEFAULT_PARALLELISM, DEFAULT_MAX_ATTEMPTS);
+	}
+
+
+
+
+
+
+	public HttpDownloadResult download(	HttpClientService httpClientService,
+										URL url,
+										HttpCredential credential,
+										Path file) throws IOException, InterruptedException
+	{
+		return download(httpClientService, url, credential, null, file, null, null);
+	}
+
+
+
+
+
+
+	/**
+	 * Download a resource to a file. The file is created if it does not exist, and replaced
+	 * otherwise. The resource is first written to a temporary file in the same directory, which is
+	 * moved to the file only if the download is complete, so that a download which fails, or which
+	 * length or digest is wrong, leaves the previous file intact.
+	 * 
+	 * @param httpClientService
+	 *            the HTTP client service to send requests with.
+	 * @param url
+	 *            The URL of the resource to download. The URL protocol MUST be HTTP or HTTPS.
+	 * @param credential
+	 *            a credential to send with each request, or null.
+	 * @param headers
+	 *            headers to send with each request, or null.
+	 * @param file
+	 *            the file to write the resource to.
+	 * @param digestAlgorithm
+	 *            the name of the algorithm to compute the digest of the downloaded file with, such
+	 *            as "SHA-256", or null to compute no digest.
+	 * @param expectedDigest
+	 *            the expected digest of the resource, or null to only compute it.
+	 * @return the outcome of the download, the digest of the file and transfer statistics.
+	 * @throws IOException
+	 *             if the file cannot be written or read.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for transfers to complete.
+	 *             Transfers in progress are abandoned then.
+	 */
+	public HttpDownloadResult download(	HttpClientService httpClientService,
+										URL url,
+										HttpCredential credential,
+										Map<String, String> headers,
+										Path file,
+										String digestAlgorithm,
+										byte[] expectedDigest)	throws IOException,
+																InterruptedException
+	{
+		if (httpClientService == null)
+		{
+			throw new IllegalArgumentException("'httpClientService' argument cannot be null");
+		}
+
+		if (file == null)
+		{
+			throw new IllegalArgumentException("'file' argument cannot be null");
+		}
+
+		if (expectedDigest != null
+			&& digestAlgorithm == null)
+		{
+			throw new IllegalArgumentException(
+				"'digestAlgorithm' argument cannot be null if 'expectedDigest' argument is not");
+		}
+
+		MessageDigest digest = null;
+		if (digestAlgorithm != null)
+		{
+			try
+			{
+				digest = MessageDigest.getInstance(digestAlgorithm);
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IllegalArgumentException("The digest algorithm ("
+					+ digestAlgorithm + ") is not supported", e);
+			}
+		}
+
+		long startTime = System.nanoTime();
+		Download download = new Download(httpClientService, url, credential, headers);
+
+		HttpResponse head = httpClientService.head(url, credential, download.headers);
+		if (head.getStatus() == HttpStatus.OK)
+		{
+			download.length = head.getResourceLength();
+			download.validator = getValidator(head);
+			download.rangesSupported = download.length >= 0
+				&& download.validator != null && "bytes".equalsIgnoreCase(trim(head
+					.getHeader("Accept-Ranges")));
+		}
+		else if (head.getStatus() != HttpStatus.METHOD_NOT_ALLOWED)
+		{
+			logger.warn("download() Cannot get the headers of {}: {}", url, head.getStatus());
+			return download.result(Outcome.FAILED, head, 0, null, startTime);
+		}
+
+		List<Segment> segments = new ArrayList<Segment>();
+		if (download.rangesSupported)
+		{
+			for (long offset = 0; offset < download.length; offset += segmentSize)
+			{
+				segments.add(new Segment(offset, Math.min(segmentSize, download.length
+					- offset)));
+			}
+		}
+		else
+		{
+			segments.add(new Segment(0, download.length));
+		}
+
+		download.segmentCount = segments.size();
+
+		logger.debug("download() Downloading {}: {} bytes in {} segments", url, download.length,
+			segments.size());
+
+		// The resource is written to a temporary file next to the target, which replaces the target
+		// only once the resource has been entirely and correctly received.
+		Path path = file.toAbsolutePath();
+		Path temporaryFile = createTemporaryFile(path);
+
+		boolean moved = false;
+		try
+		{
+			HttpDownloadResult result = download(download, segments, temporaryFile, digest,
+				expectedDigest, startTime);
+
+			if (result.isComplete())
+			{
+				Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+				moved = true;
+			}
+
+			return result;
+		}
+		finally
+		{
+			if (!moved)
+			{
+				Files.deleteIfExists(temporaryFile);
+			}
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Create the temporary file of a download next to its target. Unlike Files.createTempFile(),
+	 * which makes the file readable by its owner only, the file gets the permissions of the
+	 * target if it exists, or else the default permissions of new files.
+	 */
+	private static Path createTemporaryFile(Path path) throws IOException
+	{
+		Path temporaryFile;
+		for (;;)
+		{
+			temporaryFile = path.resolveSibling(path.getFileName()
+				+ "." + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1) + ".part");
+
+			try
+			{
+				Files.createFile(temporaryFile);
+				break;
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				// Another download of the same file is in progress: another name is drawn.
+			}
+		}
+
+		try
+		{
+			if (Files.exists(path))
+			{
+				Files.setPosixFilePermissions(temporaryFile, Files.getPosixFilePermissions(path));
+			}
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// The file system does not support POSIX permissions.
+		}
+		catch (IOException e)
+		{
+			Files.deleteIfExists(temporaryFile);
+			throw e;
+		}
+
+		return temporaryFile;
+	}
+
+
+
+
+
+
+	/**
+	 * Transfer the segments of a download to a file, and check the length and digest of the file
+	 * once all of them are complete.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written or read.
+	 */
+	private HttpDownloadResult download(	Download download,
+											List<Segment> segments,
+											Path file,
+											MessageDigest digest,
+											byte[] expectedDigest,
+											long startTime) throws IOException, InterruptedException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+
+		long length;
+		try
+		{
+			if (!segments.isEmpty())
+			{
+				download.segments.addAll(segments);
+				transfer(download, channel, Math.min(parallelism, segments.size()));
+			}
+
+			if (download.failure.get() != null)
+			{
+				Failure failure = download.failure.get();
+				return download.result(failure.outcome, failure.response, channel.size(), null,
+					startTime);
+			}
+
+			length = channel.size();
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		long expectedLength = download.length;
+		if (expectedLength < 0
+			&& !segments.isEmpty())
+		{
+			expectedLength = segments.get(0).length;
+		}
+
+		if (expectedLength >= 0
+			&& length != expectedLength)
+		{
+			logger.warn("download() {}: {} bytes received, {} bytes expected", download.url, length,
+				expectedLength);
+			return download.result(Outcome.WRONG_LENGTH, null, length, null, startTime);
+		}
+
+		byte[] fileDigest = null;
+		if (digest != null)
+		{
+			fileDigest = computeDigest(file, digest);
+			if (expectedDigest != null
+				&& !MessageDigest.isEqual(fileDigest, expectedDigest))
+			{
+				logger.warn("download() {}: The digest of the file is not the expected one",
+					download.url);
+				return download.result(Outcome.DIGEST_MISMATCH, null, length, fileDigest,
+					startTime);
+			}
+		}
+
+		return download.result(Outcome.COMPLETE, null, length, fileDigest, startTime);
+	}
+
+
+
+
+
+
+	/**
+	 * Transfer the segments of a download, with the given number of threads, until all of them are
+	 * complete or the download fails.
+	 */
+	private void transfer(final Download download, final FileChannel channel, int threads)
+		throws IOException, InterruptedException
+	{
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>(threads);
+		for (int i = 0; i < threads; i++)
+		{
+			workers.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws IOException
+				{
+					try
+					{
+						Segment segment;
+						while (download.failure.get() == null
+							&& (segment = download.segments.poll()) != null)
+						{
+							transfer(download, channel, segment);
+						}
+					}
+					catch (IOException e)
+					{
+						// The other workers stop at their next read.
+						download.fail(Outcome.FAILED, null);
+						throw e;
+					}
+
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "HttpDownloader-"
+					+ threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try
+		{
+			List<Future<Void>> futures;
+			try
+			{
+				futures = executor.invokeAll(workers);
+			}
+			catch (InterruptedException e)
+			{
+				download.fail(Outcome.FAILED, null);
+				throw e;
+			}
+
+			for (Future<Void> future : futures)
+			{
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof IOException)
+					{
+						throw (IOException) e.getCause();
+					}
+
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Transfer a segment, from its last received byte. If the transfer fails, the segment is
+	 * queued again, unless it has been attempted too many times, in which case the download
+	 * fails.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	private void transfer(Download download, FileChannel channel, Segment segment)
+		throws IOException
+	{
+		long position = segment.offset
+			+ segment.received;
+
+		HttpStreamedResponse response;
+		if (segment.received == 0
+			&& !download.rangesSupported)
+		{
+			response = download.httpClientService.getStreamed(
+				download.url,
+				download.credential,
+				null,
+				download.headers);
+		}
+		else
+		{
+			long remaining = (segment.length < 0) ? -1 : segment.length
+				- segment.received;
+			response = download.httpClientService.getStreamedRange(
+				download.url,
+				download.credential,
+				null,
+				download.headers,
+				position,
+				remaining,
+				download.validator);
+		}
+
+		try
+		{
+			Outcome outcome = checkResponse(download, position, response);
+			if (outcome == null)
+			{
+				if (segment.length < 0)
+				{
+					segment.length = response.getContentLengthLong();
+				}
+
+				receive(download, channel, segment, response.getContentStream());
+				if (segment.isComplete())
+				{
+					return;
+				}
+			}
+			else if (outcome != Outcome.FAILED)
+			{
+				download.fail(outcome, response);
+				return;
+			}
+		}
+		finally
+		{
+			response.close();
+		}
+
+		if (download.failure.get() != null)
+		{
+			return;
+		}
+
+		segment.attempts++;
+		if (segment.attempts >= maxAttempts)
+		{
+			download.fail(Outcome.FAILED, response);
+			return;
+		}
+
+		// Without byte ranges, a transfer can only be attempted again from the first byte.
+		if (!download.rangesSupported)
+		{
+			segment.received = 0;
+		}
+
+		logger.debug("download() {}: Resuming transfer from byte {}", download.url, segment.offset
+			+ segment.received);
+
+		download.retries.incrementAndGet();
+		download.segments.add(segment);
+	}
+
+
+
+
+
+
+	/**
+	 * @return null if the response carries the expected part of the resource, Outcome.FAILED if
+	 *         the transfer must be attempted again, or the outcome of the download if it must be
+	 *         abandoned.
+	 */
+	private Outcome checkResponse(Download download, long position, HttpResponse response)
+	{
+		HttpStatus status = response.getStatus();
+		if (status == HttpStatus.OK
+			&& position == 0 && !download.rangesSupported)
+		{
+			return null;
+		}
+
+		if (status == HttpStatus.PARTIAL_CONTENT)
+		{
+			if (response.getContentOffset() != position
+				|| (download.length >= 0 && response.getResourceLength() != download.length))
+			{
+				return Outcome.RESOURCE_CHANGED;
+			}
+
+			return null;
+		}
+
+		// The server answers a range request with the complete resource if it changed.
+		if (status == HttpStatus.OK
+			|| status == HttpStatus.RANGE_NOT_SATISFIABLE)
+		{
+			return Outcome.RESOURCE_CHANGED;
+		}
+
+		logger.debug("download() {}: Cannot transfer from byte {}: {}", download.url, position,
+			status);
+
+		if (status == null
+			|| status == HttpStatus.SERVER_TIMEOUT || status.getCode() >= 500)
+		{
+			return Outcome.FAILED;
+		}
+
+		// Client errors, such as 404 (Not Found), will not be solved by retrying.
+		download.fail(Outcome.FAILED, response);
+		return Outcome.FAILED;
+	}
+
+
+
+
+
+
+	/**
+	 * Write the content of a response to the file, at the position of the segment, as it is
+	 * received. A failure to receive the content leaves the segment incomplete.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	private void receive(	Download download,
+							FileChannel channel,
+							Segment segment,
+							InputStream content) throws IOException
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		while (!segment.isComplete()
+			&& download.failure.get() == null)
+		{
+			int count;
+			try
+			{
+				int max = buffer.length;
+				if (segment.length >= 0)
+				{
+					max = (int) Math.min(max, segment.length
+						- segment.received);
+				}
+
+				count = content.read(buffer, 0, max);
+			}
+			catch (IOException e)
+			{
+				logger.debug("download() {}: Transfer interrupted at byte {}", download.url,
+					segment.offset + segment.received, e);
+				return;
+			}
+
+			if (count == -1)
+			{
+				if (segment.length < 0)
+				{
+					// The length of the resource was unknown: its end is signaled by the server.
+					segment.length = segment.received;
+				}
+
+				return;
+			}
+
+			ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+			long position = segment.offset
+				+ segment.received;
+			while (bytes.hasRemaining())
+			{
+				position += channel.write(bytes, position);
+			}
+
+			segment.received += count;
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Compute the digest of a file.
+	 */
+	private byte[] computeDigest(Path file, MessageDigest digest) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer) != -1)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		return digest.digest();
+	}
+
+
+
+
+
+
+	/**
+	 * @return the strong entity tag of the resource, or its last modification date, which are the
+	 *         validators an 'If-Range' header accepts; or null if the resource has none.
+	 */
+	private static String getValidator(HttpResponse response)
+	{
+		String entityTag = trim(response.getHeader("ETag"));
+		if (entityTag != null
+			&& !entityTag.startsWith("W/"))
+		{
+			return entityTag;
+		}
+
+		return trim(response.getHeader("Last-Modified"));
+	}
+
+
+
+
+
+
+	private static String trim(String value)
+	{
+		return (value == null) ? null : value.trim();
+	}
+
+
+
+
+
+
+	/**
+	 * The state of a download, shared by the threads that transfer its segments.
+	 */
+	private static final class Download
+	{
+		final HttpClientService httpClientService;
+		final URL url;
+		final HttpCredential credential;
+		final Map<String, String> headers;
+		final Queue<Segment> segments = new ConcurrentLinkedQueue<Segment>();
+		final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+		final AtomicInteger retries = new AtomicInteger();
+		long length = -1;
+		String validator = null;
+		boolean rangesSupported = false;
+		int segmentCount = 1;
+
+
+
+
+
+
+		Download(	HttpClientService httpClientService,
+					URL url,
+					HttpCredential credential,
+					Map<String, String> headers)
+		{
+			this.httpClientService = httpClientService;
+			this.url = url;
+			this.credential = credential;
+
+			// The content is written as sent: compressed contents could not be resumed.
+			this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			if (headers != null)
+			{
+				this.headers.putAll(headers);
+			}
+
+			if (!this.headers.containsKey("Accept-Encoding"))
+			{
+				this.headers.put("Accept-Encoding", "identity");
+			}
+		}
+
+
+
+
+
+
+		void fail(Outcome outcome, HttpResponse response)
+		{
+			failure.compareAndSet(null, new Failure(outcome, response));
+		}
+
+
+
+
+
+
+		HttpDownloadResult result(	Outcome outcome,
+									HttpResponse response,
+									long length,
+									byte[] digest,
+									long startTime)
+		{
+			long elapsedTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- startTime);
+
+			return new HttpDownloadResult(
+				outcome,
+				length,
+				digest,
+				segmentCount,
+				retries.get(),
+				response,
+				elapsedTime);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * A part of a resource, transferred by one thread at a time.
+	 */
+	private static final class Segment
+	{
+		final long offset;
+		long length;
+		long received = 0;
+		int attempts = 0;
+
+
+
+
+
+
+		/**
+		 * @param length
+		 *            the length of the segment, or -1 if the length of the resource is unknown.
+		 */
+		Segment(long offset, long length)
+		{
+			this.offset = offset;
+			this.length = length;
+		}
+
+
+
+
+
+
+		boolean isComplete()
+		{
+			return received == length;
+		}
+	}
+
+
+
+
+
+
+	private static final class Failure
+	{
+		final Outcome outcome;
+		final HttpResponse response;
+
+
+
+
+
+
+		Failure(Outcome outcome, HttpResponse response)
+		{
+			this.outcome = outcome;
+			this.response = response;
+		}
+	}
+}
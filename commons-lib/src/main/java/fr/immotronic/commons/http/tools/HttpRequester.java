@@ -45,15 +45,23 @@ package fr.immotronic.commons.http.tools;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.immotronic.commons.http.HttpClientService;
 import fr.immotronic.commons.http.HttpCredential;
+import fr.immotronic.commons.http.HttpPreparedRequest;
+import fr.immotronic.commons.http.HttpRequestPolicy;
 import fr.immotronic.commons.http.HttpResponse;
 import fr.immotronic.commons.http.HttpResponseHandler;
+import fr.immotronic.commons.http.HttpStreamedResponse;
 
 
 
@@ -63,7 +71,8 @@ import fr.immotronic.commons.http.HttpResponseHandler;
  * headers.
  * 
  * Then, an HTTP request is sent by calling the sendRequest() method with arguments expected in the
- * URL template.
+ * URL template. Requests are sent as prepared requests of the HTTP client service, so that their
+ * headers are computed once for all the requests sent with the same service and credential.
  * 
  * @author Lionel Balme <lbalme@immotronic.fr>
  *
@@ -73,7 +82,10 @@ public final class HttpRequester
 	public static enum Method
 	{
 		GET,
+		HEAD,
 		POST,
+		PUT,
+		PATCH,
 		DELETE;
 	};
 
@@ -105,12 +117,16 @@ public final class HttpRequester
 	}
 
 	private final Method method;
-	private final String urlTemplate;
-	private final String accept;
+	private final UrlTemplate urlTemplate;
+	private volatile URL constantURL = null;
+	private final String[] accept;
 	private final String contentType;
 	private final String charsetParameter;
 	private final Charset charset;
 
+	// The prepared request of the last requests sent without additional headers.
+	private volatile PreparedRequest preparedRequest = null;
+
 	final Logger logger = LoggerFactory.getLogger(HttpRequester.class);
 
 
@@ -122,18 +138,19 @@ public final class HttpRequester
 	 * Create an instance of a HttpRequester class.
 	 * 
 	 * @param method
-	 *            the HTTP method to use for the request. One of GET, POST or DELETE.
+	 *            the HTTP method to use for the request.
 	 * @param urlTemplate
 	 *            the URL schema of the resource. Arguments placeholders could be specified. ex:
 	 *            http://myhost.com/path/to/resource/$1/foo/$2/bar?a=$3
 	 * 
 	 *            $1, $2 and $3 will be replace by actual value when calling the sendRequest()
-	 *            method.
+	 *            method. Values are percent-encoded: they must not be encoded by the caller. Values
+	 *            of placeholders that appear before the URL path (host or port) are not encoded.
 	 * 
 	 * @param accept
 	 *            A comma-separated list of acceptable media-type of the response.
 	 * @param contentType
-	 *            In case of a POST request, the media-type of the content.
+	 *            In case of a POST, PUT or PATCH request, the media-type of the content.
 	 * @param charset
 	 *            A charset used to send content and expected in the response. By default, charset
 	 *            is set to UTF-8.
@@ -157,8 +174,8 @@ public final class HttpRequester
 		}
 
 		this.method = method;
-		this.urlTemplate = urlTemplate;
-		this.accept = accept;
+		this.urlTemplate = new UrlTemplate(urlTemplate);
+		this.accept = (accept == null) ? null : accept.split(",");
 
 		if (charset == null)
 		{
@@ -291,28 +308,10 @@ public final class HttpRequester
 
 		URL url = transformURL(arguments);
 
-		HttpResponse res = null;
-		switch (method)
-		{
-			case GET:
-				logger.debug("sendRequest() Performing a GET");
-				res = httpClientService.get(url, credential, this.accept, headers);
-				break;
-			case POST:
-				logger.debug("sendRequest() Performing a POST");
-				res = httpClientService.post(
-					url,
-					credential,
-					contentType,
-					content,
-					this.accept,
-					headers);
-				break;
-			case DELETE:
-				logger.debug("sendRequest() Performing a DELETE");
-				res = httpClientService.delete(url, credential, headers);
-				break;
-		}
+		logger.debug("sendRequest() Performing a {}", method);
+		HttpResponse res = prepare(httpClientService, credential, headers).send(
+			url,
+			hasContent() ? content : null);
 
 		logger.trace("Exiting sendRequest() method.");
 
@@ -324,6 +323,40 @@ public final class HttpRequester
 
 
 
+	/**
+	 * Send a GET request, without reading the response content in memory. The returned response
+	 * MUST be closed once its content has been processed.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the method of this requester is not GET.
+	 */
+	public HttpStreamedResponse sendStreamedRequest(HttpClientService httpClientService,
+													HttpCredential credential,
+													Map<String, String> headers,
+													String... arguments) throws MalformedURLException
+	{
+		if (httpClientService == null)
+		{
+			throw new IllegalArgumentException("'httpClientService' argument cannot be null");
+		}
+
+		if (method != Method.GET)
+		{
+			throw new IllegalStateException("Only GET responses can be streamed, method is "
+				+ method);
+		}
+
+		URL url = transformURL(arguments);
+
+		logger.debug("sendStreamedRequest() Performing a GET");
+		return prepare(httpClientService, credential, headers).sendStreamed(url);
+	}
+
+
+
+
+
+
 	public void sendAsyncRequest(	HttpClientService httpClientService,
 									HttpResponseHandler responseHandler,
 									String... arguments) throws MalformedURLException
@@ -407,26 +440,289 @@ public final class HttpRequester
 			throw new IllegalArgumentException("'responseHandler' argument cannot be null");
 		}
 
-		URL url = transformURL(arguments);
+		dispatchAsyncRequest(
+			httpClientService,
+			credential,
+			headers,
+			content,
+			responseHandler,
+			transformURL(arguments));
+	}
 
-		switch (method)
+
+
+
+
+
+	/**
+	 * Send a batch of requests, one per argument tuple. See sendBatch(HttpClientService,
+	 * HttpCredential, Map, int, List, List).
+	 */
+	public HttpBatchResult sendBatch(	HttpClientService httpClientService,
+										int parallelism,
+										List<String[]> argumentTuples)	throws MalformedURLException,
+																		InterruptedException
+	{
+		return sendBatch(httpClientService, null, null, parallelism, argumentTuples, null);
+	}
+
+
+
+
+
+
+	/**
+	 * Send a batch of requests, one per argument tuple. Requests are sent concurrently with the
+	 * asynchronous API of the HTTP client service, at most 'parallelism' of them at the same time,
+	 * and the calling thread waits until all responses have been received. The actual parallelism
+	 * is also bounded by the configuration of the HTTP client service asynchronous requests.
+	 * 
+	 * A request is given up if the HTTP client service rejects it, or if it is not completed in
+	 * the time its policy allows: its total timeout or, if there is none, the time all its
+	 * attempts may take. This happens, for instance, if the service has been stopped. Its response
+	 * is null then, and it counts as failed.
+	 * 
+	 * @param httpClientService
+	 *            the HTTP client service to send requests with.
+	 * @param credential
+	 *            a credential to send with each request, or null.
+	 * @param headers
+	 *            headers to send with each request, or null.
+	 * @param parallelism
+	 *            the maximum number of requests in flight at the same time.
+	 * @param argumentTuples
+	 *            the arguments expected in the URL template, one array per request.
+	 * @param contents
+	 *            In case of POST, PUT or PATCH requests, the contents to send, one per argument
+	 *            tuple, or null.
+	 * @return the responses, in the order of the argument tuples, and batch statistics.
+	 * @throws MalformedURLException
+	 *             if an argument tuple does not produce a valid URL. No request is sent then.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for responses. Requests
+	 *             already sent are not cancelled.
+	 */
+	public HttpBatchResult sendBatch(	HttpClientService httpClientService,
+										HttpCredential credential,
+										Map<String, String> headers,
+										int parallelism,
+										List<String[]> argumentTuples,
+										List<byte[]> contents)	throws MalformedURLException,
+																InterruptedException
+	{
+		if (httpClientService == null)
 		{
-			case GET:
-				httpClientService.get(url, credential, this.accept, headers, responseHandler);
+			throw new IllegalArgumentException("'httpClientService' argument cannot be null");
+		}
+
+		if (parallelism < 1)
+		{
+			throw new IllegalArgumentException("'parallelism' argument must be at least 1");
+		}
+
+		if (argumentTuples == null)
+		{
+			throw new IllegalArgumentException("'argumentTuples' argument cannot be null");
+		}
+
+		if (contents != null
+			&& contents.size() != argumentTuples.size())
+		{
+			throw new IllegalArgumentException(
+				"'contents' argument must have as many elements as 'argumentTuples' argument");
+		}
+
+		int size = argumentTuples.size();
+		URL[] urls = new URL[size];
+		long[] requestTimeouts = new long[size];
+		long maxRequestTimeout = 0;
+		for (int i = 0; i < size; i++)
+		{
+			urls[i] = transformURL(argumentTuples.get(i));
+			requestTimeouts[i] = getRequestTimeout(httpClientService.getHostPolicy(urls[i]
+				.getHost()));
+			maxRequestTimeout = Math.max(maxRequestTimeout, requestTimeouts[i]);
+		}
+
+		final HttpResponse[] responses = new HttpResponse[size];
+		final long[] latencies = new long[size];
+		final Semaphore permits = new Semaphore(parallelism);
+		final CountDownLatch completion = new CountDownLatch(size);
+
+		logger.debug("sendBatch() Performing {} {} requests, {} at most in parallel", size,
+			method, parallelism);
+
+		long startTime = System.nanoTime();
+		long deadline = startTime;
+
+		for (int i = 0; i < size; i++)
+		{
+			// Permits are not released by requests that have been lost: later ones are given up.
+			// Any request in flight may release the next permit, whatever its host.
+			if (!permits.tryAcquire(maxRequestTimeout, TimeUnit.MILLISECONDS))
+			{
+				logger.warn("sendBatch() {} requests given up, as requests in flight have not "
+					+ "completed in time", size - i);
 				break;
-			case POST:
-				httpClientService.post(
-					url,
+			}
+
+			final int index = i;
+			final long dispatchTime = System.nanoTime();
+			deadline = Math.max(deadline, dispatchTime
+				+ TimeUnit.MILLISECONDS.toNanos(requestTimeouts[i]));
+
+			try
+			{
+				dispatchAsyncRequest(
+					httpClientService,
 					credential,
-					contentType,
-					content,
-					this.accept,
 					headers,
-					responseHandler);
-				break;
+					(contents == null) ? null : contents.get(i),
+					new HttpResponseHandler() {
+
+						@Override
+						public void processResponse(HttpResponse response)
+						{
+							long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+								- dispatchTime);
+
+							synchronized (responses)
+							{
+								latencies[index] = latency;
+								responses[index] = response;
+							}
+
+							permits.release();
+							completion.countDown();
+						}
+					},
+					urls[i]);
+			}
+			catch (RejectedExecutionException e)
+			{
+				logger.warn("sendBatch() {} {}: Request rejected: {}", method, urls[i], e
+					.getMessage());
+
+				permits.release();
+				completion.countDown();
+			}
+		}
+
+		long left = deadline
+			- System.nanoTime();
+
+		if (!completion.await(left, TimeUnit.NANOSECONDS))
+		{
+			logger.warn("sendBatch() {} requests not completed in time", completion.getCount());
+		}
+
+		long elapsedTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+			- startTime);
+
+		// Requests given up may still complete: the result must not change then.
+		synchronized (responses)
+		{
+			return new HttpBatchResult(responses.clone(), latencies.clone(), elapsedTime);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return the time, in milliseconds, after which a request sent under the given policy is
+	 *         considered lost: its total timeout or, if there is none, the time its attempts and
+	 *         the delays between them may take.
+	 */
+	private static long getRequestTimeout(HttpRequestPolicy policy)
+	{
+		if (policy.getTotalTimeout() > 0)
+		{
+			return policy.getTotalTimeout();
+		}
+
+		return (policy.getMaxRetries() + 1L)
+			* (policy.getConnectTimeout() + policy.getReadTimeout()) + policy.getMaxRetries()
+			* policy.getMaxBackoff();
+	}
+
+
+
+
+
+
+	private void dispatchAsyncRequest(	HttpClientService httpClientService,
+										HttpCredential credential,
+										Map<String, String> headers,
+										byte[] content,
+										HttpResponseHandler responseHandler,
+										URL url)
+	{
+		prepare(httpClientService, credential, headers).send(
+			url,
+			hasContent() ? content : null,
+			responseHandler);
+	}
+
+
+
+
+
+
+	/**
+	 * Get a prepared request for the given service, credential and headers. Requests sent without
+	 * additional headers, which is the common case, reuse the prepared request of the previous
+	 * ones if they are sent with the same service and credential.
+	 */
+	private HttpPreparedRequest prepare(HttpClientService httpClientService,
+										HttpCredential credential,
+										Map<String, String> headers)
+	{
+		if (headers != null)
+		{
+			return createPreparedRequest(httpClientService, credential, headers);
+		}
+
+		PreparedRequest prepared = preparedRequest;
+		if (prepared == null
+			|| prepared.httpClientService != httpClientService
+			|| prepared.credential != credential)
+		{
+			prepared = new PreparedRequest(
+				httpClientService,
+				credential,
+				createPreparedRequest(httpClientService, credential, null));
+			preparedRequest = prepared;
+		}
+
+		return prepared.request;
+	}
+
+
+
+
+
+
+	private HttpPreparedRequest createPreparedRequest(	HttpClientService httpClientService,
+														HttpCredential credential,
+														Map<String, String> headers)
+	{
+		switch (method)
+		{
+			case HEAD:
+				return httpClientService.prepareHead(credential, headers);
+			case POST:
+				return httpClientService.preparePost(credential, contentType, accept, headers);
+			case PUT:
+				return httpClientService.preparePut(credential, contentType, accept, headers);
+			case PATCH:
+				return httpClientService.preparePatch(credential, contentType, accept, headers);
 			case DELETE:
-				httpClientService.delete(url, credential, headers, responseHandler);
-				break;
+				return httpClientService.prepareDelete(credential, headers);
+			default:
+				return httpClientService.prepareGet(credential, accept, headers);
 		}
 	}
 
@@ -435,6 +731,20 @@ public final class HttpRequester
 
 
 
+	/**
+	 * @return true if requests with the method of this requester have a content.
+	 */
+	private boolean hasContent()
+	{
+		return method == Method.POST
+			|| method == Method.PUT || method == Method.PATCH;
+	}
+
+
+
+
+
+
 	public Charset getCharset()
 	{
 		return charset;
@@ -445,19 +755,64 @@ public final class HttpRequester
 
 
 
+	public Method getMethod()
+	{
+		return method;
+	}
+
+
+
+
+
+
 	private URL transformURL(String... arguments) throws MalformedURLException
 	{
-		String urlText = urlTemplate;
-		int i = 1;
-		for (String argument : arguments)
+		if (urlTemplate.isConstant())
 		{
-			urlText = urlText.replace("$"
-				+ i, argument);
-
-			i++;
+			// URL objects are immutable: a template without placeholders is built once.
+			URL url = constantURL;
+			if (url == null)
+			{
+				url = new URL(urlTemplate.expand());
+				constantURL = url;
+			}
+
+			logger.debug("Requesting {}", url);
+			return url;
 		}
 
+		String urlText = urlTemplate.expand(arguments);
+
 		logger.debug("Requesting {}", urlText);
 		return new URL(urlText);
 	}
+
+
+
+
+
+
+	/**
+	 * A prepared request, with the service and the credential it has been prepared for.
+	 */
+	private static final class PreparedRequest
+	{
+		final HttpClientService httpClientService;
+		final HttpCredential credential;
+		final HttpPreparedRequest request;
+
+
+
+
+
+
+		PreparedRequest(HttpClientService httpClientService,
+						HttpCredential credential,
+						HttpPreparedRequest request)
+		{
+			this.httpClientService = httpClientService;
+			this.credential = credential;
+			this.request = request;
+		}
+	}
 }
@@ -51,6 +51,8 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fr.immotronic.commons.http.HttpCircuitListener;
+import fr.immotronic.commons.http.HttpCircuitState;
 import fr.immotronic.commons.http.HttpClientService;
 import fr.immotronic.commons.http.HttpCredential;
 import fr.immotronic.commons.http.HttpResponse;
@@ -83,9 +85,11 @@ public abstract class HttpServiceConnector
 		CHARSET_NOT_SUPPORTED,
 		INVALID_RESPONSE,
 		NO_HTTP_CLIENT,
+		REQUEST_THROTTLED,
 		RESOURCE_NOT_FOUND,
 		SERVICE_INTERNAL_ERROR,
 		SERVICE_REJECT_REQUEST,
+		SERVICE_UNAVAILABLE,
 		SERVICE_UNREACHABLE,
 		UNAUTHORIZED,
 		UNEXPECTED_RESPONSE_FORMAT
@@ -95,6 +99,16 @@ public abstract class HttpServiceConnector
 	private String errorContext = null;
 	private HttpClientService httpClient = null;
 	private String serviceEntryPointURL;
+	private final HttpCircuitListener circuitListener = new HttpCircuitListener() {
+
+		@Override
+		public void circuitStateChanged(String host,
+										HttpCircuitState previousState,
+										HttpCircuitState newState)
+		{
+			onCircuitStateChanged(host, previousState, newState);
+		}
+	};
 
 	final Logger logger = LoggerFactory.getLogger(HttpServiceConnector.class);
 
@@ -149,13 +163,69 @@ public abstract class HttpServiceConnector
 
 
 	/**
-	 * Set the HttpClientService instance to use to perform request to the distant service.
+	 * Set the HttpClientService instance to use to perform request to the distant service. The
+	 * connector listens to the circuit breakers of the given service.
 	 * 
 	 * @param httpClient
 	 */
 	public synchronized void setHttpClientService(HttpClientService httpClient)
 	{
+		if (this.httpClient != null)
+		{
+			this.httpClient.removeCircuitListener(circuitListener);
+		}
+
 		this.httpClient = httpClient;
+
+		if (httpClient != null)
+		{
+			httpClient.addCircuitListener(circuitListener);
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * Called when the circuit breaker of a host changes state, whether or not the host is the one
+	 * of the distant service. While the circuit of a host is open, requests to it fail
+	 * immediately with the SERVICE_UNAVAILABLE error. Implementations MAY override this method to
+	 * degrade gracefully, e.g. by serving data from a local copy. It MUST return quickly.
+	 * 
+	 * The default implementation does nothing.
+	 * 
+	 * @param host
+	 *            the host name, in lower case.
+	 * @param previousState
+	 *            the state the circuit was in.
+	 * @param newState
+	 *            the state the circuit is now in.
+	 */
+	protected void onCircuitStateChanged(	String host,
+											HttpCircuitState previousState,
+											HttpCircuitState newState)
+	{}
+
+
+
+
+
+
+	/**
+	 * Check whether requests to the given host are currently sent, or fail immediately because
+	 * the host is considered down.
+	 * 
+	 * @param host
+	 *            the host name of the distant service.
+	 * @return true if an HttpClientService is set and the circuit of the host is not open.
+	 */
+	protected boolean isHostAvailable(String host)
+	{
+		HttpClientService httpClient = this.httpClient;
+		return httpClient != null
+			&& httpClient.getCircuitState(host) != HttpCircuitState.OPEN;
 	}
 
 
@@ -176,7 +246,8 @@ public abstract class HttpServiceConnector
 	 * @return the URL as a String.
 	 *
 	 * @throws IllegalArgumentException
-	 *             if serviceEntryPointURL argument is null or does not refer to HTTP protocol.
+	 *             if serviceEntryPointURL argument is null or does not refer to HTTP or HTTPS
+	 *             protocol.
 	 */
 	protected String validateServiceEntryPointURL(URL serviceEntryPointURL)
 	{
@@ -185,10 +256,12 @@ public abstract class HttpServiceConnector
 			throw new IllegalArgumentException("serviceEntryPointURL argument cannot be null.");
 		}
 
-		if (!serviceEntryPointURL.getProtocol().equalsIgnoreCase("http"))
+		String protocol = serviceEntryPointURL.getProtocol();
+		if (!protocol.equalsIgnoreCase("http")
+			&& !protocol.equalsIgnoreCase("https"))
 		{
 			throw new IllegalArgumentException("serviceEntryPointURL argument contains an URL that"
-				+ " does not refer to the HTTP protocol");
+				+ " does not refer to the HTTP or HTTPS protocol");
 		}
 
 		String url = serviceEntryPointURL.toString();
@@ -294,6 +367,9 @@ public abstract class HttpServiceConnector
 				{
 					body = content.getBytes(requester.getCharset().toString());
 				}
+
+				// GET responses are buffered, so that they can be served from the response cache
+				// and shared by coalesced requests. JSON is parsed from their bytes all the same.
 				response = requester.sendRequest(httpClient, credential, headers, body, arguments);
 
 				if (response.getStatus() == HttpStatus.OK)
@@ -319,6 +395,14 @@ public abstract class HttpServiceConnector
 				{
 					error = Error.SERVICE_INTERNAL_ERROR;
 				}
+				else if (response.getStatus() == HttpStatus.CIRCUIT_OPEN)
+				{
+					error = Error.SERVICE_UNAVAILABLE;
+				}
+				else if (response.getStatus() == HttpStatus.REQUEST_THROTTLED)
+				{
+					error = Error.REQUEST_THROTTLED;
+				}
 				else
 				{
 					error = Error.SERVICE_REJECT_REQUEST;
@@ -342,7 +426,8 @@ public abstract class HttpServiceConnector
 
 		if (error != null)
 		{
-			if (response != null)
+			if (response != null
+				&& response.getRequestedURL() != null)
 			{
 				errorContext = response.getRequestMethod()
 					+ " " + response.getRequestedURL().toString() + ": " + response.getStatus()
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) Immotronic, 2014
+ *
+ * Contributors:
+ *
+ *  	Lionel Balme (lbalme@immotronic.fr)
+ *
+ * This file is part of snp-modbus, a component of the UBIKIT project.
+ *
+ * This software is a computer program whose purpose is to host third-
+ * parties applications that make use of sensor and actuator networks.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use,
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * As a counterpart to the access to the source code and  rights to copy,
+ * "http://www.cecill.info".
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability.
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or
+ * data to be ensured and,  more generally, to use and operate it in the
+ * same conditions as regards security.
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *
+ * CeCILL-C licence is fully compliant with the GNU Lesser GPL v2 and v3.
+ *
+ */
+
+package fr.immotronic.commons.http.tools;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * A URL template, parsed once into literal segments and argument placeholders ($1, $2, ...,
+ * $10, ...), and expanded with a single pre-sized buffer.
+ * 
+ * Arguments are percent-encoded according to their position: in the path, every character but
+ * unreserved ones, sub-delimiters, ':' and '@' is encoded, so that an argument is a single path
+ * segment; in the query or the fragment, '&', '=', '+' and '#' are encoded as well, so that an
+ * argument is a single parameter name or value. Arguments that appear before the path, such as a
+ * base URL, a host name or a port, are inserted as is.
+ * 
+ * @author Lionel Balme <lbalme@immotronic.fr>
+ *
+ */
+final class UrlTemplate
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private static final int VERBATIM = 0;
+	private static final int PATH = 1;
+	private static final int QUERY = 2;
+
+	private static final boolean[] pathCharacters = new boolean[128];
+	private static final boolean[] queryCharacters = new boolean[128];
+
+	static
+	{
+		String unreserved = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-._~";
+		for (char c : (unreserved + "!$&'()*+,;=:@").toCharArray())
+		{
+			pathCharacters[c] = true;
+		}
+
+		for (char c : (unreserved + "!$'()*,;:@/?").toCharArray())
+		{
+			queryCharacters[c] = true;
+		}
+	}
+
+	private final String template;
+	private final String[] literals;
+	private final int[] argumentIndexes;
+	private final int[] encodings;
+	private final int literalsLength;
+
+
+
+
+
+
+	/**
+	 * Parse a URL template.
+	 * 
+	 * @param template
+	 *            a URL, with argument placeholders. A '$' that is not followed by a positive number
+	 *            is a literal '$'.
+	 */
+	UrlTemplate(String template)
+	{
+		List<String> _literals = new ArrayList<String>();
+		List<int[]> placeholders = new ArrayList<int[]>();
+
+		int encoding = VERBATIM;
+		// Templates starting with a placeholder, instead of a scheme and an authority, get their
+		// authority from an argument: their path starts at their first '/'.
+		int authorityStart = template.indexOf("://");
+		int pathStart = (authorityStart == -1) ? template.indexOf('/') : template.indexOf(
+			'/',
+			authorityStart + 3);
+
+		StringBuilder literal = new StringBuilder();
+		int length = template.length();
+		int i = 0;
+		while (i < length)
+		{
+			char c = template.charAt(i);
+
+			int digitsEnd = i + 1;
+			if (c == '$')
+			{
+				while (digitsEnd < length
+					&& Character.isDigit(template.charAt(digitsEnd)))
+				{
+					digitsEnd++;
+				}
+			}
+
+			int argumentIndex = (digitsEnd > i + 1) ? parseIndex(template, i + 1, digitsEnd) : 0;
+			if (argumentIndex > 0)
+			{
+				_literals.add(literal.toString());
+				literal.setLength(0);
+				placeholders.add(new int[] { argumentIndex - 1, encoding });
+				i = digitsEnd;
+				continue;
+			}
+
+			if (c == '?'
+				|| c == '#')
+			{
+				encoding = QUERY;
+			}
+			else if (i == pathStart
+				&& encoding == VERBATIM)
+			{
+				encoding = PATH;
+			}
+
+			literal.append(c);
+			i++;
+		}
+
+		_literals.add(literal.toString());
+
+		this.template = template;
+		this.literals = _literals.toArray(new String[_literals.size()]);
+		this.argumentIndexes = new int[placeholders.size()];
+		this.encodings = new int[placeholders.size()];
+
+		int _literalsLength = 0;
+		for (String l : literals)
+		{
+			_literalsLength += l.length();
+		}
+
+		this.literalsLength = _literalsLength;
+
+		for (int p = 0; p < argumentIndexes.length; p++)
+		{
+			argumentIndexes[p] = placeholders.get(p)[0];
+			encodings[p] = placeholders.get(p)[1];
+		}
+	}
+
+
+
+
+
+
+	/**
+	 * @return true if the template has no placeholder: it always expands to the same URL.
+	 */
+	boolean isConstant()
+	{
+		return argumentIndexes.length == 0;
+	}
+
+
+
+
+
+
+	/**
+	 * Expand the template.
+	 * 
+	 * @param arguments
+	 *            the arguments to substitute to placeholders: the first one to $1, and so on.
+	 *            Placeholders with no corresponding argument are kept as is, and extra arguments
+	 *            are ignored.
+	 * @return the expanded URL.
+	 */
+	String expand(String... arguments)
+	{
+		int argumentCount = (arguments == null) ? 0 : arguments.length;
+
+		int length = literalsLength;
+		for (int p = 0; p < argumentIndexes.length; p++)
+		{
+			int argumentIndex = argumentIndexes[p];
+			if (argumentIndex < argumentCount)
+			{
+				if (arguments[argumentIndex] == null)
+				{
+					throw new IllegalArgumentException("Argument $"
+						+ (argumentIndex + 1) + " cannot be null");
+				}
+
+				length += arguments[argumentIndex].length();
+			}
+			else
+			{
+				length += 11;
+			}
+		}
+
+		// Room for a few encoded characters.
+		StringBuilder url = new StringBuilder(length + 16);
+
+		url.append(literals[0]);
+		for (int p = 0; p < argumentIndexes.length; p++)
+		{
+			int argumentIndex = argumentIndexes[p];
+			if (argumentIndex < argumentCount)
+			{
+				appendArgument(url, arguments[argumentIndex], encodings[p]);
+			}
+			else
+			{
+				url.append('$').append(argumentIndex + 1);
+			}
+
+			url.append(literals[p + 1]);
+		}
+
+		return url.toString();
+	}
+
+
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return template;
+	}
+
+
+
+
+
+
+	private static void appendArgument(StringBuilder url, String argument, int encoding)
+	{
+		if (encoding == VERBATIM)
+		{
+			url.append(argument);
+			return;
+		}
+
+		boolean[] allowedCharacters = (encoding == PATH) ? pathCharacters : queryCharacters;
+
+		int length = argument.length();
+		for (int i = 0; i < length; i++)
+		{
+			char c = argument.charAt(i);
+			if (c < 128
+				&& allowedCharacters[c])
+			{
+				url.append(c);
+				continue;
+			}
+
+			// Encode the run of characters to encode at once, so that surrogate pairs are kept
+			// together.
+			int end = i + 1;
+			while (end < length
+				&& (argument.charAt(end) >= 128 || !allowedCharacters[argument.charAt(end)]))
+			{
+				end++;
+			}
+
+			for (byte b : argument.substring(i, end).getBytes(UTF_8))
+			{
+				url.append('%').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+			}
+
+			i = end - 1;
+		}
+	}
+
+
+
+
+
+
+	private static int parseIndex(String template, int start, int end)
+	{
+		try
+		{
+			return Integer.parseInt(template.substring(start, end));
+		}
+		catch (NumberFormatException e)
+		{
+			// Too many digits.
+			return 0;
+		}
+	}
+}